@@ -0,0 +1,251 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.bencoding;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes bencoded data from a ByteBuffer (or a memory-mapped file) to lazy <code>BEValue</code>s.
+ * <p>
+ * Only the structure of the data is checked when it is decoded, without any allocation: the byte
+ * strings are skipped thanks to their length. The content of a list or a dictionary is decoded
+ * when it is accessed, one level at a time, and the byte strings are slices of the buffer (not copied).
+ * Each value keeps its bencoded span, which gives the info-hash of a metainfo without encoding it again.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class BBufferDecoder {
+	
+	private static final int LONG_DIGITS = 18;		// Digits that always fit into a long
+	static final Charset UTF8 = Charset.forName("UTF-8");	// Encoding of the byte strings read as Strings
+	
+	/**
+	 * Decodes the value at the position of the buffer. The position is moved after the value.
+	 * The buffer mustn't be modified while the value is used.
+	 * @param buffer buffer that contains the bencoded value
+	 * @return the value, decoded when it is accessed
+	 * @throws InvalidBEncodingException if the buffer doesn't contain a complete bencoded value
+	 */
+	public static BEValue bdecode(ByteBuffer buffer) throws InvalidBEncodingException {
+		int start = buffer.position();
+		int end = skip(buffer, start, buffer.limit());
+		
+		buffer.position(end);
+		return new BEValue(slice(buffer, start, end));
+	}
+	
+	/**
+	 * Maps a file in memory and decodes the value at its beginning.
+	 * @param file bencoded file
+	 * @return the value, decoded when it is accessed
+	 * @throws IOException if the file can't be read, or doesn't contain a bencoded value
+	 */
+	public static BEValue bdecode(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			return bdecode(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())); // The mapping outlives the channel
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Decodes the first level of a bencoded value: a byte string is sliced, a number parsed, and the elements
+	 * of a list or a dictionary delimited (but not decoded).
+	 * @param span bencoded span of the value, from 0 to its limit
+	 * @return a ByteBuffer, a Number, a List of BEValues or a Map of BEValues
+	 * @throws InvalidBEncodingException if a dictionary key isn't a byte string
+	 */
+	static Object decode(ByteBuffer span) throws InvalidBEncodingException {
+		int end = span.limit();
+		int c = span.get(0);
+		
+		if (c >= '0' && c <= '9') {
+			return slice(span, stringStart(span, 0), end);
+			
+		} else if (c == 'i') {
+			return parseNumber(span, 0, end);
+			
+		} else if (c == 'l') {
+			List<BEValue> list = new ArrayList<BEValue>();
+			int pos = 1;
+			while (span.get(pos) != 'e') {
+				int next = skip(span, pos, end);
+				list.add(new BEValue(slice(span, pos, next)));
+				pos = next;
+			}
+			return list;
+			
+		} else if (c == 'd') {
+			Map<String, BEValue> map = new HashMap<String, BEValue>();
+			int pos = 1;
+			while (span.get(pos) != 'e') {
+				// Dictionary keys are always strings.
+				c = span.get(pos);
+				if (c < '0' || c > '9') throw new InvalidBEncodingException("Dictionary key expected, not '" + (char) c + "'");
+				
+				int next = skip(span, pos, end);
+				String key = UTF8.decode(slice(span, stringStart(span, pos), next)).toString();
+				
+				pos = next;
+				next = skip(span, pos, end);
+				map.put(key, new BEValue(slice(span, pos, next)));
+				pos = next;
+			}
+			return map;
+		}
+		
+		throw new InvalidBEncodingException("Unknown indicator '" + (char) c + "'");
+	}
+	
+	/**
+	 * Returns the index after the value that starts at the given index, and checks its structure.
+	 * The nested lists and dictionaries are followed with a counter, so that a deep nesting can't overflow the stack.
+	 * @param b buffer that contains the value
+	 * @param pos index of the first byte of the value
+	 * @param limit index after the last byte that can be read
+	 * @return the index after the value
+	 * @throws InvalidBEncodingException if the value isn't valid, or not complete
+	 */
+	private static int skip(ByteBuffer b, int pos, int limit) throws InvalidBEncodingException {
+		int depth = 0;
+		do {
+			if (pos >= limit) throw new InvalidBEncodingException("Unexpected end of data");
+			
+			int c = b.get(pos);
+			if (c >= '0' && c <= '9') {
+				pos = stringEnd(b, pos, limit);
+			} else if (c == 'i') {
+				pos = numberEnd(b, pos, limit);
+			} else if (c == 'l' || c == 'd') {
+				depth++;
+				pos++;
+			} else if (c == 'e' && depth > 0) {
+				depth--;
+				pos++;
+			} else {
+				throw new InvalidBEncodingException("Unknown indicator '" + (char) c + "'");
+			}
+		} while (depth > 0);
+		
+		return pos;
+	}
+	
+	/**
+	 * Returns the index after the byte string that starts at the given index.
+	 */
+	private static int stringEnd(ByteBuffer b, int pos, int limit) throws InvalidBEncodingException {
+		long length = 0;
+		int c;
+		while (pos < limit && (c = b.get(pos)) >= '0' && c <= '9') {
+			length = length * 10 + (c - '0');
+			if (length > limit) throw new InvalidBEncodingException("Byte string longer than the data");
+			pos++;
+		}
+		
+		if (pos >= limit || b.get(pos) != ':') throw new InvalidBEncodingException("Colon expected");
+		
+		long end = pos + 1 + length;
+		if (end > limit) throw new InvalidBEncodingException("Unexpected end of data");
+		return (int) end;
+	}
+	
+	/**
+	 * Returns the index of the first byte of the byte string that starts at the given index.
+	 */
+	private static int stringStart(ByteBuffer b, int pos) {
+		while (b.get(pos) != ':') pos++;
+		return pos + 1;
+	}
+	
+	/**
+	 * Returns the index after the number that starts at the given index, and checks its format:
+	 * no leading zero, no negative zero.
+	 */
+	private static int numberEnd(ByteBuffer b, int pos, int limit) throws InvalidBEncodingException {
+		pos++; // 'i'
+		if (pos < limit && b.get(pos) == '-') pos++;
+		
+		int start = pos;
+		while (pos < limit && b.get(pos) >= '0' && b.get(pos) <= '9') pos++;
+		
+		if (pos >= limit || b.get(pos) != 'e') throw new InvalidBEncodingException("Integer should end with 'e'");
+		if (pos == start) throw new InvalidBEncodingException("Integer without digit");
+		if (b.get(start) == '0' && (pos - start > 1 || b.get(start - 1) == '-')) {
+			throw new InvalidBEncodingException("Invalid Integer start '0'");
+		}
+		
+		return pos + 1;
+	}
+	
+	/**
+	 * Parses a number whose format has been checked: a Long if it has up to LONG_DIGITS digits,
+	 * a BigInteger otherwise.
+	 */
+	private static Number parseNumber(ByteBuffer b, int pos, int limit) {
+		pos++; // 'i'
+		boolean negative = b.get(pos) == '-';
+		if (negative) pos++;
+		
+		int end = limit - 1; // 'e'
+		if (end - pos <= LONG_DIGITS) {
+			long n = 0;
+			for (int i=pos; i<end; i++) {
+				n = n * 10 + (b.get(i) - '0');
+			}
+			return Long.valueOf(negative ? -n : n);
+		}
+		
+		StringBuilder digits = new StringBuilder(end - pos + 1);
+		if (negative) digits.append('-');
+		for (int i=pos; i<end; i++) {
+			digits.append((char) b.get(i));
+		}
+		return new BigInteger(digits.toString());
+	}
+	
+	/**
+	 * Returns a read-only view of a part of a buffer, indexed from 0.
+	 * @param b the buffer
+	 * @param start index of the first byte
+	 * @param end index after the last byte
+	 * @return the view, which shares the content of the buffer
+	 */
+	private static ByteBuffer slice(ByteBuffer b, int start, int end) {
+		ByteBuffer view = b.duplicate();
+		view.limit(end);
+		view.position(start);
+		return view.slice().asReadOnlyBuffer();
+	}
+}
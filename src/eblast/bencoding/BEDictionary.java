@@ -19,6 +19,7 @@
 
 package eblast.bencoding;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 import eblast.bencoding.BEValue;
 import eblast.bencoding.InvalidBEncodingException;
@@ -31,6 +32,7 @@ import eblast.bencoding.InvalidBEncodingException;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 27.02.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Byte strings and encoded spans as ByteBuffers (without copy)
  */
 public class BEDictionary {
 	private Map<String, BEValue> mDictionary;
@@ -94,6 +96,25 @@ public class BEDictionary {
 		return mDictionary.get(key).getBytes();
 	}
 	
+	/**
+	 * Get the value of the key mapped as a read-only ByteBuffer, without copying it if possible.
+	 * @param key Key in String.
+	 * @return The value of the mapped key.
+	 * @throws InvalidBEncodingException This bevalue isn't an Array of Bytes.
+	 */
+	public ByteBuffer getBuffer(String key) throws InvalidBEncodingException {
+		return mDictionary.get(key).getBuffer();
+	}
+	
+	/**
+	 * Get the bencoded bytes of the value of the key mapped, as they have been decoded.
+	 * @param key Key in String.
+	 * @return The encoded value, or null if it hasn't been decoded by the BBufferDecoder.
+	 */
+	public ByteBuffer getEncoded(String key) {
+		return mDictionary.get(key).getEncoded();
+	}
+	
 	/**
 	 * Get the value of the key mapped, and convert it into a List.
 	 * @param key Key in String.
@@ -37,6 +37,7 @@
 package eblast.bencoding;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -46,26 +47,58 @@ import java.util.Map;
  * BEValue wasn't actually of the requested type you will get a
  * InvalidBEncodingException.
  * 
+ * A BEValue created by the <code>BBufferDecoder</code> is a view over its
+ * bencoded span: it is decoded when it is accessed, and its byte string is a
+ * slice of the decoded buffer until getBytes() copies it.
+ * 
  * @author Mark Wielaard (mark@klomp.org)
  */
 public class BEValue {
-	// This is either a byte[], Number, List or Map.
-	private final Object value;
+	// This is either a byte[], ByteBuffer, Number, List or Map.
+	// Null until the encoded span is decoded.
+	private volatile Object value;
+
+	// The bencoded span of this value, null if it isn't a view.
+	private final ByteBuffer encoded;
 
 	public BEValue(byte[] value) {
 		this.value = value;
+		this.encoded = null;
 	}
 
 	public BEValue(Number value) {
 		this.value = value;
+		this.encoded = null;
 	}
 
 	public BEValue(List<BEValue> value) {
 		this.value = value;
+		this.encoded = null;
 	}
 
 	public BEValue(Map<String, BEValue> value) {
 		this.value = value;
+		this.encoded = null;
+	}
+
+	/**
+	 * Creates a view over a bencoded span, decoded when it is accessed.
+	 */
+	BEValue(ByteBuffer encoded) {
+		this.value = null;
+		this.encoded = encoded;
+	}
+
+	/**
+	 * Returns the value, decoded from the encoded span the first time.
+	 */
+	private Object getValue() throws InvalidBEncodingException {
+		Object v = value;
+		if (v == null) {
+			v = BBufferDecoder.decode(encoded);
+			value = v;
+		}
+		return v;
 	}
 
 	/**
@@ -75,6 +108,9 @@ public class BEValue {
 	 */
 	public String getString() throws InvalidBEncodingException {
 		try {
+			Object v = getValue();
+			if (v instanceof ByteBuffer)
+				return BBufferDecoder.UTF8.decode(((ByteBuffer) v).duplicate()).toString();
 			return new String(getBytes(), "UTF-8");
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
@@ -89,13 +125,44 @@ public class BEValue {
 	 * InvalidBEncodingException.
 	 */
 	public byte[] getBytes() throws InvalidBEncodingException {
+		Object v = getValue();
+		if (v instanceof ByteBuffer) {
+			// Copied once, the slice isn't needed anymore.
+			ByteBuffer slice = ((ByteBuffer) v).duplicate();
+			byte[] bytes = new byte[slice.remaining()];
+			slice.get(bytes);
+			value = bytes;
+			return bytes;
+		}
 		try {
-			return (byte[]) value;
+			return (byte[]) v;
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
 		}
 	}
 
+	/**
+	 * Returns this BEValue as a read-only ByteBuffer, without copying the
+	 * bytes when it is a view. This operation only succeeds when the BEValue is
+	 * actually a byte string, otherwise it will throw a
+	 * InvalidBEncodingException.
+	 */
+	public ByteBuffer getBuffer() throws InvalidBEncodingException {
+		Object v = getValue();
+		if (v instanceof ByteBuffer)
+			return ((ByteBuffer) v).duplicate();
+		return ByteBuffer.wrap(getBytes()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the bencoded bytes of this BEValue, as they were decoded, or
+	 * null if it isn't a view created by the <code>BBufferDecoder</code>.
+	 * The SHA-1 of the "info" dictionary of a metainfo is its info-hash.
+	 */
+	public ByteBuffer getEncoded() {
+		return (encoded == null) ? null : encoded.duplicate();
+	}
+
 	/**
 	 * Returns this BEValue as a Number. This operation only succeeds when the
 	 * BEValue is actually a Number, otherwise it will throw a
@@ -103,7 +170,7 @@ public class BEValue {
 	 */
 	public Number getNumber() throws InvalidBEncodingException {
 		try {
-			return (Number) value;
+			return (Number) getValue();
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
 		}
@@ -137,7 +204,7 @@ public class BEValue {
 	@SuppressWarnings("unchecked")
 	public List<BEValue> getList() throws InvalidBEncodingException {
 		try {
-			return (List<BEValue>) value;
+			return (List<BEValue>) getValue();
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
 		}
@@ -151,7 +218,7 @@ public class BEValue {
 	@SuppressWarnings("unchecked")
 	public Map<String, BEValue> getMap() throws InvalidBEncodingException {
 		try {
-			return (Map<String, BEValue>) value;
+			return (Map<String, BEValue>) getValue();
 		} catch (ClassCastException cce) {
 			throw new InvalidBEncodingException(cce.toString());
 		}
@@ -160,7 +227,15 @@ public class BEValue {
 	@Override
 	public String toString() {
 		String valueString;
-		if (value instanceof byte[]) {
+		Object value;
+		try {
+			value = getValue();
+		} catch (InvalidBEncodingException e) {
+			value = e.getMessage();
+		}
+		if (value instanceof ByteBuffer) {
+			valueString = "bytes:" + ((ByteBuffer) value).remaining();
+		} else if (value instanceof byte[]) {
 			byte[] bs = (byte[]) value;
 			if (bs.length <= 120)
 				valueString = new String(bs);
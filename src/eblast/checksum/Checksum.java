@@ -20,6 +20,7 @@
 package eblast.checksum;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -34,6 +35,7 @@ import eblast.log.Log;
  * 
  * @version 1.0 - 22.02.2011 - Initial version
  * @version 1.1 - 27.02.2011 - Add NoSuchAlgorithmException
+ * @version 1.2 - 17.10.2026 - Data appended from a ByteBuffer
  */
 public final class Checksum {
 
@@ -60,6 +62,20 @@ public final class Checksum {
 			mDigest.update(data);
 	}
 	
+	public void append(byte[] data, int offset, int length) {
+		if (data != null)
+			mDigest.update(data, offset, length);
+	}
+	
+	/**
+	 * Add the remaining data of the buffer before computation, the buffer is consumed.
+	 * @param data data to be digested.
+	 */
+	public void append(ByteBuffer data) {
+		if (data != null)
+			mDigest.update(data);
+	}
+	
 	/**
 	 * Compute the hash, reinitialize the Checksum after the command.
 	 * @return A Hash Object containing the Hash Digest.
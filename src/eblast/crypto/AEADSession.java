@@ -0,0 +1,116 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Authenticated encryption of the records exchanged with a peer, one key set per direction.
+ * <p>
+ * The data are encrypted with AES in counter mode, which processes the buffers in place,
+ * then authenticated with a HMAC-SHA256 of the sequence number, the length and the
+ * encrypted data (encrypt-then-MAC). A modified, reordered or replayed record is refused.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public final class AEADSession {
+	
+	public static final int KEY_LENGTH = 16;	// AES-128
+	public static final int TAG_LENGTH = 16;	// Truncated HMAC-SHA256
+	
+	private static final String CIPHER = "AES/CTR/NoPadding";
+	private static final String MAC = "HmacSHA256";
+	
+	private Cipher mEncrypt;
+	private Mac mEncryptMac;
+	private long mEncryptSequence;
+	
+	private Cipher mDecrypt;
+	private Mac mDecryptMac;
+	private long mDecryptSequence;
+	
+	private byte[] mHeader = new byte[12];		// Sequence number and length, authenticated with the data
+	
+	/**
+	 * Constructor.
+	 * @param sendKeys keys of the data we send: AES key, IV and MAC key (KEY_LENGTH bytes each)
+	 * @param receiveKeys keys of the data we receive, in the same order
+	 * @throws GeneralSecurityException if the algorithms aren't available
+	 */
+	public AEADSession(byte[][] sendKeys, byte[][] receiveKeys) throws GeneralSecurityException {
+		mEncrypt = Cipher.getInstance(CIPHER);
+		mEncrypt.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sendKeys[0], "AES"), new IvParameterSpec(sendKeys[1]));
+		mEncryptMac = Mac.getInstance(MAC);
+		mEncryptMac.init(new SecretKeySpec(sendKeys[2], MAC));
+		
+		mDecrypt = Cipher.getInstance(CIPHER);
+		mDecrypt.init(Cipher.DECRYPT_MODE, new SecretKeySpec(receiveKeys[0], "AES"), new IvParameterSpec(receiveKeys[1]));
+		mDecryptMac = Mac.getInstance(MAC);
+		mDecryptMac.init(new SecretKeySpec(receiveKeys[2], MAC));
+	}
+	
+	/**
+	 * Encrypts a record in place and computes its tag.
+	 * @param record data to encrypt, from its position to its limit (the position isn't modified)
+	 * @param tag array of TAG_LENGTH bytes that receives the tag
+	 * @throws GeneralSecurityException
+	 */
+	public synchronized void seal(ByteBuffer record, byte[] tag) throws GeneralSecurityException {
+		mEncrypt.update(record.duplicate(), record.duplicate());
+		computeTag(mEncryptMac, mEncryptSequence++, record, tag);
+	}
+	
+	/**
+	 * Checks the tag of a record, then decrypts it in place.
+	 * @param record data to decrypt, from its position to its limit (the position isn't modified)
+	 * @param tag tag received with the record
+	 * @return true if the record is authentic and has been decrypted, false otherwise
+	 * @throws GeneralSecurityException
+	 */
+	public synchronized boolean open(ByteBuffer record, byte[] tag) throws GeneralSecurityException {
+		byte[] expected = new byte[TAG_LENGTH];
+		computeTag(mDecryptMac, mDecryptSequence, record, expected);
+		if (!MessageDigest.isEqual(expected, tag)) return false;
+		
+		mDecryptSequence++;
+		mDecrypt.update(record.duplicate(), record.duplicate());
+		return true;
+	}
+	
+	/**
+	 * Computes the tag of an encrypted record.
+	 */
+	private void computeTag(Mac mac, long sequence, ByteBuffer record, byte[] tag) {
+		ByteBuffer.wrap(mHeader).putLong(sequence).putInt(record.remaining());
+		mac.update(mHeader);
+		mac.update(record.duplicate());
+		System.arraycopy(mac.doFinal(), 0, tag, 0, TAG_LENGTH);
+	}
+}
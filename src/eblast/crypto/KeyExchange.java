@@ -0,0 +1,145 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.crypto;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.DHParameterSpec;
+
+/**
+ * Diffie-Hellman key exchange done once at the beginning of an encrypted connection.
+ * Both peers send their public key, then derive the same AEADSession from the shared secret.
+ * <p>
+ * The group is the 2048-bit MODP group of RFC 3526 (generator 2). The keys of each direction
+ * are the SHA-256 of the secret, of both public keys (smallest first) and of a label, so the
+ * peer whose public key is the smallest uses the "first" keys to send.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public final class KeyExchange {
+	
+	private static final BigInteger PRIME = new BigInteger(
+			"FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74" +
+			"020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F1437" +
+			"4FE1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7ED" +
+			"EE386BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF05" +
+			"98DA48361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB" +
+			"9ED529077096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3B" +
+			"E39E772C180E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF695581718" +
+			"3995497CEA956AE515D2261898FA051015728E5A8AACAA68FFFFFFFFFFFFFFFF", 16);
+	private static final BigInteger GENERATOR = BigInteger.valueOf(2);
+	private static final int PRIVATE_KEY_BITS = 256;
+	
+	private java.security.KeyPair mKeyPair;
+	
+	/**
+	 * Generates our key pair.
+	 * @throws GeneralSecurityException if Diffie-Hellman isn't available
+	 */
+	public KeyExchange() throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("DH");
+		generator.initialize(new DHParameterSpec(PRIME, GENERATOR, PRIVATE_KEY_BITS));
+		mKeyPair = generator.generateKeyPair();
+	}
+	
+	/**
+	 * Derives the session from the public key of the peer.
+	 * @param hisPublicKey encoded public key received from the peer
+	 * @return the session that encrypts the data of the connection
+	 * @throws GeneralSecurityException if the key of the peer is invalid
+	 */
+	public AEADSession agree(byte[] hisPublicKey) throws GeneralSecurityException {
+		PublicKey his = KeyFactory.getInstance("DH").generatePublic(new X509EncodedKeySpec(hisPublicKey));
+		
+		KeyAgreement agreement = KeyAgreement.getInstance("DH");
+		agreement.init(mKeyPair.getPrivate());
+		agreement.doPhase(his, true);
+		byte[] secret = agreement.generateSecret();
+		
+		byte[] mine = getPublicKey();
+		int order = compare(mine, hisPublicKey);
+		if (order == 0) {
+			throw new GeneralSecurityException("The peer has sent our own public key.");
+		}
+		
+		byte[] smallest = (order < 0) ? mine : hisPublicKey;
+		byte[] biggest = (order < 0) ? hisPublicKey : mine;
+		byte[][] first = deriveKeys(secret, smallest, biggest, "first");
+		byte[][] second = deriveKeys(secret, smallest, biggest, "second");
+		
+		return (order < 0) ? new AEADSession(first, second) : new AEADSession(second, first);
+	}
+	
+	/**
+	 * Derives the AES key, the IV and the MAC key of one direction.
+	 */
+	private static byte[][] deriveKeys(byte[] secret, byte[] smallest, byte[] biggest, String label) throws GeneralSecurityException {
+		byte[][] keys = new byte[3][];
+		String[] names = { "key", "iv", "mac" };
+		
+		for (int i=0; i<keys.length; i++) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(secret);
+			digest.update(smallest);
+			digest.update(biggest);
+			try {
+				digest.update((label + " " + names[i]).getBytes("US-ASCII"));
+			} catch (UnsupportedEncodingException e) {
+				throw new GeneralSecurityException(e.getMessage());
+			}
+			
+			keys[i] = new byte[AEADSession.KEY_LENGTH];
+			System.arraycopy(digest.digest(), 0, keys[i], 0, AEADSession.KEY_LENGTH);
+		}
+		return keys;
+	}
+	
+	/**
+	 * Compares two arrays of bytes (unsigned, lexicographic order).
+	 */
+	private static int compare(byte[] a, byte[] b) {
+		for (int i=0; i<Math.min(a.length, b.length); i++) {
+			int diff = (0xFF & a[i]) - (0xFF & b[i]);
+			if (diff != 0) return diff;
+		}
+		return a.length - b.length;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns our public key, to be sent to the peer.
+	 * @return encoded public key (X.509)
+	 */
+	public byte[] getPublicKey() {
+		return mKeyPair.getPublic().getEncoded();
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.crypto;
+
+import java.util.LinkedList;
+
+import eblast.log.Log;
+
+/**
+ * Keeps a few RSA and XOR key pairs ready for the encrypted connections.
+ * A low priority thread generates them in advance, so the handshake doesn't
+ * wait for the search of the RSA primes. When the pool is empty (or the
+ * requested length isn't the one of the pool), the key is generated directly.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class KeyPool implements Runnable {
+	
+	public static final int DEFAULT_DEPTH = 4;
+	
+	// ----- Singleton Pattern -----------------------------------------------
+	private static KeyPool mSingleton = new KeyPool();
+	
+	/**
+	 * @return Singleton Instance of the KeyPool
+	 */
+	public static KeyPool getInstance() {
+		return mSingleton;
+	}
+	// -----------------------------------------------------------------------
+	
+	private LinkedList<RSAKeyPair> mRSAKeyPairs;
+	private LinkedList<XORKeyPair> mXORKeyPairs;
+	
+	private int mRSAKeylength;		// Length of the pooled RSA keys, 0 until the pool is configured
+	private int mSymmetricKeylength;	// Length of the pooled XOR keys, 0 until the pool is configured
+	private int mDepth;				// Number of keys of each kind kept ready
+	
+	private Thread mThread;
+	
+	private long mHits;
+	private long mMisses;
+	
+	// Hides the constructor
+	private KeyPool() {
+		mRSAKeyPairs = new LinkedList<RSAKeyPair>();
+		mXORKeyPairs = new LinkedList<XORKeyPair>();
+		mDepth = DEFAULT_DEPTH;
+	}
+	
+	/**
+	 * Sets the lengths of the keys to generate and the number of keys to keep ready.
+	 * The pooled keys of another length are dropped.
+	 * @param RSAKeylength length of the RSA modulo in number of bits
+	 * @param symmetricKeylength length of the symmetric key in bytes
+	 * @param depth number of keys of each kind kept ready, 0 to disable the pool
+	 */
+	public synchronized void configure(int RSAKeylength, int symmetricKeylength, int depth) {
+		if (RSAKeylength != mRSAKeylength) {
+			mRSAKeyPairs.clear();
+		}
+		if (symmetricKeylength != mSymmetricKeylength) {
+			mXORKeyPairs.clear();
+		}
+		mRSAKeylength = RSAKeylength;
+		mSymmetricKeylength = symmetricKeylength;
+		mDepth = depth;
+		
+		while (mRSAKeyPairs.size() > depth) mRSAKeyPairs.removeLast();
+		while (mXORKeyPairs.size() > depth) mXORKeyPairs.removeLast();
+		
+		if (mThread == null && depth > 0) {
+			mThread = new Thread(this, "KeyPool");
+			mThread.setDaemon(true);
+			mThread.setPriority(Thread.MIN_PRIORITY);
+			mThread.start();
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Returns a RSA key pair, from the pool if one of the right length is ready.
+	 * @param bitsLength length of the RSA modulo in number of bits
+	 * @return a RSA key pair that hasn't been given to anybody else
+	 */
+	public RSAKeyPair takeRSAKeyPair(int bitsLength) {
+		synchronized (this) {
+			if (bitsLength == mRSAKeylength && !mRSAKeyPairs.isEmpty()) {
+				mHits++;
+				notifyAll(); // Refill
+				return mRSAKeyPairs.removeFirst();
+			}
+			mMisses++;
+		}
+		return KeyGenerator.generateRSAKeyPair(bitsLength);
+	}
+	
+	/**
+	 * Returns a XOR key pair, from the pool if one of the right length is ready.
+	 * @param bitsLength length of the symmetric key in bytes
+	 * @return a XOR key pair that hasn't been given to anybody else
+	 */
+	public XORKeyPair takeXORKeyPair(int bitsLength) {
+		synchronized (this) {
+			if (bitsLength == mSymmetricKeylength && !mXORKeyPairs.isEmpty()) {
+				mHits++;
+				notifyAll(); // Refill
+				return mXORKeyPairs.removeFirst();
+			}
+			mMisses++;
+		}
+		return KeyGenerator.generateXORKeyPair(bitsLength);
+	}
+	
+	/**
+	 * Generates keys while the pool isn't full.
+	 */
+	public void run() {
+		try {
+			while (true) {
+				int RSAKeylength = 0;
+				int symmetricKeylength = 0;
+				
+				synchronized (this) {
+					while (mRSAKeyPairs.size() >= mDepth && mXORKeyPairs.size() >= mDepth) {
+						wait();
+					}
+					
+					// The RSA keys are the slow ones, they have the priority
+					if (mRSAKeyPairs.size() < mDepth) {
+						RSAKeylength = mRSAKeylength;
+					} else {
+						symmetricKeylength = mSymmetricKeylength;
+					}
+				}
+				
+				// Generated outside the lock, the handshakes can still take the ready keys
+				if (RSAKeylength > 0) {
+					RSAKeyPair keyPair = KeyGenerator.generateRSAKeyPair(RSAKeylength);
+					synchronized (this) {
+						if (RSAKeylength == mRSAKeylength && mRSAKeyPairs.size() < mDepth) {
+							mRSAKeyPairs.addLast(keyPair);
+						}
+					}
+				} else {
+					XORKeyPair keyPair = KeyGenerator.generateXORKeyPair(symmetricKeylength);
+					synchronized (this) {
+						if (symmetricKeylength == mSymmetricKeylength && mXORKeyPairs.size() < mDepth) {
+							mXORKeyPairs.addLast(keyPair);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Log.e("KeyPool", "Key generation interrupted");
+		}
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the number of keys taken from the pool.
+	 * @return number of keys that were ready
+	 */
+	public synchronized long getHits() {
+		return mHits;
+	}
+	
+	/**
+	 * Returns the number of keys that had to be generated during the handshake.
+	 * @return number of keys that weren't ready
+	 */
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+	
+	/**
+	 * Returns the number of RSA key pairs ready.
+	 * @return number of RSA key pairs in the pool
+	 */
+	public synchronized int getRSAKeyPairsReady() {
+		return mRSAKeyPairs.size();
+	}
+	
+	/**
+	 * Returns the number of XOR key pairs ready.
+	 * @return number of XOR key pairs in the pool
+	 */
+	public synchronized int getXORKeyPairsReady() {
+		return mXORKeyPairs.size();
+	}
+	
+	/**
+	 * Returns the number of keys of each kind kept ready.
+	 * @return depth of the pool
+	 */
+	public synchronized int getDepth() {
+		return mDepth;
+	}
+}
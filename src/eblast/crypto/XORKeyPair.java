@@ -20,6 +20,8 @@
 package eblast.crypto;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import eblast.log.Log;
@@ -32,6 +34,7 @@ import eblast.log.Log;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 26.02.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - In place encryption of ByteBuffers and slices, 8 bytes at a time
  */
 public final class XORKeyPair extends KeyPair {
 	
@@ -48,6 +51,17 @@ public final class XORKeyPair extends KeyPair {
 	 */
 	private int[] mKeyIndices; 
 	
+	/*
+	 * The key expanded into a ring of words: mWords[i] holds the 8 bytes of the
+	 * keystream starting at key index i (wrapping around the key), so a whole word
+	 * can be XORed whatever the current index is. The next word starts mStep further.
+	 */
+	private long[] mWords;
+	private int mStep;
+	
+	// Last array wrapped by encrypt/decrypt(byte[], int, int), for each direction.
+	private ByteBuffer[] mWrapped;
+	
 	/**
 	 * Default constructor.
 	 * @param key symmetric key (into a byte array) that is going to be used to encrypt/decrypt data
@@ -58,6 +72,17 @@ public final class XORKeyPair extends KeyPair {
 		
 		mKey = key;
 		mKeyIndices = new int[2]; // Encrypt & Decrypt indexes
+		mWrapped = new ByteBuffer[2];
+		
+		mWords = new long[mKey.length];
+		for (int i = 0; i < mKey.length; i++) {
+			long word = 0;
+			for (int j = 0; j < 8; j++) {
+				word = (word << 8) | (mKey[(i + j) % mKey.length] & 0xFF);
+			}
+			mWords[i] = word;
+		}
+		mStep = 8 % mKey.length;
 		
 		// Debug
 		Log.d("SymmetricKeyPair", "(" + mKey.length + ")" + Arrays.toString(mKey));
@@ -71,18 +96,65 @@ public final class XORKeyPair extends KeyPair {
 	 */
 	private byte[] encrypt(byte[] data, int index) {
 		
-		byte[] encryptedMsg = new byte[data.length]; // encrypted message to be returned.
+		byte[] encryptedMsg = data.clone(); // encrypted message to be returned.
+		xor(ByteBuffer.wrap(encryptedMsg), index);
+		
+		return encryptedMsg;
+	}
+	
+	/**
+	 * XOR the remaining bytes of the buffer with the keystream, in place.
+	 * The position and the limit of the buffer are left untouched.
+	 * @param buffer data to encrypt/decrypt.
+	 * @param index index of the keyIndex to use (depends if we want to encrypt or decrypt).
+	 */
+	private void xor(ByteBuffer buffer, int index) {
+		
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.BIG_ENDIAN); // Same order as mWords
+		
 		int idx = mKeyIndices[index]; // extract the current index.
+		int i = buffer.position();
+		int end = buffer.limit();
+		
+		for (; i + 8 <= end; i += 8) { // Whole words
+			buffer.putLong(i, buffer.getLong(i) ^ mWords[idx]);
+			idx += mStep;
+			if (idx >= mKey.length) {
+				idx -= mKey.length;
+			}
+		}
 		
-		for (int i = 0; i < data.length; i++) { // Every bytes of the given message.
-			
-			idx %= mKey.length; // This will "align" the message under the key if the message is longer than the key.
-			encryptedMsg[i] = (byte) (data[i] ^ mKey[idx++]); // bitwise XOR between the data byte and the key.
+		for (; i < end; i++) { // Remaining bytes
+			buffer.put(i, (byte) (buffer.get(i) ^ mKey[idx++]));
+			if (idx == mKey.length) {
+				idx = 0;
+			}
 		}
 		
 		mKeyIndices[index] = idx; // store the key index.
+		buffer.order(order);
+	}
+	
+	/**
+	 * XOR a slice of an array with the keystream, in place.
+	 * @param data array containing the data.
+	 * @param offset first byte of the slice.
+	 * @param length number of bytes of the slice.
+	 * @param index index of the keyIndex to use (depends if we want to encrypt or decrypt).
+	 */
+	private void xor(byte[] data, int offset, int length, int index) {
 		
-		return encryptedMsg;
+		ByteBuffer buffer = mWrapped[index];
+		if (buffer == null || buffer.array() != data) { // Streams keep passing the same array
+			buffer = ByteBuffer.wrap(data);
+			mWrapped[index] = buffer;
+		}
+		
+		buffer.clear();
+		buffer.position(offset);
+		buffer.limit(offset + length);
+		xor(buffer, index);
 	}
 	
 	/**
@@ -100,6 +172,24 @@ public final class XORKeyPair extends KeyPair {
 		return encrypt(data, ENCRYPT_INDEX);
 	}
 	
+	/**
+	 * Encrypt the remaining bytes of the buffer in place, without moving its position.
+	 * @param buffer data to encrypt.
+	 */
+	public void encrypt(ByteBuffer buffer) {
+		xor(buffer, ENCRYPT_INDEX);
+	}
+	
+	/**
+	 * Encrypt length bytes of data, starting at offset, in place.
+	 * @param data array containing the message to encrypt.
+	 * @param offset first byte to encrypt.
+	 * @param length number of bytes to encrypt.
+	 */
+	public void encrypt(byte[] data, int offset, int length) {
+		xor(data, offset, length, ENCRYPT_INDEX);
+	}
+	
 	/**
 	 * Encrypt the given data using the XOR method.
 	 * @param BigInteger to encrypt.
@@ -119,6 +209,24 @@ public final class XORKeyPair extends KeyPair {
 		return encrypt(data, DECRYPT_INDEX);
 	}
 	
+	/**
+	 * Decrypt the remaining bytes of the buffer in place, without moving its position.
+	 * @param buffer data to decrypt.
+	 */
+	public void decrypt(ByteBuffer buffer) {
+		xor(buffer, DECRYPT_INDEX);
+	}
+	
+	/**
+	 * Decrypt length bytes of data, starting at offset, in place.
+	 * @param data array containing the encrypted message.
+	 * @param offset first byte to decrypt.
+	 * @param length number of bytes to decrypt.
+	 */
+	public void decrypt(byte[] data, int offset, int length) {
+		xor(data, offset, length, DECRYPT_INDEX);
+	}
+	
 	/**
 	 * Decrypt the given encrypted data using the XOR method.
 	 * @param data encrypted message to be decrypted.
@@ -56,7 +56,12 @@ public class ConfigDialog extends JDialog implements KeyListener {
 	private JTextField tfDownDir;
 	private JTextField tfPort;
 	private JCheckBox cbEncryption;
+	private JCheckBox cbNIOEngine;
 	private JTextField tfMaxPeers;
+	private JTextField tfUploadSlots;
+	private JTextField tfWriteCache;
+	private JTextField tfDownloadLimit;
+	private JTextField tfUploadLimit;
 
 	/**
 	 * Main constructor.
@@ -64,7 +69,7 @@ public class ConfigDialog extends JDialog implements KeyListener {
 	public ConfigDialog() {
 		
 		// Size and default layout of this dialog.
-		setBounds(100, 100, 444, 206); 
+		setBounds(100, 100, 444, 280); 
 		setResizable(false);
 		getContentPane().setLayout(new BorderLayout());
 		contentPanel.setBorder(new EmptyBorder(5, 5, 5, 5));
@@ -113,6 +118,11 @@ public class ConfigDialog extends JDialog implements KeyListener {
 		cbEncryption.setBounds(6, 114, 200, 23);
 		contentPanel.add(cbEncryption);
 		
+		cbNIOEngine = new JCheckBox("Non-blocking network engine");
+		cbNIOEngine.setSelected( settings.isNIOEngineActivated() );
+		cbNIOEngine.setBounds(212, 114, 220, 23);
+		contentPanel.add(cbNIOEngine);
+		
 		JLabel lblMaximumPeers = new JLabel("Maximum Peers:");
 		lblMaximumPeers.setBounds(6, 86, 150, 16);
 		contentPanel.add(lblMaximumPeers);
@@ -123,6 +133,46 @@ public class ConfigDialog extends JDialog implements KeyListener {
 		tfMaxPeers.setBounds(168, 80, 100, 28);
 		contentPanel.add(tfMaxPeers);
 		
+		JLabel lblUploadSlots = new JLabel("Upload slots:");
+		lblUploadSlots.setBounds(280, 86, 90, 16);
+		contentPanel.add(lblUploadSlots);
+		
+		tfUploadSlots = new JTextField( String.valueOf(settings.getUploadSlots()) );
+		tfUploadSlots.addKeyListener(this);
+		tfUploadSlots.setColumns(10);
+		tfUploadSlots.setBounds(370, 80, 62, 28);
+		contentPanel.add(tfUploadSlots);
+		
+		JLabel lblWriteCache = new JLabel("Write cache (MiB):");
+		lblWriteCache.setBounds(6, 150, 150, 16);
+		contentPanel.add(lblWriteCache);
+		
+		tfWriteCache = new JTextField( String.valueOf(settings.getWriteCacheSize()) );
+		tfWriteCache.addKeyListener(this);
+		tfWriteCache.setColumns(10);
+		tfWriteCache.setBounds(168, 144, 100, 28);
+		contentPanel.add(tfWriteCache);
+		
+		JLabel lblDownloadLimit = new JLabel("Down (KiB/s):");
+		lblDownloadLimit.setBounds(6, 184, 150, 16);
+		contentPanel.add(lblDownloadLimit);
+		
+		tfDownloadLimit = new JTextField( String.valueOf(settings.getDownloadLimit()) );
+		tfDownloadLimit.addKeyListener(this);
+		tfDownloadLimit.setColumns(10);
+		tfDownloadLimit.setBounds(168, 178, 100, 28);
+		contentPanel.add(tfDownloadLimit);
+		
+		JLabel lblUploadLimit = new JLabel("Up (KiB/s):");
+		lblUploadLimit.setBounds(280, 184, 90, 16);
+		contentPanel.add(lblUploadLimit);
+		
+		tfUploadLimit = new JTextField( String.valueOf(settings.getUploadLimit()) );
+		tfUploadLimit.addKeyListener(this);
+		tfUploadLimit.setColumns(10);
+		tfUploadLimit.setBounds(370, 178, 62, 28);
+		contentPanel.add(tfUploadLimit);
+		
 		{
 			
 			JPanel buttonPane = new JPanel(); // Button panel
@@ -136,8 +186,13 @@ public class ConfigDialog extends JDialog implements KeyListener {
 						
 						settings.setDownloadDir(fc.getSelectedFile());
 						settings.setEncryption(cbEncryption.isSelected());
+						settings.setNIOEngine(cbNIOEngine.isSelected());
 						settings.setMaxPeers(Integer.valueOf(tfMaxPeers.getText()));
+						settings.setUploadSlots(Integer.valueOf(tfUploadSlots.getText()));
 						settings.setPort(Integer.valueOf(tfPort.getText()));
+						settings.setWriteCacheSize(Integer.valueOf(tfWriteCache.getText()));
+						settings.setDownloadLimit(Integer.valueOf(tfDownloadLimit.getText()));
+						settings.setUploadLimit(Integer.valueOf(tfUploadLimit.getText()));
 						try {
 							TorrentManager.getInstance().relaunch();
 						} catch (IOException e1) {}
@@ -30,7 +30,6 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.util.HashSet;
 import java.util.Set;
 
 import javax.swing.BorderFactory;
@@ -40,6 +39,7 @@ import javax.swing.JPanel;
 import eblast.Convertor;
 import eblast.gui.menus.PopupMouseCaption;
 import eblast.torrent.Torrent;
+import eblast.torrent.piece.PieceBitSet;
 
 /**
  * This class contains General informations about the selected Torrent.
@@ -142,8 +142,8 @@ public class GeneralInfoTab extends JPanel implements ActionListener, UpdateSele
 		private static final long serialVersionUID = -731927353298033619L;
 		
 		// Used for Statitics
-		private Set<Integer> mReceivedPieces;
-		private Set<Integer> mAvailablePieces;
+		private PieceBitSet mReceivedPieces;
+		private PieceBitSet mAvailablePieces;
 		private Set<Integer> mRequestedPieces;
 		private int mNbPieces;
 		
@@ -190,8 +190,8 @@ public class GeneralInfoTab extends JPanel implements ActionListener, UpdateSele
 		 */
 		public void reset() {
 			mNbPieces = 0;
-			mReceivedPieces = new HashSet<Integer>();
-			mAvailablePieces = new HashSet<Integer>();
+			mReceivedPieces = new PieceBitSet(0);
+			mAvailablePieces = new PieceBitSet(0);
 		}
 		
 		/**
@@ -220,10 +220,8 @@ public class GeneralInfoTab extends JPanel implements ActionListener, UpdateSele
 			
 			g2.setPaint(gp);
 			
-			synchronized (mAvailablePieces) {
-				for (int i: mAvailablePieces) {
-					g.fillRect((int)(width_per_piece*i+1), 1, (int)Math.ceil(width_per_piece), height);
-				}
+			for (int i = mAvailablePieces.nextSetBit(0); i >= 0; i = mAvailablePieces.nextSetBit(i+1)) {
+				g.fillRect((int)(width_per_piece*i+1), 1, (int)Math.ceil(width_per_piece), height);
 			}
 			
 			// ----- Print requested pieces -----
@@ -247,10 +245,8 @@ public class GeneralInfoTab extends JPanel implements ActionListener, UpdateSele
 				);
 			g2.setPaint(gp);
 			
-			synchronized (mReceivedPieces) {
-				for (int i: mReceivedPieces) {
-					g.fillRect((int)(width_per_piece*i+1), 1, (int)Math.ceil(width_per_piece), height);
-				}
+			for (int i = mReceivedPieces.nextSetBit(0); i >= 0; i = mReceivedPieces.nextSetBit(i+1)) {
+				g.fillRect((int)(width_per_piece*i+1), 1, (int)Math.ceil(width_per_piece), height);
 			}
 			
 		}
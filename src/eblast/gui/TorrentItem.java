@@ -144,6 +144,10 @@ public class TorrentItem extends JPanel {
 			
 			mIcon.setIcon( Ressources.drawables.file_checking );
 			sb.append(Ressources.strings.checking);
+			sb.append(" ");
+			sb.append((int) mTorrent.getCheckingProgress());
+			sb.append(" ");
+			sb.append(Ressources.strings.percent_symb);
 			break;
 		}
 		
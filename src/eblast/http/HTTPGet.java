@@ -19,13 +19,16 @@
 
 package eblast.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
 
 import java.io.IOException;
 import java.util.Map;
@@ -40,9 +43,13 @@ import eblast.log.Log;
  * 
  * @version 1.0 - 28.02.2011 - Initial version
  * @version 1.1 - 04.03.2011 - Doesn't use BEValue anymore.
+ * @version 1.2 - 17.10.2026 - Requests with timeouts, gzip and keep-alive connections
  */
 public final class HTTPGet {
 	
+	public static final int CONNECT_TIMEOUT = 5000;	// ms
+	public static final int READ_TIMEOUT = 10000;	// ms
+	
 	/**
 	 * This method is there to concatenate the map values and keys,<br>
 	 * the following example shows how the concatenation is done:<br>
@@ -95,6 +102,75 @@ public final class HTTPGet {
 		return urlConn.getInputStream();
 	}
 	
+	/**
+	 * Performs a GET request and returns the whole body of the answer.
+	 * The body is asked compressed with gzip. Once it has been read, the connection goes
+	 * back to the keep-alive pool of the JVM, shared by all the requests to the same server,
+	 * so the next announces to a tracker don't open a new TCP connection.
+	 * 
+	 * @param urlString url of the request
+	 * @param gets map of Entry&#060;String key, String value&#062;, null if unused
+	 * @return the body of the answer, uncompressed
+	 * 
+	 * @throws IOException if an I/O problem occured or the server answered by an error.
+	 */
+	public static byte[] get(String urlString, Map<String,String> gets) throws IOException {
+		
+		if ((gets != null) && !gets.isEmpty()) // If the gets list is not null and not empty
+			urlString += "?" + mapToURLString(gets);
+		
+		Log.d("HTTPGet", urlString); // Debug
+		
+		URLConnection urlConn = new URL(urlString).openConnection();
+		urlConn.setConnectTimeout(CONNECT_TIMEOUT);
+		urlConn.setReadTimeout(READ_TIMEOUT);
+		urlConn.setRequestProperty("Accept-Encoding", "gzip");
+		urlConn.setRequestProperty("Connection", "keep-alive");
+		
+		InputStream in;
+		try {
+			in = urlConn.getInputStream();
+		} catch (IOException e) {
+			// The body of the error has to be read too, otherwise the connection is lost.
+			if (urlConn instanceof HttpURLConnection) {
+				InputStream error = ((HttpURLConnection) urlConn).getErrorStream();
+				if (error != null) {
+					try {
+						readFully(error);
+					} finally {
+						error.close();
+					}
+				}
+			}
+			throw e;
+		}
+		
+		try {
+			if ("gzip".equalsIgnoreCase(urlConn.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+			}
+			return readFully(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Reads a stream until its end.
+	 * @param in the stream to read
+	 * @return all the bytes read
+	 * @throws IOException
+	 */
+	private static byte[] readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[2048];
+		int length;
+		while ((length = in.read(buffer)) > 0) {
+			out.write(buffer, 0, length);
+		}
+		return out.toByteArray();
+	}
+	
 	/**
 	 * This method is used to download a file from an URL into the directory <code>dir</code>
 	 * it will create a file with the prefix <code>web</code> and with the extension <code>ext</code>.
@@ -0,0 +1,137 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import eblast.crypto.AEADSession;
+
+/**
+ * InputStream that reads the records written by an AEADOutputStream,
+ * checks their tag and decrypts them in place.
+ * 
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class AEADInputStream extends InputStream {
+	
+	private DataInputStream in;
+	private AEADSession mSession;
+	private byte[] mRecord;			// Decrypted data of the current record
+	private int mPosition;			// Next byte to read into the record
+	private int mLimit;				// Number of bytes of the current record
+	private byte[] mTag;
+	
+	/**
+	 * Main constructor.
+	 * @param is InputStream that contains the records
+	 * @param session keys of the connection
+	 */
+	public AEADInputStream(InputStream is, AEADSession session) {
+		in = new DataInputStream(is);
+		mSession = session;
+		mRecord = new byte[AEADOutputStream.RECORD_SIZE];
+		mPosition = 0;
+		mLimit = 0;
+		mTag = new byte[AEADSession.TAG_LENGTH];
+	}
+	
+	/**
+	 * Reads the next byte of decrypted data.
+	 * @return The byte read, -1 at the end of the stream
+	 */
+	public int read() throws IOException {
+		if (mPosition == mLimit && !readRecord()) return -1;
+		return 0xFF & mRecord[mPosition++];
+	}
+	
+	/**
+	 * Reads up to len bytes of decrypted data.
+	 * @param b the buffer into which the data is read.
+	 * @param off the start offset in array b at which the data is written.
+	 * @param len the maximum number of bytes to read.
+	 * @return number of bytes read, -1 at the end of the stream
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		if (mPosition == mLimit && !readRecord()) return -1;
+		
+		int count = Math.min(len, mLimit - mPosition);
+		System.arraycopy(mRecord, mPosition, b, off, count);
+		mPosition += count;
+		return count;
+	}
+	
+	/**
+	 * Returns the number of decrypted bytes that can be read. If the current record
+	 * has been entirely read, returns 1 if the next one has begun to arrive.
+	 * @return estimate of the number of bytes that can be read
+	 */
+	public int available() throws IOException {
+		if (mPosition < mLimit) return mLimit - mPosition;
+		return (in.available() > 0) ? 1 : 0;
+	}
+	
+	/**
+	 * Closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	/**
+	 * Reads, checks and decrypts the next record.
+	 * @return false at the end of the stream
+	 * @throws IOException if the record is corrupted
+	 */
+	private boolean readRecord() throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return false;
+		}
+		if (length <= 0 || length > mRecord.length) {
+			throw new IOException("Wrong record length (" + length + ")");
+		}
+		
+		in.readFully(mRecord, 0, length);
+		in.readFully(mTag);
+		
+		try {
+			if (!mSession.open(ByteBuffer.wrap(mRecord, 0, length), mTag)) {
+				throw new IOException("The authentication of a record has failed.");
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Decryption error: " + e.getMessage());
+		}
+		
+		mPosition = 0;
+		mLimit = length;
+		return true;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import eblast.crypto.AEADSession;
+
+/**
+ * OutputStream that encrypts and authenticates the data by records.
+ * The data are gathered into a record, which is encrypted in place and written
+ * when it is full or when the stream is flushed:
+ * <length (4 bytes)><encrypted data><tag>
+ * 
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class AEADOutputStream extends OutputStream {
+	
+	public static final int RECORD_SIZE = 1 << 14; // Maximum size of the data of a record (16 KiB)
+	
+	private static final int HEADER_LENGTH = 4;
+	
+	private OutputStream out;
+	private AEADSession mSession;
+	private byte[] mRecord;			// Header, data and tag of the current record
+	private int mCount;				// Number of bytes of data into the record
+	private byte[] mTag;
+	
+	/**
+	 * Main constructor.
+	 * @param os OutputStream on which the records are written
+	 * @param session keys of the connection
+	 */
+	public AEADOutputStream(OutputStream os, AEADSession session) {
+		out = os;
+		mSession = session;
+		mRecord = new byte[HEADER_LENGTH + RECORD_SIZE + AEADSession.TAG_LENGTH];
+		mCount = 0;
+		mTag = new byte[AEADSession.TAG_LENGTH];
+	}
+	
+	/**
+	 * Writes the specified byte to this output stream.
+	 * @param b the byte.
+	 */
+	public void write(int b) throws IOException {
+		if (mCount == RECORD_SIZE) {
+			writeRecord();
+		}
+		mRecord[HEADER_LENGTH + mCount++] = (byte) b;
+	}
+	
+	/**
+	 * Writes len bytes from the specified byte array starting at offset off to this output stream.
+	 * @param b the data.
+	 * @param off the start offset in the data.
+	 * @param len the number of bytes to write.
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (mCount == RECORD_SIZE) {
+				writeRecord();
+			}
+			int count = Math.min(len, RECORD_SIZE - mCount);
+			System.arraycopy(b, off, mRecord, HEADER_LENGTH + mCount, count);
+			mCount += count;
+			off += count;
+			len -= count;
+		}
+	}
+	
+	/**
+	 * Writes the current record, then flushes the underlying stream.
+	 */
+	public void flush() throws IOException {
+		if (mCount > 0) {
+			writeRecord();
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Flushes and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		flush();
+		out.close();
+	}
+	
+	/**
+	 * Encrypts the current record in place and writes it.
+	 */
+	private void writeRecord() throws IOException {
+		ByteBuffer.wrap(mRecord).putInt(mCount);
+		try {
+			mSession.seal(ByteBuffer.wrap(mRecord, HEADER_LENGTH, mCount), mTag);
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Encryption error: " + e.getMessage());
+		}
+		System.arraycopy(mTag, 0, mRecord, HEADER_LENGTH + mCount, mTag.length);
+		
+		out.write(mRecord, 0, HEADER_LENGTH + mCount + mTag.length);
+		mCount = 0;
+	}
+}
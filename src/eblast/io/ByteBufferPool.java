@@ -0,0 +1,174 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class lends reference-counted buffers (PooledBuffer) and takes them back when they are
+ * released, so that the network engines don't allocate a new buffer for each message.
+ * <p>
+ * The buffers are rounded up to a power of two, from 4 KiB to 1 MiB. Bigger buffers are
+ * allocated but never kept, and the pool keeps at most mMaxRetained bytes of free buffers.
+ * Two pools are shared by all the torrents: one of direct buffers (for the channels of the
+ * selector-based engine) and one of heap buffers (for the streams of the threaded engine).
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class ByteBufferPool {
+	
+	public static final long DEFAULT_MAX_RETAINED = 16L << 20; // 16 MiB
+	
+	private static final int MIN_SHIFT = 12;	// 4 KiB
+	private static final int MAX_SHIFT = 20;	// 1 MiB
+	
+	// ----- Singleton Pattern -----------------------------------------------
+	private static ByteBufferPool mDirectSingleton = new ByteBufferPool(true, DEFAULT_MAX_RETAINED);
+	private static ByteBufferPool mHeapSingleton = new ByteBufferPool(false, DEFAULT_MAX_RETAINED);
+	
+	/**
+	 * @return Instance of the ByteBufferPool of direct buffers
+	 */
+	public static ByteBufferPool getDirectInstance() {
+		return mDirectSingleton;
+	}
+	
+	/**
+	 * @return Instance of the ByteBufferPool of heap buffers
+	 */
+	public static ByteBufferPool getHeapInstance() {
+		return mHeapSingleton;
+	}
+	// -----------------------------------------------------------------------
+	
+	private boolean mDirect;
+	private long mMaxRetained;						// Maximum number of bytes kept in the free lists
+	private AtomicLong mRetained;					// Number of bytes currently in the free lists
+	private List<Queue<PooledBuffer>> mFreeLists;		// One free list per size
+	
+	private AtomicLong mHits;
+	private AtomicLong mMisses;
+	
+	/**
+	 * Constructor.
+	 * @param direct true to allocate direct buffers, false for heap buffers
+	 * @param maxRetained maximum number of bytes of free buffers kept by the pool
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool(boolean direct, long maxRetained) {
+		mDirect = direct;
+		mMaxRetained = maxRetained;
+		mRetained = new AtomicLong();
+		mHits = new AtomicLong();
+		mMisses = new AtomicLong();
+		
+		mFreeLists = new ArrayList<Queue<PooledBuffer>>(MAX_SHIFT - MIN_SHIFT + 1);
+		for (int shift=MIN_SHIFT; shift<=MAX_SHIFT; shift++) {
+			mFreeLists.add(new ConcurrentLinkedQueue<PooledBuffer>());
+		}
+	}
+	
+	/**
+	 * Lends a buffer of at least the given size, with one reference.
+	 * The buffer is cleared: its limit is its capacity.
+	 * @param size minimal size of the buffer
+	 * @return a buffer that has to be released after use
+	 */
+	public PooledBuffer acquire(int size) {
+		int shift = getShift(size);
+		
+		PooledBuffer buffer = null;
+		if (shift <= MAX_SHIFT) {
+			buffer = mFreeLists.get(shift - MIN_SHIFT).poll();
+		}
+		
+		if (buffer != null) {
+			mRetained.addAndGet(-buffer.capacity());
+			mHits.incrementAndGet();
+		} else {
+			int capacity = (shift <= MAX_SHIFT) ? 1 << shift : size;
+			buffer = new PooledBuffer(this, mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+			mMisses.incrementAndGet();
+		}
+		
+		buffer.reset();
+		return buffer;
+	}
+	
+	/**
+	 * Takes back a buffer whose last reference has been released.
+	 * @param buffer buffer that isn't used anymore
+	 */
+	void recycle(PooledBuffer buffer) {
+		int shift = getShift(buffer.capacity());
+		if (shift > MAX_SHIFT || buffer.capacity() != 1 << shift) return; // Not pooled
+		
+		if (mRetained.addAndGet(buffer.capacity()) > mMaxRetained) {
+			mRetained.addAndGet(-buffer.capacity()); // Too many free buffers, let the GC take it.
+			return;
+		}
+		mFreeLists.get(shift - MIN_SHIFT).offer(buffer);
+	}
+	
+	/**
+	 * Returns the smallest power of two (at least 2^MIN_SHIFT) that can contain the size.
+	 */
+	private static int getShift(int size) {
+		int shift = MIN_SHIFT;
+		while (shift < 31 && (1 << shift) < size) {
+			shift++;
+		}
+		return shift;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the number of buffers taken from the free lists.
+	 * @return number of buffers reused
+	 */
+	public long getHits() {
+		return mHits.get();
+	}
+	
+	/**
+	 * Returns the number of buffers that had to be allocated.
+	 * @return number of buffers allocated
+	 */
+	public long getMisses() {
+		return mMisses.get();
+	}
+	
+	/**
+	 * Returns the memory kept by the free lists.
+	 * @return number of bytes of free buffers
+	 */
+	public long getRetained() {
+		return mRetained.get();
+	}
+}
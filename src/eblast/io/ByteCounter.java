@@ -0,0 +1,89 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.util.Date;
+
+/**
+ * This class counts the bytes transferred through a channel, where
+ * the counter streams can't be plugged.
+ * 
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class ByteCounter implements ICounterStream {
+	
+	private long mTotalBytes;
+	private long mBytes;
+	private long mLastTime;
+	
+	/**
+	 * Default constructor. Creates and initializes the counter.
+	 */
+	public ByteCounter() {
+		mTotalBytes = 0;
+		resetCounter();
+	}
+	
+	/**
+	 * Add the number of transferred bytes, only if it is greater than 0.
+	 * @param count number of bytes transferred
+	 */
+	public synchronized void add(long count) {
+		if (count > 0) {
+			mBytes += count;
+			mTotalBytes += count;
+		}
+	}
+	
+	/**
+	 * Reinitializes the counters.
+	 */
+	public synchronized void resetCounter() {
+		mBytes = 0;
+		mLastTime = new Date().getTime();
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the number of byte that has been transferred.
+	 * @return number of byte that has been transferred.
+	 */
+	public synchronized long getTotalBytesRead() {
+		return mTotalBytes;
+	}
+	
+	/**
+	 * Returns the average speed in byte per seconds.
+	 * @return speed in byte per seconds.
+	 */
+	public synchronized double getAverageSpeed() {
+		
+		long now = new Date().getTime();
+		
+		double speed = (now == mLastTime) ? 0 : (double)mBytes * 1000 / (now - mLastTime); // Compute the speed.
+		
+		resetCounter();
+		return speed;
+	}
+}
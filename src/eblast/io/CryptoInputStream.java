@@ -25,6 +25,7 @@ import java.io.InputStream;
 import java.util.Arrays;
 
 import eblast.crypto.KeyPair;
+import eblast.crypto.XORKeyPair;
 
 /**
  * InputStream that will allow us to fetch encrypted data from an InputStream and decrypt it on the fly.
@@ -33,11 +34,15 @@ import eblast.crypto.KeyPair;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 19.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - XOR data in place into the caller's buffer
  */
 public class CryptoInputStream extends FilterInputStream {
 
 	private KeyPair mKeygen;
+	private XORKeyPair mXOR; // Not null if the data can be decrypted in place
 	private int mBlockSize;
+	private byte[] mSingle = new byte[1];
+	private byte[] mBuffer = new byte[0];
 	
 	/**
 	 * Main constructor.
@@ -48,6 +53,10 @@ public class CryptoInputStream extends FilterInputStream {
 		super(in);
 		mKeygen = keyPair;
 		mBlockSize = keyPair.getEncryptedBlockSize();
+		
+		if (keyPair instanceof XORKeyPair) {
+			mXOR = (XORKeyPair) keyPair;
+		}
 	}
 	
 	/**
@@ -55,8 +64,7 @@ public class CryptoInputStream extends FilterInputStream {
 	 * @return The byte read, -1 otherwise
 	 */
 	public int read() throws IOException {
-		byte[] buf = new byte[1];
-		return (read(buf, 0, 1) > 0) ? 0xFF & buf[0] : -1;
+		return (read(mSingle, 0, 1) > 0) ? 0xFF & mSingle[0] : -1;
 	}
 	
 	/**
@@ -77,12 +85,23 @@ public class CryptoInputStream extends FilterInputStream {
 	 */
 	public int read(byte[] buf, int off, int len) throws IOException {
 		
+		if (mXOR != null) { // Stream cipher, no need of an intermediate buffer
+			int read = in.read(buf, off, len);
+			if (read > 0) {
+				mXOR.decrypt(buf, off, read);
+			}
+			return read;
+		}
+		
 		len *= mBlockSize;	// If we want to read len byte, we'll have to read len*mBlockSize
 		
-		byte[] buffer = new byte[len];
+		if (mBuffer.length < len) {
+			mBuffer = new byte[len];
+		}
+		byte[] buffer = mBuffer;
 		int newLen = 0;
 		do {
-			int tmp = in.read(buffer, 0, len - newLen); // Read all bytes, but get the number we read.
+			int tmp = in.read(buffer, newLen, len - newLen); // Read all bytes, but get the number we read.
 			if ((tmp < 0) && (newLen == 0)) { // If we have a negative number of read byte and it's the first run, we quit.
 				return tmp;
 			}
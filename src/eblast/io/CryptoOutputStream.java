@@ -24,6 +24,7 @@ import java.io.OutputStream;
 import java.util.Arrays;
 
 import eblast.crypto.KeyPair;
+import eblast.crypto.XORKeyPair;
 
 /**
  * OutputStream that will allow us to encrypt data and write it on an OutputStream on the fly.
@@ -32,10 +33,15 @@ import eblast.crypto.KeyPair;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 19.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - XOR data in place into a reused buffer
  */
 public class CryptoOutputStream extends OutputStream {
 
+	private static final int BUFFER_SIZE = 1 << 14;
+	
 	private KeyPair mKeygen;
+	private XORKeyPair mXOR; // Not null if the data can be encrypted in place
+	private byte[] mBuffer;
 	private OutputStream out;
 	
 	/**
@@ -46,6 +52,11 @@ public class CryptoOutputStream extends OutputStream {
 	public CryptoOutputStream(OutputStream out, KeyPair keygen) {
 		this.out = out;
 		mKeygen = keygen;
+		
+		if (keygen instanceof XORKeyPair) {
+			mXOR = (XORKeyPair) keygen;
+			mBuffer = new byte[BUFFER_SIZE];
+		}
 	}
 
 	/**
@@ -53,6 +64,12 @@ public class CryptoOutputStream extends OutputStream {
 	 * @param b byte array to be written
 	 */
 	public void write(int b) throws IOException {
+		if (mXOR != null) {
+			mBuffer[0] = (byte) b;
+			mXOR.encrypt(mBuffer, 0, 1);
+			out.write(mBuffer, 0, 1);
+			return;
+		}
 		write(new byte[]{(byte)b}, 0, 1);
 	}
 
@@ -72,6 +89,18 @@ public class CryptoOutputStream extends OutputStream {
 	 */
 	public void write(byte[] b, int offset, int len) throws IOException {
 		
+		if (mXOR != null) { // The caller's data must not be modified, encrypt a copy
+			while (len > 0) {
+				int chunk = Math.min(len, mBuffer.length);
+				System.arraycopy(b, offset, mBuffer, 0, chunk);
+				mXOR.encrypt(mBuffer, 0, chunk);
+				out.write(mBuffer, 0, chunk);
+				offset += chunk;
+				len -= chunk;
+			}
+			return;
+		}
+		
 		// Encrypt data, then write it on the OutputStream.
 		byte[] encB = mKeygen.encrypt(Arrays.copyOfRange(b, offset, offset+len));
 		out.write(encB, 0, encB.length);
@@ -21,7 +21,8 @@ package eblast.io;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import eblast.checksum.NullHashException;
 import eblast.torrent.Torrent;
@@ -32,19 +33,25 @@ import eblast.torrent.piece.WrongIndexException;
 
 /**
  * Class that is going to read/write blocks associated to
- * a torrent into a file.
+ * a torrent into its files.
+ * 
+ * The files are laid end to end in the byte space of the torrent, so a block
+ * can start in a file and end in the next one. All the accesses are positional
+ * (no seek), that's why many threads can read/write at the same time.
  * 
  * @author David Dieulivol <david.dieulivol@gmail.com>
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 22.04.2011 - Initial version
  * @version 1.1 - 23.05.2011 - 
+ * @version 1.2 - 17.10.2026 - Multi-file and positional FileChannel accesses
+ * @version 1.3 - 17.10.2026 - Blocks written from a ByteBuffer
  */
-// TODO Adapt to MultiFile
 public class FileManager {
 	
 	private long mPieceSize;
 	private List<TorrentFile> mFiles; // list of the files contained into the torrent (not the actual one, just containers).
+	private long[] mFileOffsets;      // Offset of the first byte of each file into the torrent.
 	private File mDownloadDir;
 	
 	/**
@@ -53,10 +60,30 @@ public class FileManager {
 	 * @throws IOException if something went wrong with the I/O.
 	 */
 	public FileManager(Torrent torrent) throws IOException {
+		this(torrent.getPieceLength(), torrent.getFiles(), torrent.getFiles().size() > 1 ?
+				new File(torrent.getDownloadDir(), torrent.toString()) :	// Multi-file: into a directory named as the torrent
+				new File(torrent.getDownloadDir()));
+	}
+	
+	/**
+	 * Creates a FileManager on the given files.
+	 * @param pieceSize length of a piece (except the last one)
+	 * @param files files of the torrent, in the order of the metainfo
+	 * @param downloadDir directory where the files are going to be written
+	 * @throws IOException if something went wrong with the I/O.
+	 */
+	public FileManager(long pieceSize, List<TorrentFile> files, File downloadDir) throws IOException {
+		
+		mPieceSize = pieceSize;
+		mFiles = files;
+		mDownloadDir = downloadDir;
 		
-		mPieceSize = torrent.getPieceLength();
-		mFiles = torrent.getFiles();
-		mDownloadDir = new File(torrent.getDownloadDir());
+		mFileOffsets = new long[mFiles.size()];
+		long offset = 0;
+		for (int i=0; i<mFiles.size(); i++) {
+			mFileOffsets[i] = offset;
+			offset += mFiles.get(i).length();
+		}
 		
 		// Creates all the TorrentFile physically on the disk.
 		for (TorrentFile tf: mFiles) {
@@ -73,6 +100,19 @@ public class FileManager {
 		}
 	}
 	
+	/**
+	 * Forces all the data written so far onto the disk.
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		for (TorrentFile tf : mFiles) {
+			FileChannel channel = tf.getChannel();
+			if (channel != null) {
+				channel.force(false);
+			}
+		}
+	}
+	
 	/**
 	 * Allow to erase all files from the disk.
 	 */
@@ -83,21 +123,14 @@ public class FileManager {
 	}
 
 	/**
-	 * Read all blocks of a piece from the disk.
+	 * Read a block of a piece from the disk.
 	 * @param piece piece from where we are going to read.
 	 * @param idx block index
 	 */
 	public Block read(Piece piece, int idx) throws IOException, BlockLengthException, NullHashException, WrongIndexException {
 		
-		// XXX Change when multi-file
-		RandomAccessFile raf = mFiles.get(0).getRandomAccessFile();
-
-		raf.seek(piece.getIndex() * mPieceSize + idx * Block.BLOCK_SIZE);
-		
 		byte[] buffer = new byte[piece.getBlockSize(idx)];
-		
-		@SuppressWarnings("unused")
-		int len = raf.read(buffer);
+		read(getOffset(piece, idx), ByteBuffer.wrap(buffer));
 
 		return new Block(buffer);
 	}
@@ -109,10 +142,128 @@ public class FileManager {
 	 * @throws IOException
 	 */
 	public void write(Piece piece, int idx, Block block) throws IOException {
-		// XXX Change when multi-file
-		RandomAccessFile raf = mFiles.get(0).getRandomAccessFile();
-
-		raf.seek(piece.getIndex() * mPieceSize + idx * Block.BLOCK_SIZE);
-		raf.write(block.toBytes());
+		write(piece, idx, ByteBuffer.wrap(block.toBytes()));
+	}
+	
+	/**
+	 * Writes the remaining data of the buffer at the place of the specified block.
+	 * @param piece Piece where the block is contained
+	 * @param idx block index
+	 * @param data data of the block
+	 * @throws IOException
+	 */
+	public void write(Piece piece, int idx, ByteBuffer data) throws IOException {
+		write(getOffset(piece, idx), data);
+	}
+	
+	/**
+	 * Reads a whole piece from the disk with a single sequential read.
+	 * @param piece piece to read
+	 * @param buffer buffer to fill, of the size of the piece
+	 * @throws IOException
+	 */
+	public void read(Piece piece, ByteBuffer buffer) throws IOException {
+		read(getPieceOffset(piece.getIndex()), buffer);
+	}
+	
+	/**
+	 * Reads the data at the given offset of the torrent until the buffer is full.
+	 * The data that haven't been written yet are read as zeros.
+	 * @param offset offset into the torrent
+	 * @param buffer buffer to fill
+	 * @throws IOException
+	 */
+	public void read(long offset, ByteBuffer buffer) throws IOException {
+		transfer(offset, buffer, false);
+	}
+	
+	/**
+	 * Writes the remaining data of the buffer at the given offset of the torrent.
+	 * @param offset offset into the torrent
+	 * @param buffer data to write
+	 * @throws IOException
+	 */
+	public void write(long offset, ByteBuffer buffer) throws IOException {
+		transfer(offset, buffer, true);
+	}
+	
+	/**
+	 * Reads or writes the buffer, splitting it on the files that it crosses.
+	 * @param offset offset into the torrent
+	 * @param buffer data to read/write
+	 * @param write true to write, false to read
+	 * @throws IOException
+	 */
+	private void transfer(long offset, ByteBuffer buffer, boolean write) throws IOException {
+		int limit = buffer.limit();
+		
+		for (int i = findFile(offset); buffer.hasRemaining(); i++) {
+			if (i >= mFiles.size()) {
+				throw new IOException("Offset " + offset + " is out of the torrent.");
+			}
+			
+			TorrentFile file = mFiles.get(i);
+			long position = offset - mFileOffsets[i];
+			int length = (int) Math.min(buffer.remaining(), file.length() - position);
+			if (length <= 0) continue; // Empty file
+			
+			FileChannel channel = file.getChannel();
+			if (channel == null) {
+				throw new IOException("The file " + file.getPath() + " is closed.");
+			}
+			
+			buffer.limit(buffer.position() + length);
+			while (buffer.hasRemaining()) {
+				int count = write ? channel.write(buffer, position) : channel.read(buffer, position);
+				if (count < 0) { // End of the file: not written yet.
+					buffer.position(buffer.limit());
+					break;
+				}
+				position += count;
+			}
+			buffer.limit(limit);
+			
+			offset += length;
+		}
+	}
+	
+	/**
+	 * Finds the first file that ends after the given offset (binary search).
+	 * @param offset offset into the torrent
+	 * @return index of the file that contains the offset
+	 */
+	private int findFile(long offset) {
+		int low = 0;
+		int high = mFileOffsets.length;
+		
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (mFileOffsets[mid] + mFiles.get(mid).length() <= offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		
+		return low;
+	}
+	
+	/**
+	 * Returns the offset of a block into the torrent.
+	 * @param piece Piece where the block is contained
+	 * @param idx block index
+	 * @return offset of the block into the torrent
+	 */
+	private long getOffset(Piece piece, int idx) {
+		return getPieceOffset(piece.getIndex()) + piece.getBlockOffset(idx);
+	}
+	
+	/**
+	 * Returns the offset of a piece into the torrent.
+	 * @param index index of the piece
+	 * @return offset of the first byte of the piece into the torrent
+	 */
+	public long getPieceOffset(int index) {
+		return index * mPieceSize;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,212 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.BlockLengthException;
+import eblast.torrent.piece.Piece;
+
+/**
+ * Least-recently-used cache of the complete pieces that are uploaded to the peers.
+ * The first request on a piece reads the whole piece with a single read, the next
+ * requests on the same piece are served from the memory.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class PieceCache {
+	
+	public static final long DEFAULT_CAPACITY = 16L << 20; // 16 MiB
+	
+	private FileManager mFileManager;			// Where the pieces are read from
+	private Map<Integer, byte[]> mPieces;		// Cached pieces, in access order
+	private long mCapacity;						// Maximum number of bytes cached
+	private long mSize;							// Number of bytes cached
+	
+	private long mHits;
+	private long mMisses;
+	private long mEvictions;
+	
+	/**
+	 * Constructor.
+	 * @param fileManager FileManager used to read the pieces
+	 * @param capacity maximum number of bytes kept in memory
+	 */
+	public PieceCache(FileManager fileManager, long capacity) {
+		mFileManager = fileManager;
+		mPieces = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+		mCapacity = capacity;
+	}
+	
+	/**
+	 * Returns the requested part of a piece. Only the complete pieces are cached,
+	 * the others are read block by block like before.
+	 * @param piece piece that is requested
+	 * @param begin offset into the piece
+	 * @param length length of the data
+	 * @return the requested data, or null if it doesn't fit into the piece or isn't available
+	 * @throws IOException if the piece can't be read
+	 */
+	public Block read(Piece piece, int begin, int length) throws IOException {
+		if (begin < 0 || length <= 0 || begin + length > piece.getSize()) return null;
+		
+		byte[] data = null;
+		synchronized (this) {
+			data = mPieces.get(piece.getIndex());
+			if (data != null) {
+				mHits++;
+			} else {
+				mMisses++;
+			}
+		}
+		
+		if (data == null) {
+			if (!piece.isComplete() || piece.getSize() > mCapacity) {
+				return readBlock(piece, begin, length);
+			}
+			
+			// Prefetch the rest of the piece with the requested block.
+			data = new byte[piece.getSize()];
+			mFileManager.read(piece, ByteBuffer.wrap(data));
+			put(piece.getIndex(), data);
+		}
+		
+		byte[] block = new byte[length];
+		System.arraycopy(data, begin, block, 0, length);
+		try {
+			return new Block(block);
+		} catch (BlockLengthException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the requested block directly from the disk, only if it has been received.
+	 */
+	private Block readBlock(Piece piece, int begin, int length) throws IOException {
+		try {
+			Block block = piece.getBlockByOffset(begin);
+			return (block != null && block.getSize() == length) ? block : null;
+			
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			return null; // The block hasn't been received
+		}
+	}
+	
+	/**
+	 * Adds a piece into the cache and evicts the least recently used ones.
+	 */
+	private synchronized void put(int index, byte[] data) {
+		byte[] old = mPieces.put(index, data);
+		if (old != null) {
+			mSize -= old.length;
+		}
+		mSize += data.length;
+		
+		evict();
+	}
+	
+	/**
+	 * Removes the least recently used pieces until the cache fits into its capacity.
+	 */
+	private void evict() {
+		Iterator<byte[]> it = mPieces.values().iterator();
+		while (mSize > mCapacity && it.hasNext()) {
+			mSize -= it.next().length;
+			it.remove();
+			mEvictions++;
+		}
+	}
+	
+	/**
+	 * Removes a piece from the cache (e.g. when it isn't valid anymore).
+	 * @param index index of the piece
+	 */
+	public synchronized void invalidate(int index) {
+		byte[] old = mPieces.remove(index);
+		if (old != null) {
+			mSize -= old.length;
+		}
+	}
+	
+	/**
+	 * Removes all the pieces from the cache.
+	 */
+	public synchronized void clear() {
+		mPieces.clear();
+		mSize = 0;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * @return number of requests served from the memory
+	 */
+	public synchronized long getHits() {
+		return mHits;
+	}
+	
+	/**
+	 * @return number of requests that needed a read on the disk
+	 */
+	public synchronized long getMisses() {
+		return mMisses;
+	}
+	
+	/**
+	 * @return number of pieces removed to make room for the new ones
+	 */
+	public synchronized long getEvictions() {
+		return mEvictions;
+	}
+	
+	/**
+	 * @return number of bytes currently cached
+	 */
+	public synchronized long getSize() {
+		return mSize;
+	}
+	
+	/**
+	 * @return maximum number of bytes cached
+	 */
+	public synchronized long getCapacity() {
+		return mCapacity;
+	}
+	
+	/**
+	 * Sets the maximum number of bytes cached, and evicts the pieces that don't fit anymore.
+	 * @param capacity maximum number of bytes cached
+	 */
+	public synchronized void setCapacity(long capacity) {
+		mCapacity = capacity;
+		evict();
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffer lent by a ByteBufferPool, with a reference counter.
+ * It goes back to its pool when the last reference is released,
+ * so every user of one of its slices has to retain it first.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class PooledBuffer {
+	
+	private ByteBufferPool mPool;
+	private ByteBuffer mBuffer;
+	private AtomicInteger mReferences;
+	
+	/**
+	 * Constructor, only used by the ByteBufferPool.
+	 * @param pool pool that owns the buffer
+	 * @param buffer the buffer itself
+	 */
+	PooledBuffer(ByteBufferPool pool, ByteBuffer buffer) {
+		mPool = pool;
+		mBuffer = buffer;
+		mReferences = new AtomicInteger(0);
+	}
+	
+	/**
+	 * Adds a reference to this buffer.
+	 * @return this buffer
+	 */
+	public PooledBuffer retain() {
+		if (mReferences.getAndIncrement() <= 0) {
+			mReferences.decrementAndGet();
+			throw new IllegalStateException("The buffer has already been released.");
+		}
+		return this;
+	}
+	
+	/**
+	 * Removes a reference to this buffer, gives it back to its pool if it was the last one.
+	 */
+	public void release() {
+		int references = mReferences.decrementAndGet();
+		if (references == 0) {
+			mPool.recycle(this);
+		} else if (references < 0) {
+			mReferences.incrementAndGet();
+			throw new IllegalStateException("The buffer has already been released.");
+		}
+	}
+	
+	/**
+	 * Called by the pool when the buffer is lent again.
+	 */
+	void reset() {
+		mBuffer.clear();
+		mReferences.set(1);
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the buffer itself. It mustn't be used after the release of its last reference.
+	 * @return the buffer
+	 */
+	public ByteBuffer getBuffer() {
+		return mBuffer;
+	}
+	
+	/**
+	 * Returns the number of references to this buffer.
+	 * @return the number of references, 0 if it is back in its pool
+	 */
+	public int getReferences() {
+		return mReferences.get();
+	}
+	
+	/**
+	 * Returns the size of the buffer.
+	 * @return capacity of the buffer in bytes
+	 */
+	public int capacity() {
+		return mBuffer.capacity();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * This class limits the rate of an InputStream with a TokenBucket.
+ * The thread that reads waits for the tokens by itself.
+ * 
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class ThrottledInputStream extends InputStream {
+	
+	private InputStream in;
+	private TokenBucket mBucket;
+	
+	/**
+	 * Default constructor.
+	 * @param is InputStream of the connection to limit
+	 * @param bucket TokenBucket that limits the rate
+	 */
+	public ThrottledInputStream(InputStream is, TokenBucket bucket) {
+		in = is;
+		mBucket = bucket;
+	}
+	
+	/**
+	 * @see java.io.FilterInputStream
+	 */
+	public int read() throws IOException {
+		acquire(1);
+		int value = in.read();
+		if (value < 0) mBucket.refund(1);
+		return value;
+	}
+	
+	/**
+	 * @see java.io.FilterInputStream
+	 */
+	public int read(byte[] b) throws IOException {
+		return read(b, 0 , b.length);
+	}
+	
+	/**
+	 * @see java.io.FilterInputStream
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		
+		// Don't keep tokens for data that haven't arrived yet.
+		int granted = acquire(Math.min(len, Math.max(1, in.available())));
+		int read = in.read(b, off, granted);
+		mBucket.refund(granted - Math.max(0, read));
+		return read;
+	}
+	
+	/**
+	 * @see java.io.FilterInputStream
+	 */
+	public int available() throws IOException {
+		return in.available();
+	}
+	
+	/**
+	 * @see java.io.FilterInputStream
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	/**
+	 * Waits for tokens.
+	 * @param max maximum number of bytes to read
+	 * @return number of bytes that can be read
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	private int acquire(int max) throws InterruptedIOException {
+		try {
+			return (int) mBucket.take(max);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * This class limits the rate of an OutputStream with a TokenBucket.
+ * The thread that writes waits for the tokens by itself.
+ * 
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class ThrottledOutputStream extends OutputStream {
+	
+	private OutputStream out;
+	private TokenBucket mBucket;
+	
+	/**
+	 * Default constructor.
+	 * @param os OutputStream of the connection to limit
+	 * @param bucket TokenBucket that limits the rate
+	 */
+	public ThrottledOutputStream(OutputStream os, TokenBucket bucket) {
+		out = os;
+		mBucket = bucket;
+	}
+	
+	/**
+	 * @see java.io.FilterOutputStream
+	 */
+	public void write(int b) throws IOException {
+		acquire(1);
+		out.write(b);
+	}
+	
+	/**
+	 * @see java.io.FilterOutputStream
+	 */
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+	
+	/**
+	 * Writes the data quantum by quantum, as fast as the TokenBucket allows it.
+	 * @see java.io.FilterOutputStream
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int granted = acquire(len);
+			out.write(b, off, granted);
+			off += granted;
+			len -= granted;
+		}
+	}
+	
+	/**
+	 * @see java.io.FilterOutputStream
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * @see java.io.FilterOutputStream
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+	
+	/**
+	 * Waits for tokens.
+	 * @param max maximum number of bytes to write
+	 * @return number of bytes that can be written
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	private int acquire(int max) throws InterruptedIOException {
+		try {
+			return (int) mBucket.take(max);
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+		}
+	}
+}
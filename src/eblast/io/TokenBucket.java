@@ -0,0 +1,224 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.io;
+
+/**
+ * This class limits a transfer rate with a token bucket. The buckets are organized in
+ * a hierarchy (global, torrent, peer): bytes can be transferred only if every bucket
+ * from the peer to the global one has enough tokens.
+ * <p>
+ * No thread fills the buckets: they are refilled according to the time elapsed when
+ * they are used. The tokens are given by small quanta, so that the transfers sharing
+ * a bucket get fair shares of it.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class TokenBucket {
+	
+	public static final long UNLIMITED = 0;
+	
+	private static final long MIN_BURST = 32 * 1024;			// Minimal capacity of a bucket (bytes)
+	private static final long MIN_QUANTUM = 4 * 1024;			// Minimal quantum given at once (bytes)
+	private static final long MAX_WAIT = 100L;					// Maximum time waited before retrying (ms)
+	
+	private static final Object LOCK = new Object();			// The whole hierarchy is updated atomically
+	
+	private TokenBucket mParent;
+	private long mRate;						// Bytes per second, UNLIMITED if 0
+	private double mTokens;					// Bytes that can be transferred
+	private long mLastRefill;				// Time of the last refill (ns)
+	
+	/**
+	 * Constructor.
+	 * @param rate rate in bytes per second, UNLIMITED if 0
+	 * @param parent bucket that limits this one too, may be null
+	 */
+	public TokenBucket(long rate, TokenBucket parent) {
+		mParent = parent;
+		mLastRefill = System.nanoTime();
+		setRate(rate);
+		mTokens = getCapacity(); // A full bucket at the beginning
+	}
+	
+	/**
+	 * Takes at most max tokens, without waiting.
+	 * @param max maximum number of bytes to transfer
+	 * @return number of bytes that can be transferred, maybe 0
+	 */
+	public long tryTake(long max) {
+		return tryTake(max, System.nanoTime());
+	}
+	
+	/**
+	 * Takes at most max tokens, without waiting.
+	 * @param max maximum number of bytes to transfer
+	 * @param now current time (ns)
+	 * @return number of bytes that can be transferred, maybe 0
+	 */
+	public long tryTake(long max, long now) {
+		synchronized (LOCK) {
+			long granted = Math.min(max, getAvailable(now));
+			if (granted <= 0) return 0;
+			
+			for (TokenBucket b = this; b != null; b = b.mParent) {
+				if (b.mRate != UNLIMITED) {
+					b.mTokens -= granted;
+				}
+			}
+			return granted;
+		}
+	}
+	
+	/**
+	 * Takes at least one token and at most max tokens, waits if needed.
+	 * @param max maximum number of bytes to transfer
+	 * @return number of bytes that can be transferred
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public long take(long max) throws InterruptedException {
+		if (max <= 0) return 0;
+		
+		while (true) {
+			long granted = tryTake(max);
+			if (granted > 0) return granted;
+			
+			Thread.sleep(getWaitTime(Math.min(max, getQuantum())));
+		}
+	}
+	
+	/**
+	 * Gives back tokens that haven't been used.
+	 * @param count number of bytes not transferred
+	 */
+	public void refund(long count) {
+		if (count <= 0) return;
+		
+		synchronized (LOCK) {
+			for (TokenBucket b = this; b != null; b = b.mParent) {
+				if (b.mRate != UNLIMITED) {
+					b.mTokens = Math.min(b.getCapacity(), b.mTokens + count);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Refills the bucket according to the time elapsed.
+	 */
+	private void refill(long now) {
+		if (mRate != UNLIMITED && now > mLastRefill) {
+			mTokens = Math.min(getCapacity(), mTokens + (now - mLastRefill) * mRate / 1e9);
+		}
+		mLastRefill = now;
+	}
+	
+	/**
+	 * Returns the number of tokens available in the whole hierarchy, at most one quantum.
+	 */
+	private long getAvailable(long now) {
+		long available = Long.MAX_VALUE;
+		for (TokenBucket b = this; b != null; b = b.mParent) {
+			b.refill(now);
+			if (b.mRate != UNLIMITED) {
+				available = Math.min(available, Math.min((long) b.mTokens, b.getQuantum()));
+			}
+		}
+		return available;
+	}
+	
+	/**
+	 * Returns the time to wait until count tokens are available in the whole hierarchy.
+	 */
+	private long getWaitTime(long count) {
+		synchronized (LOCK) {
+			long wait = 1;
+			for (TokenBucket b = this; b != null; b = b.mParent) {
+				if (b.mRate != UNLIMITED && b.mTokens < count) {
+					wait = Math.max(wait, (long) ((count - b.mTokens) * 1000 / b.mRate) + 1);
+				}
+			}
+			return Math.min(MAX_WAIT, wait);
+		}
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the maximum number of tokens given at once by the hierarchy (50ms of transfer).
+	 * @return the quantum in bytes, Long.MAX_VALUE if unlimited
+	 */
+	public long getQuantum() {
+		synchronized (LOCK) {
+			long quantum = Long.MAX_VALUE;
+			for (TokenBucket b = this; b != null; b = b.mParent) {
+				if (b.mRate != UNLIMITED) {
+					quantum = Math.min(quantum, Math.max(MIN_QUANTUM, b.mRate / 20));
+				}
+			}
+			return quantum;
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of tokens of this bucket (250ms of transfer).
+	 */
+	private long getCapacity() {
+		return Math.max(MIN_BURST, mRate / 4);
+	}
+	
+	/**
+	 * Returns true if this bucket or one of its parents limits the rate.
+	 * @return true if the transfers are limited
+	 */
+	public boolean isLimited() {
+		synchronized (LOCK) {
+			for (TokenBucket b = this; b != null; b = b.mParent) {
+				if (b.mRate != UNLIMITED) return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the rate of this bucket.
+	 * @return rate in bytes per second, UNLIMITED if 0
+	 */
+	public long getRate() {
+		synchronized (LOCK) {
+			return mRate;
+		}
+	}
+	
+	/**
+	 * Sets the rate of this bucket.
+	 * @param rate rate in bytes per second, UNLIMITED if 0
+	 */
+	public void setRate(long rate) {
+		synchronized (LOCK) {
+			refill(System.nanoTime());
+			boolean wasLimited = mRate != UNLIMITED;
+			mRate = Math.max(UNLIMITED, rate);
+			mTokens = wasLimited ? Math.min(mTokens, getCapacity()) : getCapacity();
+		}
+	}
+}
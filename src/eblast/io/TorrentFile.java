@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
 import eblast.checksum.Hash;
@@ -37,6 +38,8 @@ import eblast.log.Log;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 27.02.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - FileChannel and creation of the parent directories
+ * @version 1.2 - 17.10.2026 - Paths that leave the download directory are refused
  */
 public class TorrentFile {
 	
@@ -76,11 +79,23 @@ public class TorrentFile {
 	 * where <code>dir</code> is the path to the main folder and <code>mPath</code> is the relative
 	 * path of the TorrentFile into the Torrent.
 	 * @param dir directory where the file will be downloaded to
+	 * @throws IOException if the file can't be opened, or isn't into the directory
 	 */
-	public void open(File dir) throws FileNotFoundException {
+	public void open(File dir) throws IOException {
 		mFile = new File(dir.getAbsolutePath() + System.getProperty("file.separator") + mPath);
 		
+		// The path comes from the metainfo, it mustn't reach a file out of the directory.
+		String base = dir.getCanonicalPath() + File.separator;
+		if (!mFile.getCanonicalPath().startsWith(base)) {
+			throw new FileNotFoundException(mPath + " is out of the download directory " + dir);
+		}
+		
 		Log.d("File", "opening " + mFile.getAbsolutePath()); // Debug
+		
+		// Creates the directories of the file (multi-file mode)
+		if (!mFile.getParentFile().exists()) {
+			mFile.getParentFile().mkdirs();
+		}
 		mRAF = new RandomAccessFile(mFile, "rw");
 	}
 	
@@ -88,6 +103,8 @@ public class TorrentFile {
 	 * Closes the file.
 	 */
 	public void close() {
+		if (mRAF == null) return; // Already closed
+		
 		try {
 			mRAF.close();
 		} catch (IOException e) {
@@ -133,6 +150,17 @@ public class TorrentFile {
 		return builder.toString();
 	}
 	
+	/**
+	 * Checks that a part of a path given by the metainfo (name of a directory or of a file) can't
+	 * be used to leave the download directory.
+	 * @param name the name of a directory or a file
+	 * @return true if the name isn't empty, isn't "." or "..", and doesn't contain a separator
+	 */
+	public static boolean isSafeName(String name) {
+		return name != null && name.length() > 0 && !name.equals(".") && !name.equals("..")
+				&& name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+	}
+	
 	/************************ GETTERS / SETTERS *************************/
 	
 	/**
@@ -166,4 +194,21 @@ public class TorrentFile {
 	public RandomAccessFile getRandomAccessFile() {
 		return mRAF;
 	}
+	
+	/**
+	 * returns the channel of the file, used for the positional reads/writes.
+	 * @return channel of the file, null if the file is closed.
+	 */
+	public FileChannel getChannel() {
+		RandomAccessFile raf = mRAF;
+		return (raf == null) ? null : raf.getChannel();
+	}
+	
+	/**
+	 * returns the file on the disk.
+	 * @return the file on the disk, null if it has never been opened.
+	 */
+	public File getFile() {
+		return mFile;
+	}
 }
\ No newline at end of file
@@ -35,6 +35,7 @@ import eblast.io.TorrentFile;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 27.02.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Unsafe paths refused
  */
 public class FileDictionnary {
 	static final String KEY_LENGTH			= "length";
@@ -70,6 +71,12 @@ public class FileDictionnary {
 		else
 			throw new MetaInfoRequiredKeyException(KEY_PATH);
 		
+		// "..", absolute or empty parts would write out of the download directory.
+		if (mPath.isEmpty()) throw new MetaInfoException("Empty path in the file list.");
+		for (String name: mPath) {
+			if (!TorrentFile.isSafeName(name)) throw new MetaInfoException("Unsafe path in the file list: " + mPath);
+		}
+		
 		// -------------------------------------------------------------------
 
 		// Optional Key
@@ -20,8 +20,8 @@
 package eblast.metainfo;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 import eblast.bencoding.BEDictionary;
@@ -39,6 +39,8 @@ import eblast.io.TorrentFile;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 27.02.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Hashes of the pieces read from the buffer of the metainfo, without copying the whole string
+ * @version 1.2 - 17.10.2026 - Unsafe names refused
  */
 public class Info {
 	
@@ -93,6 +95,10 @@ public class Info {
 			mName = mDictionary.getString(KEY_NAME);
 		else
 			throw new MetaInfoRequiredKeyException(KEY_NAME);
+		
+		// The name is a file or a directory into the download directory.
+		if (!TorrentFile.isSafeName(mName))
+			throw new MetaInfoException("Unsafe name: " + mName);
 		// -------------------------------------------------------------------
 
 		// Optional Key
@@ -154,15 +160,18 @@ public class Info {
 		
 		mPieces = new ArrayList<Hash>();
 		
-		byte[] pieces = mDictionary.getBytes(KEY_PIECES);
-		if (pieces.length % SHA1_STRING_LENGTH != 0) {
+		ByteBuffer pieces = mDictionary.getBuffer(KEY_PIECES);
+		if (pieces.remaining() % SHA1_STRING_LENGTH != 0) {
 			
 			throw new MetaInfoException("The SHA1 length should be a multiple of 20 bytes.");
 		}
 		
-		for (int i=0; i<pieces.length; i+=SHA1_STRING_LENGTH) {
+		mPieces.ensureCapacity(pieces.remaining() / SHA1_STRING_LENGTH);
+		byte[] hash = new byte[SHA1_STRING_LENGTH];
+		while (pieces.hasRemaining()) {
 			
-			mPieces.add(new Hash(Arrays.copyOfRange(pieces, i, i+SHA1_STRING_LENGTH)));
+			pieces.get(hash);
+			mPieces.add(new Hash(hash)); // The hash is copied
 		}
 	}
 	
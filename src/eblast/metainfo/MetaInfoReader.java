@@ -20,13 +20,15 @@
 package eblast.metainfo;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import eblast.bencoding.BDecoder;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+
+import eblast.bencoding.BBufferDecoder;
 import eblast.bencoding.BEDictionary;
-import eblast.checksum.Hash;
+import eblast.checksum.Checksum;
 import eblast.http.HTTPGet;
 
 /**
@@ -38,6 +40,7 @@ import eblast.http.HTTPGet;
  * 
  * @version 1.0 - 27.02.2011 - Initial version
  * @version 1.1 - 04.03.2011 - Modification because of the need of info_hash
+ * @version 1.2 - 17.10.2026 - File mapped in memory and decoded lazily, info_hash computed on the span of the info dictionary
  */
 public class MetaInfoReader {
 	/**
@@ -49,12 +52,20 @@ public class MetaInfoReader {
 	 * @throws IOException If the file is not readable or an error has occurred to read it.
 	 */
 	public static MetaInfo openMetaInfo(String filename) throws MetaInfoException, FileNotFoundException, IOException {
-		FileInputStream fis = new FileInputStream(filename);
-		BDecoder decoder = new BDecoder(fis);
-		decoder.setSpecialMapName(MetaInfo.KEY_INFO);
-		BEDictionary dict = new BEDictionary(decoder.bdecodeMap());
+		BEDictionary dict = new BEDictionary(BBufferDecoder.bdecode(new File(filename)));
 		
-		return new MetaInfo(dict, new Hash(decoder.getSpecialMapDigest()));
+		// The info_hash is the SHA-1 of the info dictionary, as it is encoded in the file.
+		try {
+			Checksum sha1 = Checksum.getSHA1Instance();
+			if (dict.contains(MetaInfo.KEY_INFO)) {
+				ByteBuffer info = dict.getEncoded(MetaInfo.KEY_INFO);
+				sha1.append(info);
+			}
+			return new MetaInfo(dict, sha1.digest());
+			
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalError(e.toString());
+		}
 	}
 	
 	/**
@@ -46,6 +46,15 @@ public class EBlastSettings {
 	
 	// Maximum number of peers
 	private static final int DEFAULT_MAX_PEERS = 60;
+	
+	// Number of peers that may download from us at the same time
+	private static final int DEFAULT_UPLOAD_SLOTS = 4;
+	
+	// Memory used to assemble the pieces before writing them (MiB)
+	private static final int DEFAULT_WRITE_CACHE = 32;
+	
+	// Rate limits (KiB/s, 0 means unlimited)
+	private static final int DEFAULT_RATE_LIMIT = 0;
 
 	//--------------- Constants --------------------
 	
@@ -55,10 +64,20 @@ public class EBlastSettings {
 	private boolean mEncrypted = false;
 	private boolean mIgnoreUnencrypted = false; // Only encrypted mode
 	
+	// Network engine
+	private boolean mNIOEngine = false;			// Selector-based engine instead of one thread per peer
+	private boolean mVirtualThreads = false;	// Virtual threads for the io and announce pools (if the JDK has them)
+	
 	// Actual attributes of the class
 	private File mDownloadDir = new File(DEFAULT_DIR);
 	private int mPort = DEFAULT_PORT;
 	private int mMaxPeers = DEFAULT_MAX_PEERS;
+	private int mUploadSlots = DEFAULT_UPLOAD_SLOTS;
+	private int mWriteCache = DEFAULT_WRITE_CACHE;
+	private int mDownloadLimit = DEFAULT_RATE_LIMIT;		// Whole program
+	private int mUploadLimit = DEFAULT_RATE_LIMIT;
+	private int mPeerDownloadLimit = DEFAULT_RATE_LIMIT;	// Each peer
+	private int mPeerUploadLimit = DEFAULT_RATE_LIMIT;
 	
 	/**
 	 * Create an XML String with all the parameters above. This String
@@ -71,8 +90,12 @@ public class EBlastSettings {
 		
 		// Construct the String using a StringBuilder.
 		StringBuilder builder = new StringBuilder();
-		builder.append("<eblast port=\"" + mPort + "\" maxpeers=\"" + mMaxPeers + "\" ");
-		builder.append("encrypted=\"" + mEncrypted + "\" ignoreunencrypted=\"" + mIgnoreUnencrypted + "\">" + endl);
+		builder.append("<eblast port=\"" + mPort + "\" maxpeers=\"" + mMaxPeers + "\" uploadslots=\"" + mUploadSlots + "\" ");
+		builder.append("encrypted=\"" + mEncrypted + "\" ignoreunencrypted=\"" + mIgnoreUnencrypted + "\" ");
+		builder.append("encryptionmode=\"" + mEncryptionSettings.getMode() + "\" keypooldepth=\"" + mEncryptionSettings.getKeyPoolDepth() + "\" ");
+		builder.append("nioengine=\"" + mNIOEngine + "\" virtualthreads=\"" + mVirtualThreads + "\" writecache=\"" + mWriteCache + "\" ");
+		builder.append("downloadlimit=\"" + mDownloadLimit + "\" uploadlimit=\"" + mUploadLimit + "\" ");
+		builder.append("peerdownloadlimit=\"" + mPeerDownloadLimit + "\" peeruploadlimit=\"" + mPeerUploadLimit + "\">" + endl);
 		builder.append("\t<download path=\"" + mDownloadDir.getAbsolutePath().trim() + "\" />" + endl);
 		builder.append("</eblast>");
 		
@@ -130,6 +153,22 @@ public class EBlastSettings {
 		mMaxPeers = max;
 	}
 	
+	/**
+	 * Returns the number of peers that may download from us at the same time (per torrent).
+	 * @return number of upload slots
+	 */
+	public int getUploadSlots() {
+		return mUploadSlots;
+	}
+	
+	/**
+	 * Sets the number of peers that may download from us at the same time (per torrent).
+	 * @param slots number of upload slots, at least one
+	 */
+	public void setUploadSlots(int slots) {
+		mUploadSlots = Math.max(1, slots);
+	}
+	
 	public EncryptionSettings getEncryptionSettings() {
 		return mEncryptionSettings;
 	}
@@ -165,4 +204,117 @@ public class EBlastSettings {
 	public void setIgnoreUnencrypted(boolean activate) {
 		mIgnoreUnencrypted = activate;
 	}
+	
+	/**
+	 * Returns true if the selector-based network engine is activated, false otherwise.
+	 * @return true if the selector-based network engine is activated, false otherwise
+	 */
+	public boolean isNIOEngineActivated() {
+		return mNIOEngine;
+	}
+	
+	/**
+	 * Uses the selector-based network engine if the parameter is true, one thread per peer otherwise.
+	 * @param activate parameter used to activate/desactivate the selector-based network engine.
+	 */
+	public void setNIOEngine(boolean activate) {
+		mNIOEngine = activate;
+	}
+	
+	/**
+	 * Returns true if the virtual threads are activated, false otherwise.
+	 * @return true if the virtual threads are activated, false otherwise
+	 */
+	public boolean isVirtualThreadsActivated() {
+		return mVirtualThreads;
+	}
+	
+	/**
+	 * Uses the virtual threads for the io and announce tasks if the parameter is true
+	 * and the JDK supports them, the platform threads otherwise.
+	 * @param activate parameter used to activate/desactivate the virtual threads.
+	 */
+	public void setVirtualThreads(boolean activate) {
+		mVirtualThreads = activate;
+	}
+	
+	/**
+	 * Returns the memory used to assemble the pieces before writing them, in MiB.
+	 * @return the size of the write cache in MiB
+	 */
+	public int getWriteCacheSize() {
+		return mWriteCache;
+	}
+	
+	/**
+	 * Sets the memory used to assemble the pieces before writing them, in MiB.
+	 * @param size the size of the write cache in MiB (0 writes every block directly)
+	 */
+	public void setWriteCacheSize(int size) {
+		mWriteCache = Math.max(0, size);
+	}
+	
+	/**
+	 * Returns the maximum download rate of the whole program, in KiB/s.
+	 * @return the global download limit in KiB/s (0 means unlimited)
+	 */
+	public int getDownloadLimit() {
+		return mDownloadLimit;
+	}
+	
+	/**
+	 * Sets the maximum download rate of the whole program, in KiB/s.
+	 * @param limit the global download limit in KiB/s (0 means unlimited)
+	 */
+	public void setDownloadLimit(int limit) {
+		mDownloadLimit = Math.max(0, limit);
+	}
+	
+	/**
+	 * Returns the maximum upload rate of the whole program, in KiB/s.
+	 * @return the global upload limit in KiB/s (0 means unlimited)
+	 */
+	public int getUploadLimit() {
+		return mUploadLimit;
+	}
+	
+	/**
+	 * Sets the maximum upload rate of the whole program, in KiB/s.
+	 * @param limit the global upload limit in KiB/s (0 means unlimited)
+	 */
+	public void setUploadLimit(int limit) {
+		mUploadLimit = Math.max(0, limit);
+	}
+	
+	/**
+	 * Returns the maximum download rate of each peer, in KiB/s.
+	 * @return the download limit of a peer in KiB/s (0 means unlimited)
+	 */
+	public int getPeerDownloadLimit() {
+		return mPeerDownloadLimit;
+	}
+	
+	/**
+	 * Sets the maximum download rate of each peer, in KiB/s.
+	 * @param limit the download limit of a peer in KiB/s (0 means unlimited)
+	 */
+	public void setPeerDownloadLimit(int limit) {
+		mPeerDownloadLimit = Math.max(0, limit);
+	}
+	
+	/**
+	 * Returns the maximum upload rate to each peer, in KiB/s.
+	 * @return the upload limit of a peer in KiB/s (0 means unlimited)
+	 */
+	public int getPeerUploadLimit() {
+		return mPeerUploadLimit;
+	}
+	
+	/**
+	 * Sets the maximum upload rate to each peer, in KiB/s.
+	 * @param limit the upload limit of a peer in KiB/s (0 means unlimited)
+	 */
+	public void setPeerUploadLimit(int limit) {
+		mPeerUploadLimit = Math.max(0, limit);
+	}
 }
\ No newline at end of file
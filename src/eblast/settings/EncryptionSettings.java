@@ -28,6 +28,8 @@ package eblast.settings;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 25.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Choice of the encryption mode
+ * @version 1.2 - 17.10.2026 - Number of keys generated in advance
  */
 public class EncryptionSettings {
 	
@@ -36,11 +38,24 @@ public class EncryptionSettings {
 	public static final int DEFAULT_RSA_KEYLENGTH = 128;
 	public static final int DEFAULT_SYMMETRIC_KEYLENGTH = 128;
 	
+	/**
+	 * Encryption of the data exchanged with the peers:
+	 * rsaXor - RSA exchange of a XOR key, then XOR of the data (compatible with the old versions)
+	 * aead - Diffie-Hellman key exchange, then AES with authentication of every record
+	 */
+	public static enum Mode { rsaXor, aead };
+	
+	public static final Mode DEFAULT_MODE = Mode.aead;
+	
+	public static final int DEFAULT_KEY_POOL_DEPTH = 4;
+	
 	//----------------------------------------------
 
 	// Encryption
 	private int mRSAModlength 			= DEFAULT_RSA_KEYLENGTH;
 	private int mSymmetricKeylength 	= DEFAULT_SYMMETRIC_KEYLENGTH;
+	private Mode mMode					= DEFAULT_MODE;
+	private int mKeyPoolDepth			= DEFAULT_KEY_POOL_DEPTH;
 
 	/************************ GETTERS / SETTERS *************************/
 	
@@ -69,4 +84,36 @@ public class EncryptionSettings {
 		mRSAModlength = RSAModlength;
 		mSymmetricKeylength = symmetricKeylength;
 	}
+	
+	/**
+	 * Returns the preferred encryption mode. The rsaXor mode is used anyway with the peers that don't know the aead one.
+	 * @return the preferred encryption mode
+	 */
+	public Mode getMode() {
+		return mMode;
+	}
+	
+	/**
+	 * Sets the preferred encryption mode.
+	 * @param mode the preferred encryption mode
+	 */
+	public void setMode(Mode mode) {
+		mMode = mode;
+	}
+	
+	/**
+	 * Returns the number of RSA and XOR key pairs generated in advance.
+	 * @return number of key pairs of each kind kept ready, 0 if they are generated during the handshake
+	 */
+	public int getKeyPoolDepth() {
+		return mKeyPoolDepth;
+	}
+	
+	/**
+	 * Sets the number of RSA and XOR key pairs generated in advance.
+	 * @param keyPoolDepth number of key pairs of each kind kept ready, 0 to generate them during the handshake
+	 */
+	public void setKeyPoolDepth(int keyPoolDepth) {
+		mKeyPoolDepth = keyPoolDepth;
+	}
 }
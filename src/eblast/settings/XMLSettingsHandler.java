@@ -81,8 +81,18 @@ public class XMLSettingsHandler extends DefaultHandler {
 		if (qName.equals("eblast")) {
 			if ((value = attributes.getValue("port")) != null) mSettings.setPort(Integer.valueOf(value));
 			if ((value = attributes.getValue("maxpeers")) != null) mSettings.setMaxPeers(Integer.valueOf(value));
+			if ((value = attributes.getValue("uploadslots")) != null) mSettings.setUploadSlots(Integer.valueOf(value));
 			if ((value = attributes.getValue("encrypted")) != null) mSettings.setEncryption(Boolean.valueOf(value));
 			if ((value = attributes.getValue("ignoreunencrypted")) != null) mSettings.setIgnoreUnencrypted(Boolean.valueOf(value));
+			if ((value = attributes.getValue("encryptionmode")) != null) mSettings.getEncryptionSettings().setMode(EncryptionSettings.Mode.valueOf(value));
+			if ((value = attributes.getValue("keypooldepth")) != null) mSettings.getEncryptionSettings().setKeyPoolDepth(Integer.valueOf(value));
+			if ((value = attributes.getValue("nioengine")) != null) mSettings.setNIOEngine(Boolean.valueOf(value));
+			if ((value = attributes.getValue("virtualthreads")) != null) mSettings.setVirtualThreads(Boolean.valueOf(value));
+			if ((value = attributes.getValue("writecache")) != null) mSettings.setWriteCacheSize(Integer.valueOf(value));
+			if ((value = attributes.getValue("downloadlimit")) != null) mSettings.setDownloadLimit(Integer.valueOf(value));
+			if ((value = attributes.getValue("uploadlimit")) != null) mSettings.setUploadLimit(Integer.valueOf(value));
+			if ((value = attributes.getValue("peerdownloadlimit")) != null) mSettings.setPeerDownloadLimit(Integer.valueOf(value));
+			if ((value = attributes.getValue("peeruploadlimit")) != null) mSettings.setPeerUploadLimit(Integer.valueOf(value));
 		} else if (qName.equals("download")) {
 			if ((value = attributes.getValue("path")) != null) mSettings.setDownloadDir(new File(value));
 		}
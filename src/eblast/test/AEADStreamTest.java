@@ -0,0 +1,125 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.crypto.AEADSession;
+import eblast.crypto.KeyExchange;
+import eblast.io.AEADInputStream;
+import eblast.io.AEADOutputStream;
+
+public class AEADStreamTest {
+	
+	private AEADSession mAlice;
+	private AEADSession mBob;
+	
+	@Before
+	public void setUp() throws GeneralSecurityException {
+		KeyExchange alice = new KeyExchange();
+		KeyExchange bob = new KeyExchange();
+		
+		mAlice = alice.agree(bob.getPublicKey());
+		mBob = bob.agree(alice.getPublicKey());
+	}
+	
+	private byte[] createData(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+	
+	private byte[] encrypt(AEADSession session, byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		AEADOutputStream output = new AEADOutputStream(bytes, session);
+		output.write(data);
+		output.flush();
+		return bytes.toByteArray();
+	}
+	
+	private byte[] decrypt(AEADSession session, byte[] data, int length) throws IOException {
+		byte[] result = new byte[length];
+		new DataInputStream(new AEADInputStream(new ByteArrayInputStream(data), session)).readFully(result);
+		return result;
+	}
+	
+	@Test
+	public void testBothDirections() throws IOException {
+		byte[] data = createData(100000); // Several records
+		
+		byte[] encrypted = encrypt(mAlice, data);
+		assertFalse(new String(encrypted).contains(new String(data, 0, 64)));
+		assertArrayEquals(data, decrypt(mBob, encrypted, data.length));
+		
+		encrypted = encrypt(mBob, data);
+		assertArrayEquals(data, decrypt(mAlice, encrypted, data.length));
+	}
+	
+	@Test
+	public void testSmallWrites() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		AEADOutputStream output = new AEADOutputStream(bytes, mAlice);
+		output.write(42);
+		output.flush();
+		output.write(new byte[] { 1, 2, 3 }, 1, 2);
+		output.flush();
+		
+		AEADInputStream input = new AEADInputStream(new ByteArrayInputStream(bytes.toByteArray()), mBob);
+		assertEquals(42, input.read());
+		assertEquals(2, input.read());
+		assertEquals(3, input.read());
+		assertEquals(-1, input.read());
+	}
+	
+	@Test(expected=IOException.class)
+	public void testModifiedRecord() throws IOException {
+		byte[] data = createData(1000);
+		byte[] encrypted = encrypt(mAlice, data);
+		encrypted[10] ^= 1;
+		decrypt(mBob, encrypted, data.length);
+	}
+	
+	@Test(expected=IOException.class)
+	public void testReplayedRecord() throws IOException {
+		byte[] data = createData(1000);
+		byte[] encrypted = encrypt(mAlice, data);
+		
+		byte[] twice = new byte[2 * encrypted.length];
+		System.arraycopy(encrypted, 0, twice, 0, encrypted.length);
+		System.arraycopy(encrypted, 0, twice, encrypted.length, encrypted.length);
+		decrypt(mBob, twice, 2 * data.length);
+	}
+	
+	@Test(expected=IOException.class)
+	public void testWrongDirection() throws IOException {
+		byte[] data = createData(1000);
+		decrypt(mAlice, encrypt(mAlice, data), data.length);
+	}
+}
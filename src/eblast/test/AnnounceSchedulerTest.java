@@ -0,0 +1,196 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eblast.torrent.tracker.AnnounceInfo;
+import eblast.torrent.tracker.AnnounceScheduler;
+import eblast.torrent.tracker.TrackerInfo;
+
+public class AnnounceSchedulerTest {
+	
+	private static final String DEAD_TRACKER = "http://127.0.0.1:1/announce";	// Connection refused
+	
+	private HttpServer mServer;
+	private volatile int mAnnounces;
+	private volatile String mAcceptEncoding;
+	private String mAddress;
+	
+	@Before
+	public void setUp() throws IOException {
+		mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		mServer.createContext("/announce", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				mAnnounces++;
+				mAcceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				
+				// interval 1800 s, min interval 60 s, one compact peer 10.0.0.1:6881
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				body.write("d8:intervali1800e12:min intervali60e5:peers6:".getBytes("ISO-8859-1"));
+				body.write(new byte[] {10, 0, 0, 1, 0x1A, (byte) 0xE1});
+				body.write('e');
+				
+				ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+				GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+				gzip.write(body.toByteArray());
+				gzip.close();
+				
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				exchange.sendResponseHeaders(200, gzipped.size());
+				OutputStream out = exchange.getResponseBody();
+				out.write(gzipped.toByteArray());
+				out.close();
+			}
+		});
+		mServer.start();
+		mAddress = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/announce";
+	}
+	
+	@After
+	public void tearDown() {
+		mServer.stop(0);
+	}
+	
+	private Map<String, String> createParameters() {
+		Map<String, String> map = new HashMap<String, String>();
+		map.put(TrackerInfo.KEY_INFO_HASH, "%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00%00");
+		map.put(TrackerInfo.KEY_PEER_ID, "-eB0100-123456789012");
+		map.put(TrackerInfo.KEY_PORT, "6881");
+		map.put(TrackerInfo.KEY_LEFT, "0");
+		map.put(TrackerInfo.KEY_COMPACT, "1");
+		map.put(TrackerInfo.KEY_EVENT, TrackerInfo.KEY_EVENT_STARTED);
+		return map;
+	}
+	
+	@Test
+	public void testFailoverAndPromotion() throws Exception {
+		List<TrackerInfo> trackers = new ArrayList<TrackerInfo>();
+		TrackerInfo dead = new TrackerInfo(null, DEAD_TRACKER, 0);
+		TrackerInfo backup = new TrackerInfo(null, "http://localhost:1/backup", 0);
+		TrackerInfo alive = new TrackerInfo(null, mAddress, 0);
+		TrackerInfo lowerTier = new TrackerInfo(null, "http://127.0.0.1:1/lower", 1);
+		trackers.add(dead);
+		trackers.add(backup);
+		trackers.add(alive);
+		trackers.add(lowerTier);
+		
+		AnnounceScheduler scheduler = new AnnounceScheduler(trackers);
+		assertTrue(scheduler.isDue());
+		
+		long before = System.currentTimeMillis();
+		AnnounceInfo announce = scheduler.announce(createParameters(), false);
+		
+		assertNotNull(announce);
+		assertEquals(1800, announce.getInterval());
+		assertEquals(1, announce.getPeersList().size());
+		assertEquals(6881, announce.getPeersList().get(0).getPort());
+		assertEquals("gzip", mAcceptEncoding);
+		
+		// The tracker that answered is first, the lower tier wasn't tried.
+		assertSame(alive, trackers.get(0));
+		assertSame(lowerTier, trackers.get(3));
+		assertEquals(1, dead.getFailures());
+		assertEquals(0, lowerTier.getFailures());
+		
+		// The next announce is at the interval of the tracker.
+		assertFalse(scheduler.isDue());
+		assertTrue(scheduler.getNextAnnounce() >= before + 1800000L);
+	}
+	
+	@Test
+	public void testIntervalAndMinInterval() throws Exception {
+		List<TrackerInfo> trackers = new ArrayList<TrackerInfo>();
+		trackers.add(new TrackerInfo(null, mAddress, 0));
+		AnnounceScheduler scheduler = new AnnounceScheduler(trackers);
+		
+		assertNotNull(scheduler.announce(createParameters(), false));
+		assertEquals(1, mAnnounces);
+		
+		// Neither a regular announce nor an event before the min interval.
+		assertNull(scheduler.announce(createParameters(), false));
+		assertNull(scheduler.announce(createParameters(), true));
+		assertEquals(1, mAnnounces);
+	}
+	
+	@Test
+	public void testNoFailoverBeforeTheMinInterval() throws Exception {
+		List<TrackerInfo> trackers = new ArrayList<TrackerInfo>();
+		TrackerInfo alive = new TrackerInfo(null, mAddress, 0);
+		TrackerInfo backup = new TrackerInfo(null, DEAD_TRACKER, 1);
+		trackers.add(alive);
+		trackers.add(backup);
+		AnnounceScheduler scheduler = new AnnounceScheduler(trackers);
+		
+		assertNotNull(scheduler.announce(createParameters(), false));
+		
+		// An event inside the min interval waits for the tracker, the backup tier isn't contacted.
+		assertNull(scheduler.announce(createParameters(), true));
+		assertEquals(1, mAnnounces);
+		assertEquals(0, backup.getFailures());
+		assertEquals(alive.getMinAnnounce(), scheduler.getNextAnnounce());
+		assertTrue(scheduler.getNextAnnounce() < alive.getNextAnnounce());
+	}
+	
+	@Test
+	public void testBackoff() throws Exception {
+		TrackerInfo dead = new TrackerInfo(null, DEAD_TRACKER, 0);
+		List<TrackerInfo> trackers = new ArrayList<TrackerInfo>();
+		trackers.add(dead);
+		AnnounceScheduler scheduler = new AnnounceScheduler(trackers);
+		
+		long before = System.currentTimeMillis();
+		assertNull(scheduler.announce(createParameters(), false));
+		assertEquals(1, dead.getFailures());
+		long first = dead.getNextAnnounce() - before;
+		assertTrue(first >= TrackerInfo.RETRY_DELAY - 1000 && first <= TrackerInfo.RETRY_DELAY + 1000);
+		assertEquals(dead.getNextAnnounce(), scheduler.getNextAnnounce());
+		
+		// Not tried again before its delay, even for an event.
+		assertNull(scheduler.announce(createParameters(), true));
+		assertEquals(1, dead.getFailures());
+		
+		// The delay doubles at each failure.
+		before = System.currentTimeMillis();
+		try {
+			dead.getAnnounceInfo(createParameters());
+			fail();
+		} catch (Exception e) {}
+		long second = dead.getNextAnnounce() - before;
+		assertTrue(second >= 2 * TrackerInfo.RETRY_DELAY - 1000 && second <= 2 * TrackerInfo.RETRY_DELAY + 1000);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import eblast.bencoding.BBufferDecoder;
+import eblast.bencoding.BDecoder;
+import eblast.bencoding.BEValue;
+import eblast.bencoding.BEncoder;
+import eblast.bencoding.InvalidBEncodingException;
+import eblast.metainfo.MetaInfo;
+import eblast.metainfo.MetaInfoReader;
+
+public class BBufferDecoderTest {
+	
+	private static BEValue decode(String s) throws Exception {
+		return BBufferDecoder.bdecode(ByteBuffer.wrap(s.getBytes("UTF-8")));
+	}
+	
+	private static void assertInvalid(String s) {
+		try {
+			decode(s);
+			fail("Invalid bencoding accepted: " + s);
+		} catch (InvalidBEncodingException e) {
+		} catch (Exception e) {
+			fail(e.toString());
+		}
+	}
+	
+	@Test
+	public void testValues() throws Exception {
+		Map<String, BEValue> map = decode("d4:spaml1:ai-42ei0ee3:numi1234567890123e3:bigi123456789012345678901234567890e0:3:abce").getMap();
+		
+		List<BEValue> list = map.get("spam").getList();
+		assertEquals(3, list.size());
+		assertEquals("a", list.get(0).getString());
+		assertEquals(-42, list.get(1).getInt());
+		assertEquals(0, list.get(2).getInt());
+		
+		assertEquals(1234567890123L, map.get("num").getLong());
+		assertEquals(new BigInteger("123456789012345678901234567890"), map.get("big").getNumber());
+		assertEquals("abc", map.get("").getString());
+	}
+	
+	@Test
+	public void testByteStringsAreNotCopied() throws Exception {
+		byte[] data = "d6:piecesl4:abcdee".getBytes("UTF-8");
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		BEValue value = BBufferDecoder.bdecode(buffer);
+		assertEquals(data.length, buffer.position());
+		
+		ByteBuffer pieces = value.getMap().get("pieces").getList().get(0).getBuffer();
+		assertTrue(pieces.isReadOnly());
+		assertEquals(4, pieces.remaining());
+		
+		data[12] = 'X'; // Seen through the view
+		assertEquals('X', pieces.get(0));
+		assertEquals("Xbcd", value.getMap().get("pieces").getList().get(0).getString());
+	}
+	
+	@Test
+	public void testInvalidEncodings() {
+		assertInvalid("i01e");
+		assertInvalid("i-0e");
+		assertInvalid("ie");
+		assertInvalid("i12");
+		assertInvalid("5:abc");
+		assertInvalid("l1:a");
+		assertInvalid("x");
+		assertInvalid("99999999999:a");
+		
+		// Keys must be strings, checked when the dictionary is accessed.
+		try {
+			decode("di1ei2ee").getMap();
+			fail("Integer key accepted");
+		} catch (Exception e) {
+			assertTrue(e instanceof InvalidBEncodingException);
+		}
+	}
+	
+	@Test
+	public void testDeepNesting() throws Exception {
+		int depth = 100000;
+		char[] chars = new char[2 * depth];
+		Arrays.fill(chars, 0, depth, 'l');
+		Arrays.fill(chars, depth, 2 * depth, 'e');
+		
+		BEValue value = decode(new String(chars));
+		assertEquals(1, value.getList().size());
+	}
+	
+	@Test
+	public void testInfoHashFromTheEncodedSpan() throws Exception {
+		byte[] pieces = new byte[3 * 20];
+		Arrays.fill(pieces, (byte) 0xAB);
+		
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("name", "file.bin");
+		info.put("piece length", 16384);
+		info.put("length", 40000);
+		info.put("pieces", pieces);
+		
+		Map<String, Object> torrent = new HashMap<String, Object>();
+		torrent.put("announce", "http://localhost/announce");
+		torrent.put("info", info);
+		byte[] encoded = BEncoder.bencode(torrent);
+		
+		File file = File.createTempFile("eblast", ".torrent");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(encoded);
+		out.close();
+		
+		byte[] expected = MessageDigest.getInstance("SHA-1").digest(BEncoder.bencode(info));
+		
+		// Same info-hash as the stream decoder.
+		BDecoder decoder = new BDecoder(new ByteArrayInputStream(encoded));
+		decoder.bdecodeMap();
+		assertTrue(Arrays.equals(expected, decoder.getSpecialMapDigest()));
+		
+		MetaInfo metainfo = MetaInfoReader.openMetaInfo(file.getAbsolutePath());
+		assertTrue(Arrays.equals(expected, metainfo.getInfoHash().toBytes()));
+		assertEquals(3, metainfo.getInfo().getPiecesHashes().size());
+		assertEquals("http://localhost/announce", metainfo.getAnnounce());
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.torrent.messages.Cancel;
+import eblast.torrent.messages.FactoryMessage;
+import eblast.torrent.messages.Message;
+import eblast.torrent.messages.MessageOutputStream;
+import eblast.torrent.messages.Request;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+
+public class CancelTest {
+	
+	@Test
+	public void testCancelIsDecoded() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new MessageOutputStream(bytes).write(new Cancel(new Request(3, Block.BLOCK_SIZE, 1000)));
+		assertEquals(4 + Cancel.DEFAULT_LENGTH, bytes.size());
+		
+		Message message = FactoryMessage.createMessage(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertTrue(message instanceof Cancel);
+		
+		Cancel cancel = (Cancel) message;
+		assertEquals(3, cancel.getIndex());
+		assertEquals(Block.BLOCK_SIZE, cancel.getBegin());
+		assertEquals(1000, cancel.getBlockLength());
+	}
+	
+	@Test
+	public void testDuplicateBlockIsDetected() throws Exception {
+		Piece piece = new Piece(null, 0, 2 * Block.BLOCK_SIZE, new Hash(new byte[20]));
+		byte[] data = new byte[Block.BLOCK_SIZE];
+		Arrays.fill(data, (byte) 7);
+		
+		assertTrue(piece.feed(0, new Block(data)));
+		assertFalse(piece.feed(0, new Block(data)));
+		assertTrue(piece.feed(Block.BLOCK_SIZE, new Block(data)));
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.torrent.peer.Choker;
+
+public class ChokerTest {
+	
+	private List<String> mInterested;
+	private Map<String, Long> mRates;
+	
+	@Before
+	public void setUp() {
+		mInterested = Arrays.asList("slow", "fast", "medium", "new", "fastest");
+		
+		mRates = new HashMap<String, Long>();
+		mRates.put("slow", 10L);
+		mRates.put("fast", 1000L);
+		mRates.put("medium", 100L);
+		mRates.put("fastest", 5000L);
+		mRates.put("uninterested", 100000L);
+	}
+	
+	@Test
+	public void testFastestPeersAreUnchoked() {
+		List<String> unchoked = Choker.chooseUnchoked(mInterested, mRates, 3, null);
+		assertEquals(Arrays.asList("fastest", "fast", "medium"), unchoked);
+	}
+	
+	@Test
+	public void testOptimisticUnchokeTakesOneSlot() {
+		List<String> unchoked = Choker.chooseUnchoked(mInterested, mRates, 3, "new");
+		assertEquals(Arrays.asList("fastest", "fast", "new"), unchoked);
+	}
+	
+	@Test
+	public void testOptimisticAmongTheFastest() {
+		List<String> unchoked = Choker.chooseUnchoked(mInterested, mRates, 2, "fastest");
+		assertEquals(Arrays.asList("fast", "fastest"), unchoked);
+	}
+	
+	@Test
+	public void testLessPeersThanSlots() {
+		List<String> unchoked = Choker.chooseUnchoked(Arrays.asList("slow"), mRates, 4, null);
+		assertEquals(Arrays.asList("slow"), unchoked);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import eblast.crypto.AEADSession;
+import eblast.crypto.KeyExchange;
+import eblast.crypto.KeyGenerator;
+import eblast.crypto.RSAKeyPair;
+import eblast.crypto.XORKeyPair;
+import eblast.io.AEADInputStream;
+import eblast.io.AEADOutputStream;
+import eblast.io.CryptoInputStream;
+import eblast.io.CryptoOutputStream;
+import eblast.settings.EncryptionSettings;
+
+/**
+ * Compares the throughput of the encryption modes (not a JUnit test).
+ * The data are written by blocks of 16 KiB, like the Piece messages, then read back.
+ */
+public class CryptoBenchmark {
+	
+	private static final int BLOCK = 1 << 14;
+	
+	private interface Mode {
+		OutputStream encrypt(OutputStream out);
+		InputStream decrypt(InputStream in);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		final EncryptionSettings settings = new EncryptionSettings();
+		
+		// RSA is only used for the key exchange of the rsaXor mode, but measured anyway.
+		final RSAKeyPair rsa = KeyGenerator.generateRSAKeyPair(settings.getRSAKeylength());
+		run("RSA", 1 << 16, new Mode() {
+			public OutputStream encrypt(OutputStream out) { return new CryptoOutputStream(out, rsa); }
+			public InputStream decrypt(InputStream in) { return new CryptoInputStream(in, rsa); }
+		});
+		
+		run("XOR (rsaXor)", 64 << 20, new Mode() {
+			public OutputStream encrypt(OutputStream out) { return new CryptoOutputStream(out, createXOR(settings)); }
+			public InputStream decrypt(InputStream in) { return new CryptoInputStream(in, createXOR(settings)); }
+		});
+		
+		KeyExchange alice = new KeyExchange();
+		KeyExchange bob = new KeyExchange();
+		final AEADSession sender = alice.agree(bob.getPublicKey());
+		final AEADSession receiver = bob.agree(alice.getPublicKey());
+		run("AES-CTR + HMAC (aead)", 64 << 20, new Mode() {
+			public OutputStream encrypt(OutputStream out) { return new AEADOutputStream(out, sender); }
+			public InputStream decrypt(InputStream in) { return new AEADInputStream(in, receiver); }
+		});
+	}
+	
+	private static XORKeyPair seed;
+	
+	/**
+	 * Both sides of the XOR mode use the same key.
+	 */
+	private static XORKeyPair createXOR(EncryptionSettings settings) {
+		if (seed == null) {
+			seed = KeyGenerator.generateXORKeyPair(settings.getSymmetricKeylength());
+		}
+		return new XORKeyPair(seed.getKey());
+	}
+	
+	/**
+	 * Encrypts and decrypts the given number of bytes, prints the throughput.
+	 */
+	private static void run(String name, int size, Mode mode) throws Exception {
+		byte[] block = new byte[BLOCK];
+		new Random(0).nextBytes(block);
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + size / 8);
+		OutputStream out = mode.encrypt(bytes);
+		
+		long start = System.nanoTime();
+		for (int i=0; i<size; i+=BLOCK) {
+			out.write(block, 0, Math.min(BLOCK, size - i));
+		}
+		out.flush();
+		long encrypted = System.nanoTime();
+		
+		DataInputStream in = new DataInputStream(mode.decrypt(new ByteArrayInputStream(bytes.toByteArray())));
+		for (int i=0; i<size; i+=BLOCK) {
+			in.readFully(block, 0, Math.min(BLOCK, size - i));
+		}
+		long decrypted = System.nanoTime();
+		
+		System.out.println(String.format("%-24s encrypt %10.2f MiB/s   decrypt %10.2f MiB/s   overhead %5.1f%%",
+				name, rate(size, encrypted - start), rate(size, decrypted - encrypted),
+				100.0 * (bytes.size() - size) / size));
+	}
+	
+	private static double rate(int size, long nanos) {
+		return size / (1024.0 * 1024.0) / (nanos / 1e9);
+	}
+}
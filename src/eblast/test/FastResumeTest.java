@@ -0,0 +1,184 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.io.FileManager;
+import eblast.io.TorrentFile;
+import eblast.torrent.FastResume;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBufferPool;
+
+public class FastResumeTest {
+	
+	private static final int PIECE_SIZE = 2 * Block.BLOCK_SIZE;
+	private static final int[] FILE_LENGTHS = { 3 * PIECE_SIZE, PIECE_SIZE + 100 };
+	
+	private File mDir;
+	private List<TorrentFile> mFiles;
+	private FileManager mFileManager;
+	private byte[] mData;
+	private Hash mInfoHash;
+	private FastResume mFastResume;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("eblast", "");
+		mDir.delete();
+		mDir.mkdirs();
+		
+		mFiles = new ArrayList<TorrentFile>();
+		int total = 0;
+		for (int i=0; i<FILE_LENGTHS.length; i++) {
+			mFiles.add(new TorrentFile(FILE_LENGTHS[i], Arrays.asList("file" + i), null));
+			total += FILE_LENGTHS[i];
+		}
+		
+		mData = new byte[total];
+		new Random().nextBytes(mData);
+		mInfoHash = new Hash(MessageDigest.getInstance("SHA-1").digest(mData));
+		
+		mFileManager = new FileManager(PIECE_SIZE, mFiles, mDir);
+		mFastResume = new FastResume(new File(mDir, "test.resume"));
+	}
+	
+	@After
+	public void tearDown() {
+		PieceBufferPool.getInstance().setCapacity(PieceBufferPool.DEFAULT_CAPACITY);
+		mFileManager.erase();
+		mFastResume.delete();
+		mDir.delete();
+	}
+	
+	private List<Piece> createPieces() throws Exception {
+		List<Piece> pieces = new ArrayList<Piece>();
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		for (int index=0; index * PIECE_SIZE < mData.length; index++) {
+			int start = index * PIECE_SIZE;
+			int end = Math.min(mData.length, start + PIECE_SIZE);
+			pieces.add(new Piece(mFileManager, index, end - start, new Hash(sha1.digest(Arrays.copyOfRange(mData, start, end)))));
+		}
+		return pieces;
+	}
+	
+	private void feed(Piece piece, int block) throws Exception {
+		int start = piece.getIndex() * PIECE_SIZE + piece.getBlockOffset(block);
+		piece.feed(piece.getBlockOffset(block), new Block(Arrays.copyOfRange(mData, start, start + piece.getBlockSize(block))));
+	}
+	
+	/**
+	 * Pieces 0 and 3 are complete, the piece 1 has its first block on the disk.
+	 */
+	private List<Piece> downloadSomePieces() throws Exception {
+		List<Piece> pieces = createPieces();
+		for (int i: new int[] { 0, 3 }) {
+			Piece piece = pieces.get(i);
+			for (int b=0; b<piece.getBlockCount(); b++) {
+				feed(piece, b);
+			}
+			assertTrue(piece.check());
+		}
+		
+		// Without write-back buffer, the block is written directly.
+		PieceBufferPool.getInstance().setCapacity(0);
+		feed(pieces.get(1), 0);
+		
+		mFastResume.save(mInfoHash, pieces, mFiles);
+		return pieces;
+	}
+	
+	@Test
+	public void testRestoreWithoutVerification() throws Exception {
+		downloadSomePieces();
+		
+		List<Piece> pieces = createPieces();
+		List<Piece> unverified = mFastResume.load(mInfoHash, pieces, mFiles, PIECE_SIZE);
+		
+		assertTrue(unverified.isEmpty());
+		assertTrue(pieces.get(0).isComplete());
+		assertTrue(pieces.get(3).isComplete());
+		assertFalse(pieces.get(1).isComplete());
+		assertEquals(50, (int) pieces.get(1).getDownloadCompleteness());
+		assertTrue(pieces.get(2).isEmpty());
+		assertTrue(pieces.get(4).isEmpty());
+	}
+	
+	@Test
+	public void testBufferedBlocksAreNotSaved() throws Exception {
+		List<Piece> pieces = createPieces();
+		feed(pieces.get(2), 0);
+		assertFalse(pieces.get(2).isEmpty());
+		mFastResume.save(mInfoHash, pieces, mFiles);
+		
+		// The block was only in memory.
+		pieces = createPieces();
+		assertTrue(mFastResume.load(mInfoHash, pieces, mFiles, PIECE_SIZE).isEmpty());
+		assertTrue(pieces.get(2).isEmpty());
+	}
+	
+	@Test
+	public void testChangedFileIsVerified() throws Exception {
+		downloadSomePieces();
+		
+		// The second file has been modified: pieces 3 and 4 have to be verified.
+		File file = mFiles.get(1).getFile();
+		assertTrue(file.setLastModified(file.lastModified() - 10000));
+		
+		List<Piece> pieces = createPieces();
+		List<Piece> unverified = mFastResume.load(mInfoHash, pieces, mFiles, PIECE_SIZE);
+		
+		assertEquals(2, unverified.size());
+		assertEquals(3, unverified.get(0).getIndex());
+		assertEquals(4, unverified.get(1).getIndex());
+		assertTrue(pieces.get(0).isComplete());
+		assertFalse(pieces.get(3).isComplete());
+	}
+	
+	@Test
+	public void testWrongInfoHash() throws Exception {
+		downloadSomePieces();
+		
+		List<Piece> pieces = createPieces();
+		List<Piece> unverified = mFastResume.load(new Hash(new byte[20]), pieces, mFiles, PIECE_SIZE);
+		
+		assertEquals(pieces.size(), unverified.size());
+		assertFalse(pieces.get(0).isComplete());
+	}
+	
+	@Test
+	public void testMissingFile() throws Exception {
+		List<Piece> pieces = createPieces();
+		assertSame(pieces, mFastResume.load(mInfoHash, pieces, mFiles, PIECE_SIZE));
+	}
+}
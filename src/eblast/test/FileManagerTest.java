@@ -0,0 +1,199 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.bencoding.BEDictionary;
+import eblast.bencoding.BEValue;
+import eblast.checksum.Hash;
+import eblast.io.FileManager;
+import eblast.io.TorrentFile;
+import eblast.metainfo.FileDictionnary;
+import eblast.metainfo.MetaInfoException;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+
+public class FileManagerTest {
+	
+	private static final int PIECE_SIZE = 2 * Block.BLOCK_SIZE;
+	private static final int[] FILE_LENGTHS = { 5000, 0, 20000, 10000 };
+	
+	private File mDir;
+	private List<TorrentFile> mFiles;
+	private FileManager mFileManager;
+	private byte[] mData;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("eblast", "");
+		mDir.delete();
+		mDir.mkdirs();
+		
+		mFiles = new ArrayList<TorrentFile>();
+		int total = 0;
+		for (int i=0; i<FILE_LENGTHS.length; i++) {
+			mFiles.add(new TorrentFile(FILE_LENGTHS[i], Arrays.asList("dir" + (i % 2), "file" + i), null));
+			total += FILE_LENGTHS[i];
+		}
+		
+		mData = new byte[total];
+		new Random().nextBytes(mData);
+		
+		mFileManager = new FileManager(PIECE_SIZE, mFiles, mDir);
+	}
+	
+	@After
+	public void tearDown() {
+		mFileManager.erase();
+		new File(mDir, "dir0").delete();
+		new File(mDir, "dir1").delete();
+		mDir.delete();
+	}
+	
+	private Piece createPiece(int index) throws Exception {
+		int size = Math.min(PIECE_SIZE, mData.length - index * PIECE_SIZE);
+		return new Piece(mFileManager, index, size, new Hash(new byte[20]));
+	}
+	
+	@Test
+	public void testBlocksAreSplitAcrossFiles() throws Exception {
+		for (int index=0; index * PIECE_SIZE < mData.length; index++) {
+			Piece piece = createPiece(index);
+			
+			// Feed the blocks backwards
+			for (int i=piece.getBlockCount()-1; i>=0; i--) {
+				int start = index * PIECE_SIZE + piece.getBlockOffset(i);
+				mFileManager.write(piece, i, new Block(Arrays.copyOfRange(mData, start, start + piece.getBlockSize(i))));
+			}
+		}
+		
+		int offset = 0;
+		for (TorrentFile file: mFiles) {
+			RandomAccessFile raf = new RandomAccessFile(file.getFile(), "r");
+			assertEquals(file.length(), raf.length());
+			
+			byte[] content = new byte[(int) file.length()];
+			raf.readFully(content);
+			raf.close();
+			
+			assertArrayEquals(Arrays.copyOfRange(mData, offset, offset + content.length), content);
+			offset += content.length;
+		}
+	}
+	
+	@Test
+	public void testReadBlockAcrossFiles() throws Exception {
+		Piece piece = createPiece(0);
+		
+		// The first block covers the first file, the empty one and the beginning of the third.
+		Block block = new Block(Arrays.copyOfRange(mData, 0, Block.BLOCK_SIZE));
+		mFileManager.write(piece, 0, block);
+		
+		assertArrayEquals(block.toBytes(), mFileManager.read(piece, 0).toBytes());
+	}
+	
+	@Test
+	public void testCorruptedPieceIsNotWritten() throws Exception {
+		Piece piece = createPiece(0);
+		
+		// The hash of the piece is wrong, the assembled blocks must never reach the disk.
+		for (int i=0; i<piece.getBlockCount(); i++) {
+			int start = piece.getBlockOffset(i);
+			piece.feed(start, new Block(Arrays.copyOfRange(mData, start, start + piece.getBlockSize(i))));
+		}
+		
+		assertTrue(piece.isEmpty());
+		assertArrayEquals(new byte[Block.BLOCK_SIZE], mFileManager.read(piece, 0).toBytes());
+	}
+	
+	@Test
+	public void testUnwrittenDataAreZeros() throws Exception {
+		Piece piece = createPiece(1);
+		
+		byte[] data = mFileManager.read(piece, 0).toBytes();
+		assertEquals(piece.getBlockSize(0), data.length);
+		assertArrayEquals(new byte[data.length], data);
+	}
+	
+	@Test(expected = IOException.class)
+	public void testOutOfTorrent() throws Exception {
+		mFileManager.read(mData.length - 10, ByteBuffer.allocate(20));
+	}
+	
+	@Test
+	public void testPathOutOfTheDirectoryIsRefused() throws Exception {
+		File dir = new File(mDir, "torrent");
+		TorrentFile file = new TorrentFile(10, Arrays.asList("..", "escaped"), null);
+		try {
+			file.open(dir);
+			fail("File opened out of the download directory");
+		} catch (IOException e) {}
+		assertFalse(new File(mDir, "escaped").exists());
+		assertFalse(dir.exists());
+	}
+	
+	@Test
+	public void testUnsafePathsAreRejected() throws Exception {
+		assertFalse(TorrentFile.isSafeName(".."));
+		assertFalse(TorrentFile.isSafeName(""));
+		assertFalse(TorrentFile.isSafeName("/etc"));
+		assertFalse(TorrentFile.isSafeName("a\\b"));
+		assertTrue(TorrentFile.isSafeName("file.txt"));
+		
+		assertFalse(isAccepted(".", "file"));
+		assertFalse(isAccepted("..", "..", ".bashrc"));
+		assertFalse(isAccepted("dir", ""));
+		assertFalse(isAccepted("/home", "user"));
+		assertTrue(isAccepted("dir", "file"));
+	}
+	
+	private boolean isAccepted(String... path) throws Exception {
+		List<BEValue> names = new ArrayList<BEValue>();
+		for (String name: path) {
+			names.add(new BEValue(name.getBytes("UTF-8")));
+		}
+		Map<String, BEValue> map = new HashMap<String, BEValue>();
+		map.put("length", new BEValue(10));
+		map.put("path", new BEValue(names));
+		
+		try {
+			new FileDictionnary(new BEDictionary(new BEValue(map)));
+			return true;
+		} catch (MetaInfoException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import eblast.crypto.KeyPool;
+import eblast.crypto.RSAKeyPair;
+import eblast.crypto.XORKeyPair;
+import eblast.settings.EncryptionSettings;
+
+public class KeyPoolTest {
+	
+	private static final int RSA_LENGTH = 64;
+	private static final int XOR_LENGTH = 16;
+	
+	private KeyPool mPool = KeyPool.getInstance();
+	
+	/**
+	 * Waits for the background thread to fill the pool.
+	 */
+	private void waitFull(int depth) throws InterruptedException {
+		for (int i = 0; i < 500 && (mPool.getRSAKeyPairsReady() < depth || mPool.getXORKeyPairsReady() < depth); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(depth, mPool.getRSAKeyPairsReady());
+		assertEquals(depth, mPool.getXORKeyPairsReady());
+	}
+	
+	@After
+	public void tearDown() {
+		mPool.configure(EncryptionSettings.DEFAULT_RSA_KEYLENGTH, EncryptionSettings.DEFAULT_SYMMETRIC_KEYLENGTH, 0);
+	}
+	
+	@Test
+	public void testHitsAndRefill() throws InterruptedException {
+		mPool.configure(RSA_LENGTH, XOR_LENGTH, 2);
+		waitFull(2);
+		
+		long hits = mPool.getHits();
+		long misses = mPool.getMisses();
+		
+		RSAKeyPair first = mPool.takeRSAKeyPair(RSA_LENGTH);
+		RSAKeyPair second = mPool.takeRSAKeyPair(RSA_LENGTH);
+		XORKeyPair xor = mPool.takeXORKeyPair(XOR_LENGTH);
+		
+		assertNotSame(first, second);
+		assertEquals(XOR_LENGTH, xor.getKey().length);
+		assertEquals(hits + 3, mPool.getHits());
+		assertEquals(misses, mPool.getMisses());
+		
+		waitFull(2);
+	}
+	
+	@Test
+	public void testOtherLengthIsMiss() throws InterruptedException {
+		mPool.configure(RSA_LENGTH, XOR_LENGTH, 1);
+		waitFull(1);
+		
+		long misses = mPool.getMisses();
+		assertEquals(2 * XOR_LENGTH, mPool.takeXORKeyPair(2 * XOR_LENGTH).getKey().length);
+		assertNotNull(mPool.takeRSAKeyPair(2 * RSA_LENGTH));
+		assertEquals(misses + 2, mPool.getMisses());
+		assertEquals(1, mPool.getRSAKeyPairsReady());
+	}
+	
+	@Test
+	public void testDisabled() {
+		mPool.configure(RSA_LENGTH, XOR_LENGTH, 0);
+		assertEquals(0, mPool.getRSAKeyPairsReady());
+		
+		long misses = mPool.getMisses();
+		assertNotNull(mPool.takeRSAKeyPair(RSA_LENGTH));
+		assertEquals(misses + 1, mPool.getMisses());
+	}
+}
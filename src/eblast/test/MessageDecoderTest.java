@@ -0,0 +1,184 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.io.ByteBufferPool;
+import eblast.torrent.messages.Have;
+import eblast.torrent.messages.Interested;
+import eblast.torrent.messages.Message;
+import eblast.torrent.messages.MessageDecoder;
+import eblast.torrent.messages.MessageException;
+import eblast.torrent.messages.MessageOutputStream;
+import eblast.torrent.messages.Request;
+import eblast.torrent.messages.SendBlock;
+import eblast.torrent.piece.Block;
+
+public class MessageDecoderTest {
+	
+	private ByteBufferPool mPool;
+	private MessageDecoder mDecoder;
+	
+	@Before
+	public void setUp() {
+		mPool = new ByteBufferPool(true, ByteBufferPool.DEFAULT_MAX_RETAINED);
+		mDecoder = new MessageDecoder(mPool, 1 << 20);
+	}
+	
+	/**
+	 * Encodes the messages as they are sent on the network.
+	 */
+	private byte[] encode(Message... messages) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MessageOutputStream output = new MessageOutputStream(bytes);
+		for (Message m: messages) {
+			output.write(m);
+		}
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Gives the data to the decoder by chunks, as a channel would do.
+	 */
+	private void receive(byte[] data, int offset, int length) {
+		while (length > 0) {
+			ByteBuffer buffer = mDecoder.getReadBuffer();
+			int count = Math.min(length, buffer.remaining());
+			buffer.put(data, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+	
+	private byte[] createBlock(int size, int seed) {
+		byte[] data = new byte[size];
+		for (int i=0; i<size; i++) {
+			data[i] = (byte) (i * 31 + seed);
+		}
+		return data;
+	}
+	
+	@Test
+	public void testControlMessages() throws IOException, MessageException {
+		byte[] data = encode(new Interested(), new Have(42), new Request(3, Block.BLOCK_SIZE, Block.BLOCK_SIZE));
+		receive(new byte[4], 0, 4); // KeepAlive
+		receive(data, 0, data.length);
+		
+		assertTrue(mDecoder.next() instanceof Interested);
+		assertEquals(42, ((Have) mDecoder.next()).getIndex());
+		
+		Request request = (Request) mDecoder.next();
+		assertEquals(3, request.getIndex());
+		assertEquals(Block.BLOCK_SIZE, request.getBegin());
+		assertEquals(Block.BLOCK_SIZE, request.getBlockLength());
+		
+		assertNull(mDecoder.next());
+		assertEquals(0, mDecoder.available());
+	}
+	
+	@Test
+	public void testPartialMessage() throws IOException, MessageException {
+		byte[] block = createBlock(Block.BLOCK_SIZE, 7);
+		byte[] data = encode(new SendBlock(5, 0, block));
+		
+		receive(data, 0, 3);
+		assertNull(mDecoder.next()); // Length not complete
+		receive(data, 3, 1000);
+		assertNull(mDecoder.next()); // Block not complete
+		receive(data, 1003, data.length - 1003);
+		
+		SendBlock sb = (SendBlock) mDecoder.next();
+		assertEquals(5, sb.getIndex());
+		assertEquals(Block.BLOCK_SIZE, sb.getBlockLength());
+		
+		byte[] received = new byte[sb.getBlockLength()];
+		sb.getPayload().get(received);
+		assertArrayEquals(block, received);
+		sb.release();
+	}
+	
+	@Test
+	public void testSliceKeptWhileUsed() throws IOException, MessageException {
+		byte[] first = createBlock(Block.BLOCK_SIZE, 1);
+		byte[] data = encode(new SendBlock(0, 0, first));
+		receive(data, 0, data.length);
+		SendBlock sb = (SendBlock) mDecoder.next();
+		
+		// Many other blocks are received before the first one is handled.
+		for (int i=0; i<20; i++) {
+			byte[] other = encode(new SendBlock(1, 0, createBlock(Block.BLOCK_SIZE, 100 + i)));
+			receive(other, 0, other.length);
+			mDecoder.next().release();
+		}
+		
+		byte[] received = new byte[sb.getBlockLength()];
+		sb.getPayload().get(received);
+		assertArrayEquals(first, received);
+		sb.release();
+	}
+	
+	@Test
+	public void testBuffersAreReused() throws IOException, MessageException {
+		byte[] data = encode(new SendBlock(0, 0, createBlock(Block.BLOCK_SIZE, 3)));
+		for (int i=0; i<100; i++) {
+			receive(data, 0, data.length);
+			mDecoder.next().release();
+		}
+		mDecoder.release();
+		
+		// Only a few buffers have been allocated for 100 blocks.
+		assertTrue(mPool.getMisses() <= 3);
+		assertEquals(mPool.getMisses() * MessageDecoder.DEFAULT_BUFFER_SIZE, mPool.getRetained());
+	}
+	
+	@Test
+	public void testGatheredBlock() throws IOException, MessageException {
+		byte[] block = createBlock(1000, 9);
+		
+		// Header written into the stream, block given back to be sent from its own buffer.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteBuffer payload = new SendBlock(2, Block.BLOCK_SIZE, block).writeHeader(new MessageOutputStream(bytes));
+		assertEquals(4 + SendBlock.DEFAULT_LENGTH, bytes.size());
+		assertEquals(block.length, payload.remaining());
+		
+		receive(bytes.toByteArray(), 0, bytes.size());
+		receive(block, 0, block.length);
+		
+		SendBlock sb = (SendBlock) mDecoder.next();
+		assertEquals(2, sb.getIndex());
+		assertEquals(Block.BLOCK_SIZE, sb.getBegin());
+		assertEquals(payload, sb.getPayload());
+		sb.release();
+	}
+	
+	@Test(expected=MessageException.class)
+	public void testWrongLength() throws MessageException {
+		receive(new byte[] { (byte) 0xFF, 0, 0, 0 }, 0, 4);
+		mDecoder.next();
+	}
+}
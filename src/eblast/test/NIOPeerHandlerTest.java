@@ -0,0 +1,294 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.bencoding.BEncoder;
+import eblast.metainfo.MetaInfoReader;
+import eblast.torrent.TaskPools;
+import eblast.torrent.TaskPools.Pool;
+import eblast.torrent.Torrent;
+import eblast.torrent.TorrentManager;
+import eblast.torrent.messages.BitField;
+import eblast.torrent.messages.Handshake;
+import eblast.torrent.messages.Interested;
+import eblast.torrent.messages.Message;
+import eblast.torrent.messages.MessageInputStream;
+import eblast.torrent.messages.MessageOutputStream;
+import eblast.torrent.messages.Request;
+import eblast.torrent.messages.SendBlock;
+import eblast.torrent.messages.Unchoke;
+import eblast.torrent.peer.NIOPeerHandler;
+import eblast.torrent.peer.Peer;
+import eblast.torrent.peer.PeerDialer;
+import eblast.torrent.peer.PeerIDGenerator;
+import eblast.torrent.peer.PeerReactor;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.PieceBitSet;
+
+/**
+ * Loopback tests of the NIO engine: the test plays the remote peer on a plain socket.
+ */
+public class NIOPeerHandlerTest {
+	
+	private static final int TIMEOUT = 10000;
+	
+	private File mDir;
+	private File mDownloadDir;
+	private byte[] mData;
+	private Torrent mTorrent;
+	private PeerReactor mReactor;
+	private ServerSocket mServer;
+	private Socket mSocket;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("eblast", "");
+		mDir.delete();
+		mDir.mkdirs();
+		mDownloadDir = TorrentManager.getInstance().getSettings().getDownloadDir();
+		TorrentManager.getInstance().getSettings().setDownloadDir(mDir);
+		
+		// A torrent of a single piece of a single block.
+		mData = new byte[Block.BLOCK_SIZE];
+		new Random(1).nextBytes(mData);
+		
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("name", "loopback.bin");
+		info.put("piece length", mData.length);
+		info.put("length", mData.length);
+		info.put("pieces", MessageDigest.getInstance("SHA-1").digest(mData));
+		
+		Map<String, Object> torrent = new HashMap<String, Object>();
+		torrent.put("announce", "http://localhost/announce");
+		torrent.put("info", info);
+		
+		File file = new File(mDir, "loopback.torrent");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(BEncoder.bencode(torrent));
+		out.close();
+		
+		mTorrent = Torrent.createTorrent(MetaInfoReader.openMetaInfo(file.getAbsolutePath()));
+		mTorrent.setTorrentState(Torrent.TorrentStates.started);
+		
+		mServer = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		mReactor = new PeerReactor();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		mReactor.halt();
+		if (mSocket != null) mSocket.close();
+		mServer.close();
+		
+		mTorrent.setTorrentState(Torrent.TorrentStates.stopped);
+		mTorrent.destroyTorrent(true);
+		new File(mDir, "loopback.torrent").delete();
+		mDir.delete();
+		TorrentManager.getInstance().getSettings().setDownloadDir(mDownloadDir);
+	}
+	
+	/**
+	 * Creates the NIOPeerHandler, that connects to our server socket.
+	 */
+	private NIOPeerHandler connect() throws IOException {
+		Peer peer = new Peer(mServer.getInetAddress(), mServer.getLocalPort(), mTorrent);
+		NIOPeerHandler peerHandler = new NIOPeerHandler(mReactor, mTorrent, peer);
+		
+		mSocket = mServer.accept();
+		mSocket.setSoTimeout(TIMEOUT);
+		return peerHandler;
+	}
+	
+	/**
+	 * Occupies all the threads of a pool until the returned latch is released.
+	 */
+	private CountDownLatch block(Pool pool) throws InterruptedException {
+		TaskPools pools = TorrentManager.getInstance().getTaskPools();
+		int threads = pools.getMaximumPoolSize(pool);
+		final CountDownLatch started = new CountDownLatch(threads);
+		final CountDownLatch release = new CountDownLatch(1);
+		
+		for (int i=0; i<threads; i++) {
+			pools.execute(pool, new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {}
+				}
+			});
+		}
+		started.await();
+		return release;
+	}
+	
+	/**
+	 * Waits until a task is queued on a pool, that is blocked.
+	 */
+	private void awaitQueued(Pool pool) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (TorrentManager.getInstance().getTaskPools().getQueueSize(pool) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(TorrentManager.getInstance().getTaskPools().getQueueSize(pool) > 0);
+	}
+	
+	/**
+	 * Reads the messages of the peer until one of the given class.
+	 */
+	private Message readUntil(MessageInputStream in, Class<? extends Message> type) throws Exception {
+		Message msg;
+		do {
+			msg = in.readMessage();
+		} while (!type.isInstance(msg));
+		return msg;
+	}
+	
+	/**
+	 * Handshake and BitFields, then waits for the request of the only block.
+	 */
+	private void startDownload(MessageInputStream in, MessageOutputStream out) throws Exception {
+		// Handshake
+		Handshake handshake = in.readHandShake();
+		assertEquals(mTorrent.getInfoHash(), handshake.getInfoHash());
+		assertEquals(mTorrent.getPeerID(), handshake.getPeerId());
+		out.write(new Handshake(mTorrent.getInfoHash(), PeerIDGenerator.generateID(), false));
+		out.flush();
+		
+		// BitFields: it has nothing, we have everything
+		Message msg = in.readMessage();
+		assertTrue(msg instanceof BitField);
+		assertTrue(((BitField) msg).getAvailablePieces(1).isEmpty());
+		
+		PieceBitSet all = new PieceBitSet(1);
+		all.set(0);
+		out.write(new BitField(all));
+		out.write(new Unchoke());
+		out.flush();
+		
+		// Interested, then the request of the only block
+		assertTrue(in.readMessage() instanceof Interested);
+		msg = in.readMessage();
+		assertTrue(msg instanceof Request);
+		Request request = (Request) msg;
+		assertEquals(0, request.getIndex());
+		assertEquals(0, request.getBegin());
+		assertEquals(mData.length, request.getBlockLength());
+	}
+	
+	@Test
+	public void testRequestRoundTrip() throws Exception {
+		NIOPeerHandler peerHandler = connect();
+		MessageInputStream in = new MessageInputStream(mSocket.getInputStream());
+		MessageOutputStream out = new MessageOutputStream(mSocket.getOutputStream());
+		startDownload(in, out);
+		
+		out.write(new SendBlock(0, 0, mData));
+		out.flush();
+		
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!mTorrent.isComplete() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertTrue(mTorrent.isComplete());
+		assertEquals(mData.length, peerHandler.getDownloadedBytes());
+		assertTrue(peerHandler.isActive());
+	}
+	
+	@Test
+	public void testDiskWorkOffTheReactor() throws Exception {
+		connect();
+		MessageInputStream in = new MessageInputStream(mSocket.getInputStream());
+		MessageOutputStream out = new MessageOutputStream(mSocket.getOutputStream());
+		startDownload(in, out);
+		
+		// The block is written and hashed by the hashing pool, the PeerReactor keeps answering meanwhile.
+		CountDownLatch hashing = block(Pool.hashing);
+		try {
+			out.write(new SendBlock(0, 0, mData));
+			out.write(new Interested());
+			out.flush();
+			
+			awaitQueued(Pool.hashing);
+			assertTrue(readUntil(in, Unchoke.class) instanceof Unchoke);
+			assertFalse(mTorrent.isComplete());
+		} finally {
+			hashing.countDown();
+		}
+		
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (mTorrent.getTorrentState() != Torrent.TorrentStates.completed && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertEquals(Torrent.TorrentStates.completed, mTorrent.getTorrentState());
+		
+		// The requested block is read by the io pool.
+		CountDownLatch io = block(Pool.io);
+		try {
+			out.write(new Request(0, 0, mData.length));
+			out.flush();
+			awaitQueued(Pool.io);
+		} finally {
+			io.countDown();
+		}
+		
+		SendBlock sent = (SendBlock) readUntil(in, SendBlock.class);
+		assertEquals(0, sent.getIndex());
+		assertTrue(Arrays.equals(mData, sent.getBlock().toBytes()));
+	}
+	
+	@Test
+	public void testHandshakeTimeout() throws Exception {
+		NIOPeerHandler peerHandler = connect();
+		MessageInputStream in = new MessageInputStream(mSocket.getInputStream());
+		
+		// We never answer to its Handshake.
+		in.readHandShake();
+		long start = System.currentTimeMillis();
+		try {
+			while (in.read() >= 0);
+		} catch (EOFException e) {
+			// Closed
+		}
+		
+		assertTrue(System.currentTimeMillis() - start >= PeerDialer.CONNECT_TIMEOUT - 1000);
+		assertFalse(peerHandler.isActive());
+	}
+}
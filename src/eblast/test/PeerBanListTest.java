@@ -0,0 +1,152 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.torrent.peer.Peer;
+import eblast.torrent.peer.PeerBanList;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+
+public class PeerBanListTest {
+	
+	private static final int BLOCKS = 4;
+	
+	private byte[] mData;
+	private Hash mHash;
+	private PeerBanList mBanList;
+	private Peer mA, mB, mC;
+	
+	@Before
+	public void setUp() throws Exception {
+		mData = new byte[BLOCKS * Block.BLOCK_SIZE];
+		new Random(7).nextBytes(mData);
+		mHash = new Hash(MessageDigest.getInstance("SHA-1").digest(mData));
+		mBanList = new PeerBanList(null);
+		
+		mA = new Peer(InetAddress.getByName("10.0.0.1"), 6881, null);
+		mB = new Peer(InetAddress.getByName("10.0.0.2"), 6881, null);
+		mC = new Peer(InetAddress.getByName("10.0.0.3"), 6881, null);
+	}
+	
+	private Piece createPiece() throws Exception {
+		Piece piece = new Piece(null, 0, mData.length, mHash);
+		piece.setBanList(mBanList);
+		return piece;
+	}
+	
+	private byte[] corrupt(int block) {
+		byte[] data = mData.clone();
+		data[block * Block.BLOCK_SIZE] ^= 1;
+		return data;
+	}
+	
+	private void feed(Piece piece, int block, Peer sender) throws Exception {
+		piece.feed(block * Block.BLOCK_SIZE, ByteBuffer.wrap(mData, block * Block.BLOCK_SIZE, Block.BLOCK_SIZE), sender);
+	}
+	
+	@Test
+	public void testSingleSenderIsBanned() throws Exception {
+		for (int attempt=1; attempt<=PeerBanList.MAX_STRIKES; attempt++) {
+			Piece piece = createPiece();
+			for (int i=0; i<BLOCKS; i++) feed(piece, i, mA);
+			assertEquals(mA.getIP(), piece.getBlockSender(0));
+			
+			assertFalse(piece.verify(corrupt(2), 0));
+			assertTrue(piece.isEmpty());
+			assertEquals(attempt, mBanList.getStrikes(mA.getIP()));
+		}
+		
+		assertTrue(mBanList.isBanned(mA.getIP()));
+		assertEquals(1, mBanList.getBannedCount());
+		assertEquals(PeerBanList.MAX_STRIKES * mData.length, mBanList.getWastedBytes(mA.getIP()));
+		assertEquals(mBanList.getWastedBytes(mA.getIP()), mBanList.getWastedBytes());
+	}
+	
+	@Test
+	public void testChangedBlockIsBlamed() throws Exception {
+		Piece piece = createPiece();
+		feed(piece, 0, mA);
+		feed(piece, 1, mB);
+		feed(piece, 2, mA);
+		feed(piece, 3, mB);
+		
+		// B corrupted block 1: nobody can be blamed yet.
+		assertFalse(piece.verify(corrupt(1), 0));
+		assertTrue(piece.isEmpty());
+		assertEquals(0, mBanList.getStrikes(mA.getIP()));
+		assertEquals(0, mBanList.getStrikes(mB.getIP()));
+		assertEquals(2 * Block.BLOCK_SIZE, mBanList.getWastedBytes(mB.getIP()));
+		
+		// The blocks of B are sent by C this time, only the changed block is blamed.
+		feed(piece, 0, mA);
+		feed(piece, 1, mC);
+		feed(piece, 2, mA);
+		feed(piece, 3, mC);
+		assertTrue(piece.verify(mData, 0));
+		
+		assertEquals(0, mBanList.getStrikes(mA.getIP()));
+		assertEquals(1, mBanList.getStrikes(mB.getIP()));
+		assertEquals(0, mBanList.getStrikes(mC.getIP()));
+		assertTrue(mBanList.isSuspect(mB.getIP()));
+		assertFalse(mBanList.isBanned(mB.getIP()));
+	}
+	
+	@Test
+	public void testOnlySuspectBlocksAreDiscarded() throws Exception {
+		// A has already sent a corrupted piece alone.
+		Piece previous = createPiece();
+		for (int i=0; i<BLOCKS; i++) feed(previous, i, mA);
+		assertFalse(previous.verify(corrupt(0), 0));
+		assertTrue(mBanList.isSuspect(mA.getIP()));
+		
+		Piece piece = createPiece();
+		feed(piece, 0, mB);
+		feed(piece, 1, mA);
+		feed(piece, 2, mB);
+		feed(piece, 3, mA);
+		assertFalse(piece.verify(corrupt(3), 0));
+		
+		// The blocks of B are kept.
+		assertEquals(mB.getIP(), piece.getBlockSender(0));
+		assertEquals(mB.getIP(), piece.getBlockSender(2));
+		assertNull(piece.getBlockSender(1));
+		assertNull(piece.getBlockSender(3));
+		assertEquals(50.0, piece.getDownloadCompleteness(), 0.001);
+		assertEquals(0, mBanList.getWastedBytes(mB.getIP()));
+		
+		feed(piece, 1, mC);
+		feed(piece, 3, mC);
+		assertTrue(piece.verify(mData, 0));
+		assertTrue(mBanList.isBanned(mA.getIP()));
+		assertFalse(mBanList.isSuspect(mC.getIP()));
+		assertFalse(mBanList.isBanned(mB.getIP()));
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.torrent.peer.Peer;
+import eblast.torrent.peer.PeerDialer;
+
+public class PeerDialerTest {
+	
+	private PeerDialer mDialer;
+	private List<Peer> mPeers;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDialer = new PeerDialer();
+		mPeers = new ArrayList<Peer>();
+		for (int i = 1; i <= PeerDialer.MAX_HALF_OPEN + 2; i++) {
+			mPeers.add(new Peer(InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) i}), 6881, null));
+		}
+	}
+	
+	@Test
+	public void testHalfOpenBound() {
+		int before = PeerDialer.getHalfOpenCount();
+		List<Peer> dialed = new ArrayList<Peer>();
+		
+		Peer peer;
+		while ((peer = mDialer.dial(mPeers)) != null) {
+			assertFalse(dialed.contains(peer)); // Never the same peer twice at once
+			dialed.add(peer);
+		}
+		assertEquals(PeerDialer.MAX_HALF_OPEN - before, dialed.size());
+		assertEquals(PeerDialer.MAX_HALF_OPEN, PeerDialer.getHalfOpenCount());
+		
+		// A handshake frees a slot.
+		mDialer.connected(dialed.get(0));
+		assertNotNull(mDialer.dial(mPeers));
+		
+		for (Peer p: mPeers) {
+			mDialer.disconnected(p, 0, false);
+		}
+		assertEquals(before, PeerDialer.getHalfOpenCount());
+	}
+	
+	@Test
+	public void testBackoff() {
+		Peer peer = mDialer.dial(mPeers.subList(0, 1));
+		assertNotNull(peer);
+		
+		long now = System.currentTimeMillis();
+		assertTrue(mDialer.disconnected(peer, 0, false)); // Not handshaked: failure
+		assertEquals(1, mDialer.getFailures(peer));
+		assertTrue(mDialer.getNextAttempt(peer) >= now + PeerDialer.RETRY_DELAY);
+		
+		// Skipped while waiting for its delay.
+		assertNull(mDialer.dial(mPeers.subList(0, 1)));
+		
+		// The delay doubles, and the peer is forgotten after MAX_FAILURES.
+		for (int i = 2; i < PeerDialer.MAX_FAILURES; i++) {
+			assertTrue(mDialer.disconnected(peer, 0, true));
+		}
+		assertTrue(mDialer.getNextAttempt(peer) >= now + (PeerDialer.RETRY_DELAY << (PeerDialer.MAX_FAILURES - 3)));
+		assertFalse(mDialer.disconnected(peer, 0, true));
+	}
+	
+	@Test
+	public void testDuplicateDisconnection() {
+		Peer peer = mDialer.dial(mPeers.subList(2, 3));
+		assertNotNull(peer);
+		
+		long now = System.currentTimeMillis();
+		assertTrue(mDialer.disconnected(peer, 0, false)); // Not handshaked: failure
+		assertTrue(mDialer.disconnected(peer, 0, true));
+		long backoff = mDialer.getNextAttempt(peer);
+		assertTrue(backoff >= now + (PeerDialer.RETRY_DELAY << 1));
+		
+		// The same disconnection reported again doesn't shorten the backoff.
+		assertTrue(mDialer.disconnected(peer, 0, false));
+		assertEquals(2, mDialer.getFailures(peer));
+		assertEquals(backoff, mDialer.getNextAttempt(peer));
+	}
+	
+	@Test
+	public void testRanking() {
+		Peer good = mPeers.get(3);
+		Peer bad = mPeers.get(1);
+		List<Peer> candidates = new ArrayList<Peer>();
+		candidates.add(bad);
+		candidates.add(good);
+		
+		// One success with data, one failure
+		assertSame(bad, mDialer.dial(candidates));
+		mDialer.disconnected(bad, 0, false);
+		assertSame(good, mDialer.dial(candidates));
+		mDialer.connected(good);
+		mDialer.disconnected(good, 1 << 20, false);
+		
+		assertTrue(mDialer.getScore(good) > mDialer.getScore(mPeers.get(0)));
+		assertTrue(mDialer.getScore(mPeers.get(0)) > mDialer.getScore(bad));
+		
+		// Both wait before being dialed again, the unknown peer is dialed first.
+		candidates.add(mPeers.get(0));
+		assertSame(mPeers.get(0), mDialer.dial(candidates));
+		mDialer.disconnected(mPeers.get(0), 0, false);
+	}
+}
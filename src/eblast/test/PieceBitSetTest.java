@@ -0,0 +1,157 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.torrent.messages.BitField;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
+
+public class PieceBitSetTest {
+	
+	private static PieceBitSet set(int size, int... indexes) {
+		PieceBitSet set = new PieceBitSet(size);
+		for (int i: indexes) {
+			set.set(i);
+		}
+		return set;
+	}
+	
+	@Test
+	public void testSetAndClear() {
+		PieceBitSet set = new PieceBitSet(130);
+		assertTrue(set.isEmpty());
+		
+		assertTrue(set.set(0));
+		assertTrue(set.set(64));
+		assertTrue(set.set(129));
+		assertFalse(set.set(64));
+		assertFalse(set.set(130)); // Out of the set
+		assertFalse(set.set(-1));
+		
+		assertEquals(3, set.cardinality());
+		assertTrue(set.get(129));
+		assertFalse(set.get(128));
+		assertFalse(set.get(1000));
+		
+		assertTrue(set.clear(64));
+		assertFalse(set.clear(64));
+		assertEquals(2, set.cardinality());
+		
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertEquals(-1, set.nextSetBit(0));
+	}
+	
+	@Test
+	public void testNextSetBit() {
+		PieceBitSet set = set(200, 3, 63, 64, 199);
+		
+		assertEquals(3, set.nextSetBit(0));
+		assertEquals(63, set.nextSetBit(4));
+		assertEquals(64, set.nextSetBit(64));
+		assertEquals(199, set.nextSetBit(65));
+		assertEquals(-1, set.nextSetBit(200));
+	}
+	
+	@Test
+	public void testSetAndNot() {
+		PieceBitSet peer = set(200, 3, 63, 64, 199);
+		PieceBitSet received = set(200, 3, 64);
+		
+		assertEquals(63, peer.nextSetBitAndNot(received, 0));
+		assertEquals(199, peer.nextSetBitAndNot(received, 64));
+		
+		received.set(63);
+		received.set(199);
+		assertEquals(-1, peer.nextSetBitAndNot(received, 0));
+	}
+	
+	@Test
+	public void testIntersection() {
+		PieceBitSet a = set(100, 1, 2, 70, 99);
+		PieceBitSet b = set(100, 2, 3, 99);
+		
+		assertTrue(a.intersects(b));
+		assertEquals(2, a.intersectionCount(b));
+		
+		PieceBitSet and = a.and(b);
+		assertEquals(2, and.cardinality());
+		assertTrue(and.get(2));
+		assertTrue(and.get(99));
+		
+		assertFalse(a.intersects(set(100, 0, 50)));
+	}
+	
+	@Test
+	public void testOr() {
+		PieceBitSet a = set(100, 1, 70);
+		a.or(set(100, 1, 2, 99));
+		
+		assertEquals(4, a.cardinality());
+		assertTrue(a.get(99));
+		
+		PieceBitSet copy = a.copy();
+		copy.clear(1);
+		assertTrue(a.get(1));
+		assertEquals(3, copy.cardinality());
+	}
+	
+	@Test
+	public void testBytes() {
+		PieceBitSet set = set(13, 0, 7, 8, 12);
+		byte[] bytes = set.toBytes();
+		
+		assertArrayEquals(new byte[] { (byte) 0x81, (byte) 0x88 }, bytes);
+		
+		// The padding bits are ignored
+		PieceBitSet decoded = PieceBitSet.fromBytes(new byte[] { (byte) 0x81, (byte) 0x8F }, 13);
+		assertEquals(4, decoded.cardinality());
+		assertEquals(-1, decoded.nextSetBitAndNot(set, 0));
+		
+		assertTrue(PieceBitSet.fromBytes(new byte[0], 13).isEmpty());
+	}
+	
+	@Test
+	public void testBitField() throws Exception {
+		List<Piece> pieces = new ArrayList<Piece>();
+		for (int i=0; i<10; i++) {
+			pieces.add(new Piece(null, i, Block.BLOCK_SIZE, new Hash(new byte[20])));
+		}
+		pieces.get(1).restore(true, null);
+		pieces.get(9).restore(true, null); // In the last byte
+		
+		BitField bitField = new BitField(pieces);
+		assertEquals(1 + 2, bitField.getLength());
+		
+		PieceBitSet available = bitField.getAvailablePieces(pieces.size());
+		assertEquals(2, available.cardinality());
+		assertTrue(available.get(1));
+		assertTrue(available.get(9));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.io.FileManager;
+import eblast.io.PieceCache;
+import eblast.io.TorrentFile;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
+
+public class PieceCacheTest {
+	
+	private static final int PIECE_SIZE = 2 * Block.BLOCK_SIZE;
+	private static final int NB_PIECES = 4;
+	
+	private File mDir;
+	private FileManager mFileManager;
+	private List<Piece> mPieces;
+	private byte[] mData;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("eblast", "");
+		mDir.delete();
+		mDir.mkdirs();
+		
+		List<TorrentFile> files = new ArrayList<TorrentFile>();
+		files.add(new TorrentFile(NB_PIECES * PIECE_SIZE, Arrays.asList("file"), null));
+		mFileManager = new FileManager(PIECE_SIZE, files, mDir);
+		
+		mData = new byte[NB_PIECES * PIECE_SIZE];
+		new Random().nextBytes(mData);
+		mFileManager.write(0, ByteBuffer.wrap(mData));
+		
+		mPieces = new ArrayList<Piece>();
+		for (int i=0; i<NB_PIECES; i++) {
+			Piece piece = new Piece(mFileManager, i, PIECE_SIZE, new Hash(new byte[20]));
+			piece.restore(true, null);
+			mPieces.add(piece);
+		}
+	}
+	
+	@After
+	public void tearDown() {
+		mFileManager.erase();
+		mDir.delete();
+	}
+	
+	private void assertBlock(PieceCache cache, int index, int begin) throws Exception {
+		int start = index * PIECE_SIZE + begin;
+		Block block = cache.read(mPieces.get(index), begin, Block.BLOCK_SIZE);
+		assertArrayEquals(Arrays.copyOfRange(mData, start, start + Block.BLOCK_SIZE), block.toBytes());
+	}
+	
+	@Test
+	public void testPieceIsPrefetched() throws Exception {
+		PieceCache cache = new PieceCache(mFileManager, PieceCache.DEFAULT_CAPACITY);
+		
+		assertBlock(cache, 1, 0);
+		assertEquals(1, cache.getMisses());
+		assertEquals(PIECE_SIZE, cache.getSize());
+		
+		// The second block was read with the first one.
+		assertBlock(cache, 1, Block.BLOCK_SIZE);
+		assertBlock(cache, 1, 0);
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		PieceCache cache = new PieceCache(mFileManager, 2 * PIECE_SIZE);
+		
+		assertBlock(cache, 0, 0);
+		assertBlock(cache, 1, 0);
+		assertBlock(cache, 0, 0); // The piece 1 is now the least recently used
+		assertBlock(cache, 2, 0);
+		
+		assertEquals(1, cache.getEvictions());
+		assertEquals(2 * PIECE_SIZE, cache.getSize());
+		
+		assertBlock(cache, 0, Block.BLOCK_SIZE);
+		assertEquals(2, cache.getHits());
+		assertBlock(cache, 1, Block.BLOCK_SIZE);
+		assertEquals(4, cache.getMisses());
+	}
+	
+	@Test
+	public void testIncompletePieceIsNotCached() throws Exception {
+		PieceCache cache = new PieceCache(mFileManager, PieceCache.DEFAULT_CAPACITY);
+		Piece piece = mPieces.get(3);
+		PieceBitSet blocks = new PieceBitSet(piece.getBlockCount());
+		blocks.set(1);
+		piece.restore(false, blocks);
+		
+		assertNull(cache.read(piece, 0, Block.BLOCK_SIZE));
+		assertBlock(cache, 3, Block.BLOCK_SIZE);
+		assertEquals(0, cache.getSize());
+	}
+	
+	@Test
+	public void testBufferedBlockIsServed() throws Exception {
+		PieceCache cache = new PieceCache(mFileManager, PieceCache.DEFAULT_CAPACITY);
+		int start = 3 * PIECE_SIZE;
+		byte[] expected = Arrays.copyOfRange(mData, start, start + Block.BLOCK_SIZE);
+		
+		// Nothing on the disk yet, the block is only in the write-back buffer of the piece.
+		mFileManager.write(start, ByteBuffer.wrap(new byte[PIECE_SIZE]));
+		Piece piece = new Piece(mFileManager, 3, PIECE_SIZE, new Hash(new byte[20]));
+		assertTrue(piece.feed(0, ByteBuffer.wrap(expected)));
+		assertFalse(piece.isComplete());
+		assertTrue(piece.getReceivedBlockIndexes().isEmpty());
+		
+		assertArrayEquals(expected, cache.read(piece, 0, Block.BLOCK_SIZE).toBytes());
+		assertNull(cache.read(piece, Block.BLOCK_SIZE, Block.BLOCK_SIZE));
+		assertEquals(0, cache.getSize());
+		piece.discardBuffer();
+	}
+	
+	@Test
+	public void testOutOfPiece() throws Exception {
+		PieceCache cache = new PieceCache(mFileManager, PieceCache.DEFAULT_CAPACITY);
+		assertNull(cache.read(mPieces.get(0), PIECE_SIZE - 10, Block.BLOCK_SIZE));
+	}
+}
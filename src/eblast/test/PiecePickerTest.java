@@ -0,0 +1,189 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.checksum.Hash;
+import eblast.torrent.messages.Request;
+import eblast.torrent.piece.Block;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
+import eblast.torrent.piece.PiecePicker;
+
+public class PiecePickerTest {
+	
+	private static final int NB_PIECES = 8;
+	
+	private List<Piece> mPieces;
+	
+	@Before
+	public void setUp() throws Exception {
+		mPieces = new ArrayList<Piece>();
+		for (int i=0; i<NB_PIECES; i++) {
+			mPieces.add(new Piece(null, i, Block.BLOCK_SIZE, new Hash(new byte[20])));
+		}
+	}
+	
+	private static PieceBitSet set(int... indexes) {
+		PieceBitSet set = new PieceBitSet(NB_PIECES);
+		for (int i: indexes) {
+			set.set(i);
+		}
+		return set;
+	}
+	
+	/**
+	 * The random-first pieces are already downloaded.
+	 */
+	private PiecePicker createPicker() {
+		for (int i=0; i<PiecePicker.RANDOM_FIRST_PIECES; i++) {
+			mPieces.get(i).restore(true, null);
+		}
+		return new PiecePicker(mPieces);
+	}
+	
+	private void increment(PiecePicker picker, int index, int times) {
+		for (int i=0; i<times; i++) {
+			picker.increment(index);
+		}
+	}
+	
+	@Test
+	public void testRarestFirst() {
+		PiecePicker picker = createPicker();
+		increment(picker, 4, 3);
+		increment(picker, 5, 1);
+		increment(picker, 6, 2);
+		
+		assertEquals(5, picker.pick(set(4, 5, 6)).getIndex());
+		assertEquals(6, picker.pick(set(4, 6)).getIndex());
+		assertEquals(4, picker.pick(set(0, 4)).getIndex());
+		assertNull(picker.pick(set(0, 1)));
+	}
+	
+	@Test
+	public void testRarestFirstWithFewPiecesOwned() {
+		PiecePicker picker = createPicker();
+		increment(picker, 4, 2);
+		increment(picker, 5, 1);
+		
+		// The peer owns less pieces than the rarest bucket holds
+		assertEquals(5, picker.pick(set(4, 5, 0)).getIndex());
+		assertEquals(4, picker.pick(set(4)).getIndex());
+		assertEquals(7, picker.pick(set(7)).getIndex());
+	}
+	
+	@Test
+	public void testPickDoesNotReserve() {
+		PiecePicker picker = createPicker();
+		increment(picker, 5, 1);
+		
+		// A choked peer picks the piece without requesting it.
+		assertEquals(5, picker.pick(set(5)).getIndex());
+		assertTrue(picker.getPiecesInProgress().isEmpty());
+		
+		picker.markRequested(5);
+		assertEquals(1, picker.getPiecesInProgress().size());
+		assertTrue(picker.getPiecesInProgress().contains(5));
+	}
+	
+	@Test
+	public void testAvailabilityDecrement() {
+		PiecePicker picker = createPicker();
+		increment(picker, 4, 3);
+		increment(picker, 6, 2);
+		picker.decrement(Arrays.asList(4, 4, 6));
+		
+		assertEquals(1, picker.getAvailability(4));
+		assertEquals(1, picker.getAvailability(6));
+		
+		picker.decrement(Arrays.asList(4));
+		assertEquals(4, picker.pick(set(4, 6)).getIndex());
+	}
+	
+	@Test
+	public void testRandomFirst() {
+		PiecePicker picker = new PiecePicker(mPieces);
+		increment(picker, 7, 5);
+		
+		Piece piece = picker.pick(set(2, 7));
+		assertTrue(piece.getIndex() == 2 || piece.getIndex() == 7);
+	}
+	
+	@Test
+	public void testCompletedAndResetPieces() {
+		PiecePicker picker = createPicker();
+		increment(picker, 5, 1);
+		
+		mPieces.get(5).restore(true, null);
+		picker.pieceCompleted(5);
+		assertNull(picker.pick(set(5)));
+		
+		// A failed verification makes the piece needed again.
+		mPieces.get(5).restore(false, new PieceBitSet(1));
+		picker.update();
+		assertEquals(5, picker.pick(set(5)).getIndex());
+	}
+	
+	@Test
+	public void testResetEvent() {
+		PiecePicker picker = createPicker();
+		increment(picker, 5, 1);
+		increment(picker, 6, 2);
+		increment(picker, 7, 2);
+		
+		mPieces.get(5).restore(true, null);
+		picker.pieceCompleted(5);
+		assertEquals(6, picker.pick(set(5, 6)).getIndex());
+		
+		// Without a full update, the rarest piece is needed again.
+		mPieces.get(5).restore(false, new PieceBitSet(1));
+		picker.pieceReset(5);
+		picker.pieceReset(5); // Twice doesn't matter
+		assertEquals(5, picker.pick(set(5, 7)).getIndex());
+		assertEquals(1, picker.getAvailability(5));
+	}
+	
+	@Test
+	public void testEndgame() {
+		for (int i=0; i<NB_PIECES-1; i++) {
+			mPieces.get(i).restore(true, null);
+		}
+		PiecePicker picker = new PiecePicker(mPieces);
+		assertFalse(picker.isEndgame());
+		
+		Piece last = picker.pick(set(NB_PIECES-1));
+		assertFalse(picker.isEndgame()); // Picked but not requested yet
+		last.addPairRequestForBlock(new Request(last.getIndex(), 0, Block.BLOCK_SIZE), null);
+		picker.markRequested(last.getIndex());
+		
+		// The only needed block has been requested, another peer gets it too.
+		assertTrue(picker.isEndgame());
+		assertSame(last, picker.pick(set(NB_PIECES-1)));
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.bencoding.BEncoder;
+import eblast.metainfo.MetaInfo;
+import eblast.metainfo.MetaInfoReader;
+import eblast.torrent.Torrent;
+import eblast.torrent.TorrentManager;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceVerifier;
+
+public class PieceVerifierTest {
+	
+	private static final int PIECE_LENGTH = 1 << 18;
+	private static final int NB_PIECES = 18;			// More than one run of the PieceVerifier
+	private static final int[] CORRUPTED = { 3, 16, NB_PIECES - 1 };
+	
+	private File mDir;
+	private File mDownloadDir;
+	private MetaInfo mMetaInfo;
+	private Torrent mParallel;
+	private Torrent mSerial;
+	
+	@Before
+	public void setUp() throws Exception {
+		mDir = File.createTempFile("eblast", "");
+		mDir.delete();
+		mDir.mkdirs();
+		mDownloadDir = TorrentManager.getInstance().getSettings().getDownloadDir();
+		TorrentManager.getInstance().getSettings().setDownloadDir(mDir);
+		
+		// The last piece is shorter than the others.
+		byte[] data = new byte[(NB_PIECES - 1) * PIECE_LENGTH + 1000];
+		new Random(3).nextBytes(data);
+		
+		MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+		byte[] pieces = new byte[NB_PIECES * 20];
+		for (int i=0; i<NB_PIECES; i++) {
+			sha1.update(data, i * PIECE_LENGTH, Math.min(PIECE_LENGTH, data.length - i * PIECE_LENGTH));
+			System.arraycopy(sha1.digest(), 0, pieces, i * 20, 20);
+		}
+		for (int i: CORRUPTED) {
+			data[i * PIECE_LENGTH + 7] ^= 1;
+		}
+		
+		FileOutputStream out = new FileOutputStream(new File(mDir, "verified.bin"));
+		out.write(data);
+		out.close();
+		
+		Map<String, Object> info = new HashMap<String, Object>();
+		info.put("name", "verified.bin");
+		info.put("piece length", PIECE_LENGTH);
+		info.put("length", data.length);
+		info.put("pieces", pieces);
+		
+		Map<String, Object> torrent = new HashMap<String, Object>();
+		torrent.put("announce", "http://localhost/announce");
+		torrent.put("info", info);
+		
+		File file = new File(mDir, "verified.torrent");
+		out = new FileOutputStream(file);
+		out.write(BEncoder.bencode(torrent));
+		out.close();
+		
+		mMetaInfo = MetaInfoReader.openMetaInfo(file.getAbsolutePath());
+		mParallel = Torrent.createTorrent(mMetaInfo);
+		mSerial = Torrent.createTorrent(mMetaInfo);
+	}
+	
+	@After
+	public void tearDown() {
+		mParallel.destroyTorrent(false);
+		mSerial.destroyTorrent(true);
+		new File(mDir, "verified.torrent").delete();
+		mDir.delete();
+		TorrentManager.getInstance().getSettings().setDownloadDir(mDownloadDir);
+	}
+	
+	@Test
+	public void testSameResultAsSerialVerification() throws Exception {
+		PieceVerifier verifier = new PieceVerifier(mParallel, mParallel.getPieces());
+		verifier.start();
+		verifier.await();
+		assertTrue(verifier.isDone());
+		assertEquals(100.0, verifier.getProgress(), 0.0);
+		
+		for (Piece p: mSerial.getPieces()) {
+			p.init();
+		}
+		
+		List<Piece> parallel = mParallel.getPieces();
+		List<Piece> serial = mSerial.getPieces();
+		assertEquals(NB_PIECES, parallel.size());
+		int complete = 0;
+		for (int i=0; i<NB_PIECES; i++) {
+			assertEquals("Piece " + i, serial.get(i).isComplete(), parallel.get(i).isComplete());
+			assertFalse(parallel.get(i).isChecking());
+			if (parallel.get(i).isComplete()) complete++;
+		}
+		
+		for (int i: CORRUPTED) {
+			assertFalse(parallel.get(i).isComplete());
+		}
+		assertEquals(NB_PIECES - CORRUPTED.length, complete);
+	}
+}
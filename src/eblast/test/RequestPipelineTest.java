@@ -0,0 +1,84 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import eblast.torrent.messages.Request;
+import eblast.torrent.peer.RequestPipeline;
+import eblast.torrent.piece.Block;
+
+public class RequestPipelineTest {
+	
+	/**
+	 * Simulates a peer that sends the given number of blocks per second during 5 seconds.
+	 */
+	private RequestPipeline simulate(int blocksPerSecond, long rtt) {
+		RequestPipeline pipeline = new RequestPipeline();
+		long start = System.currentTimeMillis();
+		for (int i=1; i<=5*blocksPerSecond; i++) {
+			pipeline.blockReceived(rtt, Block.BLOCK_SIZE, start + i * 1000L / blocksPerSecond);
+		}
+		return pipeline;
+	}
+	
+	@Test
+	public void testInitialValues() {
+		RequestPipeline pipeline = new RequestPipeline();
+		assertEquals(RequestPipeline.INITIAL_DEPTH, pipeline.getDepth());
+		assertEquals(RequestPipeline.INITIAL_TIMEOUT, pipeline.getTimeout());
+	}
+	
+	@Test
+	public void testFastPeerFarAway() {
+		// 1 MiB/s with a RTT of 500ms: 32 blocks are on the link.
+		RequestPipeline pipeline = simulate(64, 500);
+		assertTrue(pipeline.getDepth() > 32);
+		assertTrue(pipeline.getDepth() <= RequestPipeline.MAX_DEPTH);
+	}
+	
+	@Test
+	public void testSlowPeer() {
+		RequestPipeline pipeline = simulate(1, 100);
+		assertEquals(RequestPipeline.MIN_DEPTH, pipeline.getDepth());
+		assertEquals(RequestPipeline.MIN_TIMEOUT, pipeline.getTimeout());
+	}
+	
+	@Test
+	public void testTimeoutShrinksPipeline() {
+		RequestPipeline pipeline = simulate(16, 2000);
+		int depth = pipeline.getDepth();
+		long timeout = pipeline.getTimeout();
+		
+		pipeline.requestTimedOut();
+		assertTrue(pipeline.getDepth() < depth);
+		assertTrue(pipeline.getTimeout() > timeout);
+	}
+	
+	@Test
+	public void testRequestIsOld() {
+		Request request = new Request(0, 0, Block.BLOCK_SIZE);
+		assertFalse(request.isOld());
+		assertFalse(request.isOld(10000L));
+		assertTrue(request.isOld(0L));
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import eblast.torrent.TaskPools;
+import eblast.torrent.TaskPools.Pool;
+
+public class TaskPoolsTest {
+	
+	private static final Runnable NOTHING = new Runnable() {
+		public void run() {}
+	};
+	
+	/**
+	 * Occupies all the threads of a pool until the latch is released.
+	 */
+	private void block(TaskPools pools, Pool pool, final CountDownLatch started, final CountDownLatch release) {
+		for (int i = 0; i < pools.getMaximumPoolSize(pool); i++) {
+			pools.execute(pool, new Runnable() {
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {}
+				}
+			});
+		}
+	}
+	
+	@Test
+	public void testSaturationAndRejection() throws InterruptedException {
+		TaskPools pools = new TaskPools();
+		int threads = pools.getMaximumPoolSize(Pool.announce);
+		CountDownLatch started = new CountDownLatch(threads);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		block(pools, Pool.announce, started, release);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(threads, pools.getActiveCount(Pool.announce));
+		assertEquals(1.0, pools.getSaturation(Pool.announce), 0.0);
+		
+		// Fill the queue, the next task is run by the caller.
+		for (int i = 0; i < TaskPools.QUEUE_CAPACITY; i++) {
+			pools.execute(Pool.announce, NOTHING);
+		}
+		assertEquals(TaskPools.QUEUE_CAPACITY, pools.getQueueSize(Pool.announce));
+		assertEquals(0, pools.getRejectedCount(Pool.announce));
+		
+		final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+		pools.execute(Pool.announce, new Runnable() {
+			public void run() {
+				runner.set(Thread.currentThread());
+			}
+		});
+		assertSame(Thread.currentThread(), runner.get());
+		assertEquals(1, pools.getRejectedCount(Pool.announce));
+		
+		// The other pools aren't affected.
+		assertEquals(0.0, pools.getSaturation(Pool.io), 0.0);
+		
+		release.countDown();
+		for (int i = 0; i < 500 && pools.getCompletedTaskCount(Pool.announce) < threads + TaskPools.QUEUE_CAPACITY; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(threads + TaskPools.QUEUE_CAPACITY, pools.getCompletedTaskCount(Pool.announce));
+		assertEquals(threads, pools.getLargestPoolSize(Pool.announce));
+	}
+	
+	@Test
+	public void testThreadsNames() throws InterruptedException {
+		TaskPools pools = new TaskPools();
+		final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		pools.execute(Pool.hashing, new Runnable() {
+			public void run() {
+				runner.set(Thread.currentThread());
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(runner.get().getName().startsWith("Hashing-"));
+		assertTrue(runner.get().isDaemon());
+		assertEquals(Thread.MIN_PRIORITY, runner.get().getPriority());
+	}
+	
+	@Test
+	public void testVirtualThreads() throws InterruptedException {
+		TaskPools pools = new TaskPools();
+		boolean supported = TaskPools.createVirtualThreadFactory("Test") != null;
+		
+		assertEquals(supported, pools.setVirtualThreads(true));
+		assertEquals(supported, pools.isVirtualThreadsUsed());
+		assertEquals(supported ? TaskPools.VIRTUAL_THREADS : TaskPools.IO_THREADS, pools.getMaximumPoolSize(Pool.io));
+		assertEquals(pools.getMaximumPoolSize(Pool.hashing), Runtime.getRuntime().availableProcessors());
+		
+		final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+		final CountDownLatch done = new CountDownLatch(1);
+		pools.execute(Pool.io, new Runnable() {
+			public void run() {
+				runner.set(Thread.currentThread());
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(runner.get().getName().startsWith("IO-"));
+		
+		assertFalse(pools.setVirtualThreads(false));
+		assertEquals(TaskPools.IO_THREADS, pools.getMaximumPoolSize(Pool.io));
+	}
+	
+	@Test
+	public void testConnectionThreadFactory() {
+		TaskPools pools = new TaskPools();
+		Thread thread = pools.getConnectionThreadFactory().newThread(NOTHING);
+		assertTrue(thread.getName().startsWith("Peer-"));
+		
+		final AtomicReference<Runnable> launched = new AtomicReference<Runnable>();
+		pools.setConnectionThreadFactory(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				launched.set(r);
+				return new Thread(r, "Custom");
+			}
+		});
+		assertEquals("Custom", pools.getConnectionThreadFactory().newThread(NOTHING).getName());
+		assertSame(NOTHING, launched.get());
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import eblast.io.ThrottledOutputStream;
+import eblast.io.TokenBucket;
+
+public class TokenBucketTest {
+	
+	private static final long KIB = 1024;
+	private static final long MS = 1000000L; // 1 millisecond in nanoseconds
+	
+	/**
+	 * Takes all the tokens available at the given time.
+	 */
+	private long drain(TokenBucket bucket, long now) {
+		long total = 0;
+		long granted;
+		while ((granted = bucket.tryTake(1 << 20, now)) > 0) {
+			total += granted;
+		}
+		return total;
+	}
+	
+	@Test
+	public void testUnlimited() {
+		TokenBucket bucket = new TokenBucket(TokenBucket.UNLIMITED, null);
+		assertFalse(bucket.isLimited());
+		assertEquals(1 << 20, bucket.tryTake(1 << 20));
+	}
+	
+	@Test
+	public void testRate() {
+		TokenBucket bucket = new TokenBucket(1024 * KIB, null);
+		long now = System.nanoTime();
+		
+		// The bucket starts full: 250ms of transfer.
+		long burst = drain(bucket, now);
+		assertTrue(burst >= 256 * KIB && burst < 264 * KIB);
+		
+		// 100ms later, about 100 KiB can be transferred.
+		long refilled = drain(bucket, now + 100 * MS);
+		assertTrue(refilled >= 100 * KIB && refilled <= 104 * KIB);
+		
+		assertEquals(0, bucket.tryTake(1, now + 100 * MS));
+	}
+	
+	@Test
+	public void testQuantum() {
+		TokenBucket bucket = new TokenBucket(1024 * KIB, null);
+		assertEquals(1024 * KIB / 20, bucket.getQuantum());
+		assertEquals(bucket.getQuantum(), bucket.tryTake(1 << 20));
+	}
+	
+	@Test
+	public void testHierarchy() {
+		TokenBucket global = new TokenBucket(128 * KIB, null);
+		TokenBucket torrent = new TokenBucket(TokenBucket.UNLIMITED, global);
+		TokenBucket peer = new TokenBucket(TokenBucket.UNLIMITED, torrent);
+		assertTrue(peer.isLimited());
+		
+		// The global limit is shared by all its children.
+		long now = System.nanoTime();
+		long burst = drain(peer, now);
+		assertTrue(burst >= 32 * KIB && burst < 33 * KIB);
+		assertEquals(0, torrent.tryTake(1, now));
+		assertEquals(0, global.tryTake(1, now));
+	}
+	
+	@Test
+	public void testChildMoreLimited() {
+		TokenBucket global = new TokenBucket(128 * KIB, null);
+		TokenBucket peer = new TokenBucket(8 * KIB, global);
+		long now = System.nanoTime();
+		drain(peer, now);
+		
+		// 100ms later, the peer can only take its own share.
+		long refilled = drain(peer, now + 100 * MS);
+		assertTrue(refilled >= 8 * KIB / 10 && refilled <= 8 * KIB / 10 + 64);
+		assertTrue(drain(global, now + 100 * MS) > 10 * KIB);
+	}
+	
+	@Test
+	public void testRefund() {
+		TokenBucket global = new TokenBucket(128 * KIB, null);
+		TokenBucket peer = new TokenBucket(TokenBucket.UNLIMITED, global);
+		long now = System.nanoTime();
+		
+		drain(peer, now);
+		peer.refund(1000);
+		assertEquals(1000, peer.tryTake(1 << 20, now));
+		assertEquals(0, global.tryTake(1, now));
+	}
+	
+	@Test
+	public void testThrottledOutputStream() throws IOException {
+		TokenBucket bucket = new TokenBucket(256 * KIB, null);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ThrottledOutputStream output = new ThrottledOutputStream(bytes, bucket);
+		
+		// 64 KiB of burst, then 64 KiB at 256 KiB/s.
+		long start = System.currentTimeMillis();
+		output.write(new byte[(int) (128 * KIB)]);
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertEquals(128 * KIB, bytes.size());
+		assertTrue(elapsed >= 200);
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eblast.torrent.peer.Peer;
+import eblast.torrent.tracker.AnnounceInfo;
+import eblast.torrent.tracker.TrackerInfoException;
+import eblast.torrent.tracker.UDPTracker;
+
+public class UDPTrackerTest {
+	
+	private static final long CONNECTION_ID = 0x1234567890ABCDEFL;
+	private static final byte[] INFO_HASH = new byte[20];
+	private static final byte[] PEER_ID = "-eB0100-123456789012".getBytes();
+	
+	private FakeTracker mFake;
+	private UDPTracker mTracker;
+	
+	/**
+	 * Local stand-in of a UDP tracker.
+	 */
+	private static class FakeTracker extends Thread {
+		
+		DatagramSocket mSocket;
+		volatile int mDrop;			// Requests ignored before answering
+		volatile String mError;		// Error answered to the announces
+		volatile int mConnects;
+		volatile int mAnnounces;
+		volatile long mLastLeft;
+		volatile int mLastEvent;
+		volatile int mLastPort;
+		
+		FakeTracker() throws IOException {
+			mSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+			setDaemon(true);
+		}
+		
+		public void run() {
+			byte[] buffer = new byte[2048];
+			while (!mSocket.isClosed()) {
+				try {
+					DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+					mSocket.receive(packet);
+					if (mDrop > 0) {
+						mDrop--;
+						continue;
+					}
+					
+					ByteBuffer in = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+					long connectionId = in.getLong();
+					int action = in.getInt();
+					int transactionId = in.getInt();
+					
+					ByteBuffer out = ByteBuffer.allocate(1024);
+					if (action == UDPTracker.ACTION_CONNECT) {
+						assertEquals(UDPTracker.PROTOCOL_ID, connectionId);
+						mConnects++;
+						out.putInt(action).putInt(transactionId).putLong(CONNECTION_ID);
+						
+					} else if (connectionId != CONNECTION_ID) {
+						out.putInt(UDPTracker.ACTION_ERROR).putInt(transactionId).put("bad connection id".getBytes());
+						
+					} else if (action == UDPTracker.ACTION_ANNOUNCE) {
+						mAnnounces++;
+						in.position(16 + 40 + 8);
+						mLastLeft = in.getLong();
+						in.getLong();
+						mLastEvent = in.getInt();
+						in.position(16 + 80);
+						mLastPort = in.getShort() & 0xFFFF;
+						
+						if (mError != null) {
+							out.putInt(UDPTracker.ACTION_ERROR).putInt(transactionId).put(mError.getBytes());
+						} else {
+							out.putInt(action).putInt(transactionId).putInt(1800).putInt(3).putInt(5);
+							out.put(new byte[] {10, 0, 0, 1}).putShort((short) 6881);
+							out.put(new byte[] {(byte) 192, (byte) 168, 1, 2}).putShort((short) 51413);
+						}
+						
+					} else if (action == UDPTracker.ACTION_SCRAPE) {
+						out.putInt(action).putInt(transactionId).putInt(5).putInt(42).putInt(3);
+					}
+					
+					mSocket.send(new DatagramPacket(out.array(), out.position(), packet.getSocketAddress()));
+				} catch (IOException e) {
+					return; // Closed
+				}
+			}
+		}
+		
+		int getPort() {
+			return mSocket.getLocalPort();
+		}
+	}
+	
+	@Before
+	public void setUp() throws Exception {
+		mFake = new FakeTracker();
+		mFake.start();
+		mTracker = new UDPTracker("udp://127.0.0.1:" + mFake.getPort() + "/announce");
+		mTracker.setTimeout(200, 2);
+	}
+	
+	@After
+	public void tearDown() {
+		mTracker.close();
+		mFake.mSocket.close();
+	}
+	
+	@Test
+	public void testAnnounce() throws Exception {
+		AnnounceInfo announce = mTracker.announce(INFO_HASH, PEER_ID, 0, 1000, 0, UDPTracker.EVENT_STARTED, -1, 6881, null);
+		
+		assertEquals(1800, announce.getInterval());
+		assertEquals(5, announce.getComplete());
+		assertEquals(3, announce.getIncomplete());
+		assertEquals(1000, mFake.mLastLeft);
+		assertEquals(UDPTracker.EVENT_STARTED, mFake.mLastEvent);
+		assertEquals(6881, mFake.mLastPort);
+		
+		assertEquals(2, announce.getPeersList().size());
+		Peer first = announce.getPeersList().get(0);
+		Peer second = announce.getPeersList().get(1);
+		assertEquals("10.0.0.1", first.getIP().getHostAddress());
+		assertEquals(6881, first.getPort());
+		assertEquals("192.168.1.2", second.getIP().getHostAddress());
+		assertEquals(51413, second.getPort());
+	}
+	
+	@Test
+	public void testConnectionIdCached() throws Exception {
+		assertFalse(mTracker.isConnected());
+		mTracker.announce(INFO_HASH, PEER_ID, 0, 0, 0, UDPTracker.EVENT_NONE, -1, 6881, null);
+		mTracker.announce(INFO_HASH, PEER_ID, 0, 0, 0, UDPTracker.EVENT_NONE, -1, 6881, null);
+		assertArrayEquals(new int[] {5, 42, 3}, mTracker.scrape(INFO_HASH));
+		
+		assertTrue(mTracker.isConnected());
+		assertEquals(1, mFake.mConnects);
+		assertEquals(2, mFake.mAnnounces);
+	}
+	
+	@Test
+	public void testRetransmit() throws Exception {
+		mFake.mDrop = 2; // The connect request and its first retry are lost
+		AnnounceInfo announce = mTracker.announce(INFO_HASH, PEER_ID, 0, 0, 0, UDPTracker.EVENT_NONE, -1, 6881, null);
+		assertEquals(2, announce.getPeersList().size());
+		assertEquals(1, mFake.mConnects);
+	}
+	
+	@Test
+	public void testNoAnswer() throws Exception {
+		mFake.mDrop = Integer.MAX_VALUE;
+		mTracker.setTimeout(50, 1);
+		try {
+			mTracker.announce(INFO_HASH, PEER_ID, 0, 0, 0, UDPTracker.EVENT_NONE, -1, 6881, null);
+			fail();
+		} catch (SocketTimeoutException e) {}
+		assertFalse(mTracker.isConnected());
+	}
+	
+	@Test
+	public void testError() throws Exception {
+		mFake.mError = "torrent not registered";
+		try {
+			mTracker.announce(INFO_HASH, PEER_ID, 0, 0, 0, UDPTracker.EVENT_NONE, -1, 6881, null);
+			fail();
+		} catch (TrackerInfoException e) {
+			assertEquals("torrent not registered", e.getMessage());
+		}
+	}
+	
+	@Test(expected = TrackerInfoException.class)
+	public void testInvalidAddress() throws Exception {
+		new UDPTracker("udp://tracker.example.org/announce");
+	}
+	
+	@Test
+	public void testAddress() throws Exception {
+		assertEquals("udp://tracker.example.org:80", new UDPTracker("udp://tracker.example.org:80/announce").toString());
+	}
+}
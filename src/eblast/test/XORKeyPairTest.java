@@ -0,0 +1,113 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+import eblast.crypto.KeyGenerator;
+import eblast.crypto.XORKeyPair;
+
+public class XORKeyPairTest {
+	
+	private static final int[] KEY_LENGTHS = { 1, 3, 7, 8, 13, 128 };
+	
+	/**
+	 * The keystream, one byte at a time, as it was computed before.
+	 */
+	private static byte[] reference(byte[] key, byte[] data, int keyIndex) {
+		byte[] result = new byte[data.length];
+		for (int i = 0; i < data.length; i++) {
+			result[i] = (byte) (data[i] ^ key[(keyIndex + i) % key.length]);
+		}
+		return result;
+	}
+	
+	private static byte[] createData(int size) {
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		return data;
+	}
+	
+	@Test
+	public void testSlicesMatchReference() {
+		for (int keyLength : KEY_LENGTHS) {
+			XORKeyPair pair = KeyGenerator.generateXORKeyPair(keyLength);
+			byte[] data = createData(1000);
+			byte[] encrypted = data.clone();
+			
+			// Odd slices so that the words are never aligned with the key
+			int offset = 0;
+			for (int size = 1; offset < data.length; size += 7) {
+				int length = Math.min(size, data.length - offset);
+				pair.encrypt(encrypted, offset, length);
+				offset += length;
+			}
+			assertArrayEquals("key of " + keyLength, reference(pair.getKey(), data, 0), encrypted);
+		}
+	}
+	
+	@Test
+	public void testArrayAndInPlaceAgree() {
+		for (int keyLength : KEY_LENGTHS) {
+			XORKeyPair pair = KeyGenerator.generateXORKeyPair(keyLength);
+			byte[] data = createData(333);
+			
+			byte[] copy = pair.encrypt(data); // Key index now at 333
+			byte[] inPlace = data.clone();
+			pair.decrypt(inPlace, 0, inPlace.length);
+			assertArrayEquals(copy, inPlace);
+			
+			byte[] next = data.clone();
+			pair.encrypt(next, 0, next.length);
+			assertArrayEquals(reference(pair.getKey(), data, 333 % keyLength), next);
+		}
+	}
+	
+	@Test
+	public void testByteBuffers() {
+		for (int keyLength : KEY_LENGTHS) {
+			XORKeyPair pair = KeyGenerator.generateXORKeyPair(keyLength);
+			byte[] data = createData(4099);
+			
+			ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 5).order(ByteOrder.LITTLE_ENDIAN);
+			direct.position(5);
+			direct.put(data);
+			direct.position(5);
+			pair.encrypt(direct);
+			
+			assertEquals(5, direct.position());
+			assertEquals(ByteOrder.LITTLE_ENDIAN, direct.order());
+			
+			byte[] encrypted = new byte[data.length];
+			direct.get(encrypted);
+			assertArrayEquals(reference(pair.getKey(), data, 0), encrypted);
+			
+			ByteBuffer heap = ByteBuffer.wrap(encrypted);
+			pair.decrypt(heap);
+			assertArrayEquals(data, encrypted);
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import eblast.bencoding.BDecoder;
+import eblast.bencoding.BEDictionary;
+import eblast.bencoding.BEList;
+import eblast.bencoding.BEncoder;
+import eblast.checksum.Hash;
+import eblast.io.TorrentFile;
+import eblast.log.Log;
+import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
+
+/**
+ * This class saves and restores the state of the pieces of a torrent, so
+ * they don't have to be verified again when the torrent is restarted.
+ * 
+ * The file is a bencoded dictionary that contains:
+ * <ul>
+ * 		<li> info-hash: the InfoHash of the torrent
+ * 		<li> pieces: a bitfield of the complete pieces
+ * 		<li> partial: a list of (index, bitmap of the received blocks) for the incomplete pieces
+ * 		<li> files: a list of (length, mtime) of the files on the disk
+ * </ul>
+ * A file whose length or mtime has changed is distrusted: only the pieces
+ * it contains have to be verified.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class FastResume {
+	
+	private static final String KEY_INFO_HASH	= "info-hash";
+	private static final String KEY_PIECES		= "pieces";
+	private static final String KEY_PARTIAL		= "partial";
+	private static final String KEY_FILES		= "files";
+	private static final String KEY_LENGTH		= "length";
+	private static final String KEY_MTIME		= "mtime";
+	
+	private static final int EIGHTH_BIT = 0x80;
+	
+	private File mFile;
+	
+	/**
+	 * Default constructor.
+	 * @param file file where the state is saved
+	 */
+	public FastResume(File file) {
+		mFile = file;
+	}
+	
+	/**
+	 * Saves the state of the pieces and of the files.
+	 * The data of the files must have been flushed before.
+	 * @param infoHash InfoHash of the torrent
+	 * @param pieces all the pieces of the torrent
+	 * @param files all the files of the torrent
+	 * @throws IOException
+	 */
+	public void save(Hash infoHash, List<Piece> pieces, List<TorrentFile> files) throws IOException {
+		Map<String, Object> map = new TreeMap<String, Object>();
+		map.put(KEY_INFO_HASH, infoHash.toBytes());
+		
+		byte[] bitfield = new byte[(pieces.size() + 7) / 8];
+		List<Object> partial = new ArrayList<Object>();
+		for (Piece p: pieces) {
+			if (p.isComplete()) {
+				setBit(bitfield, p.getIndex());
+				
+			} else {
+				PieceBitSet blocks = p.getReceivedBlockIndexes();
+				if (!blocks.isEmpty()) {
+					partial.add(Arrays.asList(new Object[] { p.getIndex(), blocks.toBytes() }));
+				}
+			}
+		}
+		map.put(KEY_PIECES, bitfield);
+		map.put(KEY_PARTIAL, partial);
+		
+		// The lengths and mtimes are taken after the pieces, a later write only makes the file distrusted.
+		List<Object> filesList = new ArrayList<Object>();
+		for (TorrentFile tf: files) {
+			Map<String, Object> fileMap = new TreeMap<String, Object>();
+			File f = tf.getFile();
+			fileMap.put(KEY_LENGTH, (f != null && f.exists()) ? f.length() : -1L);
+			fileMap.put(KEY_MTIME, (f != null) ? f.lastModified() : 0L);
+			filesList.add(fileMap);
+		}
+		map.put(KEY_FILES, filesList);
+		
+		// Write into a temporary file, then replace the old one.
+		if (!mFile.getParentFile().exists()) {
+			mFile.getParentFile().mkdirs();
+		}
+		File tmp = new File(mFile.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try {
+			BEncoder.bencode(map, out);
+		} finally {
+			out.close();
+		}
+		
+		mFile.delete();
+		if (!tmp.renameTo(mFile)) {
+			throw new IOException("Unable to replace " + mFile);
+		}
+	}
+	
+	/**
+	 * Restores the state of the pieces if the file matches the torrent.
+	 * @param infoHash InfoHash of the torrent
+	 * @param pieces all the pieces of the torrent
+	 * @param files all the files of the torrent
+	 * @param pieceLength length of a piece (except the last one)
+	 * @return the pieces that couldn't be restored and have to be verified
+	 */
+	public List<Piece> load(Hash infoHash, List<Piece> pieces, List<TorrentFile> files, long pieceLength) {
+		if (!mFile.exists()) return pieces;
+		
+		BEDictionary dict;
+		try {
+			InputStream in = new FileInputStream(mFile);
+			try {
+				dict = new BEDictionary(BDecoder.bdecode(in));
+			} finally {
+				in.close();
+			}
+			
+			if (!Arrays.equals(infoHash.toBytes(), dict.getBytes(KEY_INFO_HASH))) {
+				Log.e("FastResume", "Wrong InfoHash in " + mFile);
+				return pieces;
+			}
+			
+			byte[] bitfield = dict.getBytes(KEY_PIECES);
+			BEList filesList = dict.getList(KEY_FILES);
+			if (bitfield.length != (pieces.size() + 7) / 8 || filesList.size() != files.size()) {
+				Log.e("FastResume", "The resume file doesn't match the torrent " + mFile);
+				return pieces;
+			}
+			
+			// Find the files that have changed since the last save.
+			List<long[]> changedRanges = new ArrayList<long[]>();
+			long offset = 0;
+			for (int i=0; i<files.size(); i++) {
+				BEDictionary fileDict = filesList.getDictionnary(i);
+				File f = files.get(i).getFile();
+				long length = (f != null && f.exists()) ? f.length() : -1L;
+				long mtime = (f != null) ? f.lastModified() : 0L;
+				
+				if (fileDict.getLong(KEY_LENGTH) != length || fileDict.getLong(KEY_MTIME) != mtime) {
+					Log.i("FastResume", files.get(i).getPath() + " has changed since the last save.");
+					changedRanges.add(new long[] { offset, offset + files.get(i).length() });
+				}
+				offset += files.get(i).length();
+			}
+			
+			Map<Integer, byte[]> partial = new HashMap<Integer, byte[]>();
+			BEList partialList = dict.getList(KEY_PARTIAL);
+			for (int i=0; i<partialList.size(); i++) {
+				BEList entry = partialList.getList(i);
+				partial.put(entry.getInt(0), entry.getBytes(1));
+			}
+			
+			// Restore the pieces that are only in unchanged files.
+			List<Piece> unverified = new ArrayList<Piece>();
+			for (Piece p: pieces) {
+				long start = p.getIndex() * pieceLength;
+				long end = start + p.getSize();
+				
+				boolean changed = false;
+				for (long[] range: changedRanges) {
+					changed |= start < range[1] && range[0] < end;
+				}
+				
+				byte[] bitmap = partial.get(p.getIndex());
+				PieceBitSet blocks = PieceBitSet.fromBytes((bitmap != null) ? bitmap : new byte[0], p.getBlockCount());
+				
+				boolean complete = isSet(bitfield, p.getIndex());
+				
+				// A piece with all its blocks but not complete has never been verified.
+				if (changed || (!complete && blocks.isFull())) {
+					unverified.add(p);
+				} else {
+					p.restore(complete, blocks);
+				}
+			}
+			
+			Log.i("FastResume", (pieces.size() - unverified.size()) + "/" + pieces.size() + " pieces restored from " + mFile);
+			return unverified;
+			
+		} catch (IOException e) {
+			Log.e("FastResume", "Unable to read " + mFile + ": " + e.getMessage());
+		} catch (NullPointerException e) {
+			Log.e("FastResume", "Missing key in " + mFile);
+		}
+		
+		return pieces;
+	}
+	
+	/**
+	 * Deletes the resume file.
+	 */
+	public void delete() {
+		mFile.delete();
+	}
+	
+	/**
+	 * Set the bit at the given index (starting from the MSB).
+	 * @param bitmap bitmap to modify
+	 * @param index index of the bit
+	 */
+	private static void setBit(byte[] bitmap, int index) {
+		bitmap[index / 8] |= EIGHTH_BIT >> (index % 8);
+	}
+	
+	/**
+	 * Returns true if the bit at the given index (starting from the MSB) is set.
+	 * @param bitmap bitmap to read
+	 * @param index index of the bit
+	 * @return true if the bit at the given index is set
+	 */
+	private static boolean isSet(byte[] bitmap, int index) {
+		return (bitmap[index / 8] & (EIGHTH_BIT >> (index % 8))) != 0;
+	}
+}
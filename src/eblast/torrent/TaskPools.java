@@ -0,0 +1,381 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.torrent;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eblast.log.Log;
+
+/**
+ * This class contains the threads shared by all the torrents, instead of
+ * one thread created for each task:
+ * <ul>
+ * 		<li> io: disk operations (fast-resume files, flushes of the stopped torrents)
+ * 		<li> hashing: verification of the pieces, one thread per processor
+ * 		<li> announce: calls to the trackers
+ * 		<li> the scheduler, which only triggers the events and the periodic tasks
+ * </ul>
+ * It also gives the factory of the threads of the peer connections, which
+ * are long-lived and so not pooled.
+ * 
+ * The pools are bounded. When a queue is full, the task is counted as
+ * rejected and run by the thread that submitted it, which slows the producer down.
+ * On a JDK with virtual threads, the io and announce pools and the peer
+ * connections can use them instead of the platform threads.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - Factory of the threads of the peer connections
+ */
+public class TaskPools {
+	
+	/**
+	 * Pools of the TaskPools.
+	 */
+	public static enum Pool {
+		io, hashing, announce
+	}
+	
+	public static final int IO_THREADS = 4;
+	public static final int ANNOUNCE_THREADS = 4;
+	public static final int VIRTUAL_THREADS = 256;		// Bound of the io and announce pools with virtual threads
+	public static final int QUEUE_CAPACITY = 1024;
+	private static final long KEEP_ALIVE = 30000L;		// Time before an idle thread dies (ms)
+	private static final String CONNECTION_THREAD_NAME = "Peer";
+	
+	private final ScheduledThreadPoolExecutor mScheduler;
+	private final ThreadPoolExecutor[] mPools;
+	private final int[] mPlatformThreads;				// Bound of each pool with platform threads
+	private final AtomicLong[] mRejected;
+	private ThreadFactory mConnectionFactory;			// Threads of the PeerHandlers
+	private boolean mVirtualThreads = false;
+	
+	/**
+	 * Default constructor, the threads are created when needed.
+	 */
+	public TaskPools() {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		
+		mScheduler = new ScheduledThreadPoolExecutor(Math.max(2, cpus), new PlatformThreadFactory("Scheduler", Thread.NORM_PRIORITY));
+		
+		Pool[] pools = Pool.values();
+		mPools = new ThreadPoolExecutor[pools.length];
+		mPlatformThreads = new int[pools.length];
+		mRejected = new AtomicLong[pools.length];
+		
+		mPlatformThreads[Pool.io.ordinal()] = IO_THREADS;
+		mPlatformThreads[Pool.hashing.ordinal()] = cpus;
+		mPlatformThreads[Pool.announce.ordinal()] = ANNOUNCE_THREADS;
+		
+		for (Pool p: pools) {
+			mRejected[p.ordinal()] = new AtomicLong();
+			int priority = p.equals(Pool.hashing) ? Thread.MIN_PRIORITY : Thread.NORM_PRIORITY;
+			mPools[p.ordinal()] = createPool(p, new PlatformThreadFactory(getThreadName(p), priority));
+		}
+		
+		mConnectionFactory = new PlatformThreadFactory(CONNECTION_THREAD_NAME, Thread.NORM_PRIORITY);
+	}
+	
+	/**
+	 * Creates a bounded pool whose threads die when they are idle.
+	 * @param pool the pool to create
+	 * @param factory factory of its threads
+	 * @return the pool
+	 */
+	private ThreadPoolExecutor createPool(final Pool pool, ThreadFactory factory) {
+		int threads = mPlatformThreads[pool.ordinal()];
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), factory, new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						mRejected[pool.ordinal()].incrementAndGet();
+						if (!executor.isShutdown()) {
+							r.run(); // Saturated: the producer does the work itself
+						}
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+	
+	/**
+	 * Runs a task on a pool.
+	 * @param pool the pool that runs the task
+	 * @param task the task
+	 */
+	public void execute(Pool pool, Runnable task) {
+		mPools[pool.ordinal()].execute(task);
+	}
+	
+	/**
+	 * Uses the virtual threads for the io and announce pools and the peer connections
+	 * if the parameter is true and the JDK supports them, the platform threads otherwise.
+	 * The tasks and connections already running keep their thread.
+	 * @param activate parameter used to activate/desactivate the virtual threads
+	 * @return true if the virtual threads are used
+	 */
+	public synchronized boolean setVirtualThreads(boolean activate) {
+		ThreadFactory ioFactory = null;
+		ThreadFactory announceFactory = null;
+		ThreadFactory connectionFactory = null;
+		if (activate) {
+			ioFactory = createVirtualThreadFactory(getThreadName(Pool.io));
+			announceFactory = createVirtualThreadFactory(getThreadName(Pool.announce));
+			connectionFactory = createVirtualThreadFactory(CONNECTION_THREAD_NAME);
+			if (ioFactory == null || announceFactory == null || connectionFactory == null) {
+				Log.e("TaskPools", "Virtual threads are not supported by this JDK, platform threads are used.");
+			}
+		}
+		
+		boolean virtual = (ioFactory != null && announceFactory != null && connectionFactory != null);
+		if (virtual == mVirtualThreads) return virtual;
+		mVirtualThreads = virtual;
+		
+		if (virtual) {
+			setThreads(Pool.io, VIRTUAL_THREADS, ioFactory);
+			setThreads(Pool.announce, VIRTUAL_THREADS, announceFactory);
+			mConnectionFactory = connectionFactory;
+		} else {
+			setThreads(Pool.io, mPlatformThreads[Pool.io.ordinal()], new PlatformThreadFactory(getThreadName(Pool.io), Thread.NORM_PRIORITY));
+			setThreads(Pool.announce, mPlatformThreads[Pool.announce.ordinal()], new PlatformThreadFactory(getThreadName(Pool.announce), Thread.NORM_PRIORITY));
+			mConnectionFactory = new PlatformThreadFactory(CONNECTION_THREAD_NAME, Thread.NORM_PRIORITY);
+		}
+		
+		Log.i("TaskPools", virtual ? "Virtual threads used for io, announce and the peers." : "Platform threads used for io, announce and the peers.");
+		return virtual;
+	}
+	
+	/**
+	 * Changes the bound and the threads of a pool.
+	 * @param pool the pool to change
+	 * @param threads the new bound
+	 * @param factory factory of the new threads
+	 */
+	private void setThreads(Pool pool, int threads, ThreadFactory factory) {
+		ThreadPoolExecutor executor = mPools[pool.ordinal()];
+		executor.setThreadFactory(factory);
+		
+		// The core size can't be over the maximum size at any time.
+		if (threads > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(threads);
+			executor.setCorePoolSize(threads);
+		} else {
+			executor.setCorePoolSize(threads);
+			executor.setMaximumPoolSize(threads);
+		}
+	}
+	
+	/**
+	 * Creates a factory of virtual threads with Thread.ofVirtual(), by reflection
+	 * because the program is compiled for older JDKs.
+	 * @param name prefix of the names of the threads
+	 * @return the factory, or null if the JDK has no virtual threads
+	 */
+	public static ThreadFactory createVirtualThreadFactory(String name) {
+		try {
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null; // Older JDK
+		}
+	}
+	
+	/**
+	 * Logs the metrics of all the pools.
+	 */
+	public void logMetrics() {
+		for (Pool p: Pool.values()) {
+			Log.d("TaskPools", getMetrics(p));
+		}
+		Log.d("TaskPools", "scheduler: " + mScheduler.getQueue().size() + " tasks waiting, " + mScheduler.getCompletedTaskCount() + " completed");
+	}
+	
+	/**
+	 * Returns the name of the threads of a pool.
+	 * @param pool the pool
+	 * @return "IO", "Hashing" or "Announce"
+	 */
+	private static String getThreadName(Pool pool) {
+		switch (pool) {
+			case io: return "IO";
+			case hashing: return "Hashing";
+			default: return "Announce";
+		}
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the scheduler. Its tasks must be short, the blocking operations
+	 * are executed on the pools.
+	 * @return the scheduler of the events and the periodic tasks
+	 */
+	public ScheduledThreadPoolExecutor getScheduler() {
+		return mScheduler;
+	}
+	
+	/**
+	 * Returns a pool.
+	 * @param pool the pool
+	 * @return the ExecutorService of the pool
+	 */
+	public ExecutorService getExecutor(Pool pool) {
+		return mPools[pool.ordinal()];
+	}
+	
+	/**
+	 * Returns the factory of the threads of the peer connections.
+	 * @return the factory of the threads of the PeerHandlers
+	 */
+	public synchronized ThreadFactory getConnectionThreadFactory() {
+		return mConnectionFactory;
+	}
+	
+	/**
+	 * Changes the factory of the threads of the peer connections, until the next
+	 * call of setVirtualThreads that changes the mode.
+	 * @param factory the factory of the threads of the PeerHandlers
+	 */
+	public synchronized void setConnectionThreadFactory(ThreadFactory factory) {
+		mConnectionFactory = factory;
+	}
+	
+	/**
+	 * Returns true if the io and announce pools use virtual threads.
+	 * @return true if the virtual threads are used
+	 */
+	public synchronized boolean isVirtualThreadsUsed() {
+		return mVirtualThreads;
+	}
+	
+	/**
+	 * Returns the number of threads running a task.
+	 * @param pool the pool
+	 * @return the number of active threads
+	 */
+	public int getActiveCount(Pool pool) {
+		return mPools[pool.ordinal()].getActiveCount();
+	}
+	
+	/**
+	 * Returns the maximum number of threads.
+	 * @param pool the pool
+	 * @return the bound of the pool
+	 */
+	public int getMaximumPoolSize(Pool pool) {
+		return mPools[pool.ordinal()].getMaximumPoolSize();
+	}
+	
+	/**
+	 * Returns the largest number of threads the pool has had at once.
+	 * @param pool the pool
+	 * @return the largest number of threads
+	 */
+	public int getLargestPoolSize(Pool pool) {
+		return mPools[pool.ordinal()].getLargestPoolSize();
+	}
+	
+	/**
+	 * Returns the number of tasks waiting for a thread.
+	 * @param pool the pool
+	 * @return the size of the queue
+	 */
+	public int getQueueSize(Pool pool) {
+		return mPools[pool.ordinal()].getQueue().size();
+	}
+	
+	/**
+	 * Returns the number of tasks run by the producer because the queue was full.
+	 * @param pool the pool
+	 * @return the number of rejected tasks
+	 */
+	public long getRejectedCount(Pool pool) {
+		return mRejected[pool.ordinal()].get();
+	}
+	
+	/**
+	 * Returns the approximate number of tasks completed.
+	 * @param pool the pool
+	 * @return the number of completed tasks
+	 */
+	public long getCompletedTaskCount(Pool pool) {
+		return mPools[pool.ordinal()].getCompletedTaskCount();
+	}
+	
+	/**
+	 * Returns the saturation of a pool: 0 when it's idle, 1 when all its threads
+	 * are busy, over 1 when tasks are waiting (relative to the bound).
+	 * @param pool the pool
+	 * @return the saturation of the pool
+	 */
+	public double getSaturation(Pool pool) {
+		ThreadPoolExecutor executor = mPools[pool.ordinal()];
+		return (double) (executor.getActiveCount() + executor.getQueue().size()) / executor.getMaximumPoolSize();
+	}
+	
+	/**
+	 * Returns the metrics of a pool as a String.
+	 * @param pool the pool
+	 * @return the metrics of the pool
+	 */
+	public String getMetrics(Pool pool) {
+		return pool + ": " + getActiveCount(pool) + "/" + getMaximumPoolSize(pool) + " active (largest " + getLargestPoolSize(pool) + "), "
+			+ getQueueSize(pool) + " waiting, " + getCompletedTaskCount(pool) + " completed, " + getRejectedCount(pool) + " rejected";
+	}
+	
+	/**
+	 * Factory of named daemon threads.
+	 */
+	private static class PlatformThreadFactory implements ThreadFactory {
+		
+		private String mName;
+		private int mPriority;
+		private AtomicInteger mCount = new AtomicInteger();
+		
+		/**
+		 * Default constructor.
+		 * @param name prefix of the names of the threads
+		 * @param priority priority of the threads
+		 */
+		public PlatformThreadFactory(String name, int priority) {
+			mName = name;
+			mPriority = priority;
+		}
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, mName + "-" + mCount.incrementAndGet());
+			thread.setDaemon(true);
+			thread.setPriority(mPriority);
+			return thread;
+		}
+	}
+}
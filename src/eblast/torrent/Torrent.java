@@ -19,43 +19,66 @@
 
 package eblast.torrent;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
 import java.net.Socket;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import eblast.bencoding.InvalidBEncodingException;
 import eblast.io.SpeedPair;
 import eblast.io.TorrentFile;
 import eblast.io.FileManager;
+import eblast.io.PieceCache;
+import eblast.io.TokenBucket;
 import eblast.checksum.Hash;
 import eblast.checksum.NullHashException;
 import eblast.log.Log;
 import eblast.metainfo.AnnounceList;
 import eblast.metainfo.Info;
 import eblast.metainfo.MetaInfo;
+import eblast.torrent.TaskPools.Pool;
+import eblast.torrent.messages.Have;
+import eblast.torrent.peer.Choker;
+import eblast.torrent.peer.NIOPeerHandler;
 import eblast.torrent.peer.Peer;
+import eblast.torrent.peer.PeerBanList;
+import eblast.torrent.peer.PeerDialer;
 import eblast.torrent.peer.PeerHandler;
 import eblast.torrent.peer.PeerIDGenerator;
+import eblast.torrent.peer.PeerReactor;
 import eblast.torrent.piece.BlockLengthException;
 import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
 import eblast.torrent.piece.PieceLengthException;
 import eblast.torrent.piece.PieceManager;
+import eblast.torrent.piece.PieceVerifier;
 import eblast.torrent.piece.WrongIndexException;
 import eblast.torrent.tracker.AnnounceInfo;
+import eblast.torrent.tracker.AnnounceScheduler;
 import eblast.torrent.tracker.TrackerInfo;
 import eblast.torrent.tracker.TrackerInfoException;
 
 /**
  * This class represents a torrent.
+ * <p>
+ * Its state changes with events: completion or reset of a piece, end of a verification,
+ * connection and disconnection of a peer, answer of a tracker. Each event updates the
+ * counters incrementally, and the work it implies is scheduled on the scheduler shared by
+ * all the torrents. Only the trackers and the fast-resume file are checked periodically.
+ * The blocking work (tracker calls, disk) is executed on the TaskPools.
  *
  * @author David Dieulivol <david.dieulivol@gmail.com>
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
@@ -63,11 +86,27 @@ import eblast.torrent.tracker.TrackerInfoException;
  * @version 1.0 - 04.03.2011 - Initial version
  * @version 1.1 - 15.03.2011 - Implementation of peer creation list
  * @version 1.2 - 18.05.2011 - Implementation of speed counter
+ * @version 1.3 - 17.10.2026 - Multi-file torrents
+ * @version 1.4 - 17.10.2026 - Parallel verification of the pieces
+ * @version 1.5 - 17.10.2026 - Fast-resume
+ * @version 1.6 - 17.10.2026 - Pieces assembled in memory are discarded when the torrent stops
+ * @version 1.7 - 17.10.2026 - Cache of the uploaded pieces
+ * @version 1.8 - 17.10.2026 - Verified pieces reported to the PieceManager
+ * @version 1.9 - 17.10.2026 - Endgame statistics logged when the torrent stops
+ * @version 2.0 - 17.10.2026 - Choker of the peers
+ * @version 2.1 - 17.10.2026 - Download/upload rate limiters
+ * @version 2.2 - 17.10.2026 - Received and available pieces kept in PieceBitSets
+ * @version 2.3 - 17.10.2026 - Event-driven state on the shared scheduler instead of the polling thread
+ * @version 2.4 - 17.10.2026 - Tracker calls and disk operations on the shared TaskPools
+ * @version 2.5 - 17.10.2026 - Announces scheduled by tier and at the interval of the trackers
+ * @version 2.6 - 17.10.2026 - Peers chosen by the PeerDialer
+ * @version 2.7 - 17.10.2026 - Peers that corrupt pieces banned by the PeerBanList
  */
 public class Torrent {
 	
 	public static enum TorrentStates { started, stopped, completed, checking }; // Different torrent states
 	public static final int ONE_MINUTE = 60000; // 1 minute
+	public static final long HOUSEKEEPING_DELAY = 5000L; // Delay between two checks of the trackers (ms)
 	
 	private String mName;
 	private String mAnnounce;				// Default tracker (address only)
@@ -75,26 +114,39 @@ public class Torrent {
 	private Hash mInfoHash;
 	private String mPeerID;
 	
-	private List<TrackerInfo> mTrackers;	// List of all the trackers (with all the informations)
+	private List<TrackerInfo> mTrackers;	// List of all the trackers (with all the informations), sorted by tier
+	private AnnounceScheduler mAnnouncer;	// Chooses the tracker and the time of the announces
+	private PeerDialer mDialer;				// Chooses the peers to connect to
+	private PeerBanList mBanList;			// Peers that sent corrupted blocks
 	private List<Peer> mPeers;				// List of all the peers
 	private List<PeerHandler> mPeerHandlers;// List of all the Peerhandlers
 	private List<Peer> mConnectedPeers;
 	private List<Piece> mPieces;			// List of all the pieces
 	private List<Hash> mPieceHashes;
-	private Set<Integer> mReceivedPieces;	// Pieces that we already have
+	private PieceBitSet mReceivedPieces;	// Pieces that we already have
 	private List<TorrentFile> mFiles;		// Files contained into the torrent (from metainfo)
-	private Set<Integer> mAvailablePieces;	// Pieces that we long to obtain
+	private PieceBitSet mAvailablePieces;	// Pieces that we long to obtain
 	
 	private int mNumWant;					// Max. number of pieces we would like to get.
 	private long mPieceLength;				// Length of a piece by default
 	private boolean mCompact;				// The tracker sends us the peers list in a compact format if true.
-	private long mLeft;						// Number of bytes left to download
+	private AtomicLong mReceivedBytes;		// Size of the pieces in mReceivedPieces
 	private long mUploaded;					// Total number of uploaded bytes
 	private long mDownloaded;				// Total number of downloaded bytes
 	private FileManager mFileManager;		// Needed to write blocks on the FileSystem
+	private PieceCache mPieceCache;			// Pieces recently uploaded to the peers
 	private TorrentStates mEvent;			// Stores the current event of this torrent
 	
 	private PieceManager mPieceManager;		// Manages all the pieces and the request of new pieces to the peers
+	private Choker mChoker;					// Chooses the peers that may download from us
+	private TokenBucket mDownloadBucket;	// Limits the download rate (child of the global limiter)
+	private TokenBucket mUploadBucket;		// Limits the upload rate (child of the global limiter)
+	private PieceVerifier mVerifier;		// Verifies the pieces already on the disk
+	private FastResume mFastResume;			// State of the pieces saved between two launches
+	private ScheduledFuture<?> mHousekeeping;	// Periodic check of the trackers, null when stopped
+	private AtomicBoolean mConnectScheduled;	// A connection task is already waiting
+	private long mNextResumeSave;			// Time of the next save of the fast-resume file
+	private Future<?> mStopping;			// Task that finishes to stop the torrent
 	
 	// Used in GUI
 	private long 	mLength;
@@ -139,6 +191,8 @@ public class Torrent {
 		mEvent = TorrentStates.stopped;
 		mPeers = Collections.synchronizedList(new ArrayList<Peer>());
 		mConnectedPeers = Collections.synchronizedList(new ArrayList<Peer>());
+		mDialer = new PeerDialer();
+		mBanList = new PeerBanList(this);
 		mPeerHandlers = Collections.synchronizedList(new ArrayList<PeerHandler>());
 
 		// Instanciate a metaInfo reader.
@@ -156,12 +210,9 @@ public class Torrent {
 		mPieceLength = info.getPieceLength();
 		mPieceHashes = info.getPiecesHashes();
 		
-		if (info.getFiles().size() > 1) {
-			throw new TorrentException("The multi-file isn't implemented yet.");
-		}
-		
 		mFiles = info.getFiles();
-		mLeft = mLength;
+		mReceivedBytes = new AtomicLong();
+		mConnectScheduled = new AtomicBoolean();
 		mUploaded = 0;
 		mDownloaded = 0;
 		
@@ -172,22 +223,31 @@ public class Torrent {
 		
 		// Instanciate the FileManager.
 		mFileManager = new FileManager(this);
+		mPieceCache = new PieceCache(mFileManager, PieceCache.DEFAULT_CAPACITY);
 		initPieces();
 
 		// Instanciate a PieceManager.
 		mPieceManager = new PieceManager(this);
+		mChoker = new Choker(this);
+		
+		mDownloadBucket = new TokenBucket(TokenBucket.UNLIMITED, TorrentManager.getInstance().getDownloadBucket());
+		mUploadBucket = new TokenBucket(TokenBucket.UNLIMITED, TorrentManager.getInstance().getUploadBucket());
+		
+		File resumeFile = TorrentManager.getInstance().getResumeFile(mInfoHash);
+		mFastResume = (resumeFile == null) ? null : new FastResume(resumeFile);
 		
-		mReceivedPieces = new HashSet<Integer>();
-		mAvailablePieces = new HashSet<Integer>();
+		mReceivedPieces = new PieceBitSet(mPieces.size());
+		mAvailablePieces = new PieceBitSet(mPieces.size());
 	}
 	
 	/**
 	 * Add a tracker to the trackers list.
 	 * @param tracker address of the tracker to be added
+	 * @param tier tier of the tracker in the announce-list
 	 */
-	private void addTracker(String tracker) {
+	private void addTracker(String tracker, int tier) {
 		try {
-			TrackerInfo ti = new TrackerInfo(this, tracker);
+			TrackerInfo ti = new TrackerInfo(this, tracker, tier);
 			if (!mTrackers.contains(ti)) {
 				mTrackers.add(ti);
 			}
@@ -197,25 +257,33 @@ public class Torrent {
 	}
 	
 	/**
-	 * Initializes the trackers List from the MetaInfo Announce & AnnounceList
+	 * Initializes the trackers List from the MetaInfo Announce & AnnounceList.
+	 * The trackers of the AnnounceList come first, by tier, in a random order into each tier.
+	 * The default tracker is kept after them in case none of them is supported.
 	 */
 	private void initTrackersList() {
 		mTrackers = new ArrayList<TrackerInfo>();
 		
-		// Add the default Tracker.
-		addTracker(mAnnounce);
-		
+		int tiers = 0;
 		if (mAnnounceList != null) {
 			for (int i=0, size = mAnnounceList.size(); i<size; i++) { // All lists of trackers
 				try {
-					for (String tracker: mAnnounceList.get(i)) { // All trackers in the list
-						addTracker(tracker);
+					List<String> tier = new ArrayList<String>(mAnnounceList.get(i));
+					Collections.shuffle(tier);
+					for (String tracker: tier) { // All trackers in the list
+						addTracker(tracker, i);
 					}
+					tiers = i + 1;
 				} catch (InvalidBEncodingException e) {
 					Log.e("AnnounceList", "Unable to read the announce list.");
 				}
 			}
 		}
+		
+		// Add the default Tracker.
+		addTracker(mAnnounce, tiers);
+		
+		mAnnouncer = new AnnounceScheduler(mTrackers);
 	}
 	
 	/**
@@ -226,6 +294,11 @@ public class Torrent {
 		
 		if (mEvent.equals(TorrentStates.stopped)) return;
 		
+		if (mBanList.isBanned(peer.getIP())) {
+			closeSocket(peer); // Accepted connection
+			return;
+		}
+		
 		synchronized (mPeers) {
 			if (!mPeers.contains(peer)) {
 				mPeers.add(peer);
@@ -247,13 +320,57 @@ public class Torrent {
 	 * @param peer Peer to which we want to connect.
 	 */
 	public void connectToPeer(Peer peer) {
+		PeerReactor reactor = TorrentManager.getInstance().getPeerReactor();
+		Socket socket = peer.getSocket();
+		
 		synchronized (mPeerHandlers) {
-			mPeerHandlers.add(new PeerHandler(this, peer));
+			// Only the sockets opened from a channel can be driven by the PeerReactor.
+			if (reactor != null && (socket == null || socket.getChannel() != null)) {
+				mPeerHandlers.add(new NIOPeerHandler(reactor, this, peer));
+			} else {
+				mPeerHandlers.add(new PeerHandler(this, peer));
+			}
 			mPeers.remove(peer);
 			mConnectedPeers.add(peer);
 		}
 	}
 	
+	/**
+	 * Schedules the connection to new peers, if there isn't a connection task waiting already.
+	 * Called when peers are added or a peer disconnects.
+	 */
+	private void scheduleConnections() {
+		if (mEvent.equals(TorrentStates.stopped) || !mConnectScheduled.compareAndSet(false, true)) return;
+		
+		getScheduler().execute(new Runnable() {
+			public void run() {
+				mConnectScheduled.set(false);
+				connectPeers();
+			}
+		});
+	}
+	
+	/**
+	 * Connects to the best known peers until we have enough connections,
+	 * or until the PeerDialer has no half-open slot left.
+	 */
+	private void connectPeers() {
+		while (!mEvent.equals(TorrentStates.stopped) && mPeerHandlers.size() < mNumWant) {
+			Peer peer = mDialer.dial(mPeers);
+			if (peer == null) return; // Retried when a dial ends, or by the housekeeping
+			connectToPeer(peer);
+		}
+	}
+	
+	/**
+	 * Called by a PeerHandler once the handshake with its peer is done.
+	 * @param peerHandler the PeerHandler of the peer
+	 */
+	public void peerConnected(PeerHandler peerHandler) {
+		mDialer.connected(peerHandler.getPeer());
+		scheduleConnections(); // A half-open slot is free
+	}
+	
 	/**
 	 * Add a peer that the socket has already been open.
 	 * @param peer The peer to be added.
@@ -262,7 +379,7 @@ public class Torrent {
 	 */
 	public void addPeer(Peer peer, Socket socket, boolean encrypted) {
 		synchronized (mPeers) {
-			if (mEvent.equals(TorrentStates.stopped)) return;
+			if (mEvent.equals(TorrentStates.stopped) || mBanList.isBanned(peer.getIP())) return;
 			
 			if (!mPeers.contains(peer)) {
 				mPeers.add(peer);
@@ -283,54 +400,84 @@ public class Torrent {
 		synchronized (mConnectedPeers) {
 			mConnectedPeers.remove(peer);
 		}
-		if (!error) { // Because an error has occured, we removed the peer from our list as well.
+		// The peer is dialed again after a delay, unless it has failed too many times or is banned.
+		if (mDialer.disconnected(peer, peerHandler.getDownloadedBytes(), error) && !mBanList.isBanned(peer.getIP())) {
 			synchronized (mPeers) {
-				mPeers.add(peer);
+				if (!mPeers.contains(peer)) {
+					mPeers.add(peer);
+				}
 			}
 		}
 
 		Log.i("Torrent", "Disconnected from " + peer);
+		scheduleConnections(); // Replace it
 	}
 
 	/**
-	 * Executes a peersCall on the Tracker.
-	 * @param tracker tracker that is going to receive the call
+	 * Called by the PeerBanList when a peer is banned: it is forgotten and disconnected.
+	 * @param address address of the banned peer
 	 */
-	private void peersCall(final TrackerInfo tracker) {
+	public void peerBanned(final InetAddress address) {
+		synchronized (mPeers) {
+			for (int i=mPeers.size()-1; i>=0; i--) {
+				if (mPeers.get(i).getIP().equals(address)) mPeers.remove(i);
+			}
+		}
 		
-		// We create the call into a Thread to inhibit the wait-the-answer block
-		// It's a one-time execution
-		new Thread(tracker.toString()) {
+		// Out of the lock of the piece that reported it.
+		getScheduler().execute(new Runnable() {
 			public void run() {
-				try {
-					AnnounceInfo announce = tracker.getAnnounceInfo(createTrackerMap());
-					List<Peer> peerList = announce.getPeersList();
+				for (PeerHandler ph: getPeerHandlers()) {
+					if (ph.getPeer().getIP().equals(address)) ph.disconnectFromError();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Closes the socket of a peer that is refused.
+	 */
+	private void closeSocket(Peer peer) {
+		if (peer.getSocket() != null) {
+			try {
+				peer.getSocket().close();
+			} catch (IOException e) {}
+		}
+	}
+	
+	/**
+	 * Executes a peersCall on the trackers, chosen by the AnnounceScheduler.
+	 * @param force true to announce before the interval of the tracker (for an event)
+	 */
+	private void peersCall(final boolean force) {
+		
+		// The call is executed on the announce pool to inhibit the wait-the-answer block
+		getTaskPools().execute(Pool.announce, new Runnable() {
+			public void run() {
+				// Errors are logged and stored in the TrackerInfo, the next tracker is tried.
+				AnnounceInfo announce = mAnnouncer.announce(createTrackerMap(), force);
+				List<Peer> peerList = (announce == null) ? null : announce.getPeersList();
+				
+				if (peerList != null) {
 					
-					if (peerList != null) {
-						
-						// Add all peers to the list.
-						for (Peer p: peerList) {
-							addPeer(p);
-						}
-						
-						// And finally shuffle it.
-						shufflePeers();
+					// Add all peers to the list.
+					for (Peer p: peerList) {
+						addPeer(p);
 					}
-				} catch (TrackerInfoException e) {
-					// This exception is already going to send a message into the Log System.
-					// And the error is stored in the TrackerInfo.
+					
+					// And finally shuffle it.
+					shufflePeers();
+					scheduleConnections();
 				}
 			}
-		}.start();
+		});
 	}
 	
 	/**
-	 * Do a massive peersCall on each tracker. 
+	 * Announces now to the trackers, without waiting for their interval.
 	 */
 	public void massPeersCall() {
-		for (TrackerInfo tracker: mTrackers) {
-			peersCall(tracker);
-		}
+		peersCall(true);
 	}
 	
 	/**
@@ -343,10 +490,11 @@ public class Torrent {
 		map.put(TrackerInfo.KEY_INFO_HASH,	mInfoHash.toURLString());
 		map.put(TrackerInfo.KEY_PEER_ID,	mPeerID);
 		map.put(TrackerInfo.KEY_PORT,		String.valueOf(getPort()));
-		map.put(TrackerInfo.KEY_LEFT,		String.valueOf(mLeft));
+		map.put(TrackerInfo.KEY_LEFT,		String.valueOf(getLeft()));
 		map.put(TrackerInfo.KEY_COMPACT,	mCompact ? "1" : "0");
 		
 		switch (mEvent) {
+		case checking: // The peers are contacted while the pieces are being verified.
 		case started:
 			map.put(TrackerInfo.KEY_EVENT,	TrackerInfo.KEY_EVENT_STARTED);
 			break;
@@ -387,7 +535,9 @@ public class Torrent {
 			
 			try {
 				// If it's the last piece and if it has a different size from the others.
-				mPieces.add(new Piece(mFileManager, i, (int) Math.min(len, mPieceLength), mPieceHashes.get(i)));
+				Piece piece = new Piece(mFileManager, i, (int) Math.min(len, mPieceLength), mPieceHashes.get(i));
+				piece.setBanList(mBanList);
+				mPieces.add(piece);
 				
 				len -= mPieceLength;
 			} catch (PieceLengthException e) {}
@@ -431,11 +581,170 @@ public class Torrent {
 		return completeness;
 	}
 	
+	/**
+	 * Called by the PieceVerifier when a piece has been verified.
+	 * The peers connected before the verification are told that we have it.
+	 * @param piece the verified piece
+	 */
+	public void pieceVerified(Piece piece) {
+		if (mEvent.equals(TorrentStates.stopped)) return;
+		
+		if (!piece.isComplete()) {
+			mPieceManager.pieceReset(piece); // In case it was complete before
+			return;
+		}
+		
+		mPieceManager.pieceCompleted(piece);
+		
+		synchronized (mPeerHandlers) {
+			for (PeerHandler ph: mPeerHandlers) {
+				ph.addMessage(new Have(piece.getIndex()));
+			}
+		}
+	}
+	
+	/**
+	 * Called by the PieceManager when a piece is complete.
+	 * Once all the pieces are received, they are verified again before the torrent is completed.
+	 * @param piece the complete piece
+	 */
+	public void pieceReceived(Piece piece) {
+		setReceived(piece, true);
+		
+		if (mReceivedPieces.isFull() && mEvent.equals(TorrentStates.started)) {
+			getScheduler().execute(new Runnable() {
+				public void run() {
+					checkCompletion();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Called by the PieceManager when a piece has been reset by a verification.
+	 * @param piece the reset piece
+	 */
+	public void pieceLost(Piece piece) {
+		setReceived(piece, false);
+	}
+	
+	/**
+	 * Updates the received pieces and their size, only if the state of the piece changed.
+	 */
+	private void setReceived(Piece piece, boolean received) {
+		if (received ? mReceivedPieces.set(piece.getIndex()) : mReceivedPieces.clear(piece.getIndex())) {
+			mReceivedBytes.addAndGet(received ? piece.getSize() : -piece.getSize());
+		}
+	}
+	
+	/**
+	 * Verifies all the pieces once they have all been received.
+	 */
+	private synchronized void checkCompletion() {
+		if (!mEvent.equals(TorrentStates.started) || !mReceivedPieces.isFull()) return;
+		
+		Log.i("PieceManager", "Torrent is complete");
+		setTorrentState(TorrentStates.checking);
+		mPieceCache.clear(); // The pieces may change
+		startVerifier(mPieces);
+	}
+	
+	/**
+	 * Launches the verification of pieces in background.
+	 * @param pieces pieces to verify
+	 */
+	private synchronized void startVerifier(List<Piece> pieces) {
+		mVerifier = new PieceVerifier(this, pieces);
+		mVerifier.start();
+	}
+	
+	/**
+	 * Called by the PieceVerifier once all its pieces have been verified.
+	 * @param verifier the PieceVerifier that has finished
+	 */
+	public synchronized void verificationDone(PieceVerifier verifier) {
+		if (verifier != mVerifier || !mEvent.equals(TorrentStates.checking)) return;
+		
+		setTorrentState(isComplete() ? TorrentStates.completed : TorrentStates.started);
+		
+		getTaskPools().execute(Pool.io, new Runnable() {
+			public void run() {
+				saveResume();
+			}
+		});
+	}
+	
+	/**
+	 * Periodic task: announces when the interval of the tracker has elapsed, saves the fast-resume file
+	 * and connects to the peers whose retry delay has elapsed.
+	 */
+	private void housekeeping() {
+		if (!mEvent.equals(TorrentStates.checking) && System.currentTimeMillis() > mNextResumeSave) {
+			getTaskPools().execute(Pool.io, new Runnable() {
+				public void run() {
+					saveResume();
+				}
+			});
+			mNextResumeSave = System.currentTimeMillis() + ONE_MINUTE;
+		}
+		
+		if (mAnnouncer.isDue()) {
+			peersCall(false);
+		}
+		
+		// The peers that failed may be dialed again
+		if (mPeerHandlers.size() < mNumWant) {
+			scheduleConnections();
+		}
+	}
+	
 	/**
 	 * Stop the torrent. It will disconnect all Peers and PeerHandlers.
+	 * The connections are closed and the fast-resume file saved in background.
+	 * @return the task that finishes to stop the torrent
 	 */
-	public void stopTorrent() {
-		mEvent = TorrentStates.stopped;
+	public Future<?> stopTorrent() {
+		synchronized (this) {
+			if (mEvent.equals(TorrentStates.stopped)) return (mStopping != null) ? mStopping : getTaskPools().getExecutor(Pool.io).submit(new Runnable() { public void run() {} });
+			
+			mEvent = TorrentStates.stopped;
+			if (mHousekeeping != null) {
+				mHousekeeping.cancel(false);
+				mHousekeeping = null;
+			}
+		}
+		mChoker.stop();
+		
+		final List<PeerHandler> peerHandlers = getPeerHandlers();
+		final PieceVerifier verifier = mVerifier;
+		
+		mStopping = getTaskPools().getExecutor(Pool.io).submit(new Runnable() {
+			public void run() {
+				// Disconnect all Peer from the tracker, and remove them
+				for (PeerHandler ph: peerHandlers) {
+					ph.disconnect();
+				}
+				synchronized (mPeerHandlers) {
+					mPeerHandlers.removeAll(peerHandlers);
+				}
+				synchronized (mPeers) {
+					mPeers.clear(); // Remove all peers
+				}
+				
+				// Give the memory of the unfinished pieces back
+				for (Piece p: mPieces) {
+					p.discardBuffer();
+				}
+				Log.d("Torrent", "Read cache of " + mName + ": " + mPieceCache.getHits() + " hits, " + mPieceCache.getMisses() + " misses");
+				Log.d("Torrent", "Endgame of " + mName + ": " + mPieceManager.getDuplicateBytes() + " duplicate bytes, " + mPieceManager.getCancelsSent() + " cancels");
+				Log.d("Torrent", "Corrupted pieces of " + mName + ": " + mBanList.getWastedBytes() + " wasted bytes, " + mBanList.getBannedCount() + " banned peers");
+				
+				if (verifier == null || verifier.isDone()) {
+					saveResume();
+				}
+			}
+		});
+		return mStopping;
 	}
 	
 	/**
@@ -443,97 +752,86 @@ public class Torrent {
 	 * @param eraseAll Do we need to remove files from the disk?
 	 */
 	public void destroyTorrent(boolean eraseAll) {
+		mPieceCache.clear();
 		if (eraseAll) {
 			mFileManager.erase();
+			if (mFastResume != null) {
+				mFastResume.delete();
+			}
 		} else {
 			mFileManager.close();			
 		}
 	}
 	
 	/**
-	 * Launch a thread that will start the Torrent and do some stats.
+	 * Saves the state of the pieces into the fast-resume file.
 	 */
-	public void startTorrent() {
-		if (mEvent.equals(TorrentStates.stopped)) {
-			new Thread("Torrent(" + mName + ")") {
-				public void run() {
-					mEvent = TorrentStates.checking;
-					for (Piece piece: mPieces) {
-						try {
-							piece.init();
-						} catch (NullHashException e) {}
-						catch (NoSuchAlgorithmException e) {
-							Log.e("Torrent::NoSuchAlgorithmException", "NoSuchAlgorithmException");
-						} catch (UnsupportedEncodingException e) {
-							Log.e("UnsupportedEncodingException", "UnsupportedEncodingException");
-						}
-					}
-					
-					mPieceManager.launch();
-					
-					mEvent = isComplete() ? TorrentStates.completed : TorrentStates.started;
-					massPeersCall();
-					
-					while (!mEvent.equals(TorrentStates.stopped)) {
-						
-						if (isComplete() && !mEvent.equals(TorrentStates.completed)) {
-							Log.i("PieceManager", "Torrent is complete");
-							setTorrentState(TorrentStates.checking);
-							boolean checked = true;
-							synchronized (mPieces) {
-								for (Piece p: getPieces()) {
-									try {
-										checked &= p.init();						
-									} catch (Exception e) {}
-								}
-								setTorrentState(checked ? TorrentStates.completed : TorrentStates.started);								
-							}
-						}
-						
-						// Connect to peers
-						while ((mPeerHandlers.size() < mNumWant) && (mPeers.size() > 0)) {
-							connectToPeer(mPeers.get(0));
-						}
-						
-						mReceivedPieces.clear();
-						mLeft = mLength;
-						for (Piece p: mPieces) {
-							mLeft -= p.getLeft();
-							if (p.isComplete()) {
-								mReceivedPieces.add(p.getIndex());
-							}
-						}
-						
-						synchronized (mPeerHandlers) {
-							for (PeerHandler ph: mPeerHandlers) {
-								mAvailablePieces.addAll(ph.getPeerAvailablePieces());
-							}							
-						}
-						
-						synchronized (mTrackers) {
-							for (TrackerInfo t: mTrackers) { // Update the tracker every minute.
-								if (t.needToBeUpdated(ONE_MINUTE)) {
-									peersCall(t);
-								}
-							}
-						}
-						
-						try {
-							Thread.sleep(2000L);
-						} catch (InterruptedException e) {}
-					}
-					
-					synchronized (mPeerHandlers) {
-						// Disconnect all Peer from the tracker, and remove them
-						for (int i=0; i<mPeerHandlers.size(); i++) {
-							mPeerHandlers.get(i).disconnect();
-						}
-						mPeerHandlers.clear();
+	private void saveResume() {
+		if (mFastResume == null) return;
+		
+		try {
+			mFileManager.flush(); // The saved blocks must be on the disk.
+			mFastResume.save(mInfoHash, mPieces, mFiles);
+		} catch (IOException e) {
+			Log.e("Torrent", "Unable to save the resume file of " + mName + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Starts the Torrent: restores and verifies the pieces, contacts the trackers, then
+	 * lets the events drive it. The start is done in background on the io pool.
+	 */
+	public synchronized void startTorrent() {
+		if (!mEvent.equals(TorrentStates.stopped)) return;
+		
+		mEvent = TorrentStates.checking;
+		final Future<?> stopping = mStopping;
+		
+		// The stop was submitted before on the same pool, so it can't wait behind this task.
+		getTaskPools().execute(Pool.io, new Runnable() {
+			public void run() {
+				// The previous session must have released its peers and buffers.
+				if (stopping != null) {
+					try {
+						stopping.get();
+					} catch (Exception e) {
+						Log.e("Torrent", "Previous stop of " + mName + " failed: " + e);
 					}
-					mPeers.clear(); // Remove all peers
 				}
-			}.start();
+				start();
+			}
+		});
+	}
+	
+	/**
+	 * Restores the state of the pieces and launches the periodic tasks.
+	 */
+	private void start() {
+		// Only the pieces that haven't been restored by the fast-resume are verified.
+		List<Piece> unverified = (mFastResume == null) ? mPieces : mFastResume.load(mInfoHash, mPieces, mFiles, mPieceLength);
+		
+		// Counters of the restored pieces, afterwards only the events change them.
+		for (Piece p: mPieces) {
+			setReceived(p, p.isComplete());
 		}
+		mPieceManager.updatePriorities();
+		
+		synchronized (this) {
+			if (!mEvent.equals(TorrentStates.checking)) return; // Stopped meanwhile
+			
+			mNextResumeSave = System.currentTimeMillis() + ONE_MINUTE;
+			mHousekeeping = getScheduler().scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					housekeeping();
+				}
+			}, HOUSEKEEPING_DELAY, HOUSEKEEPING_DELAY, TimeUnit.MILLISECONDS);
+			
+			// The pieces are verified in background, the peers can already get the verified ones.
+			startVerifier(unverified);
+		}
+		
+		mChoker.launch();
+		massPeersCall();
 	}
 
 	/************************ GETTERS / SETTERS *************************/
@@ -550,6 +848,15 @@ public class Torrent {
 		return backup;
 	}
 
+	/**
+	 * Returns the percentage of pieces verified by the last check.
+	 * @return percentage of pieces verified
+	 */
+	public double getCheckingProgress() {
+		PieceVerifier verifier = mVerifier;
+		return (verifier == null) ? 0 : verifier.getProgress();
+	}
+	
 	/**
 	 * Returns the instance of the PieceManager of the current Torrent.
 	 * @return instance of the PieceManager of the current Torrent.
@@ -578,14 +885,14 @@ public class Torrent {
 	/**
 	 * @return A set containing all pieces that have been received. 
 	 */
-	public Set<Integer> getReceivedPieces() {
+	public PieceBitSet getReceivedPieces() {
 		return mReceivedPieces;
 	}
 	
 	/**
 	 * @return A set containing all pieces that could be able to download from peers.
 	 */
-	public Set<Integer> getAvailablePieces() {
+	public PieceBitSet getAvailablePieces() {
 		return mAvailablePieces;
 	}
 
@@ -611,6 +918,13 @@ public class Torrent {
 		return mFileManager;
 	}
 	
+	/**
+	 * @return The cache of the pieces uploaded to the peers.
+	 */
+	public PieceCache getPieceCache() {
+		return mPieceCache;
+	}
+	
 	/**
 	 * @return Port to connect to this Torrent.
 	 */
@@ -647,6 +961,67 @@ public class Torrent {
 		return mEvent;
 	}
 	
+	/**
+	 * @return A copy of the list of the PeerHandlers.
+	 */
+	public List<PeerHandler> getPeerHandlers() {
+		synchronized (mPeerHandlers) {
+			return new ArrayList<PeerHandler>(mPeerHandlers);
+		}
+	}
+	
+	/**
+	 * @return The scheduler of the events and periodic tasks (shared by all the torrents).
+	 */
+	private ScheduledExecutorService getScheduler() {
+		return TorrentManager.getInstance().getScheduler();
+	}
+	
+	/**
+	 * @return The pools of the blocking tasks (shared by all the torrents).
+	 */
+	private TaskPools getTaskPools() {
+		return TorrentManager.getInstance().getTaskPools();
+	}
+	
+	/**
+	 * @return The list of the peers that sent corrupted blocks to this Torrent.
+	 */
+	public PeerBanList getBanList() {
+		return mBanList;
+	}
+	
+	/**
+	 * @return The Choker of the peers of this Torrent.
+	 */
+	public Choker getChoker() {
+		return mChoker;
+	}
+	
+	/**
+	 * @return The rate limiter of the data received by the peers of this Torrent.
+	 */
+	public TokenBucket getDownloadBucket() {
+		return mDownloadBucket;
+	}
+	
+	/**
+	 * @return The rate limiter of the data sent to the peers of this Torrent.
+	 */
+	public TokenBucket getUploadBucket() {
+		return mUploadBucket;
+	}
+	
+	/**
+	 * Limits the rates of this Torrent, under the global limits.
+	 * @param download Maximum download rate in bytes per second (TokenBucket.UNLIMITED to remove the limit)
+	 * @param upload Maximum upload rate in bytes per second (TokenBucket.UNLIMITED to remove the limit)
+	 */
+	public void setRateLimits(long download, long upload) {
+		mDownloadBucket.setRate(download);
+		mUploadBucket.setRate(upload);
+	}
+	
 	/**
 	 * @return A pair that contains both download and upload speed in bytes per second.
 	 */
@@ -726,10 +1101,10 @@ public class Torrent {
 	}
 	
 	/**
-	 * @return how many byte we still have to downloaded.
+	 * @return how many byte we still have to downloaded (the incomplete pieces).
 	 */
 	public long getLeft() {
-		return mLeft;
+		return mLength - mReceivedBytes.get();
 	}
 
 	/**
@@ -24,14 +24,24 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import eblast.checksum.Hash;
+import eblast.crypto.KeyPool;
 import eblast.io.SpeedPair;
+import eblast.io.TokenBucket;
+import eblast.log.Log;
 import eblast.settings.EBlastSettings;
 import eblast.settings.EncryptionSettings;
 import eblast.settings.XMLException;
 import eblast.settings.XMLSettings;
+import eblast.torrent.piece.PieceBufferPool;
 import eblast.torrent.peer.PeerAccepter;
+import eblast.torrent.peer.PeerReactor;
 
 /**
  * This Class, based on the Singleton Pattern, has the ability to manage all torrents.
@@ -42,9 +52,20 @@ import eblast.torrent.peer.PeerAccepter;
  * 
  * @version 1.0 - 10.05.2011 - Initial release
  * @verison 1.2 - 18.05.2011 - Implementation of speed counter
+ * @version 1.3 - 17.10.2026 - Shared PeerReactor for the selector-based engine
+ * @version 1.4 - 17.10.2026 - Fast-resume directory
+ * @version 1.5 - 17.10.2026 - Size of the write-back buffers taken from the settings
+ * @version 1.6 - 17.10.2026 - Global download/upload rate limiters
+ * @version 1.7 - 17.10.2026 - Keys of the encrypted connections generated in advance
+ * @version 1.8 - 17.10.2026 - Scheduler shared by the torrents for their events and periodic tasks
+ * @version 1.9 - 17.10.2026 - Bounded pools shared by the torrents for the io, hashing and announces
  */
 public class TorrentManager {
 	
+	private static final String RESUME_DIR = "resume";
+	private static final String RESUME_EXTENSION = ".resume";
+	private static final long CLOSE_TIMEOUT = 10000L;		// Time given to the torrents to save their state (ms)
+	
 	// ----- Singleton Pattern -----------------------------------------------
 	private static TorrentManager mSingleton = new TorrentManager();
 	
@@ -62,6 +83,11 @@ public class TorrentManager {
 	private EBlastSettings mSettings;
 	private EncryptionSettings mEncryptionSettings;
 	private PeerAccepter mPeerAccepter;
+	private PeerReactor mPeerReactor;		// Selector loop shared by all the torrents (if activated)
+	private File mResumeDir;				// Directory of the fast-resume files (next to the settings)
+	private final TokenBucket mDownloadBucket = new TokenBucket(TokenBucket.UNLIMITED, null);	// Parents of the torrents buckets
+	private final TokenBucket mUploadBucket = new TokenBucket(TokenBucket.UNLIMITED, null);
+	private final TaskPools mTaskPools = new TaskPools();	// Threads of all the torrents
 	
 	// Hides the constructor
 	private TorrentManager() {
@@ -94,6 +120,8 @@ public class TorrentManager {
 		
 		mEncryptionSettings = new EncryptionSettings();
 		
+		mResumeDir = new File(xmlSettings.getParentFile(), RESUME_DIR);
+		
 		relaunch();
 	}
 	
@@ -111,6 +139,23 @@ public class TorrentManager {
 	 * @throws IOException
 	 */
 	public void relaunch() throws IOException {
+		// The PeerReactor keeps driving its connections even if the engine is desactivated.
+		if (isNIOEngineUsed() && mPeerReactor == null) {
+			mPeerReactor = new PeerReactor();
+		}
+		
+		PieceBufferPool.getInstance().setCapacity((long) mSettings.getWriteCacheSize() << 20);
+		mDownloadBucket.setRate(mSettings.getDownloadLimit() * 1024L);
+		mUploadBucket.setRate(mSettings.getUploadLimit() * 1024L);
+		mTaskPools.setVirtualThreads(mSettings.isVirtualThreadsActivated());
+		
+		// The RSA/XOR keys are only pooled when rsaXor is the preferred mode. With aead, only the
+		// few peers that don't know it use them, and they are generated during their handshake.
+		EncryptionSettings encryption = mSettings.getEncryptionSettings();
+		boolean rsaXorPreferred = mSettings.isEncryptionActivated() && encryption.getMode() == EncryptionSettings.Mode.rsaXor;
+		KeyPool.getInstance().configure(encryption.getRSAKeylength(), encryption.getSymmetricKeylength(),
+				rsaXorPreferred ? encryption.getKeyPoolDepth() : 0);
+		
 		if (mPeerAccepter != null) {
 			mPeerAccepter.halt();
 		}
@@ -157,10 +202,31 @@ public class TorrentManager {
 	 * Close all torrents.
 	 */
 	public void closeTorrents() {
+		List<Future<?>> stops = new LinkedList<Future<?>>();
 		for (Torrent t: mTorrents) {
-			t.stopTorrent();
+			stops.add(t.stopTorrent());
 		}
 		mTorrents.clear();
+		
+		// Wait for the torrents to save their state before the program quits.
+		long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+		for (Future<?> stop: stops) {
+			try {
+				stop.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				break;
+			} catch (ExecutionException e) {
+				Log.e("TorrentManager", "Error while stopping a torrent: " + e.getCause());
+			} catch (TimeoutException e) {
+				Log.e("TorrentManager", "A torrent is still stopping.");
+			}
+		}
+		
+		if (mPeerReactor != null) {
+			mPeerReactor.halt();
+			mPeerReactor = null;
+		}
+		mTaskPools.logMetrics();
 	}
 	
 	/**
@@ -181,6 +247,66 @@ public class TorrentManager {
 		return mSettings;
 	}
 	
+	/**
+	 * Returns the fast-resume file of a torrent.
+	 * @param infoHash Hash that represents the torrent
+	 * @return the fast-resume file, or null if the settings haven't been loaded
+	 */
+	public File getResumeFile(Hash infoHash) {
+		return (mResumeDir == null) ? null : new File(mResumeDir, infoHash.toHexString() + RESUME_EXTENSION);
+	}
+	
+	/**
+	 * Returns true if the new connections are driven by the PeerReactor.
+	 * The encryption handshake is only implemented on the thread-per-peer engine,
+	 * so the selector-based engine is used only without encryption.
+	 * @return true if the new connections are driven by the PeerReactor
+	 */
+	public boolean isNIOEngineUsed() {
+		return mSettings.isNIOEngineActivated() && !mSettings.isEncryptionActivated();
+	}
+	
+	/**
+	 * Returns the PeerReactor shared by all the torrents.
+	 * @return the PeerReactor, or null if the new connections have their own Thread
+	 */
+	public PeerReactor getPeerReactor() {
+		return isNIOEngineUsed() ? mPeerReactor : null;
+	}
+	
+	/**
+	 * Returns the scheduler shared by all the torrents. Its tasks must be short,
+	 * the blocking operations are executed on the TaskPools.
+	 * @return the scheduler of the events and the periodic tasks
+	 */
+	public ScheduledExecutorService getScheduler() {
+		return mTaskPools.getScheduler();
+	}
+	
+	/**
+	 * Returns the threads shared by all the torrents.
+	 * @return the TaskPools
+	 */
+	public TaskPools getTaskPools() {
+		return mTaskPools;
+	}
+	
+	/**
+	 * Returns the rate limiter of the data received by the whole program.
+	 * @return the global download TokenBucket
+	 */
+	public TokenBucket getDownloadBucket() {
+		return mDownloadBucket;
+	}
+	
+	/**
+	 * Returns the rate limiter of the data sent by the whole program.
+	 * @return the global upload TokenBucket
+	 */
+	public TokenBucket getUploadBucket() {
+		return mUploadBucket;
+	}
+	
 	/**
 	 * updates the current encryption settings with the object given in parameters
 	 * @param settings new encryption configuration
@@ -20,11 +20,10 @@
 package eblast.torrent.messages;
 
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
 
 /**
  * This class represents BitField Message according to the Bittorrent protocol.
@@ -33,6 +32,7 @@ import eblast.torrent.piece.Piece;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 25.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Decoded into a PieceBitSet, last byte of the payload no longer missing
  */
 public class BitField extends Message {
 
@@ -55,7 +55,7 @@ public class BitField extends Message {
 	 * @param pieces
 	 */
 	public BitField(List<Piece> pieces) {
-		super(DEFAULT_LENGTH + (int)Math.ceil(pieces.size() / 8) , ID.bitfield);
+		super(DEFAULT_LENGTH + (pieces.size() + 7) / 8, ID.bitfield);
 		
 		payload = new byte[getLength() - DEFAULT_LENGTH];
 		
@@ -77,6 +77,14 @@ public class BitField extends Message {
 		}
 	}
 	
+	/**
+	 * Create a BitField message from the pieces we have.
+	 * @param pieces indexes of the complete pieces
+	 */
+	public BitField(PieceBitSet pieces) {
+		this(pieces.toBytes());
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -98,23 +106,11 @@ public class BitField extends Message {
 	
 	/**
 	 * This methods gives us the indexes of the pieces that is contained into the current BitField payload.
+	 * @param pieceCount number of pieces of the torrent, the other bits are ignored.
 	 * @return indexes of the pieces contained into the payload.
 	 */
-	public Set<Integer> getAvailablePiecesIndexes() {
-		Set<Integer> piecesIndexes = new HashSet<Integer>();
-		int index = 0;
-		for (int i = 0; i < payload.length; i++) {
-			byte b = payload[i];
-			for (int j = 0; j < 8; j++) {
-				if ((b & EIGHTH_BIT) == EIGHTH_BIT) { // Is the MSB==1 ?
-					piecesIndexes.add(index);
-				}
-				b <<= 1; // Take the next bit (on the right)
-				index++;
-			}			
-		}
-		
-		return piecesIndexes;
+	public PieceBitSet getAvailablePieces(int pieceCount) {
+		return PieceBitSet.fromBytes(payload, pieceCount);
 	}
 	
 }
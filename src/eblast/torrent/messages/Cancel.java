@@ -0,0 +1,108 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.messages;
+
+import java.io.IOException;
+
+/**
+ * This class represents a Cancel Message according to the Bittorrent protocol.
+ * It cancels a Request that has already been sent.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class Cancel extends Message {
+	
+	public static final int DEFAULT_LENGTH = 13;
+
+	/**
+	 * payload arguments.
+	 */
+	private int plIndex;
+	private int plBegin;
+	private int plLength;
+	
+	/**
+	 * Default constructor.
+	 * @param index integer specifying the zero-based piece index.
+	 * @param begin integer specifying the zero-based byte offset within the piece.
+	 * @param length integer specifying the requested length.
+	 */
+	public Cancel(int index, int begin, int length) {
+		super(DEFAULT_LENGTH, ID.cancel);
+		
+		plIndex = index;
+		plBegin = begin;
+		plLength = length;
+	}
+	
+	/**
+	 * Creates the Cancel Message of a Request.
+	 * @param request the request to cancel
+	 */
+	public Cancel(Request request) {
+		this(request.getIndex(), request.getBegin(), request.getBlockLength());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void write(MessageOutputStream mos) throws IOException {
+		super.write(mos);
+		mos.writeInt(plIndex);
+		mos.writeInt(plBegin);
+		mos.writeInt(plLength);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void accept(MessageVisitor v) {
+		v.visit(this);
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the index payload argument
+	 * @return index payload argument
+	 */
+	public int getIndex() {
+		return plIndex;
+	}
+	
+	/**
+	 * Returns the begin payload argument
+	 * @return begin payload argument
+	 */
+	public int getBegin() {
+		return plBegin;
+	}
+	
+	/**
+	 * Returns the block length payload argument
+	 * @return block length payload argument
+	 */
+	public int getBlockLength() {
+		return plLength;
+	}
+}
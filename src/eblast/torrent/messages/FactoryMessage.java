@@ -22,9 +22,11 @@ package eblast.torrent.messages;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
-import eblast.Convertor;
+import eblast.io.ByteBufferPool;
+import eblast.io.PooledBuffer;
 import eblast.log.Log;
 import eblast.torrent.messages.Message.ID;
 
@@ -35,6 +37,8 @@ import eblast.torrent.messages.Message.ID;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - Initial version.
+ * @version 1.1 - 17.10.2026 - Cancel message
+ * @version 1.2 - 17.10.2026 - Blocks read into pooled buffers
  */
 public class FactoryMessage {
 
@@ -57,10 +61,7 @@ public class FactoryMessage {
 		byte[] payload = null;
 		
 		// Read the length
-		byte[] lenBytes = new byte[4];
-
-		in.readFully(lenBytes);
-		length = Convertor.toInteger(lenBytes);
+		length = in.readInt();
 		
 		if (length == 0) {
 			
@@ -120,6 +121,18 @@ public class FactoryMessage {
 			}
 			break;
 		
+		case cancel :
+			if (length == Cancel.DEFAULT_LENGTH) {
+				int cancelIndex 	= in.readInt();
+				int cancelBegin 	= in.readInt();
+				int cancelLength 	= in.readInt();
+				
+				returnMessage = new Cancel(cancelIndex, cancelBegin, cancelLength);
+			} else {
+				throw new MessageException(id, "Wrong length");
+			}
+			break;
+		
 		case piece :
 			
 			int payloadIndex 	= 0;
@@ -128,10 +141,21 @@ public class FactoryMessage {
 			payloadIndex = in.readInt();
 			payloadBegin = in.readInt();
 			
-			payload = new byte[length - SendBlock.DEFAULT_LENGTH];
-			in.readFully(payload);
+			// The block is read into a pooled buffer, released by the SendBlock.
+			int blockLength = length - SendBlock.DEFAULT_LENGTH;
+			if (blockLength < 0) throw new MessageException(id, "Wrong length");
+			
+			PooledBuffer slab = ByteBufferPool.getHeapInstance().acquire(blockLength);
+			ByteBuffer block = slab.getBuffer();
+			try {
+				in.readFully(block.array(), block.arrayOffset(), blockLength);
+			} catch (IOException e) {
+				slab.release();
+				throw e;
+			}
+			block.limit(blockLength);
 		
-			returnMessage = new SendBlock(payloadIndex, payloadBegin, payload);
+			returnMessage = new SendBlock(payloadIndex, payloadBegin, block, slab);
 			break;
 			
 		case sendRSAKey :
@@ -29,6 +29,7 @@ import eblast.log.Log;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - Initial version
+ * @version 1.1 - 17.10.2026 - Bit of the aead encryption mode
  */
 public class Handshake {
 
@@ -38,6 +39,7 @@ public class Handshake {
 	public static final byte INFO_HASH_LENGTH = 20;
 	public static final byte PEER_ID_LENGTH = 20;
 	private static final int BIT_ENCRYPTION = 60;
+	private static final int BIT_AEAD = 61;			// The aead encryption mode is known
 	
 	// Attributes
 	private String mPstr;
@@ -72,9 +74,23 @@ public class Handshake {
 	 * @param encrypted true if are in encrypted mode, false otherwise
 	 */
 	public Handshake(Hash infoHash, String peerId, boolean encrypted) {
+		this(infoHash, peerId, encrypted, false);
+	}
+	
+	/**
+	 * @param infoHash 20-byte SHA1 hash of the info key in the metainfo file.
+	 * This is the same info_hash that is transmitted in tracker requests.
+	 * @param peerID 20-byte string used as a unique ID for the client.
+	 * @param encrypted true if are in encrypted mode, false otherwise
+	 * @param aead true if we prefer the aead encryption mode
+	 */
+	public Handshake(Hash infoHash, String peerId, boolean encrypted, boolean aead) {
 		this(infoHash, peerId, new byte[8]);
 		if (encrypted) {
 			activate(BIT_ENCRYPTION);
+			if (aead) {
+				activate(BIT_AEAD);
+			}
 		}
 	}
 	
@@ -106,6 +122,14 @@ public class Handshake {
 		return isActivated(BIT_ENCRYPTION);
 	}
 	
+	/**
+	 * Test whether the aead encryption mode is known.
+	 * @return true if the aead encryption mode is known, false otherwise.
+	 */
+	public boolean isAEADActivated() {
+		return isActivated(BIT_AEAD);
+	}
+	
 	/**
 	 * Returns the reserved bytes (used for encryption)
 	 * @return reserved bytes (used for encryption)
@@ -20,6 +20,7 @@
 package eblast.torrent.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Abstract class that represents a basic Message (according to the Bitorrent protocol) of the following form:
@@ -29,6 +30,8 @@ import java.io.IOException;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 12.04.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - release()
+ * @version 1.2 - 17.10.2026 - writeHeader() for the gathering writes
  */
 public abstract class Message {
 
@@ -77,11 +80,30 @@ public abstract class Message {
 		mos.writeByte((byte)mID.ordinal());
 	}
 	
+	/**
+	 * Writes the beginning of the message into the OutputStream, and returns the data that
+	 * have to be sent after it without being copied (used by the gathering writes).
+	 * By default, the whole message is written.
+	 * @param mos OutputStream in which we are going to write the message
+	 * @return the rest of the message, or null if it has been entirely written
+	 * @exception IOException
+	 */
+	public ByteBuffer writeHeader(MessageOutputStream mos) throws IOException {
+		write(mos);
+		return null;
+	}
+	
 	/**
 	 * Used by the Visitor design Pattern.
 	 */
 	abstract public void accept(MessageVisitor v);
 	
+	/**
+	 * Gives back the resources used by this message, once it has been handled.
+	 * Nothing to do by default.
+	 */
+	public void release() {}
+	
 	
 	/************************ GETTERS / SETTERS *************************/
 	
@@ -0,0 +1,247 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import eblast.io.ByteBufferPool;
+import eblast.io.PooledBuffer;
+import eblast.torrent.messages.Message.ID;
+
+/**
+ * Decodes the length-prefixed messages received on a channel, without copying them.
+ * <p>
+ * The data are read directly into a pooled buffer (getReadBuffer), then the complete messages
+ * are decoded from it (next). The payload of a Piece message is a slice of this buffer: the
+ * SendBlock retains the buffer until it is released, so the block goes to the piece without any
+ * intermediate copy. While a slice is still used, the buffer is never compacted: the data that
+ * haven't been decoded yet are moved into a new buffer instead.
+ * <p>
+ * The rare messages that contain arrays (BitField, keys) are decoded by the FactoryMessage.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class MessageDecoder {
+	
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16; // 64 KiB, four blocks
+	
+	private static final int LENGTH_SIZE = 4;
+	
+	private ByteBufferPool mPool;
+	private int mMaxLength;				// Bigger messages are considered as corrupted
+	
+	private PooledBuffer mSlab;			// Buffer currently used (null when released)
+	private ByteBuffer mBuffer;			// The data are in [mStart, position[
+	private int mStart;					// Beginning of the data not decoded yet
+	private int mPending;				// Size of the message being received, 0 if unknown
+	
+	/**
+	 * Constructor.
+	 * @param pool pool that lends the buffers
+	 * @param maxLength maximum length of a message
+	 */
+	public MessageDecoder(ByteBufferPool pool, int maxLength) {
+		mPool = pool;
+		mMaxLength = maxLength;
+		mSlab = pool.acquire(DEFAULT_BUFFER_SIZE);
+		mBuffer = mSlab.getBuffer();
+		mStart = 0;
+		mPending = 0;
+	}
+	
+	/**
+	 * Returns the buffer into which the new data have to be read (from its position to its limit).
+	 * It always has some space left, and is big enough for the message being received.
+	 * @return the buffer to fill
+	 */
+	public ByteBuffer getReadBuffer() {
+		int available = available();
+		int needed = Math.max(mPending, available + 1);
+		boolean shared = mSlab.getReferences() > 1;
+		
+		if (mStart + needed <= mBuffer.capacity()) {
+			return mBuffer; // Enough space after the data
+		}
+		
+		if (!shared && needed <= mBuffer.capacity()) {
+			// Nobody uses the decoded messages anymore, move the data to the beginning.
+			mBuffer.limit(mBuffer.position());
+			mBuffer.position(mStart);
+			mBuffer.compact();
+			
+		} else {
+			// Some slices are still used (or the buffer is too small), take a new buffer.
+			PooledBuffer slab = mPool.acquire(Math.max(needed, DEFAULT_BUFFER_SIZE));
+			ByteBuffer data = mBuffer.duplicate();
+			data.limit(mBuffer.position());
+			data.position(mStart);
+			slab.getBuffer().put(data);
+			
+			mSlab.release();
+			mSlab = slab;
+			mBuffer = slab.getBuffer();
+		}
+		mStart = 0;
+		return mBuffer;
+	}
+	
+	/**
+	 * Copies the next bytes received if they are all available (used for the Handshake).
+	 * @param dst array to fill
+	 * @return true if the array has been filled, false if more data are needed
+	 */
+	public boolean read(byte[] dst) {
+		if (available() < dst.length) return false;
+		
+		ByteBuffer data = mBuffer.duplicate();
+		data.position(mStart);
+		data.get(dst);
+		consume(dst.length);
+		return true;
+	}
+	
+	/**
+	 * Decodes the next complete message. The KeepAlive messages are skipped.
+	 * @return the next Message, or null if more data are needed
+	 * @throws MessageException if the message is corrupted
+	 */
+	public Message next() throws MessageException {
+		while (available() >= LENGTH_SIZE) {
+			int length = mBuffer.getInt(mStart);
+			if (length < 0 || length > mMaxLength) {
+				throw new MessageException(null, "Wrong message length (" + length + ")");
+			}
+			
+			if (available() < LENGTH_SIZE + length) { // The message isn't complete yet.
+				mPending = LENGTH_SIZE + length;
+				return null;
+			}
+			
+			// Decoded before being consumed: the buffer may be reused once consumed.
+			Message msg = (length > 0) ? decode(mStart + LENGTH_SIZE, length) : null;
+			consume(LENGTH_SIZE + length);
+			
+			if (msg != null) {
+				return msg;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Gives back the buffer. The messages already decoded can still be used until they are released.
+	 */
+	public void release() {
+		if (mSlab != null) {
+			mSlab.release();
+			mSlab = null;
+		}
+	}
+	
+	/**
+	 * Decodes a complete message.
+	 * @param start position of the ID of the message
+	 * @param length length of the message (ID and payload)
+	 * @throws MessageException if the message is corrupted
+	 */
+	private Message decode(int start, int length) throws MessageException {
+		int value = mBuffer.get(start);
+		if (value < 0 || value >= ID.values().length) {
+			throw new MessageException(null, "This ID isn't implemented.");
+		}
+		ID id = ID.values()[value];
+		
+		switch (id) {
+		
+		case choke :
+			return new Choke();
+		
+		case unchoke :
+			return new Unchoke();
+		
+		case interested :
+			return new Interested();
+		
+		case notInterested :
+			return new NotInterested();
+		
+		case have :
+			return (length == Have.DEFAULT_LENGTH) ? new Have(mBuffer.getInt(start + 1)) : null;
+		
+		case request :
+			if (length != Request.DEFAULT_LENGTH) throw new MessageException(id, "Wrong length");
+			return new Request(mBuffer.getInt(start + 1), mBuffer.getInt(start + 5), mBuffer.getInt(start + 9));
+		
+		case cancel :
+			if (length != Cancel.DEFAULT_LENGTH) throw new MessageException(id, "Wrong length");
+			return new Cancel(mBuffer.getInt(start + 1), mBuffer.getInt(start + 5), mBuffer.getInt(start + 9));
+		
+		case piece :
+			if (length < SendBlock.DEFAULT_LENGTH) throw new MessageException(id, "Wrong length");
+			
+			ByteBuffer payload = mBuffer.duplicate();
+			payload.limit(start + length);
+			payload.position(start + SendBlock.DEFAULT_LENGTH);
+			
+			return new SendBlock(mBuffer.getInt(start + 1), mBuffer.getInt(start + 5), payload.slice(), mSlab.retain());
+		
+		default : // Rare messages, decoded from a copy.
+			byte[] data = new byte[LENGTH_SIZE + length];
+			ByteBuffer frame = mBuffer.duplicate();
+			frame.position(start - LENGTH_SIZE);
+			frame.get(data);
+			try {
+				return FactoryMessage.createMessage(new DataInputStream(new ByteArrayInputStream(data)));
+			} catch (IOException e) {
+				throw new MessageException(id, "Wrong length");
+			}
+		}
+	}
+	
+	/**
+	 * Marks the given number of bytes as decoded.
+	 */
+	private void consume(int count) {
+		mStart += count;
+		mPending = 0;
+		
+		// Nothing left: go back to the beginning of the buffer if nobody uses it.
+		if (mStart == mBuffer.position() && mSlab.getReferences() == 1) {
+			mBuffer.clear();
+			mStart = 0;
+		}
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the number of bytes received but not decoded yet.
+	 * @return number of bytes available
+	 */
+	public int available() {
+		return mBuffer.position() - mStart;
+	}
+}
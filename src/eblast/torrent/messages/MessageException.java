@@ -28,6 +28,7 @@ import eblast.exceptions.EBlastException;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 26.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - The ID may be unknown (null)
  */
 public class MessageException extends EBlastException {
 	/**
@@ -37,10 +38,10 @@ public class MessageException extends EBlastException {
 	
 	/**
 	 * An exception has occurred when trying to create a specifiac Message.
-	 * @param id ID of message
+	 * @param id ID of message, null if unknown
 	 * @param msg Message to transmit
 	 */
 	public MessageException(Message.ID id, String msg) {
-		super("Message (ID=" + id.toString() + ") -> " + msg);
+		super("Message (ID=" + id + ") -> " + msg);
 	}
 }
@@ -19,7 +19,11 @@
 
 package eblast.torrent.messages;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import eblast.torrent.Torrent;
+import eblast.torrent.TaskPools.Pool;
 import eblast.torrent.peer.PeerHandler;
 import eblast.torrent.piece.Block;
 import eblast.torrent.piece.Piece;
@@ -32,6 +36,13 @@ import eblast.torrent.piece.Piece;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 26.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Requests served through the PieceCache
+ * @version 1.2 - 17.10.2026 - The PieceManager is told about the complete pieces
+ * @version 1.3 - 17.10.2026 - Cancel messages, duplicate blocks accounted
+ * @version 1.4 - 17.10.2026 - Interested peers are unchoked by the Choker
+ * @version 1.5 - 17.10.2026 - Received blocks fed to the piece without copy
+ * @version 1.6 - 17.10.2026 - Received blocks tagged with the peer that sent them
+ * @version 1.7 - 17.10.2026 - Disk reads, writes and hashes run by the PeerHandler (off the PeerReactor)
  */
 public class MessageHandler implements MessageVisitor {
 
@@ -51,7 +62,7 @@ public class MessageHandler implements MessageVisitor {
 	 * {@inheritDoc}
 	 */
 	public void visit(BitField bf) {
-		mPeerHandler.setPeerAvailablePieces(bf.getAvailablePiecesIndexes());
+		mPeerHandler.setPeerAvailablePieces(bf.getAvailablePieces(mTorrent.getPieceCount()));
 	}
 	
 	/**
@@ -81,8 +92,8 @@ public class MessageHandler implements MessageVisitor {
 	public void visit(Interested i) {
 		mPeerHandler.setIsHeInterested(true);
 		
-		mPeerHandler.addMessage(new Unchoke());
-		mPeerHandler.setIsHeChoked(false);
+		// Unchoked at once if an upload slot is free, otherwise at the next rechoke
+		mTorrent.getChoker().peerInterested(mPeerHandler);
 	}
 
 	/**
@@ -101,49 +112,81 @@ public class MessageHandler implements MessageVisitor {
 	public void visit(Request req) {
 		if (mPeerHandler.isHeChoked() || !mPeerHandler.isHeInterested()) return; // Ignore if he's choked or not interested
 		
-		int index = req.getIndex();
-		int begin = req.getBegin();
-		int len = req.getBlockLength();
-		Block block;
-		try {
-			block = mTorrent.getPieces().get(index).getBlockByOffset(begin);
-		} catch (Exception e) {
-			e.printStackTrace();
-			return;
-		}
+		final int index = req.getIndex();
+		final int begin = req.getBegin();
+		final int len = req.getBlockLength();
+		List<Piece> pieces = mTorrent.getPieces();
+		if (len > Block.BLOCK_SIZE || index < 0 || index >= pieces.size()) return;
 		
-		// We send the block only if the size is the same
-		if (block.getSize() == len) {
-			mPeerHandler.addMessage(new SendBlock(index, begin, block.toBytes()));
-		}
+		final Piece piece = pieces.get(index);
+		mPeerHandler.runTask(Pool.io, new Runnable() {
+			public void run() {
+				Block block;
+				try {
+					block = mTorrent.getPieceCache().read(piece, begin, len);
+				} catch (Exception e) {
+					e.printStackTrace();
+					return;
+				}
+				
+				// We send the block only if it is available
+				if (block != null) {
+					mPeerHandler.addMessage(new SendBlock(index, begin, block.toBytes()));
+				}
+			}
+		});
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public void visit(SendBlock sb) {
-		boolean checked = false;
-		int index;
+		final int index = sb.getIndex();
+		final int begin = sb.getBegin();
+		final Piece piece;
 		
 		try {
-			index = sb.getIndex();
-			int begin = sb.getBegin();
-			Block block = sb.getBlock();
-			
-			Piece piece = mTorrent.getPieces().get(index);
-			
-			piece.feed(begin, block); // Feed the block into the piece
+			piece = mTorrent.getPieces().get(index);
 			
-			checked = piece.check();
+			mPeerHandler.requestAnswered(index, begin); // Our request mustn't be cancelled
 			
 		} catch (Exception e) {
 			return; // An error has occured, then we do nothing
 		}
 		
-		// Send that we have the whole piece
-		if (checked) {
-			mPeerHandler.addMessage(new Have(index));
-		}
+		final SendBlock block = sb.retain(); // The message is released once visited, the task may run later
+		mPeerHandler.runTask(Pool.hashing, new Runnable() {
+			public void run() {
+				boolean checked = false;
+				
+				try {
+					ByteBuffer data = block.getPayload();
+					
+					boolean received = piece.feed(begin, data, mPeerHandler.getPeer()); // Feed the block into the piece, tagged with its sender
+					mTorrent.getPieceManager().blockReceived(block.getBlockLength(), !received);
+					
+					checked = received && piece.check();
+					
+				} catch (Exception e) {
+					return; // An error has occured, then we do nothing
+				} finally {
+					block.release();
+				}
+				
+				// Send that we have the whole piece
+				if (checked) {
+					mTorrent.getPieceManager().pieceCompleted(piece);
+					mPeerHandler.addMessage(new Have(index));
+				}
+			}
+		});
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public void visit(Cancel c) {
+		mPeerHandler.cancelUpload(c);
 	}
 	
 	// ----- Every SendRSAKey/SendSymmetric Message not treated by Handshake will disconnect us from the peer. ----- 
@@ -33,6 +33,7 @@ import eblast.log.Log;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - Initial version
+ * @version 1.1 - 17.10.2026 - The messages aren't flushed one by one anymore
  */
 public class MessageOutputStream extends DataOutputStream {
 	public MessageOutputStream(OutputStream os) {
@@ -40,14 +41,14 @@ public class MessageOutputStream extends DataOutputStream {
 	}
 	
 	/**
-	 * Writes the given message into this Stream
+	 * Writes the given message into this Stream.
+	 * The message isn't flushed: the caller flushes once all the waiting messages are written.
 	 * @param msg message to write into this Stream
 	 * @throws IOException
 	 */
 	public void write(Message msg) throws IOException {
 		Log.d("MessageOutputStream", "message("+ msg.getId().name() + ") has been written."); // Debug
 		msg.write(this);
-		flush();
 	}
 	
 	/**
@@ -28,6 +28,7 @@ package eblast.torrent.messages;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 26.05.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Cancel message
  */
 public interface MessageVisitor {
 
@@ -67,6 +68,12 @@ public interface MessageVisitor {
 	 */
 	public void visit(Request r);
 	
+	/**
+	 * Executes the algorithm related to the message given in parameter.
+	 * @param c Message that calls its Message-specific algorithm
+	 */
+	public void visit(Cancel c);
+	
 	/**
 	 * Executes the algorithm related to the message given in parameter.
 	 * @param bf Message that calls its Message-specific algorithm
@@ -29,6 +29,7 @@ import java.util.Date;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - Initial version
+ * @version 1.1 - 17.10.2026 - isOld() fixed, the timeout is given by the PeerHandler
  */
 public class Request extends Message {
 	
@@ -44,6 +45,7 @@ public class Request extends Message {
 	private int plLength;
 	
 	long mCreated = new Date().getTime();
+	long mSent = 0;							// Time when the request has been sent, 0 if not yet
 	
 	/**
 	 * Default constructor.
@@ -102,11 +104,35 @@ public class Request extends Message {
 		return plLength;
 	}
 	
+	/**
+	 * Marks the request as sent to the peer.
+	 */
+	public void setSent() {
+		mSent = new Date().getTime();
+	}
+	
+	/**
+	 * Returns the time when the request has been sent (or created if it hasn't been sent yet).
+	 * @return the time in milliseconds
+	 */
+	public long getSentTime() {
+		return (mSent == 0) ? mCreated : mSent;
+	}
+	
 	/**
 	 * Returns true if the request is "older" than 5 seconds, false otherwise
 	 * @return true if the request is "older" than 5 seconds, false otherwise
 	 */
 	public boolean isOld() {
-		return (mCreated - new Date().getTime()) >= FIVE_SECONDS; // The request is 5 seconds older
+		return isOld(FIVE_SECONDS);
+	}
+	
+	/**
+	 * Returns true if the request has been sent for longer than the timeout, false otherwise
+	 * @param timeout timeout in milliseconds
+	 * @return true if the request is older than the timeout, false otherwise
+	 */
+	public boolean isOld(long timeout) {
+		return (new Date().getTime() - getSentTime()) >= timeout;
 	}
 }
@@ -20,7 +20,9 @@
 package eblast.torrent.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import eblast.io.PooledBuffer;
 import eblast.torrent.piece.Block;
 import eblast.torrent.piece.BlockLengthException;
 
@@ -31,6 +33,10 @@ import eblast.torrent.piece.BlockLengthException;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - Initial version
+ * @version 1.1 - 17.10.2026 - getBlockLength()
+ * @version 1.2 - 17.10.2026 - Block received as a slice of a pooled buffer
+ * @version 1.3 - 17.10.2026 - Block not copied by the gathering writes
+ * @version 1.4 - 17.10.2026 - Block kept after the release of the message by retain()
  */
 public class SendBlock extends Message {
 	
@@ -38,7 +44,8 @@ public class SendBlock extends Message {
 
 	private int plIndex;
 	private int plBegin;
-	private byte[] plBlock;
+	private ByteBuffer plBlock;			// Data of the block, from its position to its limit
+	private PooledBuffer mSlab;			// Pooled buffer that contains the block (null if not pooled)
 	
 	/**
 	 * Default constructor.
@@ -47,12 +54,24 @@ public class SendBlock extends Message {
 	 * @param payLoadBlock  block of data, which is a subset of the piece specified by index.
 	 */
 	public SendBlock(int payloadIndex, int payloadBegin, byte[] payLoadBlock) {
+		this(payloadIndex, payloadBegin, ByteBuffer.wrap(payLoadBlock), null);
+	}
+	
+	/**
+	 * Constructor of a block received into a pooled buffer.
+	 * @param payloadIndex integer specifying the zero-based piece index.
+	 * @param payloadBegin integer specifying the zero-based byte offset within the piece.
+	 * @param payLoadBlock block of data, from its position to its limit
+	 * @param slab pooled buffer that contains the block, retained for this message and released by release()
+	 */
+	public SendBlock(int payloadIndex, int payloadBegin, ByteBuffer payLoadBlock, PooledBuffer slab) {
 		
-		super(DEFAULT_LENGTH + payLoadBlock.length, ID.piece);
+		super(DEFAULT_LENGTH + payLoadBlock.remaining(), ID.piece);
 		
 		plIndex = payloadIndex;
 		plBegin = payloadBegin;
 		plBlock = payLoadBlock;
+		mSlab = slab;
 	}
 	
 	/**
@@ -62,9 +81,28 @@ public class SendBlock extends Message {
 		super.write(mos);
 		mos.writeInt(plIndex);
 		mos.writeInt(plBegin);
-		mos.write(plBlock);
+		
+		if (plBlock.hasArray()) {
+			mos.write(plBlock.array(), plBlock.arrayOffset() + plBlock.position(), plBlock.remaining());
+		} else {
+			byte[] data = new byte[plBlock.remaining()];
+			plBlock.duplicate().get(data);
+			mos.write(data);
+		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * The block itself is returned, to be written after the header.
+	 */
+	public ByteBuffer writeHeader(MessageOutputStream mos) throws IOException {
+		mos.writeInt(getLength());
+		mos.writeByte((byte) getId().ordinal());
+		mos.writeInt(plIndex);
+		mos.writeInt(plBegin);
+		return plBlock.duplicate();
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -72,6 +110,26 @@ public class SendBlock extends Message {
 		v.visit(this);
 	}
 	
+	/**
+	 * Returns a message with the same block, that keeps its pooled buffer until it is released itself.
+	 * Used to handle the block after the release of this message.
+	 * @return a message that has to be released too
+	 */
+	public synchronized SendBlock retain() {
+		return new SendBlock(plIndex, plBegin, plBlock.duplicate(), (mSlab == null) ? null : mSlab.retain());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The pooled buffer that contains the block goes back to its pool.
+	 */
+	public synchronized void release() {
+		if (mSlab != null) {
+			mSlab.release();
+			mSlab = null;
+		}
+	}
+	
 	/************************ GETTERS / SETTERS *************************/
 	
 	/**
@@ -91,10 +149,34 @@ public class SendBlock extends Message {
 	}
 	
 	/**
-	 * Returns the Block that we have to send
+	 * Returns the Block that we have to send (copied if it is in a pooled buffer)
 	 * @return Block that we have to send
 	 */
 	public Block getBlock() throws BlockLengthException {
-		return new Block(plBlock);
+		if (plBlock.hasArray() && plBlock.arrayOffset() == 0 && plBlock.position() == 0
+				&& plBlock.remaining() == plBlock.array().length) {
+			return new Block(plBlock.array());
+		}
+		
+		byte[] data = new byte[plBlock.remaining()];
+		plBlock.duplicate().get(data);
+		return new Block(data);
+	}
+	
+	/**
+	 * Returns the data of the block, without copying them.
+	 * They mustn't be used after release().
+	 * @return a view of the data of the block
+	 */
+	public ByteBuffer getPayload() {
+		return plBlock.duplicate();
+	}
+	
+	/**
+	 * Returns the size of the block
+	 * @return size of the block in bytes
+	 */
+	public int getBlockLength() {
+		return plBlock.remaining();
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,196 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import eblast.torrent.Torrent;
+import eblast.torrent.Torrent.TorrentStates;
+import eblast.torrent.TorrentManager;
+import eblast.torrent.messages.Choke;
+import eblast.torrent.messages.Unchoke;
+
+/**
+ * This class decides which peers may download from us (tit-for-tat).
+ * <ul>
+ * <li> Every 10 seconds, the interested peers that send us the most data are unchoked.
+ * When the torrent is complete, the peers to which we upload the fastest are preferred.
+ * <li> Every 30 seconds, another peer is unchoked optimistically, so that new peers
+ * have a chance to prove that they are good.
+ * </ul>
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - Rechokes scheduled on the shared scheduler
+ */
+public class Choker {
+	
+	public static final long RECHOKE_DELAY = 10000L;		// Delay between two rechokes (ms)
+	public static final int OPTIMISTIC_ROUNDS = 3;			// The optimistic unchoke changes every 3 rechokes
+	
+	private Torrent mTorrent;
+	private Map<PeerHandler, Long> mLastBytes;				// Bytes exchanged with each peer at the last rechoke
+	private PeerHandler mOptimistic;						// Peer unchoked optimistically
+	private int mRound;
+	private Random mRandom;
+	private ScheduledFuture<?> mTask;						// Periodic rechoke, null when stopped
+	
+	/**
+	 * Constructor.
+	 * @param torrent the torrent whose peers are choked
+	 */
+	public Choker(Torrent torrent) {
+		mTorrent = torrent;
+		mLastBytes = new HashMap<PeerHandler, Long>();
+		mRandom = new Random();
+	}
+	
+	/**
+	 * Rechokes the peers every RECHOKE_DELAY until the Choker is stopped.
+	 */
+	public synchronized void launch() {
+		if (mTask != null) return;
+		
+		mTask = TorrentManager.getInstance().getScheduler().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				rechoke();
+			}
+		}, 0, RECHOKE_DELAY, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the periodic rechokes and forgets the peers.
+	 */
+	public synchronized void stop() {
+		if (mTask != null) {
+			mTask.cancel(false);
+			mTask = null;
+		}
+		mLastBytes.clear();
+		mOptimistic = null;
+	}
+	
+	/**
+	 * Chooses the peers to unchoke, and sends the Choke/Unchoke messages that changed.
+	 */
+	public synchronized void rechoke() {
+		boolean seeding = mTorrent.getTorrentState() == TorrentStates.completed;
+		int slots = TorrentManager.getInstance().getSettings().getUploadSlots();
+		
+		// Rate of each peer since the last rechoke
+		Map<PeerHandler, Long> rates = new HashMap<PeerHandler, Long>();
+		Map<PeerHandler, Long> bytes = new HashMap<PeerHandler, Long>();
+		List<PeerHandler> interested = new ArrayList<PeerHandler>();
+		for (PeerHandler ph: mTorrent.getPeerHandlers()) {
+			long total = seeding ? ph.getUploadedBytes() : ph.getDownloadedBytes();
+			Long last = mLastBytes.get(ph);
+			rates.put(ph, total - ((last == null) ? 0 : last));
+			bytes.put(ph, total);
+			
+			if (ph.isHeInterested()) {
+				interested.add(ph);
+			}
+		}
+		mLastBytes = bytes;
+		
+		// Rotate the optimistic unchoke
+		if (mRound++ % OPTIMISTIC_ROUNDS == 0 || !interested.contains(mOptimistic)) {
+			mOptimistic = chooseOptimistic(interested, rates, slots);
+		}
+		
+		List<PeerHandler> unchoked = chooseUnchoked(interested, rates, slots, mOptimistic);
+		
+		for (PeerHandler ph: rates.keySet()) {
+			boolean choke = !unchoked.contains(ph);
+			if (choke != ph.isHeChoked()) {
+				ph.addMessage(choke ? new Choke() : new Unchoke());
+				ph.setIsHeChoked(choke);
+			}
+		}
+	}
+	
+	/**
+	 * An interested peer is unchoked at once if a slot is free.
+	 * @param peerHandler the peer that became interested
+	 */
+	public synchronized void peerInterested(PeerHandler peerHandler) {
+		if (!peerHandler.isHeChoked()) return;
+		
+		int unchoked = 0;
+		for (PeerHandler ph: mTorrent.getPeerHandlers()) {
+			if (!ph.isHeChoked()) unchoked++;
+		}
+		
+		if (unchoked < TorrentManager.getInstance().getSettings().getUploadSlots()) {
+			peerHandler.addMessage(new Unchoke());
+			peerHandler.setIsHeChoked(false);
+		}
+	}
+	
+	/**
+	 * Chooses randomly the peer to unchoke optimistically, among the peers that wouldn't be unchoked otherwise.
+	 */
+	private <T> T chooseOptimistic(List<T> interested, Map<T, Long> rates, int slots) {
+		List<T> regular = chooseUnchoked(interested, rates, slots, null);
+		List<T> candidates = new ArrayList<T>(interested);
+		candidates.removeAll(regular);
+		
+		return candidates.isEmpty() ? null : candidates.get(mRandom.nextInt(candidates.size()));
+	}
+	
+	/**
+	 * Returns the peers to unchoke: the fastest interested peers, and the optimistic one.
+	 * @param interested interested peers
+	 * @param rates rate of each peer
+	 * @param slots number of upload slots (including the optimistic one)
+	 * @param optimistic peer unchoked optimistically, may be null
+	 * @return peers to unchoke
+	 */
+	public static <T> List<T> chooseUnchoked(List<T> interested, final Map<T, Long> rates, int slots, T optimistic) {
+		List<T> sorted = new ArrayList<T>(interested);
+		sorted.remove(optimistic);
+		
+		// From the fastest to the slowest
+		Collections.sort(sorted, new Comparator<T>() {
+			public int compare(T a, T b) {
+				long ra = rates.containsKey(a) ? rates.get(a) : 0;
+				long rb = rates.containsKey(b) ? rates.get(b) : 0;
+				return (ra == rb) ? 0 : ((ra > rb) ? -1 : 1);
+			}
+		});
+		
+		int regular = Math.max(0, (optimistic != null && interested.contains(optimistic)) ? slots - 1 : slots);
+		List<T> unchoked = new ArrayList<T>(sorted.subList(0, Math.min(regular, sorted.size())));
+		if (optimistic != null && interested.contains(optimistic) && slots > 0) {
+			unchoked.add(optimistic);
+		}
+		return unchoked;
+	}
+}
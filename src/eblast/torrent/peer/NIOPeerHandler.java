@@ -0,0 +1,446 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.peer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import eblast.io.ByteBufferPool;
+import eblast.io.ByteCounter;
+import eblast.io.SpeedPair;
+import eblast.log.Log;
+import eblast.torrent.Torrent;
+import eblast.torrent.TorrentManager;
+import eblast.torrent.TaskPools.Pool;
+import eblast.torrent.messages.BitField;
+import eblast.torrent.messages.Handshake;
+import eblast.torrent.messages.Message;
+import eblast.torrent.messages.MessageDecoder;
+import eblast.torrent.messages.MessageException;
+import eblast.torrent.messages.MessageInputStream;
+import eblast.torrent.messages.MessageOutputStream;
+
+/**
+ * PeerHandler driven by the readiness events of a PeerReactor instead of its own Thread.
+ * It keeps the same protocol logic (MessageHandler, requests, queue of messages),
+ * only the way the bytes are read and written changes.
+ * 
+ * All the methods of the channel side are called from the thread of the PeerReactor.
+ * The encryption is never negotiated on this engine.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - Reads and writes limited by the rate limiters
+ * @version 1.2 - 17.10.2026 - Messages decoded from pooled buffers by a MessageDecoder
+ * @version 1.3 - 17.10.2026 - Gathering writes, the blocks aren't copied before being sent
+ * @version 1.4 - 17.10.2026 - Timeout of the PeerDialer, handshake reported to the torrent
+ * @version 1.5 - 17.10.2026 - Disk and hashing work done by the TaskPools
+ * @version 1.6 - 17.10.2026 - Depth of the write queue readable by the other threads
+ */
+public class NIOPeerHandler extends PeerHandler {
+	
+	private static final int HANDSHAKE_LENGTH = 1 + Handshake.DEFAULT_PSTR.length()
+			+ Handshake.RESERVED_LENGTH + Handshake.INFO_HASH_LENGTH + Handshake.PEER_ID_LENGTH;
+	private static final int MAX_MESSAGE_LENGTH = 1 << 20;			// Bigger messages are considered as corrupted
+	private static final int MAX_GATHER = 64;						// Maximum number of buffers written at once
+	private static final long ONE_MINUTE_AND_A_HALF = 90000L;		// 1'30" in milliseconds
+	
+	private static enum State { connecting, handshaking, connected };
+	
+	private PeerReactor mReactor;
+	private SocketChannel mChannel;
+	private SelectionKey mKey;
+	private State mState;
+	
+	private MessageDecoder mDecoder;				// Buffer of the received data
+	private LinkedList<ByteBuffer> mWriteQueue;		// Encoded data waiting for the channel to be writable.
+	private volatile int mWriteQueueDepth;			// Size of mWriteQueue, read by the other threads
+	private ByteBuffer[] mGather;					// Buffers of the current gathering write
+	
+	private ByteCounter mDownloadCounter;
+	private ByteCounter mUploadCounter;
+	
+	private boolean mReadThrottled;					// No more tokens to read, waiting for the PeerReactor
+	private boolean mWriteThrottled;				// No more tokens to write, waiting for the PeerReactor
+	
+	private long mDeadline;							// Time limit to be connected and handshaked.
+	private long mNextKeepAlive;
+	
+	/**
+	 * Default constructor.
+	 * @param reactor PeerReactor that is going to drive the connection
+	 * @param torrent Torrent related to the torrent
+	 * @param peer remote peer
+	 */
+	public NIOPeerHandler(PeerReactor reactor, Torrent torrent, Peer peer) {
+		super(torrent, peer, false);
+		
+		mReactor = reactor;
+		mState = State.connecting;
+		
+		mDecoder = new MessageDecoder(ByteBufferPool.getDirectInstance(), MAX_MESSAGE_LENGTH);
+		mWriteQueue = new LinkedList<ByteBuffer>();
+		mGather = new ByteBuffer[MAX_GATHER];
+		
+		mDownloadCounter = new ByteCounter();
+		mUploadCounter = new ByteCounter();
+		
+		long now = new Date().getTime();
+		mDeadline = now + PeerDialer.CONNECT_TIMEOUT;
+		mNextKeepAlive = now + ONE_MINUTE_AND_A_HALF;
+		
+		mReactor.register(this);
+	}
+	
+	/**
+	 * Opens (or takes back the accepted) channel and registers it into the selector.
+	 * @param selector selector of the PeerReactor
+	 * @throws IOException
+	 */
+	void register(Selector selector) throws IOException {
+		Socket socket = getPeer().getSocket();
+		
+		if (socket != null) { // The PeerAccepter has already received his Handshake.
+			mChannel = socket.getChannel();
+			mChannel.configureBlocking(false);
+			mKey = mChannel.register(selector, SelectionKey.OP_READ, this);
+			
+			sendHandshake();
+			startConnection();
+			process();
+			
+		} else {
+			Log.d("NIOPeerHandler", "Try connect to " + getPeer());
+			mChannel = SocketChannel.open();
+			mChannel.configureBlocking(false);
+			mKey = mChannel.register(selector, SelectionKey.OP_CONNECT, this);
+			
+			if (mChannel.connect(new InetSocketAddress(getPeer().getIP(), getPeer().getPort()))) {
+				finishConnect();
+			}
+		}
+	}
+	
+	/**
+	 * Called when the channel is connected, send our Handshake.
+	 * @throws IOException
+	 */
+	void finishConnect() throws IOException {
+		if (!mChannel.finishConnect()) return;
+		
+		mState = State.handshaking;
+		sendHandshake();
+		write();
+	}
+	
+	/**
+	 * Reads all the data available on the channel and manages the complete messages.
+	 * @throws IOException
+	 * @throws MessageException
+	 */
+	void read() throws IOException, MessageException {
+		ByteBuffer buffer = mDecoder.getReadBuffer();
+		
+		int granted = (int) getDownloadBucket().tryTake(buffer.remaining());
+		if (granted == 0) { // Wait for the rate limiter before reading again.
+			mReadThrottled = true;
+			updateInterest();
+			mReactor.throttle(this);
+			return;
+		}
+		
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + granted);
+		int read = mChannel.read(buffer);
+		buffer.limit(limit);
+		
+		if (read < 0) {
+			throw new EOFException("The peer has closed the connexion.");
+		}
+		getDownloadBucket().refund(granted - read);
+		mDownloadCounter.add(read);
+		
+		if (mState == State.handshaking && mDecoder.available() >= HANDSHAKE_LENGTH) {
+			byte[] data = new byte[HANDSHAKE_LENGTH];
+			mDecoder.read(data);
+			
+			Handshake handshake = new MessageInputStream(new ByteArrayInputStream(data)).readHandShake();
+			if (!acceptHandshake(handshake)) {
+				Log.e("NIOPeerHandler", "Handshake: Dropping the connection");
+				disconnect();
+				return;
+			}
+			startConnection();
+		}
+		
+		Message msg;
+		while (mState == State.connected && isActive() && (msg = mDecoder.next()) != null) {
+			handleMessage(msg);
+		}
+		
+		process();
+	}
+	
+	/**
+	 * Writes as much pending data as the channel and the rate limiters accept,
+	 * with gathering writes of several buffers at once.
+	 * @throws IOException
+	 */
+	void write() throws IOException {
+		while (!mWriteThrottled) {
+			while (!mWriteQueue.isEmpty() && !mWriteQueue.getFirst().hasRemaining()) {
+				mWriteQueue.removeFirst();
+				mWriteQueueDepth = mWriteQueue.size();
+			}
+			if (mWriteQueue.isEmpty()) break;
+			
+			// Gather the first buffers of the queue.
+			int count = 0;
+			long remaining = 0;
+			for (Iterator<ByteBuffer> it = mWriteQueue.iterator(); it.hasNext() && count < MAX_GATHER; count++) {
+				mGather[count] = it.next();
+				remaining += mGather[count].remaining();
+			}
+			
+			long granted = getUploadBucket().tryTake(remaining);
+			if (granted == 0) { // Wait for the rate limiter before writing again.
+				mWriteThrottled = true;
+				mReactor.throttle(this);
+				break;
+			}
+			
+			// Don't write more than the tokens granted.
+			int last = 0;
+			long before = 0;
+			while (before + mGather[last].remaining() < granted) {
+				before += mGather[last].remaining();
+				last++;
+			}
+			ByteBuffer lastBuffer = mGather[last];
+			int limit = lastBuffer.limit();
+			lastBuffer.limit(lastBuffer.position() + (int) (granted - before));
+			long written = mChannel.write(mGather, 0, last + 1);
+			lastBuffer.limit(limit);
+			Arrays.fill(mGather, 0, count, null);
+			
+			getUploadBucket().refund(granted - written);
+			mUploadCounter.add((int) written);
+			
+			if (written < granted) break; // The socket buffer is full.
+		}
+		
+		updateInterest();
+	}
+	
+	/**
+	 * Called by the PeerReactor when the rate limiters may have new tokens.
+	 * @throws IOException
+	 */
+	void resumeThrottled() throws IOException {
+		mReadThrottled = false;
+		if (mWriteThrottled) {
+			mWriteThrottled = false;
+			write();
+		} else {
+			updateInterest();
+		}
+	}
+	
+	/**
+	 * Does the periodic work of the connection:
+	 * timeouts, requests, KeepAlive and sending of the queued messages.
+	 * @throws IOException
+	 */
+	void process() throws IOException {
+		if (!isActive()) {
+			mDecoder.release();
+			return;
+		}
+		
+		long now = new Date().getTime();
+		
+		if (mState != State.connected) {
+			if (now > mDeadline) {
+				Log.e("NIOPeerHandler", "Connection timeout with " + getPeer());
+				disconnectFromError();
+			}
+			return;
+		}
+		
+		if (getTorrent().getTorrentState().equals(Torrent.TorrentStates.stopped)) {
+			disconnect();
+			return;
+		}
+		
+		cleanOldRequest();
+		
+		if (now > mNextKeepAlive) {
+			Log.d("KeepAlive", "Sent to " + getPeer());
+			queue(ByteBuffer.allocate(4)); // Length of zero
+			mNextKeepAlive = now + ONE_MINUTE_AND_A_HALF;
+		}
+		
+		createRequests();
+		
+		// Encode all the messages from the queue, the blocks are sent from their own buffer.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		MessageOutputStream output = new MessageOutputStream(bytes);
+		List<Message> messages = pollMessages();
+		for (Message m: messages) {
+			ByteBuffer data = m.writeHeader(output);
+			if (data != null) {
+				queue(ByteBuffer.wrap(bytes.toByteArray()));
+				queue(data);
+				bytes.reset();
+			}
+		}
+		if (bytes.size() > 0) {
+			queue(ByteBuffer.wrap(bytes.toByteArray()));
+		}
+		if (!messages.isEmpty()) {
+			messagesFlushed(messages.size());
+		}
+		
+		updatePeerInformation();
+		
+		write();
+	}
+	
+	/**
+	 * The handshake is done, we send our BitField.
+	 */
+	private void startConnection() {
+		mState = State.connected;
+		getTorrent().peerConnected(this);
+		addMessage(new BitField(getTorrent().getPieces()));
+	}
+	
+	/**
+	 * Queues our Handshake.
+	 * @throws IOException
+	 */
+	private void sendHandshake() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(HANDSHAKE_LENGTH);
+		new MessageOutputStream(bytes).write(new Handshake(getTorrent().getInfoHash(), getTorrent().getPeerID(), false));
+		queue(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+	
+	/**
+	 * Adds encoded data at the end of the write queue.
+	 * @param data data to send
+	 */
+	private void queue(ByteBuffer data) {
+		mWriteQueue.add(data);
+		mWriteQueueDepth = mWriteQueue.size();
+	}
+	
+	/**
+	 * Listens to the write readiness only when some data are waiting,
+	 * and to nothing that the rate limiters don't allow yet.
+	 */
+	private void updateInterest() {
+		if (mKey == null || !mKey.isValid() || mState == State.connecting) return;
+		
+		int ops = mReadThrottled ? 0 : SelectionKey.OP_READ;
+		if (!mWriteQueue.isEmpty() && !mWriteThrottled) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		mKey.interestOps(ops);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The thread of the PeerReactor drives all the connections, it mustn't wait for the disk:
+	 * the task runs on the pool, and its messages wake the PeerReactor up (see addMessage()).
+	 */
+	public void runTask(Pool pool, Runnable task) {
+		TorrentManager.getInstance().getTaskPools().execute(pool, task);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * The PeerReactor is woken up if the message comes from another thread.
+	 */
+	public void addMessage(Message msg) {
+		super.addMessage(msg);
+		
+		if (Thread.currentThread() != mReactor) {
+			mReactor.wakeup(this);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	protected void closeConnection() {
+		// The buffer is given back by the thread of the PeerReactor, that may be reading into it.
+		if (Thread.currentThread() == mReactor) {
+			mDecoder.release();
+		} else {
+			mReactor.wakeup(this);
+		}
+		
+		if (mKey != null) {
+			mKey.cancel();
+		}
+		
+		if (mChannel != null) {
+			try {
+				mChannel.close();
+			} catch (IOException e) {
+				// Nothing to do
+			}
+		}
+		
+		getPeer().setSocket(null);
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * {@inheritDoc}
+	 * The buffers waiting for the channel are counted too (only the PeerReactor touches their queue).
+	 */
+	public int getSendQueueDepth() {
+		return super.getSendQueueDepth() + mWriteQueueDepth;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public SpeedPair getSpeed() {
+		return new SpeedPair(mDownloadCounter.getAverageSpeed(), mUploadCounter.getAverageSpeed());
+	}
+}
@@ -33,6 +33,7 @@ import eblast.torrent.Torrent;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 0.1 - 07.03.2011 - Initial version
+ * @version 0.2 - 17.10.2026 - The peer may know the aead encryption mode
  */
 public class Peer {
 	
@@ -43,6 +44,7 @@ public class Peer {
 
 	private double mPercent; // Percentage of available and interesting data that the peer posess
 	private boolean mEncrypted;
+	private boolean mAEAD;			// Knows the aead encryption mode
 	private Socket mSocket;
 	
 	/**
@@ -71,6 +73,7 @@ public class Peer {
 		mID = "";
 		mSocket = null;
 		mEncrypted = false;
+		mAEAD = false;
 		mPercent = 0;
 		
 		Log.i("new Peer", this + " on torrent \"" + mTorrent + "\"");
@@ -148,6 +151,22 @@ public class Peer {
 		return mEncrypted;
 	}
 	
+	/**
+	 * Sets whether the peer knows the aead encryption mode.
+	 * @param activated true if the peer knows the aead encryption mode
+	 */
+	public void setAEAD(boolean activated) {
+		mAEAD = activated;
+	}
+	
+	/**
+	 * Returns true if the peer knows the aead encryption mode, false otherwise.
+	 * @return true if the peer knows the aead encryption mode
+	 */
+	public boolean isAEAD() {
+		return mAEAD;
+	}
+	
 	/**
 	 * Set the peer id to the value given in parameter
 	 * @param id new peer id
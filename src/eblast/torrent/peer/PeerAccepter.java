@@ -21,8 +21,10 @@ package eblast.torrent.peer;
 
 import java.io.IOException;
 import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
 
 import eblast.checksum.Hash;
 import eblast.log.Log;
@@ -38,6 +40,8 @@ import eblast.torrent.messages.MessageInputStream;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 0.1 - 12.04.2011 - Initial version
+ * @version 0.2 - 17.10.2026 - Accepts channels for the PeerReactor
+ * @version 0.3 - 17.10.2026 - aead encryption mode of the peer
  */
 public class PeerAccepter extends Thread {
 	
@@ -58,7 +62,7 @@ public class PeerAccepter extends Thread {
 		mServerSocket = null;
 		while (mServerSocket == null) { // Tries to initiate the serverSocket
 			try {
-				mServerSocket = new ServerSocket(port);
+				mServerSocket = openServerSocket(port, torrentManager.isNIOEngineUsed());
 			} catch (BindException e) {
 				e.printStackTrace();
 				port++;
@@ -69,6 +73,29 @@ public class PeerAccepter extends Thread {
 		start();
 	}
 	
+	/**
+	 * Opens the ServerSocket. The accepted sockets have a channel only if
+	 * the ServerSocket has been opened from a channel.
+	 * @param port port used for the connection
+	 * @param channel true if the accepted sockets are going to be driven by the PeerReactor
+	 * @return the ServerSocket bound to the given port
+	 * @throws IOException
+	 */
+	private static ServerSocket openServerSocket(int port, boolean channel) throws IOException {
+		if (!channel) {
+			return new ServerSocket(port);
+		}
+		
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+		return serverChannel.socket();
+	}
+	
 	/**
 	 * Stops the PeerAccepter.
 	 */
@@ -108,6 +135,7 @@ public class PeerAccepter extends Thread {
 					peer.setID(handshake.getPeerId());
 					peer.setSocket(socket);
 					peer.setEncryption(handshake.isEncryptionActivated());
+					peer.setAEAD(handshake.isAEADActivated());
 					torrent.addPeer(peer);
 				}
 				
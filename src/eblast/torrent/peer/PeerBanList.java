@@ -0,0 +1,208 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.peer;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import eblast.log.Log;
+import eblast.torrent.Torrent;
+
+/**
+ * This class keeps track of the peers that send corrupted blocks to a torrent.
+ * <p>
+ * The bytes of a piece that fails its Hash are counted as wasted for the peers that sent them.
+ * A strike is given to a peer when it is proven that it corrupted a piece: it sent the whole
+ * piece alone, or the block it sent has changed once the piece is correct. A peer is banned,
+ * by address, after MAX_STRIKES strikes.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class PeerBanList {
+	
+	public static final int MAX_STRIKES = 2;		// Corrupted pieces proven against a peer before it is banned
+	public static final int MAX_HASH_FAILURES = 2;	// Failed pieces a peer took part in before it is suspected
+	
+	private Torrent mTorrent;						// Told when a peer is banned, may be null
+	private Map<InetAddress, PeerRecord> mRecords;	// Peers that sent blocks of a failed piece, by address
+	private long mWastedBytes;						// Bytes discarded because of the failed pieces
+	
+	/**
+	 * Default constructor.
+	 * @param torrent torrent told when a peer is banned, may be null
+	 */
+	public PeerBanList(Torrent torrent) {
+		mTorrent = torrent;
+		mRecords = new HashMap<InetAddress, PeerRecord>();
+	}
+	
+	/**
+	 * Called when a piece fails its Hash. If it has been sent by a single peer, this peer gets a strike.
+	 * @param index index of the piece
+	 * @param senders peers that sent blocks of the piece, with the number of bytes discarded
+	 */
+	public void pieceFailed(int index, Map<InetAddress, Integer> senders) {
+		List<InetAddress> banned = new ArrayList<InetAddress>();
+		
+		synchronized (this) {
+			for (Entry<InetAddress, Integer> entry: senders.entrySet()) {
+				PeerRecord record = getRecord(entry.getKey());
+				record.mHashFailures++;
+				record.mWastedBytes += entry.getValue();
+				mWastedBytes += entry.getValue();
+			}
+			
+			if (senders.size() == 1) {
+				InetAddress address = senders.keySet().iterator().next();
+				if (strike(address)) banned.add(address);
+			}
+		}
+		
+		Log.e("PeerBanList", "Piece " + index + " corrupted, sent by " + senders.keySet());
+		notifyBanned(banned);
+	}
+	
+	/**
+	 * Called when a piece that failed its Hash is correct, and a block sent by the peer has changed.
+	 * @param index index of the piece
+	 * @param address address of the peer that sent the corrupted block
+	 */
+	public void pieceCorrupted(int index, InetAddress address) {
+		List<InetAddress> banned = new ArrayList<InetAddress>();
+		
+		synchronized (this) {
+			if (strike(address)) banned.add(address);
+		}
+		
+		Log.e("PeerBanList", "Piece " + index + " corrupted by " + address.getHostAddress());
+		notifyBanned(banned);
+	}
+	
+	/**
+	 * Gives a strike to a peer.
+	 * @return true if the peer has just been banned
+	 */
+	private boolean strike(InetAddress address) {
+		PeerRecord record = getRecord(address);
+		record.mStrikes++;
+		return record.mStrikes == MAX_STRIKES;
+	}
+	
+	/**
+	 * Tells the torrent about the peers that have just been banned, out of the lock.
+	 */
+	private void notifyBanned(List<InetAddress> banned) {
+		for (InetAddress address: banned) {
+			Log.i("PeerBanList", "Peer " + address.getHostAddress() + " banned");
+			if (mTorrent != null) mTorrent.peerBanned(address);
+		}
+	}
+	
+	/**
+	 * Returns the record of a peer, created if it doesn't exist.
+	 */
+	private PeerRecord getRecord(InetAddress address) {
+		PeerRecord record = mRecords.get(address);
+		if (record == null) {
+			record = new PeerRecord();
+			mRecords.put(address, record);
+		}
+		return record;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Test whether or not a peer is banned.
+	 * @param address address of the peer
+	 * @return true if the peer mustn't be connected anymore
+	 */
+	public synchronized boolean isBanned(InetAddress address) {
+		PeerRecord record = mRecords.get(address);
+		return record != null && record.mStrikes >= MAX_STRIKES;
+	}
+	
+	/**
+	 * Test whether or not the blocks of a peer are the first to discard when a piece fails its Hash:
+	 * it has a strike, or took part in several failed pieces.
+	 * @param address address of the peer
+	 * @return true if the peer is suspected to send corrupted blocks
+	 */
+	public synchronized boolean isSuspect(InetAddress address) {
+		PeerRecord record = mRecords.get(address);
+		return record != null && (record.mStrikes > 0 || record.mHashFailures >= MAX_HASH_FAILURES);
+	}
+	
+	/**
+	 * Returns the number of corrupted pieces proven against a peer.
+	 * @param address address of the peer
+	 * @return the number of strikes
+	 */
+	public synchronized int getStrikes(InetAddress address) {
+		PeerRecord record = mRecords.get(address);
+		return (record == null) ? 0 : record.mStrikes;
+	}
+	
+	/**
+	 * Returns the number of bytes sent by a peer and discarded because their piece failed its Hash.
+	 * @param address address of the peer
+	 * @return bytes wasted by the peer
+	 */
+	public synchronized long getWastedBytes(InetAddress address) {
+		PeerRecord record = mRecords.get(address);
+		return (record == null) ? 0 : record.mWastedBytes;
+	}
+	
+	/**
+	 * Returns the number of bytes discarded because their piece failed its Hash.
+	 * @return bytes wasted by all the peers
+	 */
+	public synchronized long getWastedBytes() {
+		return mWastedBytes;
+	}
+	
+	/**
+	 * Returns the number of banned peers.
+	 * @return the number of banned peers
+	 */
+	public synchronized int getBannedCount() {
+		int count = 0;
+		for (PeerRecord record: mRecords.values()) {
+			if (record.mStrikes >= MAX_STRIKES) count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Failed pieces of a peer.
+	 */
+	private static class PeerRecord {
+		int mHashFailures;				// Failed pieces the peer sent blocks of
+		int mStrikes;					// Corrupted pieces proven against the peer
+		long mWastedBytes;				// Bytes discarded because of the failed pieces
+	}
+}
@@ -0,0 +1,242 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.torrent.peer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class chooses the peers to which a torrent connects.
+ * <p>
+ * The number of connections that are not handshaked yet (half-open) is bounded
+ * for the whole program, so that the dead peers can't take all the slots.
+ * A peer that fails isn't tried again before a delay doubled at each failure,
+ * and is forgotten after MAX_FAILURES consecutive failures.
+ * The candidates are ranked by the ratio of their successful handshakes and the
+ * rate at which they sent us data, the unknown peers being in the middle.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - A clean disconnection doesn't shorten the backoff
+ */
+public class PeerDialer {
+	
+	public static final int MAX_HALF_OPEN = 16;			// Connections being dialed at once by the whole program
+	public static final int CONNECT_TIMEOUT = 5000;		// Time given to connect and handshake (ms)
+	public static final long RETRY_DELAY = 30000L;		// Delay before dialing a peer again, doubled at each failure (ms)
+	public static final long MAX_RETRY_DELAY = 1800000L;	// 30 minutes
+	public static final int MAX_FAILURES = 5;			// Consecutive failures before the peer is forgotten
+	
+	// ----- Half-open connections of all the torrents ------------------------
+	private static final AtomicInteger mHalfOpen = new AtomicInteger();
+	
+	/**
+	 * Returns the number of connections being dialed by all the torrents.
+	 * @return the number of half-open connections
+	 */
+	public static int getHalfOpenCount() {
+		return mHalfOpen.get();
+	}
+	// -----------------------------------------------------------------------
+	
+	private Map<String, PeerRecord> mRecords;		// History of the peers, by address
+	
+	/**
+	 * Default constructor.
+	 */
+	public PeerDialer() {
+		mRecords = new HashMap<String, PeerRecord>();
+	}
+	
+	/**
+	 * Chooses the best candidate among the peers and reserves a half-open slot for it.
+	 * The peers being dialed or waiting for their retry delay are skipped.
+	 * @param peers known peers which aren't connected (synchronized on itself)
+	 * @return the peer to dial, or null if there is no candidate or no half-open slot
+	 */
+	public Peer dial(List<Peer> peers) {
+		if (!reserveSlot()) return null;
+		
+		long now = System.currentTimeMillis();
+		Peer best = null;
+		double bestScore = -1;
+		
+		synchronized (peers) {
+			synchronized (this) {
+				for (Peer p: peers) {
+					PeerRecord record = mRecords.get(p.toString());
+					if (record != null && (record.mDialing || now < record.mNextAttempt)) continue;
+					
+					double score = (record == null) ? PeerRecord.UNKNOWN_SCORE : record.getScore();
+					if (score > bestScore) {
+						best = p;
+						bestScore = score;
+					}
+				}
+				
+				if (best != null) {
+					PeerRecord record = getRecord(best);
+					record.mDialing = true;
+					record.mAttempts++;
+					return best;
+				}
+			}
+		}
+		
+		mHalfOpen.decrementAndGet(); // Nobody to dial
+		return null;
+	}
+	
+	/**
+	 * Called when the handshake with a peer is done: the half-open slot is released.
+	 * @param peer the peer that is connected
+	 */
+	public synchronized void connected(Peer peer) {
+		PeerRecord record = getRecord(peer);
+		if (record.mDialing) {
+			record.mDialing = false;
+			mHalfOpen.decrementAndGet();
+		}
+		record.mSuccesses++;
+		record.mFailures = 0;
+		record.mConnectedSince = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Called when the connection with a peer is closed. A peer that hasn't been handshaked,
+	 * or has been disconnected because of an error, waits for a delay doubled at each failure.
+	 * @param peer the disconnected peer
+	 * @param downloaded bytes of data received from the peer during the connection
+	 * @param error true if the connection has been closed because of an error
+	 * @return true if the peer can be dialed again, false if it has failed too many times
+	 */
+	public synchronized boolean disconnected(Peer peer, long downloaded, boolean error) {
+		PeerRecord record = getRecord(peer);
+		long now = System.currentTimeMillis();
+		
+		boolean failed = error;
+		if (record.mDialing) {
+			record.mDialing = false;
+			mHalfOpen.decrementAndGet();
+			failed = true; // Never handshaked
+			
+		} else if (record.mConnectedSince > 0) {
+			record.mConnectedTime += now - record.mConnectedSince;
+			record.mDownloaded += downloaded;
+			record.mConnectedSince = 0;
+		}
+		
+		if (failed) {
+			record.mFailures++;
+			record.mNextAttempt = now + Math.min(RETRY_DELAY << Math.min(record.mFailures - 1, 16), MAX_RETRY_DELAY);
+		} else {
+			// It has closed the connection, don't come back at once (nor sooner than a previous backoff).
+			record.mNextAttempt = Math.max(record.mNextAttempt, now + RETRY_DELAY);
+		}
+		
+		return record.mFailures < MAX_FAILURES;
+	}
+	
+	/**
+	 * Reserves a half-open slot.
+	 * @return true if a slot has been reserved
+	 */
+	private static boolean reserveSlot() {
+		while (true) {
+			int halfOpen = mHalfOpen.get();
+			if (halfOpen >= MAX_HALF_OPEN) return false;
+			if (mHalfOpen.compareAndSet(halfOpen, halfOpen + 1)) return true;
+		}
+	}
+	
+	/**
+	 * Returns the record of a peer, created if it doesn't exist.
+	 */
+	private PeerRecord getRecord(Peer peer) {
+		PeerRecord record = mRecords.get(peer.toString());
+		if (record == null) {
+			record = new PeerRecord();
+			mRecords.put(peer.toString(), record);
+		}
+		return record;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the score of a peer, higher is better.
+	 * @param peer the peer
+	 * @return the score of the peer
+	 */
+	public synchronized double getScore(Peer peer) {
+		PeerRecord record = mRecords.get(peer.toString());
+		return (record == null) ? PeerRecord.UNKNOWN_SCORE : record.getScore();
+	}
+	
+	/**
+	 * Returns the number of consecutive failures of a peer.
+	 * @param peer the peer
+	 * @return the number of consecutive failures
+	 */
+	public synchronized int getFailures(Peer peer) {
+		PeerRecord record = mRecords.get(peer.toString());
+		return (record == null) ? 0 : record.mFailures;
+	}
+	
+	/**
+	 * Returns when a peer can be dialed again.
+	 * @param peer the peer
+	 * @return the time of the next attempt (ms), 0 if at once
+	 */
+	public synchronized long getNextAttempt(Peer peer) {
+		PeerRecord record = mRecords.get(peer.toString());
+		return (record == null) ? 0 : record.mNextAttempt;
+	}
+	
+	/**
+	 * History of the connections with a peer.
+	 */
+	private static class PeerRecord {
+		
+		static final double UNKNOWN_SCORE = 0.5;	// Score of a peer never dialed
+		
+		int mAttempts;
+		int mSuccesses;
+		int mFailures;					// Consecutive
+		boolean mDialing;
+		long mNextAttempt;
+		long mConnectedSince;			// 0 if not connected
+		long mConnectedTime;			// Total time connected (ms)
+		long mDownloaded;				// Total bytes of data received
+		
+		/**
+		 * Ratio of the successful handshakes (smoothed so that a single try doesn't decide),
+		 * increased by the rate at which the peer sent us data.
+		 */
+		double getScore() {
+			double ratio = (mSuccesses + 1.0) / (mAttempts + 2.0);
+			double rate = (mConnectedTime > 0) ? mDownloaded * 1000.0 / mConnectedTime : 0; // bytes/s
+			return ratio * (1 + Math.log(1 + rate / 1024));
+		}
+	}
+}
@@ -20,46 +20,83 @@
 package eblast.torrent.peer;
 
 import java.io.EOFException;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import eblast.crypto.KeyGenerator;
+import eblast.crypto.AEADSession;
+import eblast.crypto.KeyExchange;
+import eblast.crypto.KeyPool;
 import eblast.crypto.RSAKeyPair;
 import eblast.crypto.XORKeyPair;
+import eblast.io.AEADInputStream;
+import eblast.io.AEADOutputStream;
 import eblast.io.CounterInputStream;
 import eblast.io.CounterOutputStream;
 import eblast.io.CryptoInputStream;
 import eblast.io.CryptoOutputStream;
+import eblast.io.ThrottledInputStream;
+import eblast.io.ThrottledOutputStream;
+import eblast.io.TokenBucket;
 import eblast.io.SpeedPair;
 import eblast.log.Log;
 import eblast.settings.EBlastSettings;
+import eblast.settings.EncryptionSettings;
+import eblast.torrent.TaskPools;
+import eblast.torrent.TaskPools.Pool;
 import eblast.torrent.Torrent;
 import eblast.torrent.TorrentManager;
 import eblast.torrent.messages.*;
 import eblast.torrent.piece.Piece;
+import eblast.torrent.piece.PieceBitSet;
 import eblast.torrent.piece.PieceManager;
 
 /**
  * This class manage the action with and by a Peer. 
+ * <p>
+ * The connection is driven by a thread of the connection factory of the TaskPools.
+ * With platform threads, the thread polls the socket and sends the messages in a loop.
+ * With virtual threads, it blocks on the reads and a second thread sends the messages,
+ * so that thousands of connections don't cost thousands of polling threads.
  *
  * @author David Dieulivol <david.dieulivol@gmail.com>
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 12.04.2011 - Initial version
  * @version 1.1 - 21.05.2011 - Ajout de l'encryption
+ * @version 1.2 - 17.10.2026 - Protocol steps shared with the NIOPeerHandler
+ * @version 1.3 - 17.10.2026 - Availability of the pieces reported to the PieceManager
+ * @version 1.4 - 17.10.2026 - Endgame: duplicate requests and cancel messages
+ * @version 1.5 - 17.10.2026 - Number of pending requests and timeout adapted to the peer
+ * @version 1.6 - 17.10.2026 - Bytes of data exchanged, for the Choker
+ * @version 1.7 - 17.10.2026 - Download/upload rate limiters
+ * @version 1.8 - 17.10.2026 - Messages released once handled
+ * @version 1.9 - 17.10.2026 - Messages sent in batches, one flush per loop
+ * @version 2.0 - 17.10.2026 - aead encryption mode
+ * @version 2.1 - 17.10.2026 - Keys taken from the KeyPool
+ * @version 2.2 - 17.10.2026 - Pieces of the peer kept in a PieceBitSet
+ * @version 2.3 - 17.10.2026 - Runnable launched by the TaskPools, blocking reads with virtual threads
+ * @version 2.4 - 17.10.2026 - Connect and handshake timeouts, handshake reported to the torrent
+ * @version 2.5 - 17.10.2026 - Bytes of the peer wasted in corrupted pieces
+ * @version 2.6 - 17.10.2026 - Disconnection reported once to the torrent
+ * @version 2.7 - 17.10.2026 - Disk and hashing work of the messages given to runTask()
  */
-public class PeerHandler extends Thread {
+public class PeerHandler implements Runnable {
 	
 	private static final int MAX_REQUEST = 100;
 	private static final long ACTIVE_DELAY = 100L;
 	private static final long ONE_MINUTE_AND_A_HALF = 90000L;	// 1'30" in milliseconds
+	private static final int FLUSH_THRESHOLD = 1 << 16;			// Bytes buffered before being written anyway (64 KiB)
 	
 	private Torrent mTorrent;
 	private Peer mPeer;
@@ -69,16 +106,17 @@ public class PeerHandler extends Thread {
 	private List<Request> mPendingRequests;			// Request messages that we have to send to the remote peer.
 	private List<Message> mMessagesToSendQueue;		// All the other types of messages that we have to send to the remote peer.
 	
-	private boolean mAmIInterested;					// Am I Interested ?
-	private boolean mAmIChoked;						// Am I choked ?
-	private boolean mIsHeInterested;				// Is he interested ?
-	private boolean mIsHeChoked;						// Is he choked ?
+	private volatile boolean mAmIInterested;		// Am I Interested ?
+	private volatile boolean mAmIChoked;			// Am I choked ?
+	private volatile boolean mIsHeInterested;		// Is he interested ?
+	private volatile boolean mIsHeChoked;			// Is he choked ?
 	
 	private Socket mSocket;
 	private boolean mAccepted;						// Has he been accepted by the PeerAccepter ?
 	
 	private CounterInputStream mCounterInput;
 	private CounterOutputStream mCounterOutput;
+	private BufferedOutputStream mBufferedOutput;	// Coalesces the messages, flushed once per loop
 
 	private MessageInputStream mInput;
 	private MessageOutputStream mOutput;
@@ -90,13 +128,29 @@ public class PeerHandler extends Thread {
 	private XORKeyPair mMySymmetricKeyPair;
 	
 	
-	private Set<Integer> mPeerPiecesAvailable;		// Pieces that the remote peer possess.
+	private PieceBitSet mPeerPiecesAvailable;		// Pieces that the remote peer possess.
+	private RequestPipeline mPipeline;				// Number of requests to keep pending with the peer.
+	
+	private volatile long mDownloadedBytes;			// Bytes of data received from the peer
+	private volatile long mUploadedBytes;			// Bytes of data sent to the peer
+	
+	private volatile long mMessagesSent;			// Messages flushed to the peer
+	private volatile long mFlushes;					// Number of flushes (system calls) to send them
+	private int mUnflushedMessages;					// Messages written but not flushed yet
+	
+	private TokenBucket mDownloadBucket;			// Limits the rate of this peer (child of the torrent limiter)
+	private TokenBucket mUploadBucket;
 	
 	private Date mNextKeepAlive;					// Last time the KeepAlive message has been sent.
 	
 	private boolean mPeerIsEncrypted;
 	
-	private boolean mActive;
+	private volatile boolean mActive;
+	private final AtomicBoolean mDisconnected = new AtomicBoolean();	// The disconnection is only reported once
+	
+	private boolean mBlockingReads;					// Reads blocked on, messages sent by the writer thread
+	private final Object mWriterSignal = new Object();
+	private boolean mWriterWoken;					// Work for the writer thread (guarded by mWriterSignal)
 
 	/**
 	 * Default constructor.
@@ -104,8 +158,16 @@ public class PeerHandler extends Thread {
 	 * @param peer remote peer
 	 */
 	public PeerHandler(Torrent torrent, Peer peer) {
-		super("PeerHandler(" + peer + ")");
-		
+		this(torrent, peer, true);
+	}
+	
+	/**
+	 * Constructor used by the subclasses that drive the connection by themselves.
+	 * @param torrent Torrent related to the torrent
+	 * @param peer remote peer
+	 * @param threaded true if the connection has to be managed by a thread of its own
+	 */
+	protected PeerHandler(Torrent torrent, Peer peer, boolean threaded) {
 		Log.d("PeerHandler", "New PeerHandler with " + peer); // Debug
 		
 		mSocket = peer.getSocket();
@@ -124,7 +186,11 @@ public class PeerHandler extends Thread {
 		mMessagesToSendQueue = Collections.synchronizedList(new LinkedList<Message>());
 		mPendingRequests = Collections.synchronizedList(new LinkedList<Request>());
 		
-		mPeerPiecesAvailable = new HashSet<Integer>();
+		mPeerPiecesAvailable = new PieceBitSet(mTorrent.getPieceCount());
+		mPipeline = new RequestPipeline();
+		
+		mDownloadBucket = new TokenBucket(mSettings.getPeerDownloadLimit() * 1024L, mTorrent.getDownloadBucket());
+		mUploadBucket = new TokenBucket(mSettings.getPeerUploadLimit() * 1024L, mTorrent.getUploadBucket());
 		
 		mAmIInterested = false;
 		mAmIChoked = true;
@@ -135,7 +201,14 @@ public class PeerHandler extends Thread {
 		
 		mActive = true;
 		
-		this.start();
+		if (threaded) {
+			TaskPools pools = TorrentManager.getInstance().getTaskPools();
+			mBlockingReads = pools.isVirtualThreadsUsed();
+			
+			Thread thread = pools.getConnectionThreadFactory().newThread(this);
+			thread.setName("PeerHandler(" + peer + ")");
+			thread.start();
+		}
 	}
 	
 	/**
@@ -143,12 +216,10 @@ public class PeerHandler extends Thread {
 	 * 2. Try to handshake
 	 * 3. Send our BitField
 	 * 4. In a loop:
-	 * 		a. Clean all request older than five seconds
-	 * 		b. Get and manage at most 10 messages
-	 * 		c. Send a KeepAlive message if necessary
-	 * 		d. Create and send (at most) requests
-	 * 		e. Send all messages in the queue
-	 * 		f. Update the peer informations
+	 * 		a. Get and manage at most 10 messages
+	 * 		b. Send the messages (see sendMessages)
+	 * 	or, with blocking reads, manage the messages as they come while
+	 * 	the writer thread sends the messages.
 	 */
 	public void run() {
 		
@@ -158,14 +229,18 @@ public class PeerHandler extends Thread {
 				
 				// Try to connect to the peer and get I/O Stream
 				Log.d("PeerHandler", "Try connect to " + mPeer);
-				mSocket = new Socket(mPeer.getIP(), mPeer.getPort()); // We create a new Socket.
+				mSocket = new Socket(); // We create a new Socket.
+				mSocket.connect(new InetSocketAddress(mPeer.getIP(), mPeer.getPort()), PeerDialer.CONNECT_TIMEOUT);
 			}
+			mSocket.setSoTimeout(PeerDialer.CONNECT_TIMEOUT); // Until the handshake is done
 			
-			mCounterInput = new CounterInputStream(mSocket.getInputStream());
-			mCounterOutput = new CounterOutputStream(mSocket.getOutputStream());
+			mCounterInput = new CounterInputStream(new ThrottledInputStream(mSocket.getInputStream(), mDownloadBucket));
+			mCounterOutput = new CounterOutputStream(new ThrottledOutputStream(mSocket.getOutputStream(), mUploadBucket));
+			
+			mBufferedOutput = new BufferedOutputStream(mCounterOutput, FLUSH_THRESHOLD);
 			
 			mInput = new MessageInputStream(mCounterInput);
-			mOutput = new MessageOutputStream(mCounterOutput);
+			mOutput = new MessageOutputStream(mBufferedOutput);
 
 		} catch (UnknownHostException e) {
 			Log.e("PeerHandler", "Unknown host (" + mPeer + ")");
@@ -186,52 +261,42 @@ public class PeerHandler extends Thread {
 				disconnect();
 				return;
 			}
+			mTorrent.peerConnected(this);
 			
 			// Try to activate the encryption if possible
 			if (mSettings.isEncryptionActivated() && mPeerIsEncrypted) {
-				activateEncryption();
+				if (isAEADUsed()) {
+					activateAEAD();
+				} else {
+					activateEncryption();
+				}
 			}
 			
+			mSocket.setSoTimeout(0);
+			
 			// 3. Send the BitField through the OutputStream
 			BitField bitField = new BitField(mTorrent.getPieces());
 			mOutput.write(bitField);
+			mUnflushedMessages++;
 
 			// 4. In a loop
-			while (mActive && !mTorrent.getTorrentState().equals(Torrent.TorrentStates.stopped)) {
-				
-				// a. Clean old request
-				cleanOldRequest();
-				
-				// b. Get and manage Message (with the MessageHandler by Visitor)
-				for (int i=0; i<MAX_REQUEST && mInput.available() > 0; i++) { // At most 10 requests
-					Message msg = mInput.readMessage();
-					if (msg != null) {
-						msg.accept(mMessageHandler);
+			if (mBlockingReads) {
+				readLoop();
+			} else {
+				while (isRunning()) {
+					
+					// a. Get and manage Message (with the MessageHandler by Visitor)
+					for (int i=0; i<MAX_REQUEST && mInput.available() > 0; i++) { // At most 10 requests
+						handleMessage(mInput.readMessage());
 					}
+					
+					// b. Send the messages
+					sendMessages();
+					
+					try {
+						Thread.sleep(ACTIVE_DELAY);
+					} catch (InterruptedException e) {}
 				}
-
-				// c. Keep the torrent alive
-				keepAlive();
-				
-				// d. Create and Send requests to the peer
-				for (int i=0; i<MAX_REQUEST; i++) { // At most 10 requests
-					createAndManageRequest();
-				}
-				
-				// e. Send all message from the queue
-				synchronized (mMessagesToSendQueue) {
-					for (Message m: mMessagesToSendQueue) {
-						mOutput.write(m);
-					}
-					mMessagesToSendQueue.clear(); // All message has been sent, we can clear them now.
-				}
-				
-				// f. Update informations about the peer
-				updatePeerInformation();
-				
-				try {
-					sleep(ACTIVE_DELAY);
-				} catch (InterruptedException e) {}
 			}
 			
 		} catch (NullPointerException e) {
@@ -256,6 +321,100 @@ public class PeerHandler extends Thread {
 		Log.i("PeerHandler", "Disconnected from " + mPeer);
 	}
 	
+	/**
+	 * Returns true while the connection has to be managed.
+	 */
+	private boolean isRunning() {
+		return mActive && !mTorrent.getTorrentState().equals(Torrent.TorrentStates.stopped);
+	}
+	
+	/**
+	 * 1. Clean all request older than the timeout of the peer
+	 * 2. Send a KeepAlive message if necessary
+	 * 3. Create and send (at most) requests
+	 * 4. Send all messages in the queue, with a single flush
+	 * 5. Update the peer informations
+	 */
+	private void sendMessages() throws IOException {
+		cleanOldRequest();
+		keepAlive();
+		createRequests();
+		
+		for (Message m: pollMessages()) {
+			mOutput.write(m);
+			mUnflushedMessages++;
+		}
+		if (mUnflushedMessages > 0) {
+			mOutput.flush();
+			messagesFlushed(mUnflushedMessages);
+			mUnflushedMessages = 0;
+		}
+		
+		updatePeerInformation();
+	}
+	
+	/**
+	 * Launches the writer thread, then blocks on the reads and manages each message as it comes.
+	 */
+	private void readLoop() throws IOException, MessageException {
+		Thread writer = TorrentManager.getInstance().getTaskPools().getConnectionThreadFactory().newThread(new Runnable() {
+			public void run() {
+				writeLoop();
+			}
+		});
+		writer.setName("PeerWriter(" + mPeer + ")");
+		writer.start();
+		
+		try {
+			while (isRunning()) {
+				handleMessage(mInput.readMessage());
+				wakeWriter(); // The message may unchoke us or need an answer
+			}
+		} finally {
+			mActive = false;
+			wakeWriter();
+		}
+	}
+	
+	/**
+	 * Writer thread: sends the messages when it's woken, or every ACTIVE_DELAY.
+	 * On an error, the connection is closed so that the blocked read fails and disconnects.
+	 */
+	private void writeLoop() {
+		try {
+			while (isRunning()) {
+				synchronized (mWriterSignal) {
+					if (!mWriterWoken) {
+						mWriterSignal.wait(ACTIVE_DELAY);
+					}
+					mWriterWoken = false;
+				}
+				if (isRunning()) {
+					sendMessages();
+				}
+			}
+		} catch (InterruptedException e) {
+			closeConnection();
+		} catch (NullPointerException e) {
+			closeConnection(); // Closed by the reader meanwhile
+		} catch (IOException e) {
+			Log.e("PeerHandler", "Connexion error with " + mPeer);
+			closeConnection();
+		}
+	}
+	
+	/**
+	 * Wakes the writer thread up (with blocking reads only).
+	 */
+	private void wakeWriter() {
+		if (mBlockingReads) {
+			synchronized (mWriterSignal) {
+				mWriterWoken = true;
+				mWriterSignal.notify();
+			}
+		}
+	}
+	
 	/**
 	 * Disconnect the Peer from the Torrent, because of an error.
 	 */
@@ -274,11 +433,28 @@ public class PeerHandler extends Thread {
 	 * Disconnect from the peer.
 	 * @param error An error has occured ?
 	 */
-	private void disconnect(boolean error) {
-		Log.d("PeerHandler", "Disconnected(" + error + ") from " + mPeer);
+	protected void disconnect(boolean error) {
+		// The error paths and the end of run() may both get here.
+		if (!mDisconnected.compareAndSet(false, true)) return;
+		
+		Log.d("PeerHandler", "Disconnected(" + error + ") from " + mPeer
+				+ " (" + mMessagesSent + " messages sent in " + mFlushes + " flushes)");
 		
 		mActive = false;
 		
+		closeConnection();
+		
+		// His pieces aren't available anymore
+		setPeerAvailablePieces(new PieceBitSet(mTorrent.getPieceCount()));
+		
+		// Remove this PeerHandler from the Torrent
+		mTorrent.removePeerHandler(this, error);
+	}
+	
+	/**
+	 * Closes the connection with the peer (the reader and writer threads may both close it).
+	 */
+	protected synchronized void closeConnection() {
 		if (mSocket != null) {
 			try {
 				mSocket.close();
@@ -291,26 +467,36 @@ public class PeerHandler extends Thread {
 				mPeer.setSocket(null);
 			}
 		}
-		
-		// Remove this PeerHandler from the Torrent
-		mTorrent.removePeerHandler(this, error);
 	}
 	
 	/**
-	 * Clean all request older than 5 seconds
+	 * Clean all request older than the timeout measured for this peer
 	 */
 	public void cleanOldRequest() {
+		long timeout = mPipeline.getTimeout();
+		List<Request> expired = new ArrayList<Request>();
+		
 		synchronized (mPendingRequests) {
 			Request r;
 			for (int i=0; i<mPendingRequests.size(); i++) {
 				r = mPendingRequests.get(i);
-				if (r.isOld()) {
+				if (r.isOld(timeout)) {
 					removeRequest(r);
-					mPieceManager.removeRequest(r);
+					expired.add(r);
 					i--;
 				}
 			}
 		}
+		
+		// A single slowdown for the sweep, whatever the number of expired requests.
+		if (!expired.isEmpty()) {
+			mPipeline.requestTimedOut();
+		}
+		
+		// Out of the lock: the piece takes the lock of its requests, which it holds when it cancels ours.
+		for (Request r: expired) {
+			mPieceManager.removeRequest(r);
+		}
 	}
 	
 	/**
@@ -321,7 +507,8 @@ public class PeerHandler extends Thread {
 
 		if (now.after(mNextKeepAlive)) { // Two minutes has been spent ?
 			Log.d("KeepAlive", "Sent to " + mPeer);
-			mOutput.write(0);	// Send the KeepAlive Message.
+			mOutput.writeInt(0);	// Send the KeepAlive Message (length of zero).
+			mUnflushedMessages++;
 			mNextKeepAlive.setTime(now.getTime() + ONE_MINUTE_AND_A_HALF);
 		}
 	}
@@ -331,7 +518,9 @@ public class PeerHandler extends Thread {
 	 * @return true if the handshake has worked, false otherwise
 	 */
 	private boolean handshake() throws IOException {
-		mOutput.write(new Handshake(mTorrent.getInfoHash(), mTorrent.getPeerID(), mSettings.isEncryptionActivated()));
+		mOutput.write(new Handshake(mTorrent.getInfoHash(), mTorrent.getPeerID(), mSettings.isEncryptionActivated(),
+				mSettings.getEncryptionSettings().getMode() == EncryptionSettings.Mode.aead));
+		mOutput.flush();
 		
 		if (!mAccepted) { // Has the handshake already been received ?
 			// Read the answer Handshake from the peer.
@@ -351,26 +540,126 @@ public class PeerHandler extends Thread {
 			 * If the initiator of the connection receives a handshake in which the peer_id does not match the expected peerid,
 			 * then the initiator is expected to drop the connection.
 			 */
-			if (handshake.getInfoHash().equals(mTorrent.getInfoHash())){
-				mPeer.setID(handshake.getPeerId());
-				mPeerIsEncrypted = handshake.isEncryptionActivated();
-				mPeer.setEncryption(mPeerIsEncrypted);
-				return true;
-			}
+			return acceptHandshake(handshake);
 		}
 		
 		return mAccepted;
 	}
 	
+	/**
+	 * Checks the Handshake received from the peer and stores his informations.
+	 * @param handshake Handshake received from the peer
+	 * @return true if the connection can go on, false if it has to be dropped
+	 */
+	protected boolean acceptHandshake(Handshake handshake) {
+		if (handshake.getInfoHash().equals(mTorrent.getInfoHash())){
+			mPeer.setID(handshake.getPeerId());
+			mPeerIsEncrypted = handshake.isEncryptionActivated();
+			mPeer.setEncryption(mPeerIsEncrypted);
+			mPeer.setAEAD(handshake.isAEADActivated());
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Manages a Message received from the peer (with the MessageHandler by Visitor).
+	 * @param msg the received Message, null for a KeepAlive
+	 */
+	protected void handleMessage(Message msg) {
+		if (msg != null) {
+			try {
+				msg.accept(mMessageHandler);
+			} finally {
+				msg.release(); // The pooled buffers go back to their pool.
+			}
+		}
+	}
+	
+	/**
+	 * Creates requests until the pipeline of the peer is full (at most MAX_REQUEST at once).
+	 */
+	protected void createRequests() {
+		for (int i=0; i<MAX_REQUEST && createAndManageRequest(); i++);
+	}
+	
+	/**
+	 * Removes and returns all the messages waiting to be sent to the peer.
+	 * @return the messages to send, in their order of arrival
+	 */
+	protected List<Message> pollMessages() {
+		synchronized (mMessagesToSendQueue) {
+			List<Message> messages = new LinkedList<Message>(mMessagesToSendQueue);
+			mMessagesToSendQueue.clear(); // All message are going to be sent, we can clear them now.
+			
+			for (Message m: messages) {
+				if (m instanceof Request) {
+					((Request) m).setSent(); // The round-trip time starts now
+				} else if (m instanceof SendBlock) {
+					mUploadedBytes += ((SendBlock) m).getBlockLength();
+				}
+			}
+			return messages;
+		}
+	}
+	
+	/**
+	 * Accounts the messages sent to the peer by a single flush.
+	 * @param count number of messages flushed
+	 */
+	protected void messagesFlushed(int count) {
+		mMessagesSent += count;
+		mFlushes++;
+	}
+	
+	/**
+	 * Returns true if both peers prefer the aead encryption mode.
+	 */
+	private boolean isAEADUsed() {
+		return mSettings.getEncryptionSettings().getMode() == EncryptionSettings.Mode.aead && mPeer.isAEAD();
+	}
+	
+	/**
+	 * Activate the aead encryption: both peers send their Diffie-Hellman public key
+	 * (in a SendSymmetricKey), then the data are exchanged by authenticated records.
+	 */
+	private void activateAEAD() throws IOException, MessageException {
+		try {
+			KeyExchange exchange = new KeyExchange();
+			
+			mOutput.write(new SendSymmetricKey(exchange.getPublicKey()));
+			mOutput.flush();
+			
+			// If the peer didn't send us his public key, we bail out.
+			SendSymmetricKey hisKey;
+			try {
+				hisKey = (SendSymmetricKey)mInput.readMessage();
+			} catch (ClassCastException e) {
+				disconnectFromError();
+				return;
+			}
+			
+			AEADSession session = exchange.agree(hisKey.getKey());
+			
+			// Change the regular I/O Streams to their encrypted versions.
+			mInput = new MessageInputStream(new AEADInputStream(mCounterInput, session));
+			mOutput = new MessageOutputStream(new AEADOutputStream(mBufferedOutput, session));
+			
+		} catch (GeneralSecurityException e) {
+			throw new IOException("Key exchange error: " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Activate the encryption by sending/receiving both RSA and Symmetric Key.
 	 */
 	private void activateEncryption() throws IOException, MessageException {
 		// Create a RSAKeyPair.
-		mRSAKeyPair = KeyGenerator.generateRSAKeyPair(mSettings.getEncryptionSettings().getRSAKeylength());
+		mRSAKeyPair = KeyPool.getInstance().takeRSAKeyPair(mSettings.getEncryptionSettings().getRSAKeylength());
 		
 		// Create a SymmetricKeyPair.		
-		mMySymmetricKeyPair = KeyGenerator.generateXORKeyPair(mSettings.getEncryptionSettings().getSymmetricKeylength());
+		mMySymmetricKeyPair = KeyPool.getInstance().takeXORKeyPair(mSettings.getEncryptionSettings().getSymmetricKeylength());
 		
 		// Send a SendRSAKey to the client that contains our RSA key.
 		mOutput.write(new SendRSAKey(mSettings.getEncryptionSettings().getRSAKeylength(), mRSAKeyPair.getPublicKey(), mRSAKeyPair.getModulo()));
@@ -395,7 +684,7 @@ public class PeerHandler extends Thread {
 		
 		// Change the regular I/O Streams to their RSA-encrypted versions.
 		mInput = new MessageInputStream(new CryptoInputStream(mCounterInput, mRSAKeyPair));
-		mOutput = new MessageOutputStream(new CryptoOutputStream(mCounterOutput, hisRSAKeyPair));
+		mOutput = new MessageOutputStream(new CryptoOutputStream(mBufferedOutput, hisRSAKeyPair));
 		
 		// Send the XORKeyPair onto the RSA-encrypted channel...
 		mOutput.write(new SendSymmetricKey(mMySymmetricKeyPair.getKey()));
@@ -414,13 +703,21 @@ public class PeerHandler extends Thread {
 		
 		// Change the regular I/O Streams to their XOR-encrypted versions.
 		mInput = new MessageInputStream(new CryptoInputStream(mCounterInput, mMySymmetricKeyPair));
-		mOutput = new MessageOutputStream(new CryptoOutputStream(mCounterOutput, hisSymmetricKeyPair));
+		mOutput = new MessageOutputStream(new CryptoOutputStream(mBufferedOutput, hisSymmetricKeyPair));
 	}
 	
-	private void createAndManageRequest() {
-		if (mPeerPiecesAvailable == null) return;
+	/**
+	 * Creates a request for the peer if it has a piece that we need and if its pipeline isn't full.
+	 * @return true if a request has been created
+	 */
+	private boolean createAndManageRequest() {
+		if (mPeerPiecesAvailable == null) return false;
+		
+		// Don't bother the PiecePicker if the peer has nothing that we don't have already.
+		if (mPeerPiecesAvailable.nextSetBitAndNot(mTorrent.getReceivedPieces(), 0) < 0) return false;
+		if (!mAmIChoked && mAmIInterested && mPendingRequests.size() >= mPipeline.getDepth()) return false;
 		
-		Piece piece = mPieceManager.getNeededAndAvailablePiece( mPeerPiecesAvailable );
+		Piece piece = mPieceManager.getNeededAndAvailablePiece( mPeerPiecesAvailable, this );
 
 		if (piece != null) { // The peer doesn't have any interesting piece.
 			
@@ -430,24 +727,40 @@ public class PeerHandler extends Thread {
 				}
 				mAmIInterested = true;
 				
-			} else if (!mAmIChoked && (mPendingRequests.size() <= 10)) {
-				int blockIndex = piece.getLeastRequestedBlockIndex();
+			} else if (!mAmIChoked) {
+				int blockIndex = piece.getLeastRequestedBlockIndex(this); // Never the same block twice to the same peer
 				if (blockIndex >= 0) {
 					Request request = new Request(piece.getIndex(), piece.getBlockOffset(blockIndex), piece.getBlockSize(blockIndex));
 					addRequest(request);
+					return true;
 				}
 			}
 		}
+		return false;
 	}
 	
-	private void updatePeerInformation() {
-		mPeer.setPercent( 100.0 * mPeerPiecesAvailable.size() / mTorrent.getPieceCount() );
+	/**
+	 * Updates the percentage of the torrent owned by the peer.
+	 */
+	protected void updatePeerInformation() {
+		mPeer.setPercent( 100.0 * mPeerPiecesAvailable.cardinality() / mTorrent.getPieceCount() );
+	}
+	
+	/**
+	 * Runs a work of the MessageHandler that reads or writes the disk, or hashes a piece.
+	 * This PeerHandler has a thread of its own, the task is run at once.
+	 * @param pool pool that suits the task
+	 * @param task the task, that sends its answers with addMessage()
+	 */
+	public void runTask(Pool pool, Runnable task) {
+		task.run();
 	}
 	
 	public void addMessage(Message msg) {
 		synchronized (mMessagesToSendQueue) {
 			mMessagesToSendQueue.add(msg);
 		}
+		wakeWriter();
 	}
 	
 	/**
@@ -477,9 +790,70 @@ public class PeerHandler extends Thread {
 		}
 	}
 	
-	public void addPeerAvailablePiece(int index) {
+	/**
+	 * Cancels a Block request because the block has been received from another peer.
+	 * If the request has already been sent, a Cancel message is sent to the peer.
+	 * @param request the request to cancel.
+	 */
+	public void cancelRequest(Request request) {
+		boolean queued;
+		synchronized (mMessagesToSendQueue) {
+			queued = mMessagesToSendQueue.remove(request);
+		}
+		boolean pending;
+		synchronized (mPendingRequests) {
+			pending = mPendingRequests.remove(request);
+		}
+		
+		if (pending && !queued && mActive) {
+			addMessage(new Cancel(request));
+			mPieceManager.cancelSent();
+		}
+	}
+	
+	/**
+	 * The peer has sent the block of one of our requests, the request isn't pending anymore.
+	 * @param index index of the piece
+	 * @param begin offset of the block into the piece
+	 */
+	public void requestAnswered(int index, int begin) {
+		synchronized (mPendingRequests) {
+			for (Iterator<Request> it = mPendingRequests.iterator(); it.hasNext();) {
+				Request r = it.next();
+				if (r.getIndex() == index && r.getBegin() == begin) {
+					it.remove();
+					mDownloadedBytes += r.getBlockLength();
+					mPipeline.blockReceived(new Date().getTime() - r.getSentTime(), r.getBlockLength());
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Removes a block that hasn't been sent yet, because the peer cancelled its request.
+	 * @param cancel the Cancel message of the peer
+	 */
+	public void cancelUpload(Cancel cancel) {
+		synchronized (mMessagesToSendQueue) {
+			for (Iterator<Message> it = mMessagesToSendQueue.iterator(); it.hasNext();) {
+				Message m = it.next();
+				if (m instanceof SendBlock) {
+					SendBlock sb = (SendBlock) m;
+					if (sb.getIndex() == cancel.getIndex() && sb.getBegin() == cancel.getBegin()) {
+						it.remove();
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	public synchronized void addPeerAvailablePiece(int index) {
 		Log.d("PeerHandler", mPeer + " have the piece " + index + "/" + (mTorrent.getPieceCount()-1));
-		mPeerPiecesAvailable.add(index);
+		if (mActive && mPeerPiecesAvailable.set(index)) {
+			mPieceManager.addAvailablePiece(index);
+		}
 	}
 	
 	public boolean equals(Object o) {
@@ -494,11 +868,51 @@ public class PeerHandler extends Thread {
 	
 	/************************ GETTERS / SETTERS *************************/
 	
+	/**
+	 * Returns the rate limiter of the data received from the peer.
+	 * @return the download TokenBucket of this peer
+	 */
+	public TokenBucket getDownloadBucket() {
+		return mDownloadBucket;
+	}
+	
+	/**
+	 * Returns the rate limiter of the data sent to the peer.
+	 * @return the upload TokenBucket of this peer
+	 */
+	public TokenBucket getUploadBucket() {
+		return mUploadBucket;
+	}
+	
+	/**
+	 * Returns the number of messages waiting to be sent to the peer.
+	 * @return depth of the send queue
+	 */
+	public int getSendQueueDepth() {
+		return mMessagesToSendQueue.size();
+	}
+	
+	/**
+	 * Returns the number of messages sent to the peer.
+	 * @return number of messages flushed
+	 */
+	public long getMessagesSent() {
+		return mMessagesSent;
+	}
+	
+	/**
+	 * Returns the number of flushes used to send the messages (one per batch).
+	 * @return number of flushes
+	 */
+	public long getFlushCount() {
+		return mFlushes;
+	}
+	
 	/**
 	 * Returns the number of peers available
 	 * @return number of peers available
 	 */
-	public Set<Integer> getPeerAvailablePieces() {
+	public PieceBitSet getPeerAvailablePieces() {
 		return mPeerPiecesAvailable;
 	}
 	
@@ -506,9 +920,13 @@ public class PeerHandler extends Thread {
 	 * Sets the peers that are available
 	 * @param set peers available
 	 */
-	public void setPeerAvailablePieces(Set<Integer> set) {
+	public synchronized void setPeerAvailablePieces(PieceBitSet set) {
 		if (set != null) { // Assign the set only if it's not null.
+			mPieceManager.removeAvailablePieces(mPeerPiecesAvailable);
 			mPeerPiecesAvailable = set;
+			if (mActive) {
+				mPieceManager.addAvailablePieces(set);
+			}
 		}
 	}
 
@@ -584,6 +1002,14 @@ public class PeerHandler extends Thread {
 		return mPeer;
 	}
 	
+	/**
+	 * Returns true while the connection with the peer is alive.
+	 * @return true while the connection with the peer is alive
+	 */
+	public boolean isActive() {
+		return mActive;
+	}
+	
 	/**
 	 * Returns the torrent contained into this Object
 	 * @return the torrent contained into this Object
@@ -602,4 +1028,28 @@ public class PeerHandler extends Thread {
 		
 		return new SpeedPair(download, upload);
 	}
+	
+	/**
+	 * Returns the number of bytes of data received from the peer (for our requests).
+	 * @return bytes of data received
+	 */
+	public long getDownloadedBytes() {
+		return mDownloadedBytes;
+	}
+	
+	/**
+	 * Returns the number of bytes received from the peer and discarded because their piece failed its Hash.
+	 * @return bytes wasted by the peer
+	 */
+	public long getWastedBytes() {
+		return mTorrent.getBanList().getWastedBytes(mPeer.getIP());
+	}
+	
+	/**
+	 * Returns the number of bytes of data sent to the peer.
+	 * @return bytes of data sent
+	 */
+	public long getUploadedBytes() {
+		return mUploadedBytes;
+	}
 }
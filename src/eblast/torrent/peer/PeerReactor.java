@@ -0,0 +1,251 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.peer;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import eblast.log.Log;
+import eblast.torrent.messages.MessageException;
+
+/**
+ * This class is a selector loop shared by all the torrents.
+ * It drives every NIOPeerHandler through the readiness events of its channel,
+ * so a single thread manages all the connections.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - PeerHandlers waiting for the rate limiters
+ */
+public class PeerReactor extends Thread {
+	
+	private static final long TICK_DELAY = 1000L;	// Delay between two periodic works on every connection.
+	private static final long THROTTLE_DELAY = 50L;	// Delay before retrying the connections limited by their rate.
+	
+	private Selector mSelector;
+	private Queue<NIOPeerHandler> mRegistrations;	// PeerHandlers waiting to be registered into the selector.
+	private Queue<NIOPeerHandler> mWakeups;			// PeerHandlers that have new messages to send.
+	private Set<NIOPeerHandler> mThrottled;			// PeerHandlers waiting for tokens (only used by the loop).
+	private volatile boolean mActive;
+	
+	/**
+	 * Default constructor. Opens the selector and starts the loop.
+	 * @throws IOException
+	 */
+	public PeerReactor() throws IOException {
+		super("PeerReactor");
+		
+		mSelector = Selector.open();
+		mRegistrations = new ConcurrentLinkedQueue<NIOPeerHandler>();
+		mWakeups = new ConcurrentLinkedQueue<NIOPeerHandler>();
+		mThrottled = new LinkedHashSet<NIOPeerHandler>();
+		mActive = true;
+		
+		setDaemon(true);
+		start();
+	}
+	
+	/**
+	 * Adds a PeerHandler to this reactor.
+	 * @param peerHandler PeerHandler to drive
+	 */
+	public void register(NIOPeerHandler peerHandler) {
+		mRegistrations.add(peerHandler);
+		mSelector.wakeup();
+	}
+	
+	/**
+	 * Asks the reactor to send the queued messages of a PeerHandler.
+	 * @param peerHandler PeerHandler that has some messages to send
+	 */
+	public void wakeup(NIOPeerHandler peerHandler) {
+		mWakeups.add(peerHandler);
+		mSelector.wakeup();
+	}
+	
+	/**
+	 * Resumes a PeerHandler after a short delay, when the rate limiters have new tokens.
+	 * Must be called from the loop of the reactor.
+	 * @param peerHandler PeerHandler that has been throttled
+	 */
+	void throttle(NIOPeerHandler peerHandler) {
+		mThrottled.add(peerHandler);
+	}
+	
+	/**
+	 * Stops the reactor and closes all its connections.
+	 */
+	public void halt() {
+		mActive = false;
+		mSelector.wakeup();
+	}
+	
+	/**
+	 * Main loop:
+	 * 1. Register the new PeerHandlers
+	 * 2. Dispatch the readiness events
+	 * 3. Resume the PeerHandlers limited by their rate
+	 * 4. Do the periodic work of every PeerHandler
+	 */
+	public void run() {
+		long nextTick = new Date().getTime() + TICK_DELAY;
+		long nextResume = 0;
+		
+		while (mActive) {
+			try {
+				mSelector.select(mThrottled.isEmpty() ? TICK_DELAY : THROTTLE_DELAY);
+			} catch (IOException e) {
+				Log.e("PeerReactor", "Selection error: " + e.getMessage());
+				break;
+			}
+			
+			// 1. Register the new PeerHandlers
+			NIOPeerHandler peerHandler;
+			while ((peerHandler = mRegistrations.poll()) != null) {
+				if (!peerHandler.isActive()) continue;
+				try {
+					peerHandler.register(mSelector);
+				} catch (IOException e) {
+					Log.e("PeerReactor", e.getMessage() + " with " + peerHandler.getPeer());
+					peerHandler.disconnectFromError();
+				}
+			}
+			
+			// 2. Dispatch the readiness events
+			Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				dispatch(key);
+			}
+			
+			while ((peerHandler = mWakeups.poll()) != null) {
+				process(peerHandler);
+			}
+			
+			// 3. Resume the PeerHandlers limited by their rate
+			long now = new Date().getTime();
+			if (!mThrottled.isEmpty() && now >= nextResume) {
+				NIOPeerHandler[] throttled = mThrottled.toArray(new NIOPeerHandler[0]);
+				mThrottled.clear();
+				for (NIOPeerHandler ph: throttled) {
+					resume(ph);
+				}
+				nextResume = now + THROTTLE_DELAY;
+			}
+			
+			// 4. Do the periodic work of every PeerHandler
+			if (now >= nextTick) {
+				for (SelectionKey key: mSelector.keys().toArray(new SelectionKey[0])) {
+					process((NIOPeerHandler)key.attachment());
+				}
+				nextTick = now + TICK_DELAY;
+			}
+		}
+		
+		// Close all the connections
+		for (SelectionKey key: mSelector.keys().toArray(new SelectionKey[0])) {
+			((NIOPeerHandler)key.attachment()).disconnect();
+		}
+		
+		try {
+			mSelector.close();
+		} catch (IOException e) {
+			// Nothing to do
+		}
+	}
+	
+	/**
+	 * Gives a readiness event to its PeerHandler.
+	 * @param key key selected
+	 */
+	private void dispatch(SelectionKey key) {
+		NIOPeerHandler peerHandler = (NIOPeerHandler)key.attachment();
+		
+		try {
+			if (key.isConnectable()) {
+				peerHandler.finishConnect();
+			}
+			if (key.isValid() && key.isReadable()) {
+				peerHandler.read();
+			}
+			if (key.isValid() && key.isWritable()) {
+				peerHandler.write();
+			}
+			
+		} catch (CancelledKeyException e) {
+			// The PeerHandler has been disconnected in the meantime.
+			
+		} catch (MessageException e) {
+			Log.e("PeerReactor", "Message error with " + peerHandler.getPeer());
+			peerHandler.disconnectFromError();
+			
+		} catch (IOException e) {
+			Log.e("PeerReactor", "Connexion error with " + peerHandler.getPeer());
+			peerHandler.disconnectFromError();
+		}
+	}
+	
+	/**
+	 * Lets a PeerHandler read and write again after having been throttled.
+	 * @param peerHandler PeerHandler to resume
+	 */
+	private void resume(NIOPeerHandler peerHandler) {
+		if (!peerHandler.isActive()) return;
+		
+		try {
+			peerHandler.resumeThrottled();
+			
+		} catch (CancelledKeyException e) {
+			// The PeerHandler has been disconnected in the meantime.
+			
+		} catch (IOException e) {
+			Log.e("PeerReactor", "Connexion error with " + peerHandler.getPeer());
+			peerHandler.disconnectFromError();
+		}
+	}
+	
+	/**
+	 * Does the periodic work of a PeerHandler.
+	 * @param peerHandler PeerHandler to process
+	 */
+	private void process(NIOPeerHandler peerHandler) {
+		try {
+			peerHandler.process();
+			
+		} catch (CancelledKeyException e) {
+			// The PeerHandler has been disconnected in the meantime.
+			
+		} catch (IOException e) {
+			Log.e("PeerReactor", "Connexion error with " + peerHandler.getPeer());
+			peerHandler.disconnectFromError();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.peer;
+
+import eblast.torrent.piece.Block;
+
+/**
+ * This class adapts the number of requests pipelined to a peer to the bandwidth-delay product
+ * of its connection. The round-trip time and the throughput are measured on the blocks received,
+ * so that a fast peer far away always has enough requests to saturate its link, and a slow peer
+ * doesn't keep blocks that other peers could send.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class RequestPipeline {
+	
+	public static final int MIN_DEPTH = 2;				// Requests always pipelined
+	public static final int INITIAL_DEPTH = 4;			// Requests pipelined before any measurement
+	public static final int MAX_DEPTH = 250;			// Upper bound of the pipeline
+	
+	public static final long MIN_TIMEOUT = 3000L;		// Minimum time to wait for a block (ms)
+	public static final long INITIAL_TIMEOUT = 10000L;	// Time to wait for a block before any measurement (ms)
+	public static final long MAX_TIMEOUT = 60000L;		// Maximum time to wait for a block (ms)
+	
+	private static final long RATE_WINDOW = 1000L;		// Period used to compute the throughput (ms)
+	private static final double PROBING_FACTOR = 1.5;	// Lets the pipeline grow until the link is saturated
+	
+	private double mSmoothedRTT;		// Smoothed round-trip time (ms), 0 before the first measurement
+	private long mMinRTT;				// Lowest round-trip time, without the queueing of our own requests (ms)
+	private double mRTTVariation;		// Variation of the round-trip time (ms)
+	private double mThroughput;			// Smoothed throughput (bytes/s), 0 before the first measurement
+	
+	private long mWindowStart;			// Beginning of the current throughput window
+	private long mWindowBytes;			// Bytes received during the current window
+	
+	/**
+	 * Constructor.
+	 */
+	public RequestPipeline() {
+		mWindowStart = System.currentTimeMillis();
+		mMinRTT = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Accounts a block received.
+	 * @param rtt time between the request being sent and the block being received (ms)
+	 * @param size size of the block
+	 */
+	public synchronized void blockReceived(long rtt, int size) {
+		blockReceived(rtt, size, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Accounts a block received.
+	 * @param rtt time between the request being sent and the block being received (ms)
+	 * @param size size of the block
+	 * @param now current time (ms)
+	 */
+	public synchronized void blockReceived(long rtt, int size, long now) {
+		rtt = Math.max(1, rtt);
+		mMinRTT = Math.min(mMinRTT, rtt);
+		
+		// Estimation of the RTT like TCP does (RFC 6298)
+		if (mSmoothedRTT == 0) {
+			mSmoothedRTT = rtt;
+			mRTTVariation = rtt / 2.0;
+		} else {
+			mRTTVariation = 0.75 * mRTTVariation + 0.25 * Math.abs(mSmoothedRTT - rtt);
+			mSmoothedRTT = 0.875 * mSmoothedRTT + 0.125 * rtt;
+		}
+		
+		mWindowBytes += size;
+		long elapsed = now - mWindowStart;
+		if (elapsed >= RATE_WINDOW) {
+			double rate = mWindowBytes * 1000.0 / elapsed;
+			mThroughput = (mThroughput == 0) ? rate : 0.75 * mThroughput + 0.25 * rate;
+			mWindowStart = now;
+			mWindowBytes = 0;
+		}
+	}
+	
+	/**
+	 * Requests haven't been answered in time, the peer is slower than expected.
+	 * Called once per sweep of the pending requests, even if several have expired.
+	 */
+	public synchronized void requestTimedOut() {
+		mThroughput /= 2;
+		mSmoothedRTT = Math.min(MAX_TIMEOUT, mSmoothedRTT * 2);
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns the number of requests that should be pending with the peer.
+	 * @return the depth of the pipeline
+	 */
+	public synchronized int getDepth() {
+		if (mThroughput == 0 || mSmoothedRTT == 0) return INITIAL_DEPTH;
+		
+		// The smoothed RTT includes the time our requests wait behind each other, it would make the pipeline grow forever.
+		double bdp = mThroughput * mMinRTT / 1000.0 / Block.BLOCK_SIZE; // Blocks in flight on the link
+		int depth = (int) Math.ceil(bdp * PROBING_FACTOR) + 1;
+		
+		return Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
+	}
+	
+	/**
+	 * Returns the time after which a pending request is given to another peer.
+	 * @return the timeout of the requests (ms)
+	 */
+	public synchronized long getTimeout() {
+		if (mSmoothedRTT == 0) return INITIAL_TIMEOUT;
+		
+		long timeout = (long) (mSmoothedRTT + 4 * mRTTVariation);
+		return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+	}
+	
+	/**
+	 * @return the smoothed round-trip time (ms), 0 if unknown
+	 */
+	public synchronized double getRTT() {
+		return mSmoothedRTT;
+	}
+	
+	/**
+	 * @return the smoothed throughput (bytes/s), 0 if unknown
+	 */
+	public synchronized double getThroughput() {
+		return mThroughput;
+	}
+}
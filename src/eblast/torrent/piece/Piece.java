@@ -21,8 +21,11 @@ package eblast.torrent.piece;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -39,6 +42,8 @@ import eblast.checksum.NullHashException;
 import eblast.io.FileManager;
 import eblast.log.Log;
 import eblast.torrent.messages.Request;
+import eblast.torrent.peer.Peer;
+import eblast.torrent.peer.PeerBanList;
 import eblast.torrent.peer.PeerHandler;
 
 /**
@@ -54,18 +59,42 @@ import eblast.torrent.peer.PeerHandler;
  * this class has been totally revisited in order to welcome this new class. We also used a regular array
  * for the Block list contained in every piece.
  * @version 1.2 - 06.03.2011 Pass the new Junit test.
+ * @version 1.3 - 17.10.2026 - feed() isn't synchronized anymore, the FileManager is thread-safe.
+ * @version 1.4 - 17.10.2026 - Write-back buffer: the piece is hashed in memory and written at once.
+ * @version 1.5 - 17.10.2026 - hasUnrequestedBlock() for the PiecePicker
+ * @version 1.6 - 17.10.2026 - feed() tells if the block was a duplicate, cancel messages for the other requests
+ * @version 1.7 - 17.10.2026 - feed() of a ByteBuffer, the received blocks aren't copied before the piece
+ * @version 1.8 - 17.10.2026 - Received blocks kept in a PieceBitSet
+ * @version 1.9 - 17.10.2026 - Sender of each block, only the blocks of the suspected peers are discarded
+ * when the Hash fails, and the peers that corrupted the piece are reported to the PeerBanList
  */
 public class Piece implements Cloneable, Comparable<Piece> {
 	
+	// Results of bufferBlock()
+	private static final int NOT_BUFFERED = 0;
+	private static final int BUFFERED = 1;
+	private static final int DUPLICATE = 2;
+	
+	// Requests counted for a block asked again to the peer that sent it when the piece failed
+	private static final int FAILED_SENDER_PENALTY = 1 << 16;
+	
 	private FileManager mFileManager;									// Object used to write blocks into a file
 	private int mNbBlocks;												// Number of blocks contained into this piece
-	private Set<Integer> mReceivedBlockIndexes;							// All the block (indexes) that we have already
+	private PieceBitSet mReceivedBlockIndexes;							// All the block (indexes) that we have already
 	private boolean mComplete;											// True if the piece is complete, false otherwise
+	private volatile boolean mChecking;									// True while the piece is waiting for its verification
+	private byte[] mBuffer;												// Piece being assembled in memory (write-back), null otherwise
+	private Checksum mIncrementalChecksum;								// SHA-1 of the first mHashedBlocks blocks of mBuffer
+	private int mHashedBlocks;											// Number of blocks (in order) already hashed
 	private int mSize;													// Size of this piece
 	private Hash mSignatureSHA1;										// SHA-1 signature of the current piece
 	private int mIndex;													// Index of this piece into the torrent
 	private List<Map<Request, PeerHandler>> mRequestsPerBlock; 			// Gives us informations about who wants a particular block.
 	private Semaphore mRequestsPerBlockSemaphore = new Semaphore(1); 	// To ensure we are writing at the same time in the List of Maps.
+	private InetAddress[] mBlockSenders;								// Peer that sent each block, null if unknown
+	private InetAddress[] mFailedSenders;								// Senders of the blocks when the piece last failed its Hash
+	private Hash[] mFailedDigests;										// SHA-1 of these blocks, compared once the piece is correct
+	private PeerBanList mBanList;										// Told about the peers that corrupt the piece, may be null
 	
 	/**
 	 * Default constructor.
@@ -91,7 +120,10 @@ public class Piece implements Cloneable, Comparable<Piece> {
 		// size/Block_size: number of blocks without the last block.
 		// The +1 is for the last block, which can be of any size.
 		
-		mReceivedBlockIndexes = new HashSet<Integer>(mNbBlocks);
+		mReceivedBlockIndexes = new PieceBitSet(mNbBlocks);
+		mBlockSenders = new InetAddress[mNbBlocks];
+		mFailedSenders = new InetAddress[mNbBlocks];
+		mFailedDigests = new Hash[mNbBlocks];
 		
 		// Creates a pair (request, PeerHandler) for each block.
 		mRequestsPerBlock = Collections.synchronizedList(new ArrayList<Map<Request,PeerHandler>>(mNbBlocks));
@@ -105,30 +137,177 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	 * Fill the current piece with the given block at the begin position.
 	 * @param begin beginning index
 	 * @param block blocks we want to copy into the piece
+	 * @return true if the block was new, false if it had already been received
+	 * @throws NullHashException
+	 * @throws IOException 
+	 * @throws NoSuchElementException 
+	 */
+	public boolean feed(int begin, Block block) throws BlockLengthException, WrongIndexException, NullHashException, NoSuchElementException, IOException{
+		return feed(begin, ByteBuffer.wrap(block.toBytes()));
+	}
+	
+	/**
+	 * Fill the current piece with the given data at the begin position.
+	 * The data are copied (or written), the buffer isn't used anymore when this method returns.
+	 * @param begin beginning index
+	 * @param data data of the block, from its position to its limit (not modified)
+	 * @return true if the block was new, false if it had already been received
+	 * @throws NullHashException
+	 * @throws IOException 
+	 * @throws NoSuchElementException 
+	 */
+	public boolean feed(int begin, ByteBuffer data) throws BlockLengthException, WrongIndexException, NullHashException, NoSuchElementException, IOException{
+		return feed(begin, data, null);
+	}
+	
+	/**
+	 * Fill the current piece with the given data at the begin position, sent by the given peer.
+	 * The data are copied (or written), the buffer isn't used anymore when this method returns.
+	 * @param begin beginning index
+	 * @param data data of the block, from its position to its limit (not modified)
+	 * @param sender peer that sent the block, null if unknown
+	 * @return true if the block was new, false if it had already been received
 	 * @throws NullHashException
 	 * @throws IOException 
 	 * @throws NoSuchElementException 
 	 */
-	synchronized public void feed(int begin, Block block) throws BlockLengthException, WrongIndexException, NullHashException, NoSuchElementException, IOException{
+	public boolean feed(int begin, ByteBuffer data, Peer sender) throws BlockLengthException, WrongIndexException, NullHashException, NoSuchElementException, IOException{
 		
 		if (begin%Block.BLOCK_SIZE != 0) throw new WrongIndexException(); // If begin is not a correct block address, throws a WrongIndexException.
 		
+		int length = data.remaining();
+		if (length == 0 || length > Block.BLOCK_SIZE) throw new BlockLengthException(Block.BLOCK_SIZE, length);
+		
 		// if it's not the last block of the piece and if the block is shorter than the other blocks,it throws an BlockLengthException.
-		if (mSize-Block.BLOCK_SIZE!=begin && block.getSize()<Block.BLOCK_SIZE && !isLastBlock(begin))
-			throw new BlockLengthException(Block.BLOCK_SIZE, block.getSize());
+		if (mSize-Block.BLOCK_SIZE!=begin && length<Block.BLOCK_SIZE && !isLastBlock(begin))
+			throw new BlockLengthException(Block.BLOCK_SIZE, length);
 		
 		int blockIndex = byte2IndexAddress(begin);
-		if (mReceivedBlockIndexes.add(blockIndex)) { // If the block has not been received yet, add it.
-			
-			if (mFileManager != null) {
-				mFileManager.write(this, blockIndex, block); // Writes the received block into the file
-			}
+		if (mReceivedBlockIndexes.get(blockIndex)) return false; // The block has already been received.
+		
+		// Assemble the piece in memory if possible.
+		InetAddress address = (sender == null) ? null : sender.getIP();
+		int buffered = bufferBlock(blockIndex, data, address);
+		if (buffered != NOT_BUFFERED) return buffered == BUFFERED;
+		
+		// The block is written before being marked as received, so the check never reads a block not written yet.
+		mBlockSenders[blockIndex] = address;
+		if (mFileManager != null) {
+			mFileManager.write(this, blockIndex, data.duplicate()); // Writes the received block into the file
+		}
+		
+		if (mReceivedBlockIndexes.set(blockIndex)) { // If the block has not been received yet, add it.
 			
 			// Cancels all the requests for this block.
 			cancelPendingRequestFor(blockIndex);
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Copies the block into the write-back buffer of the piece. The blocks are hashed as soon as they are
+	 * in order, and the piece is written at once when its Hash is correct.
+	 * @param blockIndex index of the block
+	 * @param data data of the received block (not modified)
+	 * @param sender address of the peer that sent the block, null if unknown
+	 * @return BUFFERED if the block has been taken by the buffer, DUPLICATE if it was already there,
+	 * NOT_BUFFERED if it has to be written directly
+	 * @throws IOException if the piece can't be written
+	 */
+	private synchronized int bufferBlock(int blockIndex, ByteBuffer data, InetAddress sender) throws BlockLengthException, IOException {
+		if (mComplete) return DUPLICATE;
+		if (mFileManager == null) return NOT_BUFFERED;
+		
+		if (mBuffer == null) {
+			// Some blocks are already on the disk, the piece can't be assembled in memory anymore.
+			if (!mReceivedBlockIndexes.isEmpty()) return NOT_BUFFERED;
+			
+			try {
+				mIncrementalChecksum = Checksum.getSHA1Instance();
+			} catch (NoSuchAlgorithmException e) {
+				return NOT_BUFFERED;
+			}
+			
+			mBuffer = PieceBufferPool.getInstance().acquire(mSize);
+			if (mBuffer == null) return NOT_BUFFERED; // The memory cap has been reached.
+			mHashedBlocks = 0;
+		}
+		
+		if (blockIndex >= mNbBlocks || data.remaining() != getBlockSize(blockIndex)) {
+			throw new BlockLengthException(getBlockSize(Math.min(blockIndex, mNbBlocks-1)), data.remaining());
+		}
+		
+		if (!mReceivedBlockIndexes.set(blockIndex)) return DUPLICATE;
+		data.duplicate().get(mBuffer, getBlockOffset(blockIndex), data.remaining());
+		mBlockSenders[blockIndex] = sender;
+		
+		cancelPendingRequestFor(blockIndex);
+		
+		// Hash the blocks that are in order.
+		while (mHashedBlocks < mNbBlocks && mReceivedBlockIndexes.get(mHashedBlocks)) {
+			mIncrementalChecksum.append(mBuffer, getBlockOffset(mHashedBlocks), getBlockSize(mHashedBlocks));
+			mHashedBlocks++;
+		}
+		
+		if (mHashedBlocks == mNbBlocks) {
+			flushBuffer();
+		}
+		return BUFFERED;
+	}
+	
+	/**
+	 * Compares the Hash of the assembled piece with its signature, then writes it with a single write.
+	 * @throws IOException if the piece can't be written
+	 */
+	private void flushBuffer() throws IOException {
+		boolean correct;
+		try {
+			correct = mSignatureSHA1.equals(mIncrementalChecksum.digest());
+		} catch (Exception e) {
+			correct = false;
+		}
+		
+		if (!correct) {
+			hashFailed(mBuffer, 0); // If not, erase the blocks of the suspected peers.
+			return;
+		}
+		
+		try {
+			mFileManager.write(mFileManager.getPieceOffset(mIndex), ByteBuffer.wrap(mBuffer, 0, mSize));
+			mComplete = true;
+			blameFailedSenders(mBuffer, 0);
+			releaseBuffer();
+			
+		} catch (IOException e) {
+			resetPiece();
+			throw e;
 		}
 	}
 	
+	/**
+	 * Forgets the blocks that are only in the write-back buffer, and gives the buffer back.
+	 */
+	public synchronized void discardBuffer() {
+		if (mBuffer != null) {
+			mReceivedBlockIndexes.clear();
+			Arrays.fill(mBlockSenders, null);
+			releaseBuffer();
+		}
+	}
+	
+	/**
+	 * Gives back the write-back buffer of the piece.
+	 */
+	private void releaseBuffer() {
+		if (mBuffer != null) {
+			PieceBufferPool.getInstance().release(mBuffer);
+			mBuffer = null;
+		}
+		mIncrementalChecksum = null;
+		mHashedBlocks = 0;
+	}
+	
 	/**
 	 * Cancel all the requests that have been made by other PeerHandlers for this Block when it has been received correctly.
 	 * @param index Index of the block into the piece (which is the same as in the requestsPerBlock arrayList)
@@ -140,13 +319,21 @@ public class Piece implements Cloneable, Comparable<Piece> {
 		} catch (InterruptedException e) {}
 		
 		Map<Request, PeerHandler> requestPeerHandler = mRequestsPerBlock.get(index);
-		for (Entry<Request, PeerHandler> entry: requestPeerHandler.entrySet()) {
-			// Deletes the request from the PeerHandler.
-			entry.getValue().removeRequest(entry.getKey());
+		List<Entry<Request, PeerHandler>> requests;
+		synchronized (requestPeerHandler) {
+			requests = new ArrayList<Entry<Request, PeerHandler>>(requestPeerHandler.entrySet());
+			requestPeerHandler.clear(); // Delete the whole HashMap of requests for the chosen block.
 		}
-		requestPeerHandler.clear(); // Delete the whole HashMap of requests for the chosen block.			
 		
 		mRequestsPerBlockSemaphore.release();
+		
+		// The PeerHandlers are called out of the locks, they take their own locks and may call back the piece.
+		for (Entry<Request, PeerHandler> entry: requests) {
+			// Deletes the request from the PeerHandler, which sends a cancel message if it was already sent.
+			if (entry.getValue() != null) {
+				entry.getValue().cancelRequest(entry.getKey());
+			}
+		}
 	}
 	
 	/**
@@ -183,48 +370,168 @@ public class Piece implements Cloneable, Comparable<Piece> {
 
 		if (mFileManager == null) return false;
 
+		// Reads the whole piece at once.
+		byte[] data = new byte[mSize];
+		try {
+			mFileManager.read(this, ByteBuffer.wrap(data));
+		} catch (IOException e) {
+			return false;
+		}
+		
+		return verify(data, 0);
+	}
+	
+	/**
+	 * Checks if the Hash of the given data matches the signature of the piece.
+	 * The piece is then complete, or erased if the Hashes don't match.
+	 * @param data buffer that contains the data of the piece
+	 * @param offset offset of the piece into the buffer
+	 * @return true if the piece is correct, false otherwise
+	 */
+	public synchronized boolean verify(byte[] data, int offset) throws NoSuchAlgorithmException, NullHashException, UnsupportedEncodingException {
+		
+		mChecking = false;
+		
 		// Get the SHA-1 object instance in order to generate a hash (checksum variable) of the received file.
 		Checksum SHA1Checksum = Checksum.getSHA1Instance();
-		//SHA1Checksum.reset();
-		
-		for (int i=0; i<mNbBlocks; i++) { // Adds every block of the piece to the SHA1Checksum.
-			Block block;
-			try {
-				block = mFileManager.read(this, i);
-			} catch (NullHashException e) {
-				return false;
-			} catch (BlockLengthException e) {
-				return false;
-			} catch (WrongIndexException e) {
-				return false;
-			} catch (IOException e) {
-				return false;
-			}
-			SHA1Checksum.append(block.toBytes());
-		}
+		SHA1Checksum.append(data, offset, mSize);
 		
 		Hash hash = SHA1Checksum.digest(); // Computes the hash.
 		
 		// Compares the signature contained into the file and the signature computed with the received data.
 		if (mSignatureSHA1.equals(hash)) {
 			for (int i=0; i<mNbBlocks; i++) {
-				mReceivedBlockIndexes.add(i);
+				mReceivedBlockIndexes.set(i);
 			}
 			mComplete = true;
+			blameFailedSenders(data, offset);
 			return true;
 		} else {
-			resetPiece(); // If not, erase the piece.
+			hashFailed(data, offset); // If not, erase the blocks of the suspected peers.
 			return false;
 		}
 	}
 	
+	/**
+	 * Called when the piece doesn't match its Hash. The SHA-1 of each block is kept with its sender,
+	 * so that the senders of the blocks that change before the piece is correct can be blamed.
+	 * If only some of the senders are suspected by the PeerBanList, only their blocks are discarded
+	 * and requested again, otherwise the corrupted blocks can't be told apart and the piece is erased.
+	 * @param data buffer that contains the data of the piece
+	 * @param offset offset of the piece into the buffer
+	 */
+	private void hashFailed(byte[] data, int offset) {
+		Map<InetAddress, Integer> senders = new HashMap<InetAddress, Integer>();
+		Set<InetAddress> suspects = new HashSet<InetAddress>();
+		
+		for (int i=0; i<mNbBlocks; i++) {
+			InetAddress sender = mBlockSenders[i];
+			mFailedSenders[i] = sender;
+			mFailedDigests[i] = (sender == null) ? null : digest(data, offset + getBlockOffset(i), getBlockSize(i));
+			
+			if (sender != null) {
+				senders.put(sender, 0);
+				if (mBanList != null && mBanList.isSuspect(sender)) suspects.add(sender);
+			}
+		}
+		
+		boolean selective = !suspects.isEmpty() && suspects.size() < senders.size();
+		int discarded = 0;
+		
+		for (int i=0; i<mNbBlocks; i++) {
+			InetAddress sender = mBlockSenders[i];
+			if (selective && !suspects.contains(sender)) continue; // Kept
+			
+			if (sender != null) senders.put(sender, senders.get(sender) + getBlockSize(i));
+			mBlockSenders[i] = null;
+			mReceivedBlockIndexes.clear(i);
+			discarded++;
+		}
+		
+		Log.e("Piece", "Hash failed for piece " + mIndex + ", " + discarded + "/" + mNbBlocks + " blocks discarded");
+		mComplete = false;
+		
+		if (mReceivedBlockIndexes.isEmpty()) {
+			releaseBuffer();
+		} else if (mBuffer != null) {
+			// The kept blocks are hashed again with the new ones.
+			try {
+				mIncrementalChecksum = Checksum.getSHA1Instance();
+				mHashedBlocks = 0;
+			} catch (NoSuchAlgorithmException e) {
+				resetPiece();
+			}
+		}
+		
+		if (mBanList != null && !senders.isEmpty()) {
+			mBanList.pieceFailed(mIndex, senders);
+		}
+	}
+	
+	/**
+	 * Compares the blocks of the correct piece with the blocks received when it failed its Hash:
+	 * the senders of the blocks that have changed are reported to the PeerBanList.
+	 * @param data buffer that contains the data of the piece
+	 * @param offset offset of the piece into the buffer
+	 */
+	private void blameFailedSenders(byte[] data, int offset) {
+		Set<InetAddress> corrupting = new HashSet<InetAddress>();
+		
+		for (int i=0; i<mNbBlocks; i++) {
+			if (mFailedDigests[i] != null && !mFailedDigests[i].equals(digest(data, offset + getBlockOffset(i), getBlockSize(i)))) {
+				corrupting.add(mFailedSenders[i]);
+			}
+			mFailedSenders[i] = null;
+			mFailedDigests[i] = null;
+			mBlockSenders[i] = null;
+		}
+		
+		if (mBanList != null) {
+			for (InetAddress sender: corrupting) {
+				mBanList.pieceCorrupted(mIndex, sender);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the SHA-1 of a block.
+	 * @return the Hash of the block, null if it can't be computed
+	 */
+	private static Hash digest(byte[] data, int offset, int length) {
+		try {
+			Checksum checksum = Checksum.getSHA1Instance();
+			checksum.append(data, offset, length);
+			return checksum.digest();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
 	/**
 	 * Check if we received the Piece right.
 	 * @return true if the file has been transferred correctly. if false, it will erase 
 	 */
 	public synchronized boolean check() throws NoSuchAlgorithmException, NullHashException, UnsupportedEncodingException {
 		
-		return isComplete() ? true : ( (mReceivedBlockIndexes.size() == mNbBlocks) ? init() : false );
+		return isComplete() ? true : ( (mReceivedBlockIndexes.cardinality() == mNbBlocks) ? init() : false );
+	}
+	
+	/**
+	 * Restores the state of the piece saved by the fast-resume, without any verification.
+	 * @param complete true if the piece has been verified before
+	 * @param blocks indexes of the blocks already on the disk (if not complete)
+	 */
+	public synchronized void restore(boolean complete, PieceBitSet blocks) {
+		mReceivedBlockIndexes.clear();
+		
+		if (complete) {
+			for (int i=0; i<mNbBlocks; i++) {
+				mReceivedBlockIndexes.set(i);
+			}
+		} else if (blocks != null) {
+			mReceivedBlockIndexes.or(blocks);
+		}
+		mComplete = complete;
 	}
 	
 	/**
@@ -233,7 +540,9 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	private void resetPiece() {
 		Log.e("Piece", "Reset piece " + mIndex);
 		mReceivedBlockIndexes.clear();
+		Arrays.fill(mBlockSenders, null);
 		mComplete = false;
+		releaseBuffer();
 	}
 	
 	/**
@@ -241,7 +550,7 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	 * @return Percentage of received blocks.
 	 */
 	public double getDownloadCompleteness() {				
-		return 100.0 * mReceivedBlockIndexes.size() / mNbBlocks;
+		return 100.0 * mReceivedBlockIndexes.cardinality() / mNbBlocks;
 	}
 	
 	/**
@@ -324,6 +633,15 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	 * @return the least requested Block of the Piece, null if none
 	 */
 	public int getLeastRequestedBlockIndex() {
+		return getLeastRequestedBlockIndex(null);
+	}
+	
+	/**
+	 * Returns the least requested Block of the Piece that hasn't been requested to the given PeerHandler yet.
+	 * @param peerHandler PeerHandler that wants to request a block, or null
+	 * @return the least requested Block of the Piece, -1 if none
+	 */
+	public int getLeastRequestedBlockIndex(PeerHandler peerHandler) {
 		
 		try {
 			mRequestsPerBlockSemaphore.acquire();
@@ -332,10 +650,16 @@ public class Piece implements Cloneable, Comparable<Piece> {
 		int leastRequestedBlockIndex = -1;
 		int leastNumberOfRequests = Integer.MAX_VALUE;
 		int currentNumberOfRequests;
+		InetAddress address = (peerHandler == null) ? null : peerHandler.getPeer().getIP();
 		
 		for (int i=0; i<mNbBlocks; i++) { // For each block in the piece
-			if (!mReceivedBlockIndexes.contains(i)) {
-				currentNumberOfRequests = mRequestsPerBlock.get(i).size();
+			Map<Request, PeerHandler> requests = mRequestsPerBlock.get(i);
+			if (!mReceivedBlockIndexes.get(i) && (peerHandler == null || !requests.containsValue(peerHandler))) {
+				currentNumberOfRequests = requests.size();
+				
+				// Another peer than the one that sent the block when the piece failed is preferred.
+				if (address != null && address.equals(mFailedSenders[i])) currentNumberOfRequests += FAILED_SENDER_PENALTY;
+				
 				if (currentNumberOfRequests < leastNumberOfRequests) {
 					leastRequestedBlockIndex = i;
 					leastNumberOfRequests = currentNumberOfRequests; 
@@ -348,6 +672,26 @@ public class Piece implements Cloneable, Comparable<Piece> {
 		return leastRequestedBlockIndex;
 	}
 
+	/**
+	 * Returns true if a block of this piece hasn't been received nor requested yet.
+	 * @return true if a block can be requested to a new peer
+	 */
+	public boolean hasUnrequestedBlock() {
+		
+		try {
+			mRequestsPerBlockSemaphore.acquire();
+		} catch (InterruptedException e) {}
+		
+		boolean found = false;
+		for (int i=0; i<mNbBlocks && !found; i++) {
+			found = !mReceivedBlockIndexes.get(i) && mRequestsPerBlock.get(i).isEmpty();
+		}
+		
+		mRequestsPerBlockSemaphore.release();
+		
+		return found;
+	}
+	
 	/**
 	 * Compares two Pieces and class them with their request (from the least-requested to the most-requested Piece).
 	 * @param o Piece to compare with.
@@ -371,15 +715,21 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	
 	/**
 	 * Fetch a block according to its index given in parameter.
+	 * A block that is still in the write-back buffer is copied from the buffer, it isn't on the disk yet.
 	 * @param index of the requested block (not an offset).
 	 * @return A block object if it exists or throws an exception
 	 */
-	public Block getBlock(int index) throws NoSuchElementException, NullHashException, BlockLengthException, WrongIndexException, IOException {
+	public synchronized Block getBlock(int index) throws NoSuchElementException, NullHashException, BlockLengthException, WrongIndexException, IOException {
 		
-		if (!mReceivedBlockIndexes.contains(index)) // If the piece or the requested block are empty, leave.
+		if (!mReceivedBlockIndexes.get(index)) // If the piece or the requested block are empty, leave.
 			throw new NoSuchElementException("The requested block is empty.");
 		
-		if (mFileManager != null) return null;
+		if (mBuffer != null) {
+			int offset = getBlockOffset(index);
+			return new Block(Arrays.copyOfRange(mBuffer, offset, offset + getBlockSize(index)));
+		}
+		
+		if (mFileManager == null) return null;
 		
 		return mFileManager.read(this, index);
 	}
@@ -400,6 +750,50 @@ public class Piece implements Cloneable, Comparable<Piece> {
 		return mReceivedBlockIndexes.isEmpty();
 	}
 	
+	/**
+	 * Returns a copy of the indexes of the blocks already written on the disk.
+	 * The blocks still in the write-back buffer aren't included.
+	 * @return indexes of the blocks already on the disk
+	 */
+	public synchronized PieceBitSet getReceivedBlockIndexes() {
+		if (mBuffer != null) return new PieceBitSet(mNbBlocks);
+		
+		return mReceivedBlockIndexes.copy();
+	}
+	
+	/**
+	 * Returns the address of the peer that sent a block.
+	 * @param index index of the block
+	 * @return the address of the sender, null if unknown or if the block hasn't been received
+	 */
+	public InetAddress getBlockSender(int index) {
+		return mBlockSenders[index];
+	}
+	
+	/**
+	 * Sets the PeerBanList told about the peers that send corrupted blocks.
+	 * @param banList the PeerBanList of the torrent, may be null
+	 */
+	public void setBanList(PeerBanList banList) {
+		mBanList = banList;
+	}
+	
+	/**
+	 * Test whether or not the piece is waiting for its verification.
+	 * @return true if the piece hasn't been verified yet. False otherwise.
+	 */
+	public boolean isChecking() {
+		return mChecking;
+	}
+	
+	/**
+	 * Marks the piece as waiting for its verification, it won't be requested meanwhile.
+	 * @param checking true if the piece is waiting for its verification
+	 */
+	public void setChecking(boolean checking) {
+		mChecking = checking;
+	}
+	
 	/**
 	 * Test whether or not the piece is complete.
 	 * @return true if the piece is complete. False otherwise.
@@ -421,9 +815,9 @@ public class Piece implements Cloneable, Comparable<Piece> {
 	}
 	
 	public long getLeft() {
-		long left = Block.BLOCK_SIZE * mReceivedBlockIndexes.size();
+		long left = Block.BLOCK_SIZE * mReceivedBlockIndexes.cardinality();
 		
-		if (mReceivedBlockIndexes.contains(mNbBlocks-1)) {
+		if (mReceivedBlockIndexes.get(mNbBlocks-1)) {
 			left += Block.BLOCK_SIZE;
 			left -= mSize - Block.BLOCK_SIZE * mNbBlocks;
 		}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.piece;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of piece (or block) indexes from 0 to size-1, stored as a bitmap of long words.
+ * It replaces the sets of Integer: a torrent of 100000 pieces takes 12.5 KiB per set,
+ * without any boxing.
+ * <p>
+ * Each word is updated atomically, so the set can be shared between the threads without lock.
+ * The operations involving two sets read the words one by one: they see every bit that was
+ * set before the call, and maybe some set meanwhile. The indexes out of the set are ignored.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class PieceBitSet {
+	
+	private static final int ADDRESS_BITS = 6; // 64 bits per word
+	
+	private int mSize;
+	private AtomicLongArray mWords;
+	private AtomicInteger mCardinality;
+	
+	/**
+	 * Creates an empty set.
+	 * @param size number of indexes (pieces or blocks)
+	 */
+	public PieceBitSet(int size) {
+		mSize = size;
+		mWords = new AtomicLongArray((size + 63) >>> ADDRESS_BITS);
+		mCardinality = new AtomicInteger();
+	}
+	
+	/**
+	 * Decodes a bitmap of the BitTorrent protocol: the high bit of the first byte is the index 0.
+	 * The bits after size are ignored.
+	 * @param bytes the bitmap
+	 * @param size number of indexes
+	 * @return the set of the indexes whose bit is 1
+	 */
+	public static PieceBitSet fromBytes(byte[] bytes, int size) {
+		PieceBitSet set = new PieceBitSet(size);
+		int count = 0;
+		
+		for (int w = 0; w < set.mWords.length(); w++) {
+			long word = 0;
+			int first = w << 3; // 8 bytes per word
+			for (int b = 0; b < 8; b++) {
+				int i = first + b;
+				int bits = (i < bytes.length) ? Integer.reverse(bytes[i] & 0xFF) >>> 24 : 0; // Bit 0 is the high bit
+				word |= (long) bits << (b << 3);
+			}
+			if (w == set.mWords.length() - 1 && (size & 63) != 0) {
+				word &= (1L << (size & 63)) - 1; // Ignore the padding
+			}
+			set.mWords.set(w, word);
+			count += Long.bitCount(word);
+		}
+		
+		set.mCardinality.set(count);
+		return set;
+	}
+	
+	/**
+	 * Encodes the set into a bitmap of the BitTorrent protocol.
+	 * @return (size+7)/8 bytes, the high bit of the first byte is the index 0
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[(mSize + 7) >>> 3];
+		for (int i = 0; i < bytes.length; i++) {
+			long word = mWords.get(i >>> 3);
+			int bits = (int) (word >>> ((i & 7) << 3)) & 0xFF;
+			bytes[i] = (byte) (Integer.reverse(bits) >>> 24);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns true if the index is in the set.
+	 * @param index piece index
+	 * @return true if the bit is set
+	 */
+	public boolean get(int index) {
+		if (index < 0 || index >= mSize) return false;
+		return (mWords.get(index >>> ADDRESS_BITS) & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Adds an index to the set.
+	 * @param index piece index
+	 * @return true if the index wasn't in the set
+	 */
+	public boolean set(int index) {
+		if (index < 0 || index >= mSize) return false;
+		
+		int w = index >>> ADDRESS_BITS;
+		long mask = 1L << index;
+		long word;
+		do {
+			word = mWords.get(w);
+			if ((word & mask) != 0) return false;
+		} while (!mWords.compareAndSet(w, word, word | mask));
+		
+		mCardinality.incrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Removes an index from the set.
+	 * @param index piece index
+	 * @return true if the index was in the set
+	 */
+	public boolean clear(int index) {
+		if (index < 0 || index >= mSize) return false;
+		
+		int w = index >>> ADDRESS_BITS;
+		long mask = 1L << index;
+		long word;
+		do {
+			word = mWords.get(w);
+			if ((word & mask) == 0) return false;
+		} while (!mWords.compareAndSet(w, word, word & ~mask));
+		
+		mCardinality.decrementAndGet();
+		return true;
+	}
+	
+	/**
+	 * Removes all the indexes.
+	 */
+	public void clear() {
+		for (int w = 0; w < mWords.length(); w++) {
+			long word = mWords.getAndSet(w, 0);
+			mCardinality.addAndGet(-Long.bitCount(word));
+		}
+	}
+	
+	/**
+	 * Adds all the indexes of another set.
+	 * @param other indexes to add
+	 */
+	public void or(PieceBitSet other) {
+		int words = Math.min(mWords.length(), other.mWords.length());
+		for (int w = 0; w < words; w++) {
+			long bits = other.mWords.get(w);
+			if (w == mWords.length() - 1 && (mSize & 63) != 0) {
+				bits &= (1L << (mSize & 63)) - 1;
+			}
+			
+			long word;
+			do {
+				word = mWords.get(w);
+				if ((word | bits) == word) break;
+			} while (!mWords.compareAndSet(w, word, word | bits));
+			
+			mCardinality.addAndGet(Long.bitCount(bits & ~word));
+		}
+	}
+	
+	/**
+	 * Returns the first index from the given one that is in the set.
+	 * @param from first index to look at
+	 * @return index found, -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		return nextSetBitAndNot(null, from);
+	}
+	
+	/**
+	 * Returns the first index from the given one that is in this set and not in the other.
+	 * For instance the first piece owned by a peer that we don't have.
+	 * @param other indexes to skip, may be null
+	 * @param from first index to look at
+	 * @return index found, -1 if there is none
+	 */
+	public int nextSetBitAndNot(PieceBitSet other, int from) {
+		if (from < 0) from = 0;
+		if (from >= mSize) return -1;
+		
+		int w = from >>> ADDRESS_BITS;
+		long word = mWords.get(w) & (-1L << from);
+		while (true) {
+			if (other != null && w < other.mWords.length()) {
+				word &= ~other.mWords.get(w);
+			}
+			if (word != 0) {
+				int index = (w << ADDRESS_BITS) + Long.numberOfTrailingZeros(word);
+				return (index < mSize) ? index : -1;
+			}
+			if (++w >= mWords.length()) return -1;
+			word = mWords.get(w);
+		}
+	}
+	
+	/**
+	 * Returns true if at least one index is in both sets.
+	 * @param other the other set
+	 * @return true if the intersection isn't empty
+	 */
+	public boolean intersects(PieceBitSet other) {
+		int words = Math.min(mWords.length(), other.mWords.length());
+		for (int w = 0; w < words; w++) {
+			if ((mWords.get(w) & other.mWords.get(w)) != 0) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the number of indexes that are in both sets.
+	 * @param other the other set
+	 * @return cardinality of the intersection
+	 */
+	public int intersectionCount(PieceBitSet other) {
+		int count = 0;
+		int words = Math.min(mWords.length(), other.mWords.length());
+		for (int w = 0; w < words; w++) {
+			count += Long.bitCount(mWords.get(w) & other.mWords.get(w));
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns a new set with the indexes that are in both sets.
+	 * @param other the other set
+	 * @return the intersection, of the size of this set
+	 */
+	public PieceBitSet and(PieceBitSet other) {
+		PieceBitSet result = new PieceBitSet(mSize);
+		int count = 0;
+		int words = Math.min(mWords.length(), other.mWords.length());
+		for (int w = 0; w < words; w++) {
+			long word = mWords.get(w) & other.mWords.get(w);
+			result.mWords.set(w, word);
+			count += Long.bitCount(word);
+		}
+		result.mCardinality.set(count);
+		return result;
+	}
+	
+	/**
+	 * Returns a copy of this set.
+	 * @return a new set with the same indexes
+	 */
+	public PieceBitSet copy() {
+		PieceBitSet result = new PieceBitSet(mSize);
+		result.or(this);
+		return result;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * @return number of indexes in the set
+	 */
+	public int cardinality() {
+		return mCardinality.get();
+	}
+	
+	/**
+	 * @return true if no index is in the set
+	 */
+	public boolean isEmpty() {
+		return mCardinality.get() == 0;
+	}
+	
+	/**
+	 * @return true if all the indexes are in the set
+	 */
+	public boolean isFull() {
+		return mCardinality.get() == mSize;
+	}
+	
+	/**
+	 * @return number of indexes the set can hold (pieces or blocks)
+	 */
+	public int size() {
+		return mSize;
+	}
+}
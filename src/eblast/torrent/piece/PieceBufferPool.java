@@ -0,0 +1,102 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.piece;
+
+/**
+ * This class accounts the memory used by the pieces that are being assembled
+ * in memory before being written on the disk. It is shared by all the torrents,
+ * when the capacity is reached the blocks are directly written on the disk.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ */
+public class PieceBufferPool {
+	
+	public static final long DEFAULT_CAPACITY = 32L << 20; // 32 MiB
+	
+	// ----- Singleton Pattern -----------------------------------------------
+	private static PieceBufferPool mSingleton = new PieceBufferPool();
+	
+	/**
+	 * @return Singleton Instance of the PieceBufferPool
+	 */
+	public static PieceBufferPool getInstance() {
+		return mSingleton;
+	}
+	// -----------------------------------------------------------------------
+	
+	private long mCapacity;		// Maximum number of bytes used by the buffers
+	private long mUsed;			// Number of bytes currently used by the buffers
+	
+	// Hides the constructor
+	private PieceBufferPool() {
+		mCapacity = DEFAULT_CAPACITY;
+		mUsed = 0;
+	}
+	
+	/**
+	 * Allocates a buffer if the capacity allows it.
+	 * @param size size of the buffer
+	 * @return a buffer of the given size, or null if the capacity would be exceeded
+	 */
+	public synchronized byte[] acquire(int size) {
+		if (mUsed + size > mCapacity) return null;
+		
+		mUsed += size;
+		return new byte[size];
+	}
+	
+	/**
+	 * Gives back a buffer allocated by this pool.
+	 * @param buffer buffer that isn't used anymore
+	 */
+	public synchronized void release(byte[] buffer) {
+		mUsed -= buffer.length;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Sets the maximum memory used by the buffers.
+	 * The buffers already allocated are kept until they are released.
+	 * @param capacity maximum number of bytes
+	 */
+	public synchronized void setCapacity(long capacity) {
+		mCapacity = capacity;
+	}
+	
+	/**
+	 * Returns the maximum memory used by the buffers.
+	 * @return maximum number of bytes
+	 */
+	public synchronized long getCapacity() {
+		return mCapacity;
+	}
+	
+	/**
+	 * Returns the memory currently used by the buffers.
+	 * @return number of bytes used
+	 */
+	public synchronized long getUsed() {
+		return mUsed;
+	}
+}
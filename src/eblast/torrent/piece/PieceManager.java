@@ -19,17 +19,10 @@
 
 package eblast.torrent.piece;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.atomic.AtomicLong;
 
-import eblast.log.Log;
 import eblast.torrent.Torrent;
-import eblast.torrent.Torrent.TorrentStates;
 import eblast.torrent.messages.Request;
 import eblast.torrent.peer.PeerHandler;
 
@@ -41,14 +34,19 @@ import eblast.torrent.peer.PeerHandler;
  * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
  * 
  * @version 1.0 - 22.03.2011 - Initial version
+ * @version 1.1 - 17.10.2026 - Rarest-first selection with the PiecePicker
+ * @version 1.2 - 17.10.2026 - Statistics of the endgame (duplicate bytes, cancel messages)
+ * @version 1.3 - 17.10.2026 - Pieces of the peers given as PieceBitSet
+ * @version 1.4 - 17.10.2026 - Priorities updated by the completion/reset events instead of polling
+ * @version 1.5 - 17.10.2026 - Pieces in progress once a block is requested
  */
 public class PieceManager {
-
-	private static final int MAX_REQUESTS = 100;
 	
 	private Torrent			mTorrent;
-	private List<Piece>		mPiecesOfInterest;		// Pieces that we would like to have.
-	private Stack<Piece>	mNeededPieces;			// All the pieces of the torrent that we currently need.
+	private PiecePicker		mPicker;				// Chooses the pieces to download.
+	
+	private AtomicLong		mDuplicateBytes;		// Bytes received twice (wasted by the endgame)
+	private AtomicLong		mCancelsSent;			// Number of Cancel messages sent
 	
 	/**
 	 * Main constructor.
@@ -56,96 +54,113 @@ public class PieceManager {
 	 */
 	public PieceManager(Torrent torrent) {
 		mTorrent = torrent;
-
-		mPiecesOfInterest = Collections.synchronizedList(new LinkedList<Piece>());
-		mNeededPieces = new Stack<Piece>(); // No need to be synchronized
-		
-		// We add all incomplete piece into the NeededPieces Stack
-		for (Piece p: mTorrent.getPieces()) {
-			if (!p.isComplete()) {
-				mNeededPieces.push(p);
-			}
-		}
-		// And finally, shuffle it
-		Collections.shuffle(mNeededPieces);
+		mPicker = new PiecePicker(mTorrent.getPieces());
+		mDuplicateBytes = new AtomicLong();
+		mCancelsSent = new AtomicLong();
 	}
 	
 	/**
-	 * Main threaded method of this class.
+	 * Updates all the pieces that we need (the pieces may have been restored by the fast-resume).
+	 * Afterwards, the pieceCompleted/pieceReset events keep them up to date.
 	 */
-	public void launch() {
-		new Thread("PieceManager(" + mTorrent + ")") {
-			public void run() {
-				while (mTorrent.getTorrentState() != TorrentStates.completed) { // While the torrent is not finished...
-					updatePriorities(); // we update the priorities
-					try {
-						Thread.sleep(2000L);
-					} catch (InterruptedException e) {
-						Log.e("PieceManager", "Thread.sleep()"); // Log an error
-					}
-				}
-			}
-		}.start();
+	public void updatePriorities() {
+		mPicker.update();
 	}
-
+	
 	/**
-	 * Updates the pieces that we would like to have in our torrent.
+	 * Returns a piece that we want and that is available from the peer if it exists. Otherwise returns null.
+	 * @param piecesAvailable Indexes of all the pieces available from the peer.
+	 * @return piece that we would like to have and that is available from the peer.
 	 */
-	public void updatePriorities() {
-
-		synchronized (mPiecesOfInterest) {
-			// Can't use foreach because we need to be able to remove a piece from the list.
-			for (int i=0; i<mPiecesOfInterest.size();) {
-				Piece p = mPiecesOfInterest.get(i);
-				if (p.isComplete()) {
-					// Remove the piece from PiecesOfInterest
-					mPiecesOfInterest.remove(p);
-						
-				} else {
-					i++;
-				}
-			}
-			// We take as many as needed pieces we need BUT at most MAX_REQUESTS and put it into a list of Interest
-			for (int i=mPiecesOfInterest.size(); (i < MAX_REQUESTS) && (mNeededPieces.size() != 0); i++) {
-				
-				// Transfer one Piece from NeededPieces to PiecesOfInterest.
-				mPiecesOfInterest.add(mNeededPieces.pop());
-			}
-		}
-
+	public Piece getNeededAndAvailablePiece(PieceBitSet piecesAvailable) {
+		return mPicker.pick(piecesAvailable);
 	}
 	
 	/**
 	 * Returns a piece that we want and that is available from the peer if it exists. Otherwise returns null.
+	 * In endgame mode, the piece may already be requested to other peers, but not all its blocks to this one.
 	 * @param piecesAvailable Indexes of all the pieces available from the peer.
+	 * @param peerHandler PeerHandler of the peer
 	 * @return piece that we would like to have and that is available from the peer.
 	 */
-	public Piece getNeededAndAvailablePiece(Set<Integer> piecesAvailable) {
-		
-		synchronized (mPiecesOfInterest) {
-			// We sort the list to have in front the most interesting piece
-			if (mPiecesOfInterest.size() > 0) {
-				try {
-					Collections.sort(mPiecesOfInterest);
-				} catch (NoSuchElementException e) {
-					System.out.println(mPiecesOfInterest);
-				}
-			}
-			
-			// From the most to the least interested
-			for (Piece p: mPiecesOfInterest) {
-				// If the peer contains the piece, we request this one
-				if (piecesAvailable.contains(p.getIndex())) {
-					return p;
-				}
-			}
+	public Piece getNeededAndAvailablePiece(PieceBitSet piecesAvailable, PeerHandler peerHandler) {
+		return mPicker.pick(piecesAvailable, peerHandler);
+	}
+	
+	/**
+	 * A block has been received from a peer.
+	 * @param size size of the block
+	 * @param duplicate true if the block had already been received from another peer
+	 */
+	public void blockReceived(int size, boolean duplicate) {
+		if (duplicate) {
+			mDuplicateBytes.addAndGet(size);
+		}
+	}
+	
+	/**
+	 * A Cancel message has been sent for a request answered by another peer.
+	 */
+	public void cancelSent() {
+		mCancelsSent.incrementAndGet();
+	}
+	
+	/**
+	 * The piece has been completed, we don't need it anymore.
+	 * @param piece the complete piece
+	 */
+	public void pieceCompleted(Piece piece) {
+		mPicker.pieceCompleted(piece.getIndex());
+		mTorrent.pieceReceived(piece);
+	}
+	
+	/**
+	 * The piece has been reset by a verification, we need it again.
+	 * @param piece the reset piece
+	 */
+	public void pieceReset(Piece piece) {
+		mPicker.pieceReset(piece.getIndex());
+		mTorrent.pieceLost(piece);
+	}
+	
+	/**
+	 * A peer announced a new piece.
+	 * @param index index of the piece
+	 */
+	public void addAvailablePiece(int index) {
+		if (index >= 0 && index < mTorrent.getPieceCount()) {
+			mPicker.increment(index);
+			mTorrent.getAvailablePieces().set(index);
 		}
-			
-		return null; // If the peer has no piece we need.
+	}
+	
+	/**
+	 * A peer announced its pieces.
+	 * @param indexes indexes of the pieces
+	 */
+	public void addAvailablePieces(PieceBitSet indexes) {
+		mPicker.increment(indexes);
+		mTorrent.getAvailablePieces().or(indexes);
+	}
+	
+	/**
+	 * A peer has gone, its pieces aren't available anymore.
+	 * @param indexes indexes of the pieces
+	 */
+	public void removeAvailablePieces(PieceBitSet indexes) {
+		mPicker.decrement(indexes);
+	}
+	
+	/**
+	 * @return true if all the needed pieces are being downloaded.
+	 */
+	public boolean isEndgame() {
+		return mPicker.isEndgame();
 	}
 	
 	public void addRequest(Request request, PeerHandler peerHandler) {
 		mTorrent.getPieces().get(request.getIndex()).addPairRequestForBlock(request, peerHandler);
+		mPicker.markRequested(request.getIndex());
 	}
 	
 	public void removeRequest(Request request) {
@@ -156,10 +171,20 @@ public class PieceManager {
 	 * @return A set containing all piece that we currently requested.
 	 */
 	public Set<Integer> getRequestedPieces() {
-		Set<Integer> requestedPieces = new HashSet<Integer>();
-		for (Piece p: mPiecesOfInterest) {
-			requestedPieces.add(p.getIndex());
-		}
-		return requestedPieces;
+		return mPicker.getPiecesInProgress();
+	}
+	
+	/**
+	 * @return Number of bytes received twice, wasted by the duplicate requests.
+	 */
+	public long getDuplicateBytes() {
+		return mDuplicateBytes.get();
+	}
+	
+	/**
+	 * @return Number of Cancel messages sent.
+	 */
+	public long getCancelsSent() {
+		return mCancelsSent.get();
 	}
 }
@@ -0,0 +1,426 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.piece;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import eblast.torrent.peer.PeerHandler;
+
+/**
+ * This class chooses the next piece to download. It counts how many peers own each piece
+ * and keeps the needed pieces sorted by this availability, so that the rarest pieces are
+ * downloaded first.
+ * <p>
+ * The pieces are stored in an array partitioned into buckets of equal availability
+ * (from the rarest to the most common). A change of availability only swaps the piece
+ * with the border of its bucket, and the pieces we don't need anymore are moved after
+ * the last bucket.
+ * <ul>
+ * <li> Random first: the first pieces are chosen randomly, so that we quickly have something to share.
+ * <li> Rarest first: then the rarest piece owned by the peer is chosen.
+ * <li> Endgame: when all the needed pieces are being downloaded, the blocks are requested to several peers.
+ * </ul>
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - Endgame skips the pieces whose blocks are all requested to the peer
+ * @version 1.2 - 17.10.2026 - Pieces of the peers given as PieceBitSet
+ * @version 1.3 - 17.10.2026 - Reset pieces needed again without a full update
+ * @version 1.4 - 17.10.2026 - Rarest first walks the buckets instead of all the needed pieces
+ * @version 1.5 - 17.10.2026 - Pieces in progress once requested, not once picked
+ */
+public class PiecePicker {
+	
+	public static final int RANDOM_FIRST_PIECES = 4;	// Number of pieces chosen randomly at the beginning
+	
+	private List<Piece> mPieces;				// All the pieces of the torrent
+	private int[] mAvailability;				// Number of peers that own each piece
+	private int[] mOrder;						// Needed pieces sorted by availability, then the others
+	private int[] mPosition;					// Position of each piece into mOrder
+	private int[] mBucketStart;					// Start of each bucket into mOrder, the last one is the number of needed pieces
+	private Set<Integer> mInProgress;			// Pieces already chosen and not complete yet
+	private int mCompleted;						// Number of pieces complete
+	private Random mRandom;
+	
+	/**
+	 * Constructor.
+	 * @param pieces all the pieces of the torrent
+	 */
+	public PiecePicker(List<Piece> pieces) {
+		mPieces = pieces;
+		mRandom = new Random();
+		
+		int count = pieces.size();
+		mAvailability = new int[count];
+		mOrder = new int[count];
+		mPosition = new int[count];
+		mBucketStart = new int[] { 0, count };
+		mInProgress = new LinkedHashSet<Integer>();
+		
+		// Shuffle the pieces so that the pieces of same availability are taken randomly
+		for (int i=0; i<count; i++) {
+			int j = mRandom.nextInt(i+1);
+			mOrder[i] = mOrder[j];
+			mOrder[j] = i;
+		}
+		for (int i=0; i<count; i++) {
+			mPosition[mOrder[i]] = i;
+		}
+		
+		for (Piece p: pieces) {
+			if (p.isComplete()) {
+				remove(p.getIndex());
+			}
+		}
+	}
+	
+	/**
+	 * Returns the piece to download from a peer, or null if the peer doesn't have anything we need.
+	 * @param available indexes of the pieces owned by the peer
+	 * @return the piece to download
+	 */
+	public Piece pick(PieceBitSet available) {
+		return pick(available, null);
+	}
+	
+	/**
+	 * Returns the piece to download from a peer, or null if the peer doesn't have anything we need.
+	 * The piece is only in progress once one of its blocks is requested (see markRequested()).
+	 * @param available indexes of the pieces owned by the peer
+	 * @param peerHandler the PeerHandler of the peer, used in endgame mode (may be null)
+	 * @return the piece to download
+	 */
+	public synchronized Piece pick(PieceBitSet available, PeerHandler peerHandler) {
+		if (available.isEmpty()) return null;
+		
+		// Finish the pieces that have been started.
+		for (int index: mInProgress) {
+			Piece p = mPieces.get(index);
+			if (isWanted(p, available) && p.hasUnrequestedBlock()) return p;
+		}
+		
+		Piece p = (mCompleted < RANDOM_FIRST_PIECES) ? pickRandom(available) : pickRarest(available);
+		if (p != null) return p;
+		
+		return isEndgame() ? pickEndgame(available, peerHandler) : null;
+	}
+	
+	/**
+	 * A block of the piece has been requested, the piece is in progress.
+	 * The choked peers pick pieces without requesting them, so they don't reserve any.
+	 * @param index index of the piece
+	 */
+	public synchronized void markRequested(int index) {
+		if (mPosition[index] < getNeededCount()) {
+			mInProgress.add(index);
+		}
+	}
+	
+	/**
+	 * Chooses a needed piece owned by the peer randomly.
+	 */
+	private Piece pickRandom(PieceBitSet available) {
+		int size = getNeededCount();
+		if (size == 0) return null;
+		
+		int start = mRandom.nextInt(size);
+		for (int i=0; i<size; i++) {
+			Piece p = mPieces.get(mOrder[(start + i) % size]);
+			if (!mInProgress.contains(p.getIndex()) && isWanted(p, available)) return p;
+		}
+		return null;
+	}
+	
+	/**
+	 * Chooses the rarest needed piece owned by the peer. The buckets are walked from the lowest
+	 * availability upward, until a bucket holds more pieces than the peer owns: from there on,
+	 * the pieces of the peer are looked at directly.
+	 * <p>
+	 * This isn't O(log n): the cost is the size of the rarest buckets plus the number of pieces
+	 * owned by the peer, so it stays O(n) for a peer that owns most of the pieces. Only the
+	 * pieces that the peer doesn't own in the rarest buckets are skipped.
+	 */
+	private Piece pickRarest(PieceBitSet available) {
+		int owned = available.cardinality();
+		int last = mBucketStart.length - 1;
+		for (int b=0; b<last; b++) {
+			int start = mBucketStart[b];
+			int end = mBucketStart[b+1];
+			if (end - start > owned) return pickRarestOwned(available, b);
+			
+			for (int i=start; i<end; i++) {
+				Piece p = mPieces.get(mOrder[i]);
+				if (!mInProgress.contains(p.getIndex()) && isWanted(p, available)) return p;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Chooses the rarest needed piece among the pieces owned by the peer.
+	 * @param minAvailability availability of the first bucket that hasn't been walked
+	 */
+	private Piece pickRarestOwned(PieceBitSet available, int minAvailability) {
+		Piece best = null;
+		for (int index = available.nextSetBit(0); index >= 0 && index < mAvailability.length; index = available.nextSetBit(index + 1)) {
+			if (mPosition[index] >= getNeededCount() || mInProgress.contains(index)) continue;
+			
+			Piece p = mPieces.get(index);
+			if (!isWanted(p, available)) continue;
+			if (mAvailability[index] <= minAvailability) return p;
+			if (best == null || mAvailability[index] < mAvailability[best.getIndex()]) {
+				best = p;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Chooses the started piece owned by the peer that has the least requests,
+	 * and that still has a block that hasn't been requested to this peer.
+	 */
+	private Piece pickEndgame(PieceBitSet available, PeerHandler peerHandler) {
+		Piece best = null;
+		double bestRequests = Double.MAX_VALUE;
+		for (int index: mInProgress) {
+			Piece p = mPieces.get(index);
+			if (!isWanted(p, available)) continue;
+			if (peerHandler != null && p.getLeastRequestedBlockIndex(peerHandler) < 0) continue;
+			
+			double requests = p.getAverageNumberOfRequestPairs();
+			if (requests < bestRequests) {
+				best = p;
+				bestRequests = requests;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns true if the piece is needed and owned by the peer.
+	 */
+	private boolean isWanted(Piece p, PieceBitSet available) {
+		return !p.isComplete() && !p.isChecking() && available.get(p.getIndex());
+	}
+	
+	/**
+	 * Returns true if all the needed pieces are being downloaded.
+	 * @return true if we are in endgame mode
+	 */
+	public synchronized boolean isEndgame() {
+		return getNeededCount() > 0 && mInProgress.size() >= getNeededCount();
+	}
+	
+	/**
+	 * Updates the state of the pieces: the complete pieces aren't needed anymore,
+	 * and the pieces that have been reset are needed again.
+	 */
+	public synchronized void update() {
+		for (Piece p: mPieces) {
+			int index = p.getIndex();
+			boolean needed = mPosition[index] < getNeededCount();
+			
+			if (p.isComplete() && needed) {
+				remove(index);
+			} else if (!p.isComplete() && !needed) {
+				add(index);
+			}
+		}
+	}
+	
+	/**
+	 * The piece is complete, it is not needed anymore.
+	 * @param index index of the piece
+	 */
+	public synchronized void pieceCompleted(int index) {
+		if (mPosition[index] < getNeededCount()) {
+			remove(index);
+		}
+	}
+	
+	/**
+	 * The piece has been reset by a verification, it is needed again.
+	 * @param index index of the piece
+	 */
+	public synchronized void pieceReset(int index) {
+		if (mPosition[index] >= getNeededCount()) {
+			add(index);
+		}
+	}
+	
+	/**
+	 * A peer owns a new piece.
+	 * @param index index of the piece
+	 */
+	public synchronized void increment(int index) {
+		int a = mAvailability[index]++;
+		if (mPosition[index] >= getNeededCount()) return;
+		
+		if (a + 2 >= mBucketStart.length) {
+			grow();
+		}
+		
+		// Move the piece to the end of its bucket, then extend the next bucket over it.
+		swap(mPosition[index], mBucketStart[a+1] - 1);
+		mBucketStart[a+1]--;
+	}
+	
+	/**
+	 * A peer that owned a piece has gone.
+	 * @param index index of the piece
+	 */
+	public synchronized void decrement(int index) {
+		if (mAvailability[index] == 0) return;
+		
+		int a = mAvailability[index]--;
+		if (mPosition[index] >= getNeededCount()) return;
+		
+		// Move the piece to the beginning of its bucket, then extend the previous bucket over it.
+		swap(mPosition[index], mBucketStart[a]);
+		mBucketStart[a]++;
+	}
+	
+	/**
+	 * Adds all the pieces owned by a peer.
+	 * @param indexes pieces owned by the peer
+	 */
+	public synchronized void increment(Collection<Integer> indexes) {
+		for (int index: indexes) {
+			if (index >= 0 && index < mAvailability.length) increment(index);
+		}
+	}
+	
+	/**
+	 * Removes all the pieces owned by a peer.
+	 * @param indexes pieces owned by the peer
+	 */
+	public synchronized void decrement(Collection<Integer> indexes) {
+		for (int index: indexes) {
+			if (index >= 0 && index < mAvailability.length) decrement(index);
+		}
+	}
+	
+	/**
+	 * Adds all the pieces owned by a peer.
+	 * @param pieces pieces owned by the peer
+	 */
+	public synchronized void increment(PieceBitSet pieces) {
+		for (int index = pieces.nextSetBit(0); index >= 0 && index < mAvailability.length; index = pieces.nextSetBit(index + 1)) {
+			increment(index);
+		}
+	}
+	
+	/**
+	 * Removes all the pieces owned by a peer.
+	 * @param pieces pieces owned by the peer
+	 */
+	public synchronized void decrement(PieceBitSet pieces) {
+		for (int index = pieces.nextSetBit(0); index >= 0 && index < mAvailability.length; index = pieces.nextSetBit(index + 1)) {
+			decrement(index);
+		}
+	}
+	
+	/**
+	 * Moves a needed piece after the last bucket.
+	 */
+	private void remove(int index) {
+		int last = mBucketStart.length - 1;
+		for (int b=mAvailability[index]; b<last; b++) {
+			swap(mPosition[index], mBucketStart[b+1] - 1);
+			mBucketStart[b+1]--;
+		}
+		mInProgress.remove(index);
+		mCompleted++;
+	}
+	
+	/**
+	 * Moves a piece that isn't needed anymore back into its bucket.
+	 */
+	private void add(int index) {
+		int last = mBucketStart.length - 1;
+		while (mAvailability[index] + 1 > last) {
+			grow();
+			last = mBucketStart.length - 1;
+		}
+		
+		swap(mPosition[index], mBucketStart[last]);
+		mBucketStart[last]++;
+		for (int b=last-1; b>mAvailability[index]; b--) {
+			swap(mPosition[index], mBucketStart[b]);
+			mBucketStart[b]++;
+		}
+		mCompleted--;
+	}
+	
+	/**
+	 * Adds empty buckets for the higher availabilities.
+	 */
+	private void grow() {
+		int length = mBucketStart.length;
+		mBucketStart = Arrays.copyOf(mBucketStart, length * 2);
+		Arrays.fill(mBucketStart, length, mBucketStart.length, mBucketStart[length-1]);
+	}
+	
+	/**
+	 * Swaps two positions of mOrder.
+	 */
+	private void swap(int i, int j) {
+		if (i == j) return;
+		
+		int a = mOrder[i];
+		int b = mOrder[j];
+		mOrder[i] = b;
+		mOrder[j] = a;
+		mPosition[b] = i;
+		mPosition[a] = j;
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * @return number of pieces we still need
+	 */
+	private int getNeededCount() {
+		return mBucketStart[mBucketStart.length - 1];
+	}
+	
+	/**
+	 * Returns the number of peers that own a piece.
+	 * @param index index of the piece
+	 * @return availability of the piece
+	 */
+	public synchronized int getAvailability(int index) {
+		return mAvailability[index];
+	}
+	
+	/**
+	 * @return A set containing all piece that we are downloading.
+	 */
+	public synchronized Set<Integer> getPiecesInProgress() {
+		return new LinkedHashSet<Integer>(mInProgress);
+	}
+}
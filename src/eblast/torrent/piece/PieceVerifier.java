@@ -0,0 +1,195 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package eblast.torrent.piece;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eblast.io.FileManager;
+import eblast.log.Log;
+import eblast.torrent.Torrent;
+import eblast.torrent.TorrentManager;
+import eblast.torrent.TaskPools.Pool;
+
+/**
+ * This class verifies the pieces of a torrent that are already on the disk.
+ * The consecutive pieces are read together with large sequential reads,
+ * and hashed concurrently on the hashing pool shared by all the torrents.
+ * 
+ * Every piece is marked as checking until it has been verified, so the
+ * PieceManager doesn't request it and the peers can connect meanwhile.
+ * The torrent is told when each piece, then the whole verification, is done.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - End of the verification reported to the torrent
+ * @version 1.2 - 17.10.2026 - Hashing pool of the TaskPools instead of its own pool
+ */
+public class PieceVerifier {
+	
+	private static final int READ_SIZE = 1 << 22;	// 4 MiB read at once
+	
+	// Read buffers of the threads of the hashing pool
+	private static final ThreadLocal<byte[]> mBuffers = new ThreadLocal<byte[]>();
+	
+	private Torrent mTorrent;
+	private FileManager mFileManager;
+	private List<List<Piece>> mRuns;		// Consecutive pieces read together
+	private int mPieceCount;
+	private AtomicInteger mVerified;
+	private CountDownLatch mDone;
+	private AtomicInteger mRemaining;		// Runs not verified yet, the last one reports the end
+	
+	/**
+	 * Default constructor.
+	 * @param torrent torrent that owns the pieces
+	 * @param pieces pieces to verify, sorted by index
+	 */
+	public PieceVerifier(Torrent torrent, List<Piece> pieces) {
+		mTorrent = torrent;
+		mFileManager = torrent.getFileManager();
+		mPieceCount = pieces.size();
+		mVerified = new AtomicInteger();
+		
+		// Group the consecutive pieces by READ_SIZE
+		mRuns = new ArrayList<List<Piece>>();
+		List<Piece> run = new ArrayList<Piece>();
+		int runSize = 0;
+		for (Piece p: pieces) {
+			boolean consecutive = run.isEmpty() || run.get(run.size()-1).getIndex() + 1 == p.getIndex();
+			if (!consecutive || runSize + p.getSize() > READ_SIZE) {
+				if (!run.isEmpty()) mRuns.add(run);
+				run = new ArrayList<Piece>();
+				runSize = 0;
+			}
+			run.add(p);
+			runSize += p.getSize();
+		}
+		if (!run.isEmpty()) mRuns.add(run);
+		
+		mDone = new CountDownLatch(mRuns.size());
+		mRemaining = new AtomicInteger(mRuns.size());
+	}
+	
+	/**
+	 * Marks all the pieces as checking and launches their verification.
+	 */
+	public void start() {
+		for (List<Piece> run: mRuns) {
+			for (Piece p: run) {
+				p.setChecking(true);
+			}
+		}
+		
+		if (mRuns.isEmpty()) {
+			mTorrent.verificationDone(this);
+			return;
+		}
+		
+		for (final List<Piece> run: mRuns) {
+			TorrentManager.getInstance().getTaskPools().execute(Pool.hashing, new Runnable() {
+				public void run() {
+					try {
+						verify(run);
+					} finally {
+						mDone.countDown();
+						if (mRemaining.decrementAndGet() == 0) {
+							mTorrent.verificationDone(PieceVerifier.this);
+						}
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Reads the consecutive pieces at once and verifies each of them.
+	 * @param run consecutive pieces
+	 */
+	private void verify(List<Piece> run) {
+		int length = 0;
+		for (Piece p: run) {
+			length += p.getSize();
+		}
+		
+		byte[] buffer = mBuffers.get();
+		if (buffer == null || buffer.length < length) {
+			buffer = new byte[Math.max(length, READ_SIZE)];
+			mBuffers.set(buffer);
+		}
+		
+		boolean read = false;
+		try {
+			mFileManager.read(mFileManager.getPieceOffset(run.get(0).getIndex()), ByteBuffer.wrap(buffer, 0, length));
+			read = true;
+		} catch (IOException e) {
+			Log.e("PieceVerifier", "Unable to read the pieces of " + mTorrent + ": " + e.getMessage());
+		}
+		
+		int offset = 0;
+		for (Piece p: run) {
+			try {
+				if (read) { // Otherwise the piece stays incomplete.
+					p.verify(buffer, offset);
+				}
+			} catch (Exception e) {
+				Log.e("PieceVerifier", "Unable to verify the piece " + p.getIndex() + " of " + mTorrent);
+			} finally {
+				p.setChecking(false);
+			}
+			offset += p.getSize();
+			
+			mVerified.incrementAndGet();
+			mTorrent.pieceVerified(p);
+		}
+	}
+	
+	/**
+	 * Waits until all the pieces have been verified.
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		mDone.await();
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns true if all the pieces have been verified.
+	 * @return true if all the pieces have been verified
+	 */
+	public boolean isDone() {
+		return mDone.getCount() == 0;
+	}
+	
+	/**
+	 * Returns the percentage of verified pieces.
+	 * @return percentage of verified pieces
+	 */
+	public double getProgress() {
+		return (mPieceCount == 0) ? 100.0 : 100.0 * mVerified.get() / mPieceCount;
+	}
+}
@@ -34,6 +34,7 @@ import eblast.torrent.peer.Peer;
  * 
  * @version 1.0 - 08.03.2011 Initial version.
  * @version 1.1 - 15.03.2011 New Constructor with a dictionnary instead of named parameters.
+ * @version 1.2 - 17.10.2026 Constructor for the binary answers of the UDP trackers.
  */
 public class AnnounceInfo {
 	
@@ -88,6 +89,20 @@ public class AnnounceInfo {
 		// -------------------------------------------------------------------
 	}
 
+	/**
+	 * Constructor used for the answers of the UDP trackers, which aren't bencoded.
+	 * @param interval interval between two announces (s)
+	 * @param complete number of seeders
+	 * @param incomplete number of leechers
+	 * @param peerList List of peers.
+	 */
+	public AnnounceInfo(int interval, int complete, int incomplete, ArrayList<Peer> peerList) {
+		mInterval = interval;
+		mComplete = complete;
+		mIncomplete = incomplete;
+		mPeersList = peerList;
+	}
+
 	/************************ GETTERS / SETTERS *************************/
 	
 	/**
@@ -0,0 +1,157 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.torrent.tracker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import eblast.log.Log;
+
+/**
+ * This class schedules the announces of a torrent to its trackers,
+ * as described on the specification of the announce-list:<br>
+ * <a href="http://bittorrent.org/beps/bep_0012.html"/>http://bittorrent.org/beps/bep_0012.html</a>
+ * <p>
+ * The trackers are tried tier by tier, in their order. The first one that answers is
+ * moved to the front of its tier and the next announce is done at its interval.
+ * A tracker that fails isn't tried again before its backoff delay. The next trackers
+ * are only tried when the previous ones fail: if the first working tracker isn't ready,
+ * the announce waits for it.
+ * A single announce is done at once for the torrent.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - No failover when the working tracker isn't ready yet
+ */
+public class AnnounceScheduler {
+	
+	private List<TrackerInfo> mTrackers;		// Sorted by tier (the list of the torrent, synchronized on itself)
+	private AtomicBoolean mRunning = new AtomicBoolean();
+	private volatile long mNextAnnounce;		// 0: as soon as possible
+	private volatile boolean mForcePending;		// An event waits for the min interval of the tracker
+	
+	/**
+	 * Default constructor.
+	 * @param trackers the trackers of the torrent, sorted by tier
+	 */
+	public AnnounceScheduler(List<TrackerInfo> trackers) {
+		mTrackers = trackers;
+	}
+	
+	/**
+	 * Returns true if an announce has to be done now.
+	 * @return true if it's time for an announce and none is running
+	 */
+	public boolean isDue() {
+		return !mRunning.get() && System.currentTimeMillis() >= mNextAnnounce;
+	}
+	
+	/**
+	 * Announces to the first tracker that answers, in the order of the tiers.
+	 * If an announce is already running, nothing is done.
+	 * @param parameters the parameters of the announce
+	 * @param force true to announce an event before the interval of the trackers (only their min interval is respected)
+	 * @return the answer of the tracker, or null if no tracker has answered
+	 */
+	public AnnounceInfo announce(Map<String, String> parameters, boolean force) {
+		if (!mRunning.compareAndSet(false, true)) return null; // Already announcing
+		
+		force = force || mForcePending;
+		try {
+			List<TrackerInfo> trackers;
+			synchronized (mTrackers) {
+				trackers = new ArrayList<TrackerInfo>(mTrackers);
+			}
+			
+			long next = Long.MAX_VALUE;
+			for (TrackerInfo t: trackers) {
+				long now = System.currentTimeMillis();
+				if (force ? !t.isAnnounceAllowed(now) : !t.isAnnounceDue(now)) {
+					long time = force ? t.getMinAnnounce() : t.getNextAnnounce();
+					
+					// The tracker works but isn't ready: wait for it, only a failure moves to the next one.
+					if (t.getFailures() == 0) {
+						mNextAnnounce = time;
+						mForcePending = force;
+						return null;
+					}
+					next = Math.min(next, time); // In its backoff delay
+					continue;
+				}
+				
+				try {
+					AnnounceInfo announce = t.getAnnounceInfo(new HashMap<String, String>(parameters));
+					promote(t);
+					mNextAnnounce = t.getNextAnnounce();
+					mForcePending = false;
+					return announce;
+					
+				} catch (TrackerInfoException e) {
+					Log.d("AnnounceScheduler", t + " failed " + t.getFailures() + " times, next tracker");
+					next = Math.min(next, t.getNextAnnounce());
+				}
+			}
+			
+			mNextAnnounce = (next == Long.MAX_VALUE) ? System.currentTimeMillis() + TrackerInfo.RETRY_DELAY : next;
+			return null;
+			
+		} finally {
+			mRunning.set(false);
+		}
+	}
+	
+	/**
+	 * Moves a tracker to the front of its tier.
+	 * @param tracker the tracker that has answered
+	 */
+	private void promote(TrackerInfo tracker) {
+		synchronized (mTrackers) {
+			if (!mTrackers.remove(tracker)) return;
+			
+			int i = 0;
+			while (i < mTrackers.size() && mTrackers.get(i).getTier() < tracker.getTier()) {
+				i++;
+			}
+			mTrackers.add(i, tracker);
+		}
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Returns when the next announce has to be done (ms).
+	 * @return the time of the next announce, 0 if as soon as possible
+	 */
+	public long getNextAnnounce() {
+		return mNextAnnounce;
+	}
+	
+	/**
+	 * Returns true while an announce is running.
+	 * @return true while an announce is running
+	 */
+	public boolean isRunning() {
+		return mRunning.get();
+	}
+}
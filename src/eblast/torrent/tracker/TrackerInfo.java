@@ -20,14 +20,14 @@
 package eblast.torrent.tracker;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
 
 import eblast.Convertor;
-import eblast.bencoding.BDecoder;
+import eblast.bencoding.BBufferDecoder;
 import eblast.bencoding.BEDictionary;
 import eblast.http.HTTPGet;
 import eblast.log.Log;
@@ -44,6 +44,9 @@ import eblast.torrent.peer.Peer;
  * @version 1.0 - 08.03.2011 - Initial version.
  * @version 1.1 - 15.03.2011 - Add unimplemented keys and fix InetAddress + convert IP+Port +
  * Log updates + tracker response is now stored with a dictionnary and given to the AnnounceInfo as such.
+ * @version 1.2 - 17.10.2026 - UDP trackers
+ * @version 1.3 - 17.10.2026 - Tier, next announce from the interval of the tracker, backoff after failures
+ * @version 1.4 - 17.10.2026 - Answers decoded from the received buffer by the BBufferDecoder
  */
 public class TrackerInfo {
 	
@@ -51,6 +54,10 @@ public class TrackerInfo {
 	public static final String PREFIX_UDP			= "udp://";
 	
 	private static final String DEFAULT_STATUS		= "ok";
+	
+	public static final long MIN_ANNOUNCE_INTERVAL	= 30000L;	// Lower bound of the interval given by the tracker (ms)
+	public static final long RETRY_DELAY			= 15000L;	// Delay after a failure, doubled at each failure (ms)
+	public static final long MAX_RETRY_DELAY		= 1800000L;	// 30 minutes
 
 	/**
 	 * Keywords to send to the tracker.
@@ -90,22 +97,39 @@ public class TrackerInfo {
 	private long mLastUpdate;
 	private int mSeedersNumber;
 	private int mLeechersNumber;
+	private UDPTracker mUDPTracker;		// Client of the UDP tracker, null for an HTTP tracker
+	
+	private int mTier;					// Tier of the announce-list (BEP 12), 0 is the first one
+	private int mFailures;				// Announces failed since the last success
+	private volatile long mNextAnnounce;	// When the tracker wants the next announce (ms)
+	private volatile long mMinAnnounce;		// Before, the tracker doesn't want any announce (ms)
 	
 	/**
-	 * Default constructor
+	 * Default constructor, the tracker is in the first tier.
 	 * @param torrent instance of the current torrent that we use for the tracker.
 	 * @param address IP address of the Tracker.
 	 */
 	public TrackerInfo(Torrent torrent, String address) throws TrackerInfoException {
+		this(torrent, address, 0);
+	}
+	
+	/**
+	 * Constructor of a tracker of the announce-list.
+	 * @param torrent instance of the current torrent that we use for the tracker.
+	 * @param address IP address of the Tracker.
+	 * @param tier tier of the tracker in the announce-list
+	 */
+	public TrackerInfo(Torrent torrent, String address, int tier) throws TrackerInfoException {
 		
-		// XXX When UDP will be implemented
-		//if (!address.startsWith(PREFIX_HTTP) || !address.startsWith(PREFIX_UDP)) {
-		if (!address.startsWith(PREFIX_HTTP)) {
+		if (address.startsWith(PREFIX_UDP)) {
+			mUDPTracker = UDPTracker.getShared(address);
+		} else if (!address.startsWith(PREFIX_HTTP)) {
 			throw new TrackerInfoException("Tracker " + address + " not supported");
 		}
 		
 		mTorrent = torrent;
 		mAddress = address;
+		mTier = tier;
 		
 		Log.i("Tracker created", mAddress.toString());
 	}
@@ -117,9 +141,7 @@ public class TrackerInfo {
 	 * @return the AnnounceInfo computed from the given parameters.
 	 * @throws TrackerInfoException 
 	 */
-	public AnnounceInfo getAnnounceInfo(Map<String, String> parameters) throws TrackerInfoException {
-		
-		AnnounceInfo currentAnnounceInfo = null; // Instance to return.
+	public synchronized AnnounceInfo getAnnounceInfo(Map<String, String> parameters) throws TrackerInfoException {
 		
 		// Check if the given parameters are correct.
 		for (String p: NEEDED_PARAMETERS) {
@@ -131,19 +153,38 @@ public class TrackerInfo {
 			// Prints the key and its value.
 			Log.i(p, parameters.get(p));
 		}
-
+		
+		try {
+			AnnounceInfo announce = (mUDPTracker != null) ? getUDPAnnounceInfo(parameters) : getHTTPAnnounceInfo(parameters);
+			announceSucceeded(announce);
+			return announce;
+			
+		} catch (TrackerInfoException e) {
+			announceFailed();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Announces to the HTTP tracker.
+	 * @param parameters the parameters of the announce
+	 * @return the AnnounceInfo of the answer
+	 * @throws TrackerInfoException
+	 */
+	private AnnounceInfo getHTTPAnnounceInfo(Map<String, String> parameters) throws TrackerInfoException {
+		
+		AnnounceInfo currentAnnounceInfo = null; // Instance to return.
+		
 		if (mTrackerID != null) // If there is no trackerId parameter, we add it (due to tracker restrictions).
 			parameters.put(KEY_TRACKERID, mTrackerID);
 		
-		InputStream trackerStream = null;		
 		try {
-			trackerStream = HTTPGet.openURLStream(mAddress, parameters); // Do the request to the tracker.
-			
-			BDecoder decoder = new BDecoder(trackerStream);
+			// Do the request to the tracker, the connection is kept alive for the next one.
+			ByteBuffer answer = ByteBuffer.wrap(HTTPGet.get(mAddress, parameters));
 			
 			// Get all the BEValues from the previous BEValue and put it into a wrapper
 			// that allows us to access to the data inside the BEValues by its methods.
-			BEDictionary dictionary = new BEDictionary(decoder.bdecodeMap());
+			BEDictionary dictionary = new BEDictionary(BBufferDecoder.bdecode(answer));
 			
 			// If there has been a problem during the request, throws an exception.
 			if (dictionary.contains(KEY_FAILURE_REASON)) {
@@ -184,18 +225,109 @@ public class TrackerInfo {
 			
 		} catch (IOException e) {
 			throw new TrackerInfoException("Error during the connection with the tracker " + mAddress);
-			
-		} finally{
-			try {
-				if (trackerStream != null)
-					trackerStream.close(); // We close the stream, whatever happens.
-			} catch (IOException e) {}
 		}
 		
 		mLastUpdate = new Date().getTime();
 		return currentAnnounceInfo;
 	}
 	
+	/**
+	 * Announces to the UDP tracker the same parameters as for an HTTP tracker.
+	 * @param parameters the parameters of the announce
+	 * @return the AnnounceInfo of the answer
+	 * @throws TrackerInfoException
+	 */
+	private AnnounceInfo getUDPAnnounceInfo(Map<String, String> parameters) throws TrackerInfoException {
+		int event = UDPTracker.EVENT_NONE;
+		String e = parameters.get(KEY_EVENT);
+		if (KEY_EVENT_STARTED.equals(e)) {
+			event = UDPTracker.EVENT_STARTED;
+		} else if (KEY_EVENT_COMPLETED.equals(e)) {
+			event = UDPTracker.EVENT_COMPLETED;
+		} else if (KEY_EVENT_STOPPED.equals(e)) {
+			event = UDPTracker.EVENT_STOPPED;
+		}
+		
+		AnnounceInfo announce;
+		try {
+			byte[] peerId = Arrays.copyOf(parameters.get(KEY_PEER_ID).getBytes("ISO-8859-1"), 20);
+			announce = mUDPTracker.announce(mTorrent.getInfoHash().toBytes(), peerId,
+					parseLong(parameters.get(KEY_DOWNLOADED)), parseLong(parameters.get(KEY_LEFT)), parseLong(parameters.get(KEY_UPLOADED)),
+					event, parameters.containsKey(KEY_NUMWANT) ? (int) parseLong(parameters.get(KEY_NUMWANT)) : -1,
+					(int) parseLong(parameters.get(KEY_PORT)), mTorrent);
+			
+		} catch (TrackerInfoException ex) {
+			mStatus = ex.getMessage();
+			throw ex;
+			
+		} catch (IOException ex) {
+			throw new TrackerInfoException("Error during the connection with the tracker " + mAddress);
+		}
+		
+		mStatus = DEFAULT_STATUS;
+		mSeedersNumber = announce.getComplete();
+		mLeechersNumber = announce.getIncomplete();
+		mLastUpdate = new Date().getTime();
+		return announce;
+	}
+	
+	/**
+	 * Parses a numeric parameter.
+	 * @param value value of the parameter, may be null
+	 * @return the number, 0 if it's missing or invalid
+	 */
+	private static long parseLong(String value) {
+		try {
+			return (value == null) ? 0 : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Schedules the next announce at the interval asked by the tracker.
+	 * @param announce the answer of the tracker
+	 */
+	private void announceSucceeded(AnnounceInfo announce) {
+		long now = System.currentTimeMillis();
+		long minInterval = announce.getMinInterval() * 1000L;
+		long interval = Math.max(announce.getInterval() * 1000L, minInterval);
+		
+		mFailures = 0;
+		mNextAnnounce = now + Math.max(interval, MIN_ANNOUNCE_INTERVAL);
+		mMinAnnounce = now + minInterval;
+	}
+	
+	/**
+	 * Schedules the next try after a delay doubled at each failure.
+	 */
+	private void announceFailed() {
+		long delay = Math.min(RETRY_DELAY << Math.min(mFailures, 16), MAX_RETRY_DELAY);
+		
+		mFailures++;
+		mNextAnnounce = System.currentTimeMillis() + delay;
+		mMinAnnounce = mNextAnnounce;
+	}
+	
+	/**
+	 * Returns true if the interval asked by the tracker has elapsed (or the delay after a failure).
+	 * @param now current time (ms)
+	 * @return true if the tracker expects an announce
+	 */
+	public boolean isAnnounceDue(long now) {
+		return now >= mNextAnnounce;
+	}
+	
+	/**
+	 * Returns true if the tracker accepts an announce before its interval (for an event),
+	 * that is if its min interval (or the delay after a failure) has elapsed.
+	 * @param now current time (ms)
+	 * @return true if the tracker accepts an announce
+	 */
+	public boolean isAnnounceAllowed(long now) {
+		return now >= mMinAnnounce;
+	}
+	
 	/**
 	 * Returns true if the delay is above 5 seconds, false otherwise.
 	 * @param delay delay to test.
@@ -256,4 +388,32 @@ public class TrackerInfo {
 	public int getLeechersNumber() {
 		return mLeechersNumber;
 	}
+	
+	/**
+	 * @return tier of the tracker in the announce-list, 0 for the first one
+	 */
+	public int getTier() {
+		return mTier;
+	}
+	
+	/**
+	 * @return number of announces failed since the last success
+	 */
+	public int getFailures() {
+		return mFailures;
+	}
+	
+	/**
+	 * @return when the tracker expects the next announce (ms)
+	 */
+	public long getNextAnnounce() {
+		return mNextAnnounce;
+	}
+	
+	/**
+	 * @return when the tracker accepts an announce before its interval (ms)
+	 */
+	public long getMinAnnounce() {
+		return mMinAnnounce;
+	}
 }
@@ -0,0 +1,363 @@
+/*
+ * This file is part of eBlast Project.
+ *
+ * Copyright (c) 2011 eBlast
+ *
+ * eBlast is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * eBlast is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with eBlast.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eblast.torrent.tracker;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import eblast.log.Log;
+import eblast.torrent.Torrent;
+import eblast.torrent.peer.Peer;
+
+/**
+ * Client of the UDP tracker protocol (BEP 15).
+ * <p>
+ * A connection id is asked once to the tracker, then reused for all the
+ * requests during CONNECTION_ID_LIFETIME. A request without answer is sent
+ * again with a timeout doubled each time.
+ * <p>
+ * The torrents that use the same tracker share its UDPTracker (see getShared),
+ * so they share its connection id and their requests are serialized.
+ *
+ * @author David Dieulivol <david.dieulivol@gmail.com>
+ * @author Denoréaz Thomas <thomas.denoreaz@thmx.ch>
+ * 
+ * @version 1.0 - 17.10.2026 - Initial version
+ * @version 1.1 - 17.10.2026 - Instances shared by the torrents
+ */
+public class UDPTracker {
+	
+	public static final long PROTOCOL_ID			= 0x41727101980L;	// Magic constant of the connect request
+	
+	public static final int ACTION_CONNECT			= 0;
+	public static final int ACTION_ANNOUNCE			= 1;
+	public static final int ACTION_SCRAPE			= 2;
+	public static final int ACTION_ERROR			= 3;
+	
+	public static final int EVENT_NONE				= 0;
+	public static final int EVENT_COMPLETED			= 1;
+	public static final int EVENT_STARTED			= 2;
+	public static final int EVENT_STOPPED			= 3;
+	
+	public static final long CONNECTION_ID_LIFETIME	= 60000L;	// 1 minute (ms)
+	public static final int DEFAULT_TIMEOUT			= 15000;	// First timeout (ms), doubled at each retry
+	
+	// BEP 15 allows 8 retries (one hour), but an announce thread can't wait that long.
+	public static final int DEFAULT_RETRIES			= 2;
+	
+	private static final int HEADER_SIZE			= 16;		// connection_id, action, transaction_id
+	private static final int ANSWER_HEADER_SIZE		= 8;		// action, transaction_id
+	private static final int MAX_PACKET_SIZE		= 65507;
+	
+	// ----- Instances shared by the torrents --------------------------------
+	private static final Map<String, UDPTracker> mShared = new HashMap<String, UDPTracker>();
+	
+	/**
+	 * Returns the UDPTracker of an address, the same for all the torrents.
+	 * @param address address of the tracker, "udp://host:port[/announce]"
+	 * @return the UDPTracker shared by the torrents
+	 * @throws TrackerInfoException if the address isn't a valid UDP address
+	 */
+	public static UDPTracker getShared(String address) throws TrackerInfoException {
+		UDPTracker tracker = new UDPTracker(address);
+		synchronized (mShared) {
+			UDPTracker shared = mShared.get(tracker.toString());
+			if (shared == null) {
+				shared = tracker;
+				mShared.put(tracker.toString(), tracker);
+			}
+			return shared;
+		}
+	}
+	// -----------------------------------------------------------------------
+	
+	private InetSocketAddress mAddress;
+	private DatagramSocket mSocket;
+	private Random mRandom = new Random();
+	private int mKey = mRandom.nextInt();		// Identifies us if our IP address changes
+	
+	private long mConnectionId;
+	private long mConnectionTime;				// When the connection id has been received, 0 if none
+	
+	private int mTimeout = DEFAULT_TIMEOUT;
+	private int mRetries = DEFAULT_RETRIES;
+	
+	private byte[] mReceiveBuffer = new byte[MAX_PACKET_SIZE];
+	
+	/**
+	 * Default constructor.
+	 * @param address address of the tracker, "udp://host:port[/announce]"
+	 * @throws TrackerInfoException if the address isn't a valid UDP address
+	 */
+	public UDPTracker(String address) throws TrackerInfoException {
+		if (!address.startsWith(TrackerInfo.PREFIX_UDP)) {
+			throw new TrackerInfoException("Tracker " + address + " is not an UDP tracker");
+		}
+		
+		String hostPort = address.substring(TrackerInfo.PREFIX_UDP.length());
+		int slash = hostPort.indexOf('/');
+		if (slash >= 0) {
+			hostPort = hostPort.substring(0, slash);
+		}
+		
+		int colon = hostPort.lastIndexOf(':');
+		try {
+			if (colon <= 0) throw new NumberFormatException();
+			String host = hostPort.substring(0, colon);
+			if (host.startsWith("[") && host.endsWith("]")) { // IPv6 literal
+				host = host.substring(1, host.length()-1);
+			}
+			mAddress = InetSocketAddress.createUnresolved(host, Integer.parseInt(hostPort.substring(colon+1)));
+		} catch (NumberFormatException e) {
+			throw new TrackerInfoException("Tracker " + address + " has no valid port");
+		} catch (IllegalArgumentException e) {
+			throw new TrackerInfoException("Tracker " + address + " has no valid port");
+		}
+	}
+	
+	/**
+	 * Announces ourselves to the tracker and returns its answer.
+	 * @param infoHash info hash of the torrent (20 bytes)
+	 * @param peerId our peer id (20 bytes)
+	 * @param downloaded bytes downloaded since the start
+	 * @param left bytes left to download
+	 * @param uploaded bytes uploaded since the start
+	 * @param event one of the EVENT_* constants
+	 * @param numWant number of peers wanted, -1 for the default of the tracker
+	 * @param port port on which we accept the connections
+	 * @param torrent torrent of the peers received from the tracker
+	 * @return the answer of the tracker
+	 * @throws IOException if the tracker doesn't answer
+	 * @throws TrackerInfoException if the tracker answers by an error
+	 */
+	public synchronized AnnounceInfo announce(byte[] infoHash, byte[] peerId, long downloaded, long left, long uploaded,
+			int event, int numWant, int port, Torrent torrent) throws IOException, TrackerInfoException {
+		
+		ByteBuffer body = ByteBuffer.allocate(82);
+		body.put(infoHash, 0, 20);
+		body.put(peerId, 0, 20);
+		body.putLong(downloaded);
+		body.putLong(left);
+		body.putLong(uploaded);
+		body.putInt(event);
+		body.putInt(0);				// IP address: the one of the packet
+		body.putInt(mKey);
+		body.putInt(numWant);
+		body.putShort((short) port);
+		
+		ByteBuffer answer = request(ACTION_ANNOUNCE, body.array());
+		if (answer.remaining() < 12) {
+			throw new TrackerInfoException("Announce answer too short from " + this);
+		}
+		
+		int interval = answer.getInt();
+		int leechers = answer.getInt();
+		int seeders = answer.getInt();
+		
+		// Compact peers: 4 bytes of IP address, 2 bytes of port.
+		ArrayList<Peer> peers = new ArrayList<Peer>(answer.remaining() / 6);
+		byte[] ip = new byte[4];
+		while (answer.remaining() >= 6) {
+			answer.get(ip);
+			int peerPort = answer.getShort() & 0xFFFF;
+			peers.add(new Peer(InetAddress.getByAddress(ip), peerPort, torrent));
+		}
+		
+		return new AnnounceInfo(interval, seeders, leechers, peers);
+	}
+	
+	/**
+	 * Asks the tracker the statistics of a torrent.
+	 * @param infoHash info hash of the torrent (20 bytes)
+	 * @return seeders, times completed and leechers
+	 * @throws IOException if the tracker doesn't answer
+	 * @throws TrackerInfoException if the tracker answers by an error
+	 */
+	public synchronized int[] scrape(byte[] infoHash) throws IOException, TrackerInfoException {
+		ByteBuffer answer = request(ACTION_SCRAPE, Arrays.copyOf(infoHash, 20));
+		if (answer.remaining() < 12) {
+			throw new TrackerInfoException("Scrape answer too short from " + this);
+		}
+		return new int[] {answer.getInt(), answer.getInt(), answer.getInt()};
+	}
+	
+	/**
+	 * Returns a valid connection id, asked to the tracker if the cached one has expired.
+	 * @return the connection id
+	 */
+	private long getConnectionId() throws IOException, TrackerInfoException {
+		if (mConnectionTime == 0 || System.currentTimeMillis() - mConnectionTime > CONNECTION_ID_LIFETIME) {
+			ByteBuffer answer = request(ACTION_CONNECT, new byte[0]);
+			if (answer.remaining() < 8) {
+				throw new TrackerInfoException("Connect answer too short from " + this);
+			}
+			mConnectionId = answer.getLong();
+			mConnectionTime = System.currentTimeMillis();
+		}
+		return mConnectionId;
+	}
+	
+	/**
+	 * Sends a request until the tracker answers, with a timeout doubled at each retry.
+	 * The connection id is checked again before each retry, it may have expired meanwhile.
+	 * @param action action of the request
+	 * @param body request after the header
+	 * @return the answer, positioned after its header
+	 */
+	private ByteBuffer request(int action, byte[] body) throws IOException, TrackerInfoException {
+		DatagramSocket socket = getSocket();
+		
+		for (int n = 0; n <= mRetries; n++) {
+			long connectionId = (action == ACTION_CONNECT) ? PROTOCOL_ID : getConnectionId();
+			int transactionId = mRandom.nextInt();
+			
+			ByteBuffer packet = ByteBuffer.allocate(HEADER_SIZE + body.length);
+			packet.putLong(connectionId);
+			packet.putInt(action);
+			packet.putInt(transactionId);
+			packet.put(body);
+			socket.send(new DatagramPacket(packet.array(), packet.capacity(), resolve()));
+			
+			ByteBuffer answer = receive(socket, transactionId, (long) mTimeout << n);
+			if (answer == null) {
+				Log.d("UDPTracker", "No answer from " + this + " (try " + (n+1) + ")");
+				continue;
+			}
+			
+			int answerAction = answer.getInt(0);
+			answer.position(ANSWER_HEADER_SIZE);
+			
+			if (answerAction == ACTION_ERROR) {
+				byte[] message = new byte[answer.remaining()];
+				answer.get(message);
+				mConnectionTime = 0; // The connection id may be the cause
+				throw new TrackerInfoException(new String(message, "ISO-8859-1"));
+			}
+			if (answerAction != action) {
+				throw new TrackerInfoException("Unexpected action " + answerAction + " from " + this);
+			}
+			return answer;
+		}
+		
+		mConnectionTime = 0;
+		throw new SocketTimeoutException("No answer from " + this);
+	}
+	
+	/**
+	 * Waits for the answer of a transaction, the other packets are ignored.
+	 * @return the answer, or null if the timeout has expired
+	 */
+	private ByteBuffer receive(DatagramSocket socket, int transactionId, long timeout) throws IOException {
+		long deadline = System.currentTimeMillis() + timeout;
+		DatagramPacket packet = new DatagramPacket(mReceiveBuffer, mReceiveBuffer.length);
+		
+		while (true) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) return null;
+			
+			socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+			try {
+				socket.receive(packet);
+			} catch (SocketTimeoutException e) {
+				return null;
+			}
+			
+			if (packet.getLength() >= ANSWER_HEADER_SIZE) {
+				ByteBuffer answer = ByteBuffer.wrap(Arrays.copyOf(packet.getData(), packet.getLength()));
+				if (answer.getInt(4) == transactionId) {
+					return answer;
+				}
+			}
+			packet.setLength(mReceiveBuffer.length);
+		}
+	}
+	
+	/**
+	 * Resolves the address of the tracker (again if the name couldn't be resolved before).
+	 */
+	private InetSocketAddress resolve() throws IOException {
+		if (mAddress.isUnresolved()) {
+			InetSocketAddress resolved = new InetSocketAddress(mAddress.getHostName(), mAddress.getPort());
+			if (resolved.isUnresolved()) {
+				throw new IOException("Unknown host " + mAddress.getHostName());
+			}
+			mAddress = resolved;
+		}
+		return mAddress;
+	}
+	
+	/**
+	 * Returns the socket of the requests, the same for all of them as the
+	 * connection id is bound to our address.
+	 */
+	private DatagramSocket getSocket() throws IOException {
+		if (mSocket == null || mSocket.isClosed()) {
+			mSocket = new DatagramSocket();
+		}
+		return mSocket;
+	}
+	
+	/**
+	 * Closes the socket used for the requests.
+	 */
+	public synchronized void close() {
+		if (mSocket != null) {
+			mSocket.close();
+			mSocket = null;
+		}
+		mConnectionTime = 0;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public String toString() {
+		return TrackerInfo.PREFIX_UDP + mAddress.getHostName() + ":" + mAddress.getPort();
+	}
+	
+	/************************ GETTERS / SETTERS *************************/
+	
+	/**
+	 * Changes the timeouts of the requests.
+	 * @param timeout first timeout (ms), doubled at each retry
+	 * @param retries number of times a request is sent again
+	 */
+	public synchronized void setTimeout(int timeout, int retries) {
+		mTimeout = timeout;
+		mRetries = retries;
+	}
+	
+	/**
+	 * Returns true if a connection id is cached and hasn't expired.
+	 * @return true if the next request doesn't need a connect request
+	 */
+	public synchronized boolean isConnected() {
+		return mConnectionTime != 0 && System.currentTimeMillis() - mConnectionTime <= CONNECTION_ID_LIFETIME;
+	}
+}